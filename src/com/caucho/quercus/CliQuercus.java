@@ -37,6 +37,8 @@ import com.caucho.quercus.servlet.api.QuercusHttpServletResponse;
 import com.caucho.vfs.WriteStream;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
 
 public class CliQuercus extends Quercus
 {
@@ -54,9 +56,75 @@ public class CliQuercus extends Quercus
   {
     CliQuercus quercus = new CliQuercus();
 
+    if (args.length > 0 && "--precompile".equals(args[0])) {
+      precompileMain(args, quercus);
+      return;
+    }
+
     startMain(args, quercus);
   }
 
+  /**
+   * Parses all scripts under the given directories and prints the
+   * per-file parse times, e.g. to check a deployment or to fill the
+   * program cache directory.
+   *
+   * usage: --precompile [-t threads] [-d name=value] <dir>...
+   */
+  private static void precompileMain(String []args, CliQuercus quercus)
+  {
+    ArrayList<String> pathList = new ArrayList<String>();
+
+    for (int i = 1; i < args.length; i++) {
+      if ("-t".equals(args[i]) && i + 1 < args.length) {
+        quercus.setPrecompileThreads(Integer.parseInt(args[++i]));
+      }
+      else if ("-d".equals(args[i]) && i + 1 < args.length) {
+        String arg = args[++i];
+        int eqIndex = arg.indexOf('=');
+
+        if (eqIndex >= 0)
+          quercus.setIni(arg.substring(0, eqIndex), arg.substring(eqIndex + 1));
+        else
+          quercus.setIni(arg, "");
+      }
+      else {
+        pathList.add(args[i]);
+      }
+    }
+
+    if (pathList.size() == 0) {
+      System.out.println("usage: " + CliQuercus.class.getName()
+                         + " --precompile [-t threads] [-d name=value] <dir>...");
+      return;
+    }
+
+    quercus.init();
+    quercus.start();
+
+    try {
+      for (String path : pathList) {
+        quercus.addPrecompilePath(quercus.getPwd().lookup(path));
+      }
+
+      Map<String,Long> timeMap = quercus.precompile();
+
+      long total = 0;
+
+      for (Map.Entry<String,Long> entry : timeMap.entrySet()) {
+        total += entry.getValue();
+
+        System.out.println(String.format("%10dus %s",
+                                         entry.getValue(), entry.getKey()));
+      }
+
+      System.out.println(String.format("%10dus total, %d files",
+                                       total, timeMap.size()));
+    } finally {
+      quercus.close();
+    }
+  }
+
   /**
    * Hard-coded to true for CLI according to php.net.
    */
@@ -31,7 +31,7 @@ package com.caucho.quercus;
 /**
  * Records the source file location of a statement or expression.
  */
-public class Location {
+public class Location implements java.io.Serializable {
   public static final Location UNKNOWN = new Location();
 
   private final String _fileName;
@@ -117,6 +117,16 @@ public class Location {
     return _fileName == null || _lineNumber <= 0;
   }
 
+  private Object readResolve()
+  {
+    // Expr and Statement compare against the UNKNOWN singleton
+    if (_fileName == null && _userPath == null && _lineNumber == 0
+        && _className == null && _functionName == null)
+      return UNKNOWN;
+    else
+      return this;
+  }
+
   public String toString()
   {
     return "Location[" + _fileName + ":" + _lineNumber + "]";
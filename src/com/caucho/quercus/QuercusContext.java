@@ -36,10 +36,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -68,6 +70,7 @@ import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.ExprFactory;
 import com.caucho.quercus.function.AbstractFunction;
 import com.caucho.quercus.lib.db.JavaSqlDriverWrapper;
+import com.caucho.quercus.lib.db.JdbcConnectionPool;
 import com.caucho.quercus.lib.db.JdbcDriverContext;
 import com.caucho.quercus.lib.file.FileModule;
 import com.caucho.quercus.lib.regexp.RegexpModule;
@@ -80,6 +83,7 @@ import com.caucho.quercus.module.ModuleStartupListener;
 import com.caucho.quercus.module.QuercusModule;
 import com.caucho.quercus.page.InterpretedPage;
 import com.caucho.quercus.page.PageManager;
+import com.caucho.quercus.page.PagePrecompiler;
 import com.caucho.quercus.page.QuercusPage;
 import com.caucho.quercus.parser.QuercusParser;
 import com.caucho.quercus.program.ClassDef;
@@ -193,6 +197,9 @@ public class QuercusContext
   //    = new LruCache<DefinitionKey,SoftReference<DefinitionState>>(4096);
 
   private long _defCacheHitCount;
+
+  // bumped when definitions may change, invalidating call-site caches
+  private final AtomicInteger _definitionGeneration = new AtomicInteger();
   private long _defCacheMissCount;
 
   // XXX: needs to be a timed LRU
@@ -211,7 +218,14 @@ public class QuercusContext
   private boolean _isLooseParse;
   private boolean _isRequireSource;
 
+  private ArrayList<Path> _precompilePathList = new ArrayList<Path>();
+  private int _precompileThreads;
+
   private boolean _isConnectionPool = true;
+  private int _connectionPoolMax = -1;
+  private int _connectionPoolMaxIdle = -1;
+  private long _connectionPoolMaxIdleTime = -1;
+  private int _preparedStatementCacheSize = -1;
 
   private DataSource _database;
 
@@ -542,6 +556,59 @@ public class QuercusContext
     _pageManager.setCompileFailover(isCompileFailover);
   }
 
+  /**
+   * Adds a file or directory to parse at startup, see precompile().
+   */
+  public void addPrecompilePath(Path path)
+  {
+    _precompilePathList.add(path);
+  }
+
+  /**
+   * Returns the files and directories to parse at startup.
+   */
+  public List<Path> getPrecompilePathList()
+  {
+    return _precompilePathList;
+  }
+
+  /**
+   * Sets the number of threads used to precompile, 0 for one per CPU.
+   */
+  public void setPrecompileThreads(int threads)
+  {
+    _precompileThreads = threads;
+  }
+
+  /**
+   * Parses, or compiles, every script under the configured precompile
+   * paths and fills the page cache.  Returns the parse time in
+   * microseconds for each file.
+   */
+  public Map<String,Long> precompile()
+  {
+    return precompile(_precompilePathList);
+  }
+
+  /**
+   * Parses, or compiles, every script under the given paths.
+   */
+  public Map<String,Long> precompile(List<Path> pathList)
+  {
+    PagePrecompiler precompiler = new PagePrecompiler(_pageManager);
+    precompiler.setThreads(_precompileThreads);
+
+    return precompiler.precompile(pathList);
+  }
+
+  /**
+   * Sets the directory where parsed programs are cached across restarts.
+   */
+  public void setProgramCacheDirectory(Path dir)
+  {
+    _pageManager.setProgramCacheDirectory(dir);
+  }
+
   /**
    * Returns the expected encoding of php scripts.
    */
@@ -692,10 +759,19 @@ public class QuercusContext
 
         if (ds instanceof DataSource)
           database = (DataSource) ds;
+        else if (_isConnectionPool)
+          database = createConnectionPool((java.sql.Driver) ds, url);
         else
           database = new JavaSqlDriverWrapper((java.sql.Driver) ds, url);
 
-        _databaseMap.put(key, database);
+        DataSource oldDatabase = _databaseMap.putIfAbsent(key, database);
+
+        if (oldDatabase != null) {
+          if (database instanceof JdbcConnectionPool)
+            ((JdbcConnectionPool) database).close();
+
+          return oldDatabase;
+        }
 
         return database;
       } catch (ClassNotFoundException e) {
@@ -708,11 +784,25 @@ public class QuercusContext
     }
   }
 
+  private JdbcConnectionPool createConnectionPool(java.sql.Driver driver,
+                                                  String url)
+  {
+    JdbcConnectionPool pool = new JdbcConnectionPool(driver, url);
+
+    pool.setMaxConnections(_connectionPoolMax);
+    pool.setMaxIdle(_connectionPoolMaxIdle);
+    pool.setMaxIdleTime(_connectionPoolMaxIdleTime);
+    pool.setStatementCacheSize(_preparedStatementCacheSize);
+
+    return pool;
+  }
+
   /**
    * Marks the connection for removal from the connection pool.
    */
   public void markForPoolRemoval(Connection conn)
   {
+    JdbcConnectionPool.markForPoolRemoval(conn);
   }
 
   /**
@@ -779,6 +869,31 @@ public class QuercusContext
     _pageManager.setPageCacheSize(size);
   }
 
+  /**
+   * Sets the max estimated memory of the page cache in bytes.
+   */
+  public void setPageCacheMemory(long bytes)
+  {
+    _pageManager.setPageCacheMemory(bytes);
+  }
+
+  /**
+   * Sets how often cached pages are checked for modification in
+   * milliseconds: 0 on every request, negative to never check.
+   */
+  public void setPageRevalidateInterval(long interval)
+  {
+    _pageManager.setRevalidateInterval(interval);
+  }
+
+  /**
+   * Drops all cached pages.
+   */
+  public void clearPageCache()
+  {
+    _pageManager.clearCache();
+  }
+
   /**
    * Gets the max size of the regexp cache.
    */
@@ -827,6 +942,42 @@ public class QuercusContext
     return _isConnectionPool;
   }
 
+  /**
+   * Sets the max number of open connections per driver url of the
+   * built-in connection pool.
+   */
+  public void setConnectionPoolMax(int max)
+  {
+    _connectionPoolMax = max;
+  }
+
+  /**
+   * Sets the max number of idle connections per driver url of the
+   * built-in connection pool.
+   */
+  public void setConnectionPoolMaxIdle(int max)
+  {
+    _connectionPoolMaxIdle = max;
+  }
+
+  /**
+   * Sets how long the built-in connection pool keeps an idle
+   * connection open, in milliseconds.
+   */
+  public void setConnectionPoolMaxIdleTime(long timeout)
+  {
+    _connectionPoolMaxIdleTime = timeout;
+  }
+
+  /**
+   * Sets the max number of idle prepared statements the built-in
+   * connection pool caches per connection, 0 to disable.
+   */
+  public void setPreparedStatementCacheSize(int size)
+  {
+    _preparedStatementCacheSize = size;
+  }
+
   private void initJavaClasses()
   {
     for (Map.Entry<String, Class<?>> entry : _javaInitClassMap.entrySet()) {
@@ -1207,6 +1358,17 @@ public class QuercusContext
   public void clearDefinitionCache()
   {
     // _defCache.clear();
+
+    _definitionGeneration.incrementAndGet();
+  }
+
+  /**
+   * Returns the generation of the definitions, which changes when the
+   * definition cache is cleared.
+   */
+  public int getDefinitionGeneration()
+  {
+    return _definitionGeneration.get();
   }
 
   /**
@@ -2037,7 +2199,7 @@ public class QuercusContext
       ConstStringValue value = _stringMap.get(name);
 
       if (value == null) {
-        value = new ConstStringValue(name);
+        value = ConstStringValue.intern(name);
 
         _stringMap.put(name, value);
       }
@@ -2221,6 +2383,11 @@ public class QuercusContext
     _sessionManager.close();
     _pageManager.close();
 
+    for (DataSource database : _databaseMap.values()) {
+      if (database instanceof JdbcConnectionPool)
+        ((JdbcConnectionPool) database).close();
+    }
+
     EnvTimeoutThread envTimeoutThread = _envTimeoutThread;
     _envTimeoutThread = null;
 
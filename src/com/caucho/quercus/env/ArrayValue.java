@@ -1362,6 +1362,8 @@ abstract public class ArrayValue extends Value {
     for (Entry entry = getHead(); entry != null; entry = entry._next) {
       entry.getKey().serialize(env, sb);
       entry.getRawValue().serialize(env, sb, serializeMap);
+
+      serializeMap.flush(sb);
     }
 
     sb.append("}");
@@ -1434,6 +1436,8 @@ abstract public class ArrayValue extends Value {
 
       value.jsonEncode(env, context, sb);
       length++;
+
+      context.flush(env, sb);
     }
 
     sb.append(']');
@@ -1459,6 +1463,8 @@ abstract public class ArrayValue extends Value {
       sb.append(':');
       entry.getValue().jsonEncode(env, context, sb);
       length++;
+
+      context.flush(env, sb);
     }
 
     sb.append('}');
@@ -1667,7 +1673,11 @@ abstract public class ArrayValue extends Value {
   public static final class Entry
     implements Map.Entry<Value,Value>, Serializable
   {
-    private final Value _key;
+    // integer keys are stored as _index and their LongValue created lazily
+    private Value _key;
+    private final long _index;
+    private final boolean _isIndex;
+    private final int _hash;
 
     private Value _value;
     // Var _var;
@@ -1675,27 +1685,55 @@ abstract public class ArrayValue extends Value {
     Entry _prev;
     private Entry _next;
 
-    private Entry _nextHash;
-
     public Entry(Value key)
     {
-      _key = key;
-      _value = NullValue.NULL;
+      this(key, NullValue.NULL);
     }
 
     public Entry(Value key, Value value)
     {
       _key = key;
       _value = value;
+
+      if (key instanceof LongValue) {
+        _isIndex = true;
+        _index = key.toLong();
+        _hash = hash(_index);
+      }
+      else {
+        _isIndex = false;
+        _index = 0;
+        _hash = key.hashCode();
+      }
+    }
+
+    public Entry(long index)
+    {
+      _index = index;
+      _isIndex = true;
+      _hash = hash(index);
+
+      _value = NullValue.NULL;
     }
 
     public Entry(Entry entry)
     {
       _key = entry._key;
+      _index = entry._index;
+      _isIndex = entry._isIndex;
+      _hash = entry._hash;
 
       _value = entry._value.copyArrayItem();
     }
 
+    /**
+     * Returns the hash of an integer key, matching LongValue.hashCode().
+     */
+    public static int hash(long index)
+    {
+      return (int) (17 * index + 65537 * (index >> 32));
+    }
+
     public final Entry getNext()
     {
       return _next;
@@ -1716,14 +1754,28 @@ abstract public class ArrayValue extends Value {
       _prev = prev;
     }
 
-    public final Entry getNextHash()
+    /**
+     * Returns the cached hash of the key.
+     */
+    public final int getHash()
+    {
+      return _hash;
+    }
+
+    /**
+     * Returns true for an integer key.
+     */
+    public final boolean isIndex()
     {
-      return _nextHash;
+      return _isIndex;
     }
 
-    public final void setNextHash(Entry next)
+    /**
+     * Returns the integer key.
+     */
+    public final long getIndex()
     {
-      _nextHash = next;
+      return _index;
     }
 
     public Value getRawValue()
@@ -1740,7 +1792,14 @@ abstract public class ArrayValue extends Value {
 
     public Value getKey()
     {
-      return _key;
+      Value key = _key;
+
+      if (key == null) {
+        key = LongValue.create(_index);
+        _key = key;
+      }
+
+      return key;
     }
 
     public Value toValue()
@@ -1891,10 +1950,10 @@ abstract public class ArrayValue extends Value {
       printDepth(out, 2 * depth);
       out.print("[");
 
-      if (_key instanceof StringValue)
+      if (! _isIndex)
         out.print("\"" + _key + "\"");
       else
-        out.print(_key);
+        out.print(_index);
 
       out.println("]=>");
 
@@ -1911,7 +1970,7 @@ abstract public class ArrayValue extends Value {
     {
       printDepth(out, 4 * (depth + 1));
       out.print("[");
-      out.print(_key);
+      out.print(getKey());
       out.print("] => ");
       if (getRawValue() != null) {
         getRawValue().printR(env, out, depth + 2, valueSet);
@@ -35,6 +35,7 @@ import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
 import com.caucho.util.RandomUtil;
 
@@ -54,6 +55,12 @@ public class ArrayValueImpl extends ArrayValue
   // save memory on short arrays
   private static final int MIN_HASH = 4;
 
+  // initial capacity of a packed list
+  private static final int PACKED_SIZE = 8;
+
+  // cap on a caller's size hint, which may come from untrusted input
+  private static final int MAX_SIZE_HINT = 64 * 1024;
+
   private Entry []_entries;
   private int _hashMask;
 
@@ -61,11 +68,23 @@ public class ArrayValueImpl extends ArrayValue
   private long _nextAvailableIndex;
   private boolean _isDirty;
 
+  // copies sharing the dirty storage, or null if an uncounted owner
+  // like a ConstArrayValue may also hold it
+  private ShareCount _share;
+
   private Entry _head;
   private Entry _tail;
 
   private ConstArrayValue _constSource;
 
+  // packed list: keys are exactly 0 .. _size - 1 and no value is a Var.
+  // _head, _tail and _entries are unused until the list is unpacked.
+  private Value []_packed;
+  private int _packedCursor;
+
+  // expected number of entries, used for the first packed list or index
+  private int _sizeHint;
+
   public ArrayValueImpl()
   {
     /*
@@ -74,17 +93,15 @@ public class ArrayValueImpl extends ArrayValue
     */
   }
 
+  /**
+   * Creates an array expecting the given number of entries.  The packed
+   * list or hash index is sized from the hint when it's first needed,
+   * so filling the array doesn't regrow it.
+   */
   public ArrayValueImpl(int size)
   {
-    /*
-    int capacity = DEFAULT_SIZE;
-
-    while (capacity < 4 * size)
-      capacity *= 2;
-
-    _entries = new Entry[capacity];
-    _hashMask = _entries.length - 1;
-    */
+    if (size > 0)
+      _sizeHint = Math.min(size, MAX_SIZE_HINT);
   }
 
   public ArrayValueImpl(ArrayValue source)
@@ -93,7 +110,12 @@ public class ArrayValueImpl extends ArrayValue
 
     for (Entry ptr = source.getHead(); ptr != null; ptr = ptr.getNext()) {
       // php/0662 for copy
-      Entry entry = createNewEntry(ptr.getKey());
+      Entry entry;
+
+      if (ptr.isIndex())
+        entry = createNewEntry(ptr.getIndex());
+      else
+        entry = createNewEntry(ptr.getKey());
 
       /*
       if (ptr._var != null)
@@ -112,8 +134,28 @@ public class ArrayValueImpl extends ArrayValue
 
   protected void copyFrom(ArrayValueImpl source)
   {
-    if (! source._isDirty)
-      source._isDirty = true;
+    if (source instanceof ConstArrayValue) {
+      // const arrays are shared between threads, so they're never counted
+      if (! source._isDirty)
+        source._isDirty = true;
+
+      _share = null;
+    }
+    else {
+      if (! source._isDirty) {
+        source._isDirty = true;
+        source._share = new ShareCount();
+      }
+
+      ShareCount share = source._share;
+
+      if (share != null)
+        share._count++;
+
+      // a const copy is a permanent owner, so its count is never released
+      if (! (this instanceof ConstArrayValue))
+        _share = share;
+    }
 
     _isDirty = true;
 
@@ -126,6 +168,9 @@ public class ArrayValueImpl extends ArrayValue
 
     _tail = source._tail;
     _nextAvailableIndex = source._nextAvailableIndex;
+
+    _packed = source._packed;
+    _packedCursor = source._packedCursor;
   }
 
   public ArrayValueImpl(ConstArrayValue source)
@@ -240,6 +285,31 @@ public class ArrayValueImpl extends ArrayValue
 
     _isDirty = false;
 
+    ShareCount share = _share;
+    _share = null;
+
+    if (share != null) {
+      // every other copy has already detached, so the storage is ours
+      if (share._count <= 1)
+        return;
+
+      share._count--;
+    }
+
+    Value []packed = _packed;
+
+    if (packed != null) {
+      int size = _size;
+
+      _packed = new Value[packed.length];
+
+      for (int i = 0; i < size; i++) {
+        _packed[i] = packed[i].copyArrayItem();
+      }
+
+      return;
+    }
+
     Entry []entries = _entries;
 
     if (entries != null)
@@ -251,20 +321,8 @@ public class ArrayValueImpl extends ArrayValue
     for (Entry ptr = _head; ptr != null; ptr = ptr.getNext()) {
       Entry ptrCopy = new Entry(ptr);
 
-      if (entries != null) {
-        int hash = ptr.getKey().hashCode() & _hashMask;
-
-        Entry head = entries[hash];
-
-        if (head != null) {
-          ptrCopy.setNextHash(head);
-        }
-
-        entries[hash] = ptrCopy;
-      }
-      else if (prev != null) {
-        prev.setNextHash(ptrCopy);
-      }
+      if (entries != null)
+        insertHash(entries, _hashMask, ptrCopy);
 
       if (prev == null) {
         setCurrent(ptrCopy);
@@ -284,6 +342,112 @@ public class ArrayValueImpl extends ArrayValue
     _entries = entries;
   }
 
+  /**
+   * Releases this array's claim on storage shared with its copies.
+   * The caller guarantees this array is no longer reachable, so the last
+   * remaining copy can be written in place instead of being cloned.
+   */
+  public void releaseCopy()
+  {
+    ShareCount share = _share;
+
+    if (share != null) {
+      _share = null;
+
+      share._count--;
+    }
+  }
+
+  /**
+   * Returns true if the array is stored as a packed list.
+   */
+  public final boolean isPacked()
+  {
+    return _packed != null;
+  }
+
+  /**
+   * Starts a packed list if the array is empty and key is the first index.
+   */
+  private void startPacked(Value key)
+  {
+    if (_head == null
+        && _size == 0
+        && _nextAvailableIndex == 0
+        && key instanceof LongValue
+        && key.toLong() == 0) {
+      _packed = new Value[Math.max(PACKED_SIZE, _sizeHint)];
+      _entries = null;
+      _packedCursor = 0;
+    }
+  }
+
+  /**
+   * Returns the packed slot for the key, appending a NULL slot when the key
+   * is the next index, or -1 if the key doesn't fit the packed list.
+   */
+  private int packedSlot(Value key)
+  {
+    if (! (key instanceof LongValue))
+      return -1;
+
+    long index = key.toLong();
+    int size = _size;
+
+    if (index < 0 || size < index)
+      return -1;
+
+    if (index == size) {
+      Value []packed = _packed;
+
+      if (size == packed.length) {
+        _packed = new Value[2 * size];
+        System.arraycopy(packed, 0, _packed, 0, size);
+      }
+
+      _packed[size] = NullValue.NULL;
+      _size = size + 1;
+      _nextAvailableIndex = _size;
+    }
+
+    return (int) index;
+  }
+
+  /**
+   * Converts a packed list to the linked, hashed entry form.
+   */
+  protected final void unpack()
+  {
+    Value []packed = _packed;
+
+    if (packed == null)
+      return;
+
+    int size = _size;
+    int cursor = _packedCursor;
+
+    _packed = null;
+    _packedCursor = 0;
+
+    _size = 0;
+    _entries = null;
+    _head = _tail = null;
+    _nextAvailableIndex = 0;
+
+    Entry current = null;
+
+    for (int i = 0; i < size; i++) {
+      Entry entry = createNewEntry(i);
+
+      entry.setValue(packed[i]);
+
+      if (i == cursor)
+        current = entry;
+    }
+
+    setCurrent(current);
+  }
+
   /**
    * Returns the type.
    */
@@ -437,6 +601,8 @@ public class ArrayValueImpl extends ArrayValue
   public void clear()
   {
     if (_isDirty) {
+      releaseCopy();
+
       _isDirty = false;
     }
 
@@ -446,6 +612,9 @@ public class ArrayValueImpl extends ArrayValue
     _head = _tail = null;
     setCurrent(null);
 
+    _packed = null;
+    _packedCursor = 0;
+
     _nextAvailableIndex = 0;
   }
 
@@ -469,6 +638,21 @@ public class ArrayValueImpl extends ArrayValue
     if (key instanceof UnsetValue) // php/4a4h
       key = createTailKey();
 
+    if (_packed == null)
+      startPacked(key.toKey());
+
+    if (_packed != null) {
+      int slot = value instanceof Var ? -1 : packedSlot(key.toKey());
+
+      if (slot >= 0) {
+        _packed[slot] = _packed[slot].set(value);
+
+        return this;
+      }
+
+      unpack();
+    }
+
     Entry entry = createEntry(key);
 
     // php/0434
@@ -487,6 +671,8 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    unpack();
+
     _size++;
 
     Entry []entries = _entries;
@@ -521,6 +707,8 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    unpack();
+
     int index = 0;
 
     ArrayValueImpl result = new ArrayValueImpl();
@@ -537,6 +725,9 @@ public class ArrayValueImpl extends ArrayValue
       else if (index < end) {
         _size--;
 
+        if (_entries != null)
+          removeHash(ptr);
+
         Entry prev = ptr.getPrev();
         Entry next = ptr.getNext();
 
@@ -612,6 +803,21 @@ public class ArrayValueImpl extends ArrayValue
   {
     ArrayValueImpl array = new ArrayValueImpl();
 
+    Value []packed = _packed;
+
+    if (packed != null) {
+      int tail = Math.min(end, _size);
+
+      for (int i = Math.max(start, 0); i < tail; i++) {
+        if (isPreserveKeys)
+          array.put(LongValue.create(i), packed[i].toValue());
+        else
+          array.put(packed[i].toValue());
+      }
+
+      return array;
+    }
+
     int i = 0;
     for (Entry ptr = _head; i < end && ptr != null; ptr = ptr.getNext()) {
       if (start > i++)
@@ -642,6 +848,15 @@ public class ArrayValueImpl extends ArrayValue
     //if (isTop)
       //return new ArgGetValue(this, index);
 
+    if (_packed != null) {
+      Value value = get(index);
+
+      if (! isTop && value.isset())
+        return value;
+      else
+        return new ArgGetValue(this, index);
+    }
+
     Entry entry = getEntry(index);
 
     if (entry != null) {
@@ -690,6 +905,25 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_packed != null) {
+      int slot = packedSlot(index.toKey());
+
+      if (slot >= 0) {
+        Value value = _packed[slot].toValue();
+        Value array = value.toAutoArray();
+
+        if (value != array) {
+          _packed[slot] = _packed[slot].set(array);
+
+          return array;
+        }
+        else if (! array.isString())
+          return array;
+      }
+
+      unpack();
+    }
+
     Entry entry = createEntry(index);
 
     Value value = entry.toValue();
@@ -730,6 +964,18 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_head != null) {
+      // the tail index is larger than any key, so no lookup is needed
+      if (_nextAvailableIndex < 0)
+        updateNextAvailableIndex();
+
+      Entry entry = createNewEntry(_nextAvailableIndex);
+
+      entry.set(value);
+
+      return value;
+    }
+
     Value key = createTailKey();
 
     append(key, value);
@@ -786,31 +1032,29 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
-    Entry []entries = _entries;
-    Entry entry;
+    Value []packed = _packed;
 
-    if (entries != null) {
-      int hash = key.hashCode() & _hashMask;
+    if (packed != null) {
+      if (key instanceof LongValue) {
+        long index = key.toLong();
 
-      entry = entries[hash];
-    }
-    else {
-      entry = _head;
-    }
+        if (0 <= index && index < _size)
+          return packed[(int) index].toValue();
+      }
 
-    for (; entry != null; entry = entry.getNextHash()) {
-      Value entryKey = entry.getKey();
+      return UnsetValue.UNSET;
+    }
 
-      if (key == entryKey || key.equals(entryKey)) {
-        //Var var = entry._var;
+    Entry entry = findEntry(key);
 
-        //return var != null ? var.toValue() : entry._value;
-        // return entry._value.toValue(); // php/39a1
+    if (entry != null) {
+      //Var var = entry._var;
 
-        // 4.0.4 - _value.toValue() is marginally faster than _var
-        return entry.toValue();
+      //return var != null ? var.toValue() : entry._value;
+      // return entry._value.toValue(); // php/39a1
 
-      }
+      // 4.0.4 - _value.toValue() is marginally faster than _var
+      return entry.toValue();
     }
 
     return UnsetValue.UNSET;
@@ -825,29 +1069,28 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
-    Entry []entries = _entries;
-    Entry entry;
+    Value []packed = _packed;
 
-    if (entries != null) {
-      int hashMask = _hashMask;
-      int hash = key.hashCode() & hashMask;
+    if (packed != null) {
+      if (key instanceof LongValue) {
+        long index = key.toLong();
 
-      entry = entries[hash];
+        if (0 <= index && index < _size)
+          return packed[(int) index];
+      }
+
+      return UnsetValue.UNSET;
     }
-    else
-      entry = _head;
 
-    for (; entry != null; entry = entry.getNextHash()) {
-      Value entryKey = entry.getKey();
+    Entry entry = findEntry(key);
 
-      if (key == entryKey || key.equals(entryKey)) {
-        return entry.getRawValue();
-        /*
-          Var var = entry._var;
+    if (entry != null) {
+      return entry.getRawValue();
+      /*
+        Var var = entry._var;
 
-          return var != null ? var : entry._value;
-        */
-      }
+        return var != null ? var : entry._value;
+      */
     }
 
     return UnsetValue.UNSET;
@@ -863,6 +1106,17 @@ public class ArrayValueImpl extends ArrayValue
   @Override
   public Value contains(Value value)
   {
+    Value []packed = _packed;
+
+    if (packed != null) {
+      for (int i = 0; i < _size; i++) {
+        if (packed[i].toValue().eq(value))
+          return LongValue.create(i);
+      }
+
+      return NullValue.NULL;
+    }
+
     for (Entry entry = getHead(); entry != null; entry = entry.getNext()) {
       if (entry.getValue().eq(value))
         return entry.getKey();
@@ -881,6 +1135,17 @@ public class ArrayValueImpl extends ArrayValue
   @Override
   public Value containsStrict(Value value)
   {
+    Value []packed = _packed;
+
+    if (packed != null) {
+      for (int i = 0; i < _size; i++) {
+        if (packed[i].toValue().eql(value))
+          return LongValue.create(i);
+      }
+
+      return NullValue.NULL;
+    }
+
     for (Entry entry = getHead(); entry != null; entry = entry.getNext()) {
       if (entry.getValue().eql(value))
         return entry.getKey();
@@ -899,6 +1164,12 @@ public class ArrayValueImpl extends ArrayValue
   @Override
   public Value containsKey(Value key)
   {
+    if (_packed != null) {
+      Value value = get(key);
+
+      return value != UnsetValue.UNSET ? value : null;
+    }
+
     Entry entry = getEntry(key);
 
     if (entry != null)
@@ -912,27 +1183,80 @@ public class ArrayValueImpl extends ArrayValue
    */
   private Entry getEntry(Value key)
   {
-    key = key.toKey();
+    unpack();
+
+    return findEntry(key.toKey());
+  }
+
+  /**
+   * Finds the entry for a key which has already been converted by toKey().
+   */
+  private Entry findEntry(Value key)
+  {
+    if (key instanceof LongValue)
+      return findEntry(key.toLong());
+
+    int hash = key.hashCode();
 
     Entry []entries = _entries;
-    Entry entry;
 
-    if (entries != null) {
-      int hash = key.hashCode() & _hashMask;
+    if (entries == null) {
+      for (Entry entry = _head; entry != null; entry = entry.getNext()) {
+        if (entry.getHash() == hash
+            && ! entry.isIndex()
+            && (key == entry.getKey() || key.equals(entry.getKey()))) {
+          return entry;
+        }
+      }
 
-      entry = entries[hash];
+      return null;
     }
-    else
-      entry = _head;
 
-    for (; entry != null; entry = entry.getNextHash()) {
-      Value entryKey = entry.getKey();
+    int hashMask = _hashMask;
+
+    for (int i = hash & hashMask; ; i = (i + 1) & hashMask) {
+      Entry entry = entries[i];
 
-      if (key == entryKey || key.equals(entryKey))
+      if (entry == null)
+        return null;
+      else if (entry.getHash() == hash
+               && ! entry.isIndex()
+               && (key == entry.getKey() || key.equals(entry.getKey()))) {
         return entry;
+      }
     }
+  }
 
-    return null;
+  /**
+   * Finds the entry for an integer key.
+   */
+  private Entry findEntry(long index)
+  {
+    Entry []entries = _entries;
+
+    if (entries == null) {
+      for (Entry entry = _head; entry != null; entry = entry.getNext()) {
+        if (entry.isIndex() && entry.getIndex() == index)
+          return entry;
+      }
+
+      return null;
+    }
+
+    int hash = Entry.hash(index);
+    int hashMask = _hashMask;
+
+    for (int i = hash & hashMask; ; i = (i + 1) & hashMask) {
+      Entry entry = entries[i];
+
+      if (entry == null)
+        return null;
+      else if (entry.getHash() == hash
+               && entry.isIndex()
+               && entry.getIndex() == index) {
+        return entry;
+      }
+    }
   }
 
   /**
@@ -946,40 +1270,42 @@ public class ArrayValueImpl extends ArrayValue
 
     key = key.toKey();
 
-    Entry []entries = _entries;
-    Entry entry;
-
-    int hash = key.hashCode() & _hashMask;
+    Value []packed = _packed;
 
-    if (entries != null) {
-      entry = entries[hash];
-    }
-    else
-      entry = _head;
+    if (packed != null) {
+      if (! (key instanceof LongValue))
+        return UnsetValue.UNSET;
 
-    Entry prevHash = null;
+      long index = key.toLong();
 
-    for (; entry != null; entry = entry.getNextHash()) {
-      Value entryKey = entry.getKey();
+      if (index < 0 || _size <= index)
+        return UnsetValue.UNSET;
+      else if (index == _size - 1) {
+        // removing the tail keeps the list packed
+        Value value = packed[--_size].toValue();
+        packed[_size] = null;
 
-      if (key == entryKey || key.equals(entryKey)) {
-        if (prevHash != null)
-          prevHash.setNextHash(entry.getNextHash());
-        else if (entries != null)
-          entries[hash] = entry.getNextHash();
-        else
-          _head = entry.getNextHash();
+        _nextAvailableIndex = _size;
+        _packedCursor = 0;
 
-        return removeEntry(key, entry);
+        return value;
       }
 
-      prevHash = entry;
+      unpack();
     }
 
-    return UnsetValue.UNSET;
+    Entry entry = findEntry(key);
+
+    if (entry == null)
+      return UnsetValue.UNSET;
+
+    if (_entries != null)
+      removeHash(entry);
+
+    return removeEntry(entry);
   }
 
-  private Value removeEntry(Value key, Entry entry)
+  private Value removeEntry(Entry entry)
   {
     Entry next = entry.getNext();
     Entry prev = entry.getPrev();
@@ -1003,7 +1329,7 @@ public class ArrayValueImpl extends ArrayValue
 
     Value value = entry.getValue();
 
-    if (key.nextIndex(-1) == _nextAvailableIndex) {
+    if (entry.isIndex() && entry.getIndex() + 1 == _nextAvailableIndex) {
       _nextAvailableIndex = -1;
     }
 
@@ -1019,6 +1345,15 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_packed != null) {
+      Var var = getPackedVar(index);
+
+      if (var != null)
+        return var;
+
+      unpack();
+    }
+
     Entry entry = createEntry(index);
     // quercus/0431
 
@@ -1034,12 +1369,39 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_packed != null) {
+      Var var = getPackedVar(index);
+
+      if (var != null)
+        return var;
+
+      unpack();
+    }
+
     Entry entry = createEntry(index);
     // quercus/0431
 
     return entry.toVar(); // _value.toSimpleVar();
   }
 
+  /**
+   * Returns the reference for a packed slot, storing the Var in the slot
+   * as Entry.toVar() does, or null if the key isn't in or just past the
+   * packed list.
+   */
+  private Var getPackedVar(Value index)
+  {
+    int slot = packedSlot(index.toKey());
+
+    if (slot < 0)
+      return null;
+
+    Var var = _packed[slot].toVar();
+    _packed[slot] = var;
+
+    return var;
+  }
+
   /**
    * Creates the entry for a key.
    */
@@ -1054,54 +1416,43 @@ public class ArrayValueImpl extends ArrayValue
 
     key = key.toKey();
 
-    int hash = key.hashCode();
-
-    int hashMask = _hashMask;
-
-    hash = hash & hashMask;
+    Entry entry = findEntry(key);
 
-    Entry []entries = _entries;
-    Entry entry;
-
-    if (entries != null) {
-      entry = entries[hash];
-    }
-    else {
-      entry = _head;
-    }
+    if (entry != null)
+      return entry;
 
-    for (; entry != null; entry = entry.getNextHash()) {
-      Value entryKey = entry.getKey();
+    return linkEntry(new Entry(key));
+  }
 
-      if (key == entryKey)
-        return entry;
+  private Entry createNewEntry(Value key)
+  {
+    return linkEntry(new Entry(key.toKey()));
+  }
 
-      if (key.equals(entryKey))
-        return entry;
-    }
+  /**
+   * Creates an entry for an integer key known not to be in the array.
+   */
+  private Entry createNewEntry(long index)
+  {
+    return linkEntry(new Entry(index));
+  }
 
+  /**
+   * Adds a new entry to the hash index and the tail of the entry list.
+   */
+  private Entry linkEntry(Entry newEntry)
+  {
     _size++;
 
-    Entry newEntry = new Entry(key);
-    if (_nextAvailableIndex >= 0)
-      _nextAvailableIndex = key.nextIndex(_nextAvailableIndex);
-
-    if (_entries == null && _size < MIN_HASH) {
-      if (_tail != null)
-        _tail.setNextHash(newEntry);
-    }
-    else {
-      if (_entries == null || _entries.length <= 2 * _size) {
+    if (_entries != null || MIN_HASH <= _size) {
+      if (_entries == null || _entries.length <= 2 * _size)
         expand();
-        hash = key.hashCode() & _hashMask;
-      }
-
-      Entry head = _entries[hash];
 
-      newEntry.setNextHash(head);
-      _entries[hash] = newEntry;
+      insertHash(_entries, _hashMask, newEntry);
     }
 
+    updateNextAvailableIndex(newEntry);
+
     if (_head == null) {
       newEntry.setPrev(null);
       newEntry.setNext(null);
@@ -1121,88 +1472,94 @@ public class ArrayValueImpl extends ArrayValue
     return newEntry;
   }
 
-  private Entry createNewEntry(Value key)
+  private void expand()
   {
-    key = key.toKey();
-
-    int hashMask = _hashMask;
-    int hash = key.hashCode() & hashMask;
-
-    _size++;
-
-    Entry newEntry = new Entry(key);
-    if (_nextAvailableIndex >= 0)
-      _nextAvailableIndex = key.nextIndex(_nextAvailableIndex);
+    Entry []entries = _entries;
 
-    if (_entries == null && _size < MIN_HASH) {
-      if (_tail != null)
-        _tail.setNextHash(newEntry);
-    }
-    else {
-      if (_entries == null || _entries.length <= 2 * _size) {
-        expand();
-        hash = key.hashCode() & _hashMask;
-      }
+    if (entries == null)
+      _entries = new Entry[getInitialCapacity()];
+    else
+      _entries = new Entry[2 * entries.length];
 
-      Entry head = _entries[hash];
+    _hashMask = _entries.length - 1;
 
-      newEntry.setNextHash(head);
-      _entries[hash] = newEntry;
+    for (Entry entry = _head; entry != null; entry = entry.getNext()) {
+      addEntry(entry);
     }
+  }
 
-    if (_head == null) {
-      newEntry._prev = null;
-      newEntry.setNext(null);
-
-      _head = newEntry;
-      _tail = newEntry;
-      setCurrent(newEntry);
-    }
-    else {
-      newEntry._prev = _tail;
-      newEntry.setNext(null);
+  /**
+   * Returns the first hash index size, large enough for the size hint.
+   */
+  private int getInitialCapacity()
+  {
+    long capacity = 8;
 
-      _tail.setNext(newEntry);
-      _tail = newEntry;
-    }
+    while (capacity <= 2L * _sizeHint)
+      capacity *= 2;
 
-    return newEntry;
+    return (int) capacity;
   }
 
-  private void expand()
+  private void addEntry(Entry entry)
   {
     Entry []entries = _entries;
 
-    if (entries == null)
-      _entries = new Entry[8];
-    else
-      _entries = new Entry[2 * entries.length];
+    if (entries != null)
+      insertHash(entries, _hashMask, entry);
 
-    _hashMask = _entries.length - 1;
+    updateNextAvailableIndex(entry);
+  }
 
-    for (Entry entry = _head; entry != null; entry = entry.getNext()) {
-      addEntry(entry);
+  private void updateNextAvailableIndex(Entry entry)
+  {
+    if (entry.isIndex()
+        && _nextAvailableIndex >= 0
+        && _nextAvailableIndex <= entry.getIndex()) {
+      _nextAvailableIndex = entry.getIndex() + 1;
     }
   }
 
-  private void addEntry(Entry entry)
+  /**
+   * Adds an entry to the open-addressed hash index using linear probing.
+   */
+  private static void insertHash(Entry []entries, int hashMask, Entry entry)
   {
-    Value key = entry.getKey();
+    int i = entry.getHash() & hashMask;
+
+    while (entries[i] != null) {
+      i = (i + 1) & hashMask;
+    }
 
+    entries[i] = entry;
+  }
+
+  /**
+   * Removes an entry from the hash index, shifting back the following
+   * entries of its probe run so no tombstones are needed.
+   */
+  private void removeHash(Entry entry)
+  {
     Entry []entries = _entries;
+    int hashMask = _hashMask;
 
-    if (entries != null) {
-      int hash = key.hashCode() & _hashMask;
+    int i = entry.getHash() & hashMask;
 
-      Entry head = entries[hash];
+    while (entries[i] != entry) {
+      i = (i + 1) & hashMask;
+    }
 
-      entry.setNextHash(head);
+    for (int j = (i + 1) & hashMask; entries[j] != null; j = (j + 1) & hashMask) {
+      int home = entries[j].getHash() & hashMask;
 
-      entries[hash] = entry;
+      // move entries[j] into the hole if the hole lies on its probe path
+      if (((j - home) & hashMask) >= ((j - i) & hashMask)) {
+        entries[i] = entries[j];
+        i = j;
+      }
     }
 
-    if (_nextAvailableIndex >= 0)
-      _nextAvailableIndex = key.nextIndex(_nextAvailableIndex);
+    entries[i] = null;
   }
 
   /**
@@ -1213,7 +1570,7 @@ public class ArrayValueImpl extends ArrayValue
     _nextAvailableIndex = 0;
 
     for (Entry entry = _head; entry != null; entry = entry.getNext()) {
-      _nextAvailableIndex = entry.getKey().nextIndex(_nextAvailableIndex);
+      updateNextAvailableIndex(entry);
     }
   }
 
@@ -1226,20 +1583,248 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_packed != null) {
+      if (_size > 0)
+        return remove(LongValue.create(_size - 1));
+      else
+        return NullValue.NULL;
+    }
+
     if (_tail != null)
       return remove(_tail.getKey());
     else
       return NullValue.NULL;
   }
 
+  /**
+   * Returns the head entry.  A packed list returns a detached copy of
+   * its entries, so a read-only walk leaves it packed.
+   */
   public final Entry getHead()
   {
-    return _head;
+    if (_packed == null)
+      return _head;
+
+    return createPackedEntries();
   }
 
+  /**
+   * Returns the tail entry, detached for a packed list as for getHead().
+   */
   protected final Entry getTail()
   {
-    return _tail;
+    if (_packed == null)
+      return _tail;
+
+    Entry tail = createPackedEntries();
+
+    for (; tail != null && tail.getNext() != null; tail = tail.getNext()) {
+    }
+
+    return tail;
+  }
+
+  /**
+   * Builds a linked entry chain over the packed values and returns its
+   * head.  The entries hold the slot values themselves, so a reference
+   * stays shared, but setting an entry doesn't change the array.
+   */
+  private Entry createPackedEntries()
+  {
+    Value []packed = _packed;
+    Entry head = null;
+
+    for (int i = _size - 1; i >= 0; i--) {
+      Entry entry = new Entry(i);
+      entry.setValue(packed[i]);
+
+      if (head != null) {
+        entry.setNext(head);
+        head.setPrev(entry);
+      }
+
+      head = entry;
+    }
+
+    return head;
+  }
+
+  //
+  // packed list iteration
+  //
+
+  @Override
+  public Value current()
+  {
+    if (_packed == null)
+      return super.current();
+    else if (0 <= _packedCursor && _packedCursor < _size)
+      return _packed[_packedCursor].toValue();
+    else
+      return BooleanValue.FALSE;
+  }
+
+  @Override
+  public Value key()
+  {
+    if (_packed == null)
+      return super.key();
+    else if (0 <= _packedCursor && _packedCursor < _size)
+      return LongValue.create(_packedCursor);
+    else
+      return NullValue.NULL;
+  }
+
+  @Override
+  public boolean hasCurrent()
+  {
+    if (_packed == null)
+      return super.hasCurrent();
+    else
+      return 0 <= _packedCursor && _packedCursor < _size;
+  }
+
+  @Override
+  public Value next()
+  {
+    if (_packed == null)
+      return super.next();
+
+    if (0 <= _packedCursor && _packedCursor < _size)
+      _packedCursor = _packedCursor + 1 < _size ? _packedCursor + 1 : -1;
+
+    return current();
+  }
+
+  @Override
+  public Value prev()
+  {
+    if (_packed == null)
+      return super.prev();
+
+    if (0 <= _packedCursor && _packedCursor < _size)
+      _packedCursor--;
+
+    return current();
+  }
+
+  @Override
+  public Value each()
+  {
+    if (_packed == null)
+      return super.each();
+
+    if (! hasCurrent())
+      return BooleanValue.FALSE;
+
+    Value key = key();
+    Value value = current();
+
+    ArrayValue result = new ArrayValueImpl();
+
+    result.put(LongValue.ZERO, key);
+    result.put(KEY, key);
+
+    result.put(LongValue.ONE, value);
+    result.put(VALUE, value);
+
+    next();
+
+    return result;
+  }
+
+  @Override
+  public Value reset()
+  {
+    if (_packed == null)
+      return super.reset();
+
+    _packedCursor = 0;
+
+    return current();
+  }
+
+  @Override
+  public Value end()
+  {
+    if (_packed == null)
+      return super.end();
+
+    _packedCursor = _size - 1;
+
+    return current();
+  }
+
+  @Override
+  public Iterator<Map.Entry<Value, Value>> getBaseIterator(Env env)
+  {
+    if (_packed != null)
+      return new PackedEntryIterator(_packed, _size);
+    else
+      return super.getBaseIterator(env);
+  }
+
+  @Override
+  public Iterator<Map.Entry<Value, Value>> getIterator()
+  {
+    if (_packed != null)
+      return new PackedEntryIterator(_packed, _size);
+    else
+      return super.getIterator();
+  }
+
+  @Override
+  public Iterator<Value> getKeyIterator(Env env)
+  {
+    if (_packed != null)
+      return new PackedKeyIterator(_size);
+    else
+      return super.getKeyIterator(env);
+  }
+
+  @Override
+  public Iterator<Value> getValueIterator(Env env)
+  {
+    if (_packed != null)
+      return new PackedValueIterator(_packed, _size);
+    else
+      return super.getValueIterator(env);
+  }
+
+  /**
+   * Takes the keys of this array and puts them in a java array
+   */
+  @Override
+  public Value[] keysToArray()
+  {
+    if (_packed == null)
+      return super.keysToArray();
+
+    Value []keys = new Value[_size];
+
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = LongValue.create(i);
+    }
+
+    return keys;
+  }
+
+  /**
+   * Takes the values of this array and puts them in a java array
+   */
+  @Override
+  public Value[] valuesToArray()
+  {
+    if (_packed == null)
+      return super.valuesToArray();
+
+    Value []values = new Value[_size];
+
+    for (int i = 0; i < values.length; i++) {
+      values[i] = _packed[i].toValue();
+    }
+
+    return values;
   }
 
   /**
@@ -1250,6 +1835,8 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    unpack();
+
     Entry []values = new Entry[size()];
 
     int length = values.length;
@@ -1311,6 +1898,114 @@ public class ArrayValueImpl extends ArrayValue
       return super.getValues();
   }
 
+  /**
+   * Number of arrays sharing copy-on-write storage.
+   */
+  static final class ShareCount
+  {
+    int _count = 1;
+  }
+
+  /**
+   * Iterates over a snapshot of a packed list.
+   */
+  static class PackedEntryIterator
+    implements Iterator<Map.Entry<Value,Value>>
+  {
+    private final Value []_values;
+    private final int _size;
+    private int _index;
+
+    PackedEntryIterator(Value []values, int size)
+    {
+      _values = values;
+      _size = size;
+    }
+
+    public boolean hasNext()
+    {
+      return _index < _size;
+    }
+
+    public Map.Entry<Value,Value> next()
+    {
+      if (_size <= _index)
+        return null;
+
+      int index = _index++;
+
+      // the raw value, so a reference is seen as in a hashed entry
+      return new Entry(LongValue.create(index), _values[index]);
+    }
+
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  static class PackedKeyIterator
+    implements Iterator<Value>
+  {
+    private final int _size;
+    private int _index;
+
+    PackedKeyIterator(int size)
+    {
+      _size = size;
+    }
+
+    public boolean hasNext()
+    {
+      return _index < _size;
+    }
+
+    public Value next()
+    {
+      if (_size <= _index)
+        return null;
+
+      return LongValue.create(_index++);
+    }
+
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  static class PackedValueIterator
+    implements Iterator<Value>
+  {
+    private final Value []_values;
+    private final int _size;
+    private int _index;
+
+    PackedValueIterator(Value []values, int size)
+    {
+      _values = values;
+      _size = size;
+    }
+
+    public boolean hasNext()
+    {
+      return _index < _size;
+    }
+
+    public Value next()
+    {
+      if (_size <= _index)
+        return null;
+
+      return _values[_index++].toValue();
+    }
+
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   //
   // Java serialization code
   //
@@ -1362,8 +2057,10 @@ public class ArrayValueImpl extends ArrayValue
     if (getSize() < ArrayValueComponent.MAX_SIZE) {
       out.print("new Value[] {");
 
-      for (Entry entry = getHead(); entry != null; entry = entry.getNext()) {
-        if (entry != getHead())
+      Entry head = getHead();
+
+      for (Entry entry = head; entry != null; entry = entry.getNext()) {
+        if (entry != head)
           out.print(", ");
 
             if (entry.getKey() != null)
@@ -1374,8 +2071,8 @@ public class ArrayValueImpl extends ArrayValue
 
       out.print("}, new Value[] {");
 
-      for (Entry entry = getHead(); entry != null; entry = entry.getNext()) {
-        if (entry != getHead())
+      for (Entry entry = head; entry != null; entry = entry.getNext()) {
+        if (entry != head)
       out.print(", ");
 
         entry.getValue().generate(out);
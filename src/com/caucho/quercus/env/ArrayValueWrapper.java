@@ -59,7 +59,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value copy()
   {
-    return _array.copy();
+    return getArray().copy();
   }
   
   /**
@@ -68,7 +68,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value copySaveFunArg()
   {
-    return _array.copySaveFunArg();
+    return getArray().copySaveFunArg();
   }
   
   /**
@@ -77,7 +77,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value copy(Env env, IdentityHashMap<Value,Value> map)
   {
-    return _array.copy(env, map);
+    return getArray().copy(env, map);
   }
 
   /**
@@ -86,7 +86,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public int getSize()
   {
-    return _array.getSize();
+    return getArray().getSize();
   }
 
   /**
@@ -95,7 +95,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public void clear()
   {
-    _array.clear();
+    getArray().clear();
   }
   
   /**
@@ -104,7 +104,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value put(Value key, Value value)
   {
-    return _array.put(key, value);
+    return getArray().put(key, value);
   }
   
   /**
@@ -113,7 +113,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public ArrayValue append(Value key, Value value)
   {
-    return _array.append(key, value);
+    return getArray().append(key, value);
   }
 
   /**
@@ -122,7 +122,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value put(Value value)
   {
-    return _array.put(value);
+    return getArray().put(value);
   }
 
   /**
@@ -131,7 +131,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public ArrayValue unshift(Value value)
   {
-    return _array.unshift(value);
+    return getArray().unshift(value);
   }
 
   /**
@@ -140,7 +140,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public ArrayValue splice(int start, int end, ArrayValue replace)
   {
-    return _array.splice(start, end, replace);
+    return getArray().splice(start, end, replace);
   }
 
   /**
@@ -149,7 +149,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value getArg(Value index, boolean isTop)
   {
-    return _array.getArg(index, isTop);
+    return getArray().getArg(index, isTop);
   }
 
   /**
@@ -158,7 +158,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Var putVar()
   {
-    return _array.putVar();
+    return getArray().putVar();
   }
 
   /**
@@ -167,7 +167,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value createTailKey()
   {
-    return _array.createTailKey();
+    return getArray().createTailKey();
   }
 
   /**
@@ -176,7 +176,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value get(Value key)
   {
-    return _array.get(key);
+    return getArray().get(key);
   }
 
   /**
@@ -185,7 +185,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value remove(Value key)
   {
-    return _array.remove(key);
+    return getArray().remove(key);
   }
   
   /**
@@ -194,7 +194,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public boolean isset(Value key)
   {
-    return _array.isset(key);
+    return getArray().isset(key);
   }
 
   /**
@@ -203,7 +203,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Var getVar(Value index)
   {
-    return _array.getVar(index);
+    return getArray().getVar(index);
   }
   
   /**
@@ -212,7 +212,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value pop(Env env)
   {
-    return _array.pop(env);
+    return getArray().pop(env);
   }
 
   /**
@@ -221,7 +221,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value shuffle()
   {
-    return _array.shuffle();
+    return getArray().shuffle();
   }
 
   /**
@@ -230,7 +230,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Entry getHead()
   {
-    return _array.getHead();
+    return getArray().getHead();
   }
 
   /**
@@ -239,7 +239,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   protected Entry getTail()
   {
-    return _array.getTail();
+    return getArray().getTail();
   }
   
   /**
@@ -248,7 +248,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value current()
   {
-    return _array.current();
+    return getArray().current();
   }
 
   /**
@@ -257,7 +257,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value key()
   {
-    return _array.key();
+    return getArray().key();
   }
 
   /**
@@ -266,7 +266,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public boolean hasCurrent()
   {
-    return _array.hasCurrent();
+    return getArray().hasCurrent();
   }
 
   /**
@@ -275,7 +275,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value next()
   {
-    return _array.next();
+    return getArray().next();
   }
 
   /**
@@ -284,7 +284,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value prev()
   {
-    return _array.prev();
+    return getArray().prev();
   }
 
   /**
@@ -293,7 +293,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value each()
   {
-    return _array.each();
+    return getArray().each();
   }
 
   /**
@@ -302,7 +302,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value reset()
   {
-    return _array.reset();
+    return getArray().reset();
   }
 
   /**
@@ -311,7 +311,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value end()
   {
-    return _array.end();
+    return getArray().end();
   }
   
   /**
@@ -324,7 +324,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value contains(Value key)
   {
-    return _array.contains(key);
+    return getArray().contains(key);
   }
   
   /**
@@ -337,7 +337,7 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value containsStrict(Value key)
   {
-    return _array.containsStrict(key);
+    return getArray().containsStrict(key);
   }
   
   /**
@@ -350,31 +350,31 @@ public class ArrayValueWrapper extends ArrayValue {
   @Override
   public Value containsKey(Value key)
   {
-    return _array.containsKey(key);
+    return getArray().containsKey(key);
   }
 
   @Override
   public Value add(Value rValue)
   {
-    return _array.add(rValue);
+    return getArray().add(rValue);
   }
 
   @Override
   public Iterator<Map.Entry<Value, Value>> getIterator(Env env)
   {
-    return _array.getIterator(env);
+    return getArray().getIterator(env);
   }
 
   @Override
   public Iterator<Value> getKeyIterator(Env env)
   {
-    return _array.getKeyIterator(env);
+    return getArray().getKeyIterator(env);
   }
 
   @Override
   public Iterator<Value> getValueIterator(Env env)
   {
-    return _array.getValueIterator(env);
+    return getArray().getValueIterator(env);
   }
 }
 
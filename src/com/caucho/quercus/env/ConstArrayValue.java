@@ -44,16 +44,23 @@ public class ConstArrayValue
   public ConstArrayValue(ArrayValueImpl source)
   {
     super.copyFrom(source);
+
+    // const arrays are shared, so they're never unpacked lazily
+    unpack();
   }
   
   public ConstArrayValue(ArrayValueComponent[] components)
   {
     super(components);
+
+    unpack();
   }
 
   public ConstArrayValue(Value []keys, Value []values)
   {
     super(keys, values);
+
+    unpack();
   }
   
   /**
@@ -32,6 +32,7 @@ package com.caucho.quercus.env;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a StringValue that is never modified.
@@ -42,6 +43,14 @@ public class ConstStringValue
 {
   public static final ConstStringValue EMPTY = new ConstStringValue();
 
+  // longest string worth interning, e.g. an array key or property name
+  private static final int INTERN_MAX_LENGTH = 256;
+  // the intern table never evicts, so it stops growing at this size
+  private static final int INTERN_MAX_SIZE = 64 * 1024;
+
+  private static final ConcurrentHashMap<String,ConstStringValue> _internMap
+    = new ConcurrentHashMap<String,ConstStringValue>();
+
   private LongValue _longValue;
   private DoubleValue _doubleValue;
   private String _string;
@@ -139,6 +148,56 @@ public class ConstStringValue
     super(v1, v2, v3);
   }
 
+  /**
+   * Returns the shared instance for a literal string.  Interned strings
+   * have their hash and key precomputed, so lookups with the same literal
+   * match the stored key by identity.
+   */
+  public static ConstStringValue intern(String s)
+  {
+    if (INTERN_MAX_LENGTH < s.length())
+      return new ConstStringValue(s);
+
+    ConstStringValue value = _internMap.get(s);
+
+    if (value != null)
+      return value;
+
+    value = new ConstStringValue(s);
+
+    if (INTERN_MAX_SIZE <= _internMap.size())
+      return value;
+
+    value.hashCode();
+    value.toKey();
+
+    ConstStringValue oldValue = _internMap.putIfAbsent(s, value);
+
+    return oldValue != null ? oldValue : value;
+  }
+
+  /**
+   * Returns the shared instance for a literal string.
+   */
+  public static ConstStringValue intern(StringBuilderValue sb)
+  {
+    if (INTERN_MAX_LENGTH < sb.length())
+      return new ConstStringValue(sb);
+    else
+      return intern(sb.toString());
+  }
+
+  /**
+   * Returns the interned instance if one exists, without adding one.
+   */
+  public static ConstStringValue getIntern(String s)
+  {
+    if (INTERN_MAX_LENGTH < s.length())
+      return null;
+    else
+      return _internMap.get(s);
+  }
+
   public boolean isStatic()
   {
     return true;
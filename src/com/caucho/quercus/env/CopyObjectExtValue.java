@@ -150,6 +150,20 @@ public class CopyObjectExtValue extends ObjectExtValue
     return super.putThisField(env, name, value);
   }
 
+  /**
+   * Sets/adds field to this object.
+   */
+  @Override
+  public Value putThisFieldSlot(Env env,
+                                StringValue name,
+                                Value value,
+                                int slot)
+  {
+    _root.setModified();
+
+    return super.putThisFieldSlot(env, name, value, slot);
+  }
+
   protected Value putFieldExt(Env env, StringValue name, Value value)
   {
     return null;
@@ -59,6 +59,7 @@ import com.caucho.quercus.QuercusExitException;
 import com.caucho.quercus.QuercusModuleException;
 import com.caucho.quercus.QuercusRuntimeException;
 import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.expr.VarInfo;
 import com.caucho.quercus.function.AbstractFunction;
 import com.caucho.quercus.lib.ErrorModule;
 import com.caucho.quercus.lib.VariableModule;
@@ -2241,6 +2242,91 @@ public class Env
     return envVar;
   }
 
+  /**
+   * Gets a compiled variable, using the function's local slot when
+   * available.
+   *
+   * @param var the parsed variable
+   */
+  public final EnvVar getEnvVar(VarInfo var,
+                                boolean isAutoCreate,
+                                boolean isOutputNotice)
+  {
+    Map<StringValue, EnvVar> map = _map;
+
+    if (map instanceof LocalSymbolMap) {
+      EnvVar envVar = ((LocalSymbolMap) map).getSlot(var);
+
+      if (envVar != null)
+        return envVar;
+    }
+
+    return getEnvVar(var.getName(), isAutoCreate, isOutputNotice);
+  }
+
+  /**
+   * Gets a compiled variable's value.
+   */
+  public final Value getValue(VarInfo var,
+                              boolean isAutoCreate,
+                              boolean isOutputNotice)
+  {
+    EnvVar envVar = getEnvVar(var, isAutoCreate, isOutputNotice);
+
+    if (envVar != null)
+      return envVar.get();
+    else
+      return NullValue.NULL;
+  }
+
+  /**
+   * Gets a compiled variable's Var, creating it if necessary.
+   */
+  public final Var getVar(VarInfo var)
+  {
+    return getEnvVar(var, true, false).getVar();
+  }
+
+  /**
+   * Sets a compiled variable's value. value must not be a Var.
+   */
+  public final Value setValue(VarInfo var, Value value)
+  {
+    getEnvVar(var, true, false).set(value);
+
+    return value;
+  }
+
+  /**
+   * Sets a compiled variable as a reference.
+   */
+  public final Var setRef(VarInfo var, Value value)
+  {
+    return getEnvVar(var, true, false).setRef(value);
+  }
+
+  /**
+   * Unsets a compiled variable.
+   */
+  public final Var unsetLocalVar(VarInfo var)
+  {
+    // only the local map: unset($_GET) in a function must not reach the
+    // superglobal
+    Map<StringValue, EnvVar> map = _map;
+    EnvVar envVar = null;
+
+    if (map instanceof LocalSymbolMap)
+      envVar = ((LocalSymbolMap) map).getSlot(var);
+
+    if (envVar == null)
+      envVar = map.get(var.getName());
+
+    if (envVar != null)
+      envVar.setVar(new Var());
+
+    return null;
+  }
+
   /**
    * Gets a variable
    *
@@ -3553,6 +3639,21 @@ public class Env
     _functionArgs = args;
   }
 
+  /**
+   * Releases the argument copies made by setFunctionArgs() when the
+   * function returns.  They only escape through func_get_args(), which
+   * copies them, so they no longer need to hold the caller's arrays.
+   */
+  public final void releaseFunctionArgs()
+  {
+    Value []args = _functionArgs;
+
+    for (int i = 0; args != null && i < args.length; i++) {
+      if (args[i] instanceof ArrayValueImpl)
+        ((ArrayValueImpl) args[i]).releaseCopy();
+    }
+  }
+
   /**
    * Returns the function args.
    */
@@ -4810,7 +4911,14 @@ public class Env
       return new UnicodeBuilderValue(s);
     }
     else if (s.length() < 256) {
-      StringValue stringValue = _internStringMap.get(s);
+      // literal keys from the parser share the interned instance
+      StringValue stringValue = ConstStringValue.getIntern(s);
+
+      if (stringValue != null) {
+        return stringValue;
+      }
+
+      stringValue = _internStringMap.get(s);
 
       if (stringValue == null) {
         stringValue = new ConstStringValue(s);
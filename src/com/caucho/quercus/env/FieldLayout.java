@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.env;
+
+import com.caucho.quercus.program.ClassField;
+
+import java.util.HashMap;
+
+/**
+ * The slot layout of a class's declared fields.  Objects of the class
+ * index their declared field entries by slot, and field expressions
+ * cache the slot for the layout they last saw.
+ */
+public final class FieldLayout
+{
+  private final HashMap<StringValue,Slot> _slotMap
+    = new HashMap<StringValue,Slot>();
+
+  private final Slot _missSlot = new Slot(this, -1);
+
+  FieldLayout(Iterable<ClassField> fields)
+  {
+    for (ClassField field : fields) {
+      StringValue name = field.getCanonicalName();
+
+      if (_slotMap.get(name) == null) {
+        _slotMap.put(name, new Slot(this, _slotMap.size()));
+      }
+    }
+  }
+
+  /**
+   * Returns the number of slots.
+   */
+  public int getSize()
+  {
+    return _slotMap.size();
+  }
+
+  /**
+   * Returns the slot for a canonical field name.  Undeclared fields
+   * return a slot with a negative index.
+   */
+  public Slot getSlot(StringValue canonicalName)
+  {
+    Slot slot = _slotMap.get(canonicalName);
+
+    if (slot != null)
+      return slot;
+    else
+      return _missSlot;
+  }
+
+  /**
+   * Returns the slot index for a canonical field name, or -1.
+   */
+  public int getIndex(StringValue canonicalName)
+  {
+    Slot slot = _slotMap.get(canonicalName);
+
+    if (slot != null)
+      return slot.getIndex();
+    else
+      return -1;
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + _slotMap.keySet();
+  }
+
+  public static final class Slot
+  {
+    private final FieldLayout _layout;
+    private final int _index;
+
+    Slot(FieldLayout layout, int index)
+    {
+      _layout = layout;
+      _index = index;
+    }
+
+    public FieldLayout getLayout()
+    {
+      return _layout;
+    }
+
+    public int getIndex()
+    {
+      return _index;
+    }
+  }
+}
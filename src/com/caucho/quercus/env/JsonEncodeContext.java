@@ -38,6 +38,11 @@ public class JsonEncodeContext
   private final boolean _isCheckNumeric;
   private final boolean _isBigIntAsString;
 
+  // encoded output is written to the page in chunks of this size
+  private static final int PRINT_CHUNK_SIZE = 8 * 1024;
+
+  private boolean _isPrint;
+
   public JsonEncodeContext(boolean isEscapeTag,
                            boolean isEscapeAmp,
                            boolean isEscapeApos,
@@ -82,4 +87,24 @@ public class JsonEncodeContext
   {
     return _isBigIntAsString;
   }
+
+  /**
+   * Set when encoding straight to the output.
+   */
+  public void setPrint(boolean isPrint)
+  {
+    _isPrint = isPrint;
+  }
+
+  /**
+   * Prints and clears the encoded buffer once it fills a chunk, when
+   * encoding straight to the output.
+   */
+  public void flush(Env env, StringValue sb)
+  {
+    if (_isPrint && PRINT_CHUNK_SIZE <= sb.length()) {
+      sb.print(env);
+      sb.setLength(0);
+    }
+  }
 }
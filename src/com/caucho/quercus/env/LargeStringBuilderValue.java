@@ -29,6 +29,7 @@
 
 package com.caucho.quercus.env;
 
+import com.caucho.quercus.QuercusModuleException;
 import com.caucho.quercus.QuercusRuntimeException;
 import com.caucho.vfs.WriteStream;
 
@@ -41,7 +42,11 @@ import java.util.Locale;
 
 /**
  * Represents a 8-bit PHP 5 style binary builder (unicode.semantics = off),
- * used for large data like file reads.
+ * used for large data like file reads and pages assembled with .=
+ *
+ * The string is a list of fixed-size chunks.  Appends only write to the
+ * partial tail chunk, so full chunks are never modified and can be shared
+ * between a string and the builders created from it.
  */
 public class LargeStringBuilderValue
   extends StringValue
@@ -53,6 +58,10 @@ public class LargeStringBuilderValue
   protected byte [][]_bufferList;
   protected int _length;
 
+  // true when a builder has taken over _bufferList, so appends must
+  // first detach the chunk list
+  private boolean _isCopy;
+
   private int _hashCode;
 
   public LargeStringBuilderValue()
@@ -74,6 +83,14 @@ public class LargeStringBuilderValue
     s.appendTo(this);
   }
 
+  /**
+   * Returns the chunk list, each chunk SIZE bytes long.
+   */
+  public final byte [][]getBufferList()
+  {
+    return _bufferList;
+  }
+
   /**
    * Creates an empty string builder of the same type.
    */
@@ -105,7 +122,10 @@ public class LargeStringBuilderValue
   @Override
   public ValueType getValueType()
   {
-    return StringBuilderValue.getValueType(_bufferList[0], 0, _length);
+    if (_length <= SIZE)
+      return StringBuilderValue.getValueType(_bufferList[0], 0, _length);
+    else
+      return StringBuilderValue.getValueType(toBytes(), 0, _length);
   }
 
   /**
@@ -163,7 +183,10 @@ public class LargeStringBuilderValue
   @Override
   public long toLong()
   {
-    return parseLong(_bufferList[0], 0, _length);
+    if (_length <= SIZE)
+      return parseLong(_bufferList[0], 0, _length);
+    else
+      return parseLong(toBytes(), 0, _length);
   }
 
   /**
@@ -172,7 +195,10 @@ public class LargeStringBuilderValue
   @Override
   public double toDouble()
   {
-    return StringBuilderValue.toDouble(_bufferList[0], 0, _length);
+    if (_length <= SIZE)
+      return StringBuilderValue.toDouble(_bufferList[0], 0, _length);
+    else
+      return StringBuilderValue.toDouble(toBytes(), 0, _length);
   }
 
   /**
@@ -190,14 +216,20 @@ public class LargeStringBuilderValue
   @Override
   public String toString()
   {
-    char []buffer = new char[_length];
+    int length = _length;
+    char []buffer = new char[length];
 
     byte [][]bufferList = _bufferList;
-    for (int i = _length - 1; i >= 0; i--) {
-      buffer[i] = (char) (bufferList[i / SIZE][i % SIZE] & 0xff);
+    for (int offset = 0; offset < length; offset += SIZE) {
+      byte []chunk = bufferList[offset / SIZE];
+      int sublen = Math.min(SIZE, length - offset);
+
+      for (int i = 0; i < sublen; i++) {
+        buffer[offset + i] = (char) (chunk[i] & 0xff);
+      }
     }
 
-    return new String(buffer, 0, _length);
+    return new String(buffer, 0, length);
   }
 
   /**
@@ -215,9 +247,7 @@ public class LargeStringBuilderValue
   @Override
   public StringValue toStringBuilder()
   {
-    // XXX: can this just return this, or does it need to return a copy?
-
-    return new LargeStringBuilderValue(_bufferList, _length);
+    return copyBuilder();
   }
 
   /**
@@ -251,7 +281,41 @@ public class LargeStringBuilderValue
       bb.append(_bufferList[i], 0, SIZE);
     }
 
-    bb.append(_bufferList[i], 0, tail);
+    if (tail > 0)
+      bb.append(_bufferList[i], 0, tail);
+  }
+
+  /**
+   * Append to a string builder, chunk by chunk.
+   */
+  @Override
+  public StringValue appendTo(StringBuilderValue sb)
+  {
+    sb.ensureAppendCapacity(_length);
+
+    appendTo((StringValue) sb);
+
+    return sb;
+  }
+
+  /**
+   * Append to a binary builder, chunk by chunk.
+   */
+  @Override
+  public StringValue appendTo(BinaryBuilderValue sb)
+  {
+    return appendTo((StringBuilderValue) sb);
+  }
+
+  /**
+   * Append to a large string builder, chunk by chunk.
+   */
+  @Override
+  public StringValue appendTo(LargeStringBuilderValue sb)
+  {
+    appendTo((StringValue) sb);
+
+    return sb;
   }
 
   /**
@@ -273,11 +337,13 @@ public class LargeStringBuilderValue
    */
   public byte[] toBytes()
   {
-    byte[] bytes = new byte[_length];
+    int length = _length;
+    byte[] bytes = new byte[length];
 
     byte [][]bufferList = _bufferList;
-    for (int i = _length - 1; i >= 0; i--) {
-      bytes[i] = bufferList[i / SIZE][i % SIZE];
+    for (int offset = 0; offset < length; offset += SIZE) {
+      System.arraycopy(bufferList[offset / SIZE], 0, bytes, offset,
+                       Math.min(SIZE, length - offset));
     }
 
     return bytes;
@@ -315,7 +381,15 @@ public class LargeStringBuilderValue
   @Override
   public final void setLength(int len)
   {
-    _length = len;
+    if (len < _length) {
+      // the chunk list may be shared with the string this builder was
+      // created from, so appends after a truncation need a private copy
+      _length = len;
+
+      detach();
+    }
+    else
+      _length = len;
   }
 
   //
@@ -465,7 +539,43 @@ public class LargeStringBuilderValue
   @Override
   public StringValue toStringBuilder(Env env)
   {
-    return new LargeStringBuilderValue(_bufferList, _length);
+    return copyBuilder();
+  }
+
+  /**
+   * Returns a builder with this string's contents.  The first builder
+   * takes over the chunk list, which is the common $a .= $b case where
+   * this string is discarded.  Later builders share the full chunks and
+   * copy only the chunk list and the partial tail chunk.
+   */
+  private LargeStringBuilderValue copyBuilder()
+  {
+    if (! _isCopy) {
+      _isCopy = true;
+
+      return new LargeStringBuilderValue(_bufferList, _length);
+    }
+    else
+      return new LargeStringBuilderValue(detachBufferList(), _length);
+  }
+
+  /**
+   * Returns a private chunk list sharing the full chunks.
+   */
+  private byte [][]detachBufferList()
+  {
+    byte [][]bufferList = new byte[_bufferList.length][];
+
+    int tail = _length / SIZE;
+    System.arraycopy(_bufferList, 0, bufferList, 0, tail);
+
+    if (_length % SIZE != 0) {
+      bufferList[tail] = new byte[SIZE];
+      System.arraycopy(_bufferList[tail], 0, bufferList[tail], 0,
+                       _length % SIZE);
+    }
+
+    return bufferList;
   }
 
   /**
@@ -570,7 +680,7 @@ public class LargeStringBuilderValue
   @Override
   public final StringValue append(char v)
   {
-    if (_length % SIZE == 0)
+    if (_length % SIZE == 0 || _isCopy)
       ensureCapacity(_length + 1);
 
     _bufferList[_length / SIZE][_length % SIZE] = (byte) v;
@@ -585,7 +695,7 @@ public class LargeStringBuilderValue
    */
   public final StringValue append(byte v)
   {
-    if (_length % SIZE == 0)
+    if (_length % SIZE == 0 || _isCopy)
       ensureCapacity(_length + 1);
 
     _bufferList[_length / SIZE][_length % SIZE] = (byte) v;
@@ -644,7 +754,7 @@ public class LargeStringBuilderValue
     try {
       int offset = _length % SIZE;
 
-      if (offset == 0) {
+      if (offset == 0 || _isCopy) {
         ensureCapacity(_length + SIZE);
       }
 
@@ -654,7 +764,7 @@ public class LargeStringBuilderValue
       if (length < sublen)
         sublen = (int) length;
 
-      sublen = is.read(buffer, 0, sublen);
+      sublen = is.read(buffer, offset, sublen);
 
       if (sublen > 0) {
         _length += sublen;
@@ -768,6 +878,26 @@ public class LargeStringBuilderValue
     sb.append("\";");
   }
 
+  /**
+   * Writes to a stream, chunk by chunk.
+   */
+  @Override
+  public void writeTo(OutputStream os)
+  {
+    try {
+      for (int i = 0; i < _length; i += SIZE) {
+        int sublen = _length - i;
+
+        if (SIZE < sublen)
+          sublen = SIZE;
+
+        os.write(_bufferList[i / SIZE], 0, sublen);
+      }
+    } catch (IOException e) {
+      throw new QuercusModuleException(e);
+    }
+  }
+
   /**
    * Returns an OutputStream.
    */
@@ -776,18 +906,28 @@ public class LargeStringBuilderValue
     return new BuilderOutputStream();
   }
 
+  /**
+   * Gives this string its own chunk list after a builder took it over.
+   */
+  private void detach()
+  {
+    _isCopy = false;
+
+    _bufferList = detachBufferList();
+  }
+
   private void ensureCapacity(int newCapacity)
   {
-    if (newCapacity > 10000000) {
-      Thread.dumpStack();
-      throw new IllegalStateException();
-    }
+    if (_isCopy)
+      detach();
 
     int chunk = _length / SIZE;
     int endChunk = newCapacity / SIZE;
 
     if (_bufferList.length <= endChunk) {
-      byte [][]bufferList = new byte[endChunk + 32][];
+      int capacity = Math.max(2 * _bufferList.length, endChunk + 32);
+
+      byte [][]bufferList = new byte[capacity][];
       System.arraycopy(_bufferList, 0, bufferList, 0, _bufferList.length);
       _bufferList = bufferList;
     }
@@ -812,8 +952,13 @@ public class LargeStringBuilderValue
     int length = _length;
 
     byte [][]bufferList = _bufferList;
-    for (int i = 0; i < length; i++) {
-      hash = 65521 * hash + (bufferList[i / SIZE][i % SIZE] & 0xff);
+    for (int offset = 0; offset < length; offset += SIZE) {
+      byte []chunk = bufferList[offset / SIZE];
+      int sublen = Math.min(SIZE, length - offset);
+
+      for (int i = 0; i < sublen; i++) {
+        hash = 65521 * hash + (chunk[i] & 0xff);
+      }
     }
 
     _hashCode = hash;
@@ -918,7 +1063,7 @@ public class LargeStringBuilderValue
     }
 
     /**
-     * Reads into a buffer.
+     * Reads into a buffer, directly from the chunks.
      */
     @Override
     public int read(byte []buffer, int offset, int length)
@@ -931,12 +1076,27 @@ public class LargeStringBuilderValue
       if (sublen <= 0)
         return -1;
 
-      for (int i = 0; i < sublen; i++)
-        buffer[offset + i] = (byte) charAt(_index + i);
+      int readLength = sublen;
+
+      while (sublen > 0) {
+        int chunkOffset = _index % SIZE;
+        int chunkLength = Math.min(SIZE - chunkOffset, sublen);
 
-      _index += sublen;
+        System.arraycopy(_bufferList[_index / SIZE], chunkOffset,
+                         buffer, offset, chunkLength);
 
-      return sublen;
+        _index += chunkLength;
+        offset += chunkLength;
+        sublen -= chunkLength;
+      }
+
+      return readLength;
+    }
+
+    @Override
+    public int available()
+    {
+      return _length - _index;
     }
   }
 
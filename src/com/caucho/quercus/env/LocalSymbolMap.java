@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.env;
+
+import com.caucho.quercus.expr.VarInfo;
+import com.caucho.quercus.program.FunctionInfo;
+
+import java.util.*;
+
+/**
+ * Symbol table for a function call.  Variables known to the parser live
+ * in a slot array indexed by VarInfo, so compiled variable access
+ * doesn't hash.  Names outside the function's layout ($$var, extract(),
+ * eval) spill into a lazily-allocated map.
+ */
+public class LocalSymbolMap extends AbstractMap<StringValue,EnvVar> {
+  private final FunctionInfo _info;
+  private final EnvVar []_slots;
+
+  private HashMap<StringValue,EnvVar> _extMap;
+
+  public LocalSymbolMap(FunctionInfo info)
+  {
+    _info = info;
+    _slots = new EnvVar[info.getVarCount()];
+  }
+
+  /**
+   * Returns the variable's slot value, or null if the variable is
+   * unassigned or doesn't belong to this function's layout.
+   */
+  public final EnvVar getSlot(VarInfo var)
+  {
+    if (var.getFunction() != _info)
+      return null;
+
+    int index = var.getIndex();
+
+    if (index < _slots.length)
+      return _slots[index];
+    else
+      return null;
+  }
+
+  /**
+   * Returns the matching value, or null.
+   */
+  @Override
+  public EnvVar get(Object key)
+  {
+    return get((StringValue) key);
+  }
+
+  /**
+   * Returns the matching value, or null.
+   */
+  public EnvVar get(StringValue key)
+  {
+    int index = _info.getVarIndex(key);
+
+    if (0 <= index && index < _slots.length)
+      return _slots[index];
+    else if (_extMap != null)
+      return _extMap.get(key);
+    else
+      return null;
+  }
+
+  /**
+   * Sets the value, returning the old value.
+   */
+  @Override
+  public EnvVar put(StringValue key, EnvVar envVar)
+  {
+    int index = _info.getVarIndex(key);
+
+    if (0 <= index && index < _slots.length) {
+      EnvVar oldVar = _slots[index];
+
+      _slots[index] = envVar;
+
+      return oldVar;
+    }
+
+    if (_extMap == null)
+      _extMap = new HashMap<StringValue,EnvVar>();
+
+    return _extMap.put(key, envVar);
+  }
+
+  /**
+   * Removes the value.
+   */
+  @Override
+  public EnvVar remove(Object key)
+  {
+    StringValue name = (StringValue) key;
+
+    int index = _info.getVarIndex(name);
+
+    if (0 <= index && index < _slots.length) {
+      EnvVar oldVar = _slots[index];
+
+      _slots[index] = null;
+
+      return oldVar;
+    }
+    else if (_extMap != null)
+      return _extMap.remove(name);
+    else
+      return null;
+  }
+
+  /**
+   * Returns a snapshot of the defined variables.  Only called by
+   * symbol-table functions like get_defined_vars().
+   */
+  @Override
+  public Set<Map.Entry<StringValue,EnvVar>> entrySet()
+  {
+    LinkedHashMap<StringValue,EnvVar> map
+      = new LinkedHashMap<StringValue,EnvVar>();
+
+    for (int i = 0; i < _slots.length; i++) {
+      if (_slots[i] != null)
+        map.put(_info.getVar(i).getName(), _slots[i]);
+    }
+
+    if (_extMap != null)
+      map.putAll(_extMap);
+
+    return map.entrySet();
+  }
+}
@@ -60,6 +60,10 @@ public class ObjectExtValue extends ObjectValue
 
   private HashMap<StringValue,Entry> _protectedFieldMap;
 
+  // declared field entries, indexed by the class's field layout
+  private transient FieldLayout _fieldLayout;
+  private transient Entry []_slots;
+
   private boolean _isFieldInit;
 
   public ObjectExtValue(Env env, QuercusClass cl)
@@ -67,6 +71,7 @@ public class ObjectExtValue extends ObjectValue
     super(env, cl);
 
     _methodMap = cl.getMethodMap();
+    _fieldLayout = cl.getFieldLayout();
   }
 
   public ObjectExtValue(Env env, ObjectExtValue copy, CopyRoot root)
@@ -78,11 +83,13 @@ public class ObjectExtValue extends ObjectValue
     _methodMap = copy._methodMap;
 
     _isFieldInit = copy._isFieldInit;
+    _fieldLayout = copy._fieldLayout;
 
     for (Map.Entry<StringValue,Entry> entry : copy._fieldMap.entrySet()) {
       Entry entryCopy = entry.getValue().copyTree(env, root);
 
       _fieldMap.put(entry.getKey(), entryCopy);
+      addSlot(entryCopy);
     }
 
     _incompleteObjectName = copy._incompleteObjectName;
@@ -97,11 +104,13 @@ public class ObjectExtValue extends ObjectValue
     _methodMap = copy._methodMap;
 
     _isFieldInit = copy._isFieldInit;
+    _fieldLayout = copy._fieldLayout;
 
     for (Map.Entry<StringValue,Entry> entry : copy._fieldMap.entrySet()) {
       Entry entryCopy = new Entry(env, copyMap, entry.getValue());
 
       _fieldMap.put(entry.getKey(), entryCopy);
+      addSlot(entryCopy);
     }
 
     _incompleteObjectName = copy._incompleteObjectName;
@@ -110,6 +119,7 @@ public class ObjectExtValue extends ObjectValue
   private void init()
   {
     _fieldMap = new LinkedHashMap<StringValue,Entry>();
+    _slots = null;
   }
 
   @Override
@@ -118,6 +128,17 @@ public class ObjectExtValue extends ObjectValue
     super.setQuercusClass(cl);
 
     _methodMap = cl.getMethodMap();
+
+    FieldLayout layout = cl.getFieldLayout();
+
+    if (layout != _fieldLayout) {
+      _fieldLayout = layout;
+      _slots = null;
+
+      for (Entry entry : _fieldMap.values()) {
+        addSlot(entry);
+      }
+    }
   }
 
   /**
@@ -131,6 +152,7 @@ public class ObjectExtValue extends ObjectValue
 
     LinkedHashMap<StringValue,Entry> existingFields = _fieldMap;
     _fieldMap = new LinkedHashMap<StringValue,Entry>();
+    _slots = null;
 
     cls.initObject(env, this);
 
@@ -200,6 +222,34 @@ public class ObjectExtValue extends ObjectValue
     return getFieldExt(env, name);
   }
 
+  /**
+   * Returns the slot layout of the declared fields.
+   */
+  @Override
+  public FieldLayout getFieldLayout()
+  {
+    return _fieldLayout;
+  }
+
+  /**
+   * Gets a field value by its slot in getFieldLayout().
+   */
+  @Override
+  public Value getThisFieldSlot(Env env, StringValue name, int slot)
+  {
+    Entry []slots = _slots;
+
+    if (slots != null && slot >= 0) {
+      Entry entry = slots[slot];
+
+      if (entry != null) {
+        return entry._value.toValue();
+      }
+    }
+
+    return getThisField(env, name);
+  }
+
   /**
    * Returns fields not explicitly specified by this value.
    */
@@ -495,6 +545,38 @@ public class ObjectExtValue extends ObjectValue
     return value;
   }
 
+  /**
+   * Sets a field by its slot in getFieldLayout().
+   */
+  @Override
+  public Value putThisFieldSlot(Env env,
+                                StringValue name,
+                                Value value,
+                                int slot)
+  {
+    Entry []slots = _slots;
+
+    if (slots == null || slot < 0 || slots[slot] == null) {
+      return putThisField(env, name, value);
+    }
+
+    Entry entry = slots[slot];
+
+    Value oldValue = entry._value;
+
+    if (value instanceof Var) {
+      entry._value = value;
+    }
+    else if (oldValue instanceof Var) {
+      oldValue.set(value);
+    }
+    else {
+      entry._value = value;
+    }
+
+    return value;
+  }
+
   protected Value putFieldExt(Env env, StringValue name, Value value)
   {
     return null;
@@ -542,7 +624,11 @@ public class ObjectExtValue extends ObjectValue
     if(returnValue == UnsetValue.UNSET || returnValue == NullValue.NULL) {
       // __unset didn't work, lets look in the class itself
 
-      _fieldMap.remove(name);
+      Entry entry = _fieldMap.remove(name);
+
+      if (entry != null) {
+        removeSlot(entry);
+      }
     }
 
     return;
@@ -664,6 +750,7 @@ public class ObjectExtValue extends ObjectValue
     if (entry == null) {
       entry = new Entry(canonicalName);
       _fieldMap.put(canonicalName, entry);
+      addSlot(entry);
 
       if (ClassField.isProtected(canonicalName)) {
         if (_protectedFieldMap == null) {
@@ -687,11 +774,51 @@ public class ObjectExtValue extends ObjectValue
     if (entry == null) {
       entry = new Entry(canonicalName);
       _fieldMap.put(canonicalName, entry);
+      addSlot(entry);
     }
 
     return entry;
   }
 
+  /**
+   * Indexes a declared field's entry by its layout slot.
+   */
+  private void addSlot(Entry entry)
+  {
+    FieldLayout layout = _fieldLayout;
+
+    if (layout == null) {
+      return;
+    }
+
+    int index = layout.getIndex(entry.getKey());
+
+    if (index < 0) {
+      return;
+    }
+
+    if (_slots == null) {
+      _slots = new Entry[layout.getSize()];
+    }
+
+    _slots[index] = entry;
+  }
+
+  private void removeSlot(Entry entry)
+  {
+    Entry []slots = _slots;
+
+    if (slots == null) {
+      return;
+    }
+
+    int index = _fieldLayout.getIndex(entry.getKey());
+
+    if (index >= 0 && slots[index] == entry) {
+      slots[index] = null;
+    }
+  }
+
   //
   // Foreach/Traversable functions
   //
@@ -1103,6 +1230,8 @@ public class ObjectExtValue extends ObjectValue
       Value value = ((Entry) entry).getRawValue();
 
       value.serialize(env, sb, serializeMap);
+
+      serializeMap.flush(sb);
     }
 
     sb.append("}");
@@ -913,6 +913,8 @@ abstract public class ObjectValue extends Callback {
         sb.append(':');
         value.jsonEncode(env, context, sb);
         length++;
+
+        context.flush(env, sb);
       }
 
       sb.append('}');
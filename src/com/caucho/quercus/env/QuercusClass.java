@@ -101,6 +101,7 @@ public class QuercusClass extends NullValue {
   private final HashMap<StringValue,Expr> _constMap;
   private final HashMap<StringValue,Object> _constJavaMap;
   private final LinkedHashMap<StringValue,ClassField> _fieldMap;
+  private FieldLayout _fieldLayout;
   private final HashMap<String,ArrayList<StaticField>> _staticFieldExprMap;
   private final HashMap<StringValue,StringValue> _staticFieldNameMap;
 
@@ -340,6 +341,7 @@ public class QuercusClass extends NullValue {
     _initializers = cacheClass._initializers;
 
     _fieldMap = cacheClass._fieldMap;
+    _fieldLayout = cacheClass.getFieldLayout();
     _methodMap = cacheClass._methodMap;
     _constMap = cacheClass._constMap;
     _constJavaMap = cacheClass._constJavaMap;
@@ -701,6 +703,7 @@ public class QuercusClass extends NullValue {
     //ClassField existingField = _fieldMap.get(name);
 
     _fieldMap.put(name, field);
+    _fieldLayout = null;
   }
 
   /**
@@ -722,6 +725,7 @@ public class QuercusClass extends NullValue {
     }
 
     _fieldMap.put(name, field);
+    _fieldLayout = null;
   }
 
   /**
@@ -732,6 +736,21 @@ public class QuercusClass extends NullValue {
     return _fieldMap;
   }
 
+  /**
+   * Returns the slot layout of the declared fields.
+   */
+  public FieldLayout getFieldLayout()
+  {
+    FieldLayout layout = _fieldLayout;
+
+    if (layout == null) {
+      layout = new FieldLayout(_fieldMap.values());
+      _fieldLayout = layout;
+    }
+
+    return layout;
+  }
+
   /**
    * Returns a set of the fields and their initial values
    */
@@ -38,11 +38,48 @@ public final class SerializeMap {
     = new IdentityHashMap<Value, Integer>();
   
   private int _index = 1;
+
+  // serialized output is written to the page in chunks of this size
+  private static final int PRINT_CHUNK_SIZE = 8 * 1024;
+
+  private Env _printEnv;
   
   public SerializeMap()
   {
   }
   
+  /*
+   * Serializes straight to the output of the environment.
+   */
+  public void setPrint(Env env)
+  {
+    _printEnv = env;
+  }
+
+  /*
+   * Prints and clears the buffer once it fills a chunk, when serializing
+   * straight to the output.
+   */
+  public void flush(StringBuilder sb)
+  {
+    if (_printEnv != null && PRINT_CHUNK_SIZE <= sb.length()) {
+      print(sb);
+    }
+  }
+
+  /*
+   * Prints and clears the buffer.
+   */
+  public void print(StringBuilder sb)
+  {
+    StringValue chunk = _printEnv.createStringBuilder();
+
+    chunk.append(sb.toString());
+    chunk.print(_printEnv);
+
+    sb.setLength(0);
+  }
+
   /*
    * Increments the index of values.
    */
@@ -30,6 +30,7 @@
 package com.caucho.quercus.env;
 
 import com.caucho.quercus.QuercusModuleException;
+import com.caucho.quercus.lib.IgbinarySerializer;
 import com.caucho.quercus.lib.UnserializeReader;
 import com.caucho.util.CacheListener;
 
@@ -60,6 +61,11 @@ public class SessionArrayValue extends ArrayValueWrapper
 
   private boolean _isValid;
 
+  // encoded data not yet decoded into the array
+  private String _pendingEncoded;
+  // encoding as last loaded or stored, for the dirty check
+  private String _storedEncoded;
+
   public SessionArrayValue(String id, long now, 
                            long maxInactiveInterval)
   {
@@ -93,6 +99,23 @@ public class SessionArrayValue extends ArrayValueWrapper
     _id = id;
   }
 
+  /**
+   * Returns the session array, decoding any lazily loaded data.
+   */
+  @Override
+  public ArrayValue getArray()
+  {
+    String encoded = _pendingEncoded;
+
+    if (encoded != null) {
+      _pendingEncoded = null;
+
+      decode(Env.getInstance(), new StringBuilderValue(encoded));
+    }
+
+    return super.getArray();
+  }
+
   /**
    * Converts to an object.
    */
@@ -108,9 +131,18 @@ public class SessionArrayValue extends ArrayValueWrapper
   {
     long accessTime = _accessTime;
 
-    SessionArrayValue copy = 
-      new SessionArrayValue(_id, accessTime, _maxInactiveInterval,
-                            (ArrayValue) getArray().copy(env, map));
+    SessionArrayValue copy;
+
+    if (_pendingEncoded != null) {
+      copy = new SessionArrayValue(_id, accessTime, _maxInactiveInterval);
+      copy._pendingEncoded = _pendingEncoded;
+    }
+    else {
+      copy = new SessionArrayValue(_id, accessTime, _maxInactiveInterval,
+                                   (ArrayValue) getArray().copy(env, map));
+    }
+
+    copy._storedEncoded = _storedEncoded;
 
     return copy;
   }
@@ -120,9 +152,17 @@ public class SessionArrayValue extends ArrayValueWrapper
    */
   public String encode(Env env)
   {
-    StringBuilder sb = new StringBuilder();
     ArrayValue array = getArray();
 
+    if (env != null
+        && "igbinary".equals(env.getIniString("session.serialize_handler"))) {
+      synchronized (array) {
+        return IgbinarySerializer.serialize(env, array).toString();
+      }
+    }
+
+    StringBuilder sb = new StringBuilder();
+
     SerializeMap serializeMap = new SerializeMap();
     
     synchronized (array) {
@@ -145,6 +185,24 @@ public class SessionArrayValue extends ArrayValueWrapper
     ArrayValue array = getArray();
 
     try {
+      // the binary format is detected by its header, whatever the handler
+      if (IgbinarySerializer.isIgbinary(encoded)) {
+        Value value = IgbinarySerializer.unserialize(env, encoded);
+
+        if (! (value instanceof ArrayValue))
+          return false;
+
+        synchronized (array) {
+          for (ArrayValue.Entry entry = ((ArrayValue) value).getHead();
+               entry != null;
+               entry = entry.getNext()) {
+            array.put(entry.getKey(), entry.getRawValue());
+          }
+        }
+
+        return true;
+      }
+
       UnserializeReader is = new UnserializeReader(encoded);
 
       synchronized (array) {
@@ -168,6 +226,40 @@ public class SessionArrayValue extends ArrayValueWrapper
     }
   }
 
+  /**
+   * Loads encoded data from the session store.  The values are decoded
+   * on the first access to the array.
+   */
+  public void decodeLazy(String encoded)
+  {
+    _pendingEncoded = encoded;
+    _storedEncoded = encoded;
+  }
+
+  /**
+   * Returns true if the session data has been decoded into the array.
+   */
+  public boolean isDecoded()
+  {
+    return _pendingEncoded == null;
+  }
+
+  /**
+   * Returns the encoding as last loaded or stored.
+   */
+  public String getStoredEncoding()
+  {
+    return _storedEncoded;
+  }
+
+  /**
+   * Sets the encoding as stored in the session store.
+   */
+  public void setStoredEncoding(String encoded)
+  {
+    _storedEncoded = encoded;
+  }
+
   public boolean inUse()
   {
     return _useCount.get() > 0;
@@ -325,6 +417,17 @@ public class SessionArrayValue extends ArrayValueWrapper
     return getSize() == 0;
   }
 
+  /**
+   * Clears the session, discarding any data not yet decoded.
+   */
+  @Override
+  public void clear()
+  {
+    _pendingEncoded = null;
+
+    super.clear();
+  }
+
   /**
    * Callback when the session is removed from the session cache, generally
    * because the session cache is full.
@@ -115,6 +115,21 @@ public class StringBuilderValue
     this(buffer, 0, buffer.length);
   }
 
+  /**
+   * Creates a string over the buffer without copying it.  The caller
+   * must not modify the buffer afterwards.
+   */
+  public static StringBuilderValue wrap(byte []buffer)
+  {
+    StringBuilderValue sb = new StringBuilderValue(0, true);
+
+    sb._buffer = buffer;
+    sb._length = buffer.length;
+    sb._isCopy = true;
+
+    return sb;
+  }
+
   public StringBuilderValue(char ch)
   {
     _buffer = new byte[1];
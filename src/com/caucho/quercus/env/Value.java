@@ -2477,6 +2477,22 @@ abstract public class Value implements java.io.Serializable
     return getField(env, name);
   }
 
+  /**
+   * Returns the declared field layout, or null if the value has none.
+   */
+  public FieldLayout getFieldLayout()
+  {
+    return null;
+  }
+
+  /**
+   * Returns the field using a slot from getFieldLayout().
+   */
+  public Value getThisFieldSlot(Env env, StringValue name, int slot)
+  {
+    return getThisField(env, name);
+  }
+
   /**
    * Returns the field as a Var.
    */
@@ -2583,6 +2599,17 @@ abstract public class Value implements java.io.Serializable
     return putField(env, name, object);
   }
 
+  /**
+   * Sets the field using a slot from getFieldLayout().
+   */
+  public Value putThisFieldSlot(Env env,
+                                StringValue name,
+                                Value value,
+                                int slot)
+  {
+    return putThisField(env, name, value);
+  }
+
   /**
    * Sets an array field ref.
    */
@@ -31,8 +31,11 @@ package com.caucho.quercus.expr;
 
 import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.ObjectExtValue;
+import com.caucho.quercus.env.QuercusClass;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.function.AbstractFunction;
 
 /**
  * Represents a PHP function expression.
@@ -93,5 +96,46 @@ abstract public class AbstractMethodExpr extends Expr {
       env.popCall();
     }
   }
+
+  /**
+   * Evaluates the expression, resolving the method through the call
+   * site's inline cache when the receiver is a PHP object.
+   *
+   * @param env the calling environment.
+   *
+   * @return the expression value.
+   */
+  protected Value evalCached(Env env, MethodCallCache cache, Value qThis,
+                             StringValue methodName, int hashCode,
+                             Expr []argExprs)
+  {
+    Value []args = evalArgs(env, argExprs);
+
+    env.pushCall(this, qThis, args);
+
+    try {
+      env.checkTimeout();
+
+      if (qThis instanceof ObjectExtValue) {
+        QuercusClass cls = qThis.getQuercusClass();
+
+        int generation = env.getQuercus().getDefinitionGeneration();
+
+        AbstractFunction fun = cache.get(cls, generation);
+
+        if (fun == null) {
+          fun = cls.getMethodMap().get(methodName, hashCode);
+
+          cache.put(cls, fun, generation);
+        }
+
+        return fun.callMethod(env, cls, qThis, args);
+      }
+
+      return qThis.callMethod(env, methodName, hashCode, args);
+    } finally {
+      env.popCall();
+    }
+  }
 }
 
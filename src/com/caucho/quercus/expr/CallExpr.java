@@ -50,7 +50,7 @@ public class CallExpr extends Expr {
   protected final StringValue _nsName;
   protected final Expr []_args;
 
-  private int _funId;
+  private transient int _funId;
 
   protected boolean _isRef;
 
@@ -177,27 +177,9 @@ public class CallExpr extends Expr {
    */
   private Value evalImpl(Env env, boolean isRef, boolean isCopy)
   {
-    if (_funId <= 0) {
-      _funId = env.findFunctionId(_name);
-
-      if (_funId <= 0) {
-        if (_nsName != null) {
-          _funId = env.findFunctionId(_nsName);
-        }
-
-        if (_funId <= 0) {
-          env.error(L.l("'{0}' is an unknown function.", _name), getLocation());
-
-          return NullValue.NULL;
-        }
-      }
-    }
-
-    AbstractFunction fun = env.getFunction(_funId);
+    AbstractFunction fun = findFunction(env);
 
     if (fun == null) {
-      env.error(L.l("'{0}' is an unknown function.", _name), getLocation());
-
       return NullValue.NULL;
     }
 
@@ -237,6 +219,65 @@ public class CallExpr extends Expr {
     }
   }
 
+  /**
+   * Evaluates the call as an echo, letting the function stream its
+   * result to the output.
+   */
+  @Override
+  public void print(Env env)
+  {
+    AbstractFunction fun = findFunction(env);
+
+    if (fun == null) {
+      return;
+    }
+
+    Value []args = evalArgs(env, _args);
+
+    env.pushCall(this, NullValue.NULL, args);
+
+    QuercusClass oldCallingClass = env.setCallingClass(null);
+
+    try {
+      env.checkTimeout();
+
+      fun.print(env, args);
+    } finally {
+      env.popCall();
+      env.setCallingClass(oldCallingClass);
+    }
+  }
+
+  /**
+   * Returns the called function, reporting an error if it's unknown.
+   */
+  private AbstractFunction findFunction(Env env)
+  {
+    if (_funId <= 0) {
+      _funId = env.findFunctionId(_name);
+
+      if (_funId <= 0) {
+        if (_nsName != null) {
+          _funId = env.findFunctionId(_nsName);
+        }
+
+        if (_funId <= 0) {
+          env.error(L.l("'{0}' is an unknown function.", _name), getLocation());
+
+          return null;
+        }
+      }
+    }
+
+    AbstractFunction fun = env.getFunction(_funId);
+
+    if (fun == null) {
+      env.error(L.l("'{0}' is an unknown function.", _name), getLocation());
+    }
+
+    return fun;
+  }
+
   // Return an array containing the Values to be
   // passed in to this function.
 
@@ -36,6 +36,7 @@ import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.QuercusClass;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.function.AbstractFunction;
 import com.caucho.util.L10N;
 
 /**
@@ -52,6 +53,8 @@ public class ClassMethodExpr extends AbstractMethodExpr {
 
   protected boolean _isMethod;
 
+  protected final MethodCallCache _methodCache = new MethodCallCache();
+
   public ClassMethodExpr(Location location, String className,
                          StringValue methodName,
                          ArrayList<Expr> args)
@@ -120,7 +123,20 @@ public class ClassMethodExpr extends AbstractMethodExpr {
     try {
       env.checkTimeout();
 
-      return cl.callStaticMethod(env, qThis, _methodName, _hash, values);
+      int generation = env.getQuercus().getDefinitionGeneration();
+
+      AbstractFunction fun = _methodCache.get(cl, generation);
+
+      if (fun == null) {
+        fun = cl.getMethodMap().getStatic(_methodName, _hash);
+
+        _methodCache.put(cl, fun, generation);
+      }
+
+      if (qThis.isNull())
+        qThis = cl;
+
+      return fun.callMethod(env, cl, qThis, values);
     } finally {
       env.popCall();
       env.setThis(oldThis);
@@ -45,7 +45,7 @@ import java.util.ArrayList;
 /**
  * Represents a PHP expression.
  */
-abstract public class Expr {
+abstract public class Expr implements java.io.Serializable {
   private static final L10N L = new L10N(Expr.class);
 
   public static final int COMPILE_ARG_MAX = 5;
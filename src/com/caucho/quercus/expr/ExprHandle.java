@@ -34,7 +34,7 @@ import com.caucho.quercus.statement.StatementHandle;
 /**
  * A handle to a top expression
  */
-public class ExprHandle {
+public class ExprHandle implements java.io.Serializable {
   public static final ExprHandle NULL = new ExprHandle();
   
   private final StatementHandle _statement;
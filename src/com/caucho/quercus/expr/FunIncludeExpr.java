@@ -34,13 +34,17 @@ import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.NullValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.program.QuercusProgramInputStream;
 import com.caucho.vfs.Path;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 /**
  * Represents a PHP include statement
  */
 public class FunIncludeExpr extends AbstractUnaryExpr {
-  protected Path _dir;
+  protected transient Path _dir;
   protected boolean _isRequire;
   
   public FunIncludeExpr(Location location, Path sourceFile, Expr expr)
@@ -97,5 +101,16 @@ public class FunIncludeExpr extends AbstractUnaryExpr {
   {
     return _expr.toString();
   }
-}
 
+  private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+
+    if (in instanceof QuercusProgramInputStream) {
+      Path sourceFile = ((QuercusProgramInputStream) in).getSourcePath();
+
+      _dir = sourceFile.getParent();
+    }
+  }
+}
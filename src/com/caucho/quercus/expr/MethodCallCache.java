@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.expr;
+
+import com.caucho.quercus.env.QuercusClass;
+import com.caucho.quercus.function.AbstractFunction;
+
+/**
+ * Inline cache for a method call site, mapping the receiver's class to
+ * the resolved method.  The entry array is immutable and replaced on
+ * update, so racing requests at worst miss and resolve again.  The
+ * entries are runtime state and aren't saved with the program.
+ *
+ * Entries are tagged with the engine's definition generation, so a page
+ * reload or class redefinition drops the old classes and lets a
+ * megamorphic site start over.
+ */
+public final class MethodCallCache implements java.io.Serializable {
+  private static final Entries NULL_ENTRIES = new Entries(-1, new Entry[0]);
+
+  // sites seeing more classes than this are megamorphic
+  private static final int MAX_ENTRIES = 4;
+
+  private transient volatile Entries _entries = NULL_ENTRIES;
+
+  /**
+   * Returns the cached method for the class, or null.
+   */
+  public AbstractFunction get(QuercusClass cls, int generation)
+  {
+    Entries entries = _entries;
+
+    if (entries == null || entries._generation != generation)
+      return null;
+
+    Entry []list = entries._list;
+
+    for (int i = 0; i < list.length; i++) {
+      Entry entry = list[i];
+
+      if (entry._cls == cls)
+        return entry._fun;
+    }
+
+    return null;
+  }
+
+  /**
+   * Caches the resolved method for the class.
+   */
+  public void put(QuercusClass cls, AbstractFunction fun, int generation)
+  {
+    Entries entries = _entries;
+
+    Entry []list;
+
+    if (entries == null || entries._generation != generation)
+      list = NULL_ENTRIES._list;
+    else
+      list = entries._list;
+
+    if (list.length >= MAX_ENTRIES)
+      return;
+
+    Entry []newList = new Entry[list.length + 1];
+
+    System.arraycopy(list, 0, newList, 0, list.length);
+    newList[list.length] = new Entry(cls, fun);
+
+    _entries = new Entries(generation, newList);
+  }
+
+  /**
+   * Clears the cache.
+   */
+  public void clear()
+  {
+    _entries = NULL_ENTRIES;
+  }
+
+  static final class Entries {
+    private final int _generation;
+    private final Entry []_list;
+
+    Entries(int generation, Entry []list)
+    {
+      _generation = generation;
+      _list = list;
+    }
+  }
+
+  static final class Entry {
+    private final QuercusClass _cls;
+    private final AbstractFunction _fun;
+
+    Entry(QuercusClass cls, AbstractFunction fun)
+    {
+      _cls = cls;
+      _fun = fun;
+    }
+  }
+}
@@ -46,6 +46,10 @@ public class ObjectMethodExpr extends AbstractMethodExpr {
 
   protected final Expr []_args;
 
+  protected final int _hash;
+
+  protected final MethodCallCache _methodCache = new MethodCallCache();
+
   public ObjectMethodExpr(Location location,
                           Expr objExpr,
                           StringValue name,
@@ -56,6 +60,7 @@ public class ObjectMethodExpr extends AbstractMethodExpr {
     _objExpr = objExpr;
 
     _methodName = name;
+    _hash = name.hashCodeCaseInsensitive();
 
     _args = new Expr[args.size()];
     args.toArray(_args);
@@ -78,11 +83,7 @@ public class ObjectMethodExpr extends AbstractMethodExpr {
   {
     Value obj = _objExpr.eval(env);
 
-    StringValue methodName = _methodName;
-
-    int hash = methodName.hashCodeCaseInsensitive();
-
-    return eval(env, obj, methodName, hash, _args);
+    return evalCached(env, _methodCache, obj, _methodName, _hash, _args);
   }
 
   public String toString()
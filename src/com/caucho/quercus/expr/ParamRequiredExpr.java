@@ -66,6 +66,15 @@ public class ParamRequiredExpr extends Expr {
     return NullValue.NULL;
   }
 
+  private Object readResolve()
+  {
+    // Arg.isRequired() compares against the singleton
+    if (getClass() == ParamRequiredExpr.class)
+      return REQUIRED;
+    else
+      return this;
+  }
+
   public String toString()
   {
     return "required";
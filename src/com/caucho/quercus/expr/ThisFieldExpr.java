@@ -34,6 +34,7 @@ import java.util.ArrayList;
 
 import com.caucho.quercus.Location;
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.FieldLayout;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Var;
@@ -50,6 +51,9 @@ public class ThisFieldExpr extends AbstractVarExpr {
 
   protected boolean _isInit;
 
+  // slot for the last field layout seen at this site
+  private transient FieldLayout.Slot _slot;
+
   public ThisFieldExpr(Location location,
                        ThisExpr qThis,
                        StringValue name)
@@ -94,6 +98,27 @@ public class ThisFieldExpr extends AbstractVarExpr {
     }
   }
 
+  /**
+   * Returns the field's slot in the object's layout, or -1.
+   */
+  private int getSlot(Value obj)
+  {
+    FieldLayout layout = obj.getFieldLayout();
+
+    if (layout == null) {
+      return -1;
+    }
+
+    FieldLayout.Slot slot = _slot;
+
+    if (slot == null || slot.getLayout() != layout) {
+      slot = layout.getSlot(_name);
+      _slot = slot;
+    }
+
+    return slot.getIndex();
+  }
+
   /**
    * Evaluates the expression.
    *
@@ -111,7 +136,7 @@ public class ThisFieldExpr extends AbstractVarExpr {
       return env.thisError(getLocation());
     }
 
-    return obj.getThisField(env, _name);
+    return obj.getThisFieldSlot(env, _name, getSlot(obj));
   }
 
   /**
@@ -131,7 +156,7 @@ public class ThisFieldExpr extends AbstractVarExpr {
       return env.thisError(getLocation());
     }
 
-    return obj.getThisField(env, _name).copy();
+    return obj.getThisFieldSlot(env, _name, getSlot(obj)).copy();
   }
 
   /**
@@ -196,7 +221,7 @@ public class ThisFieldExpr extends AbstractVarExpr {
       return env.thisError(getLocation());
     }
 
-    obj.putThisField(env, _name, value);
+    obj.putThisFieldSlot(env, _name, value, getSlot(obj));
 
     return value;
   }
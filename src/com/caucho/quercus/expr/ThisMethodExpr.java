@@ -45,9 +45,9 @@ public class ThisMethodExpr extends ObjectMethodExpr {
   protected final InterpretedClassDef _classDef;
 
   protected final int _hashCodeInsensitive;
-  protected boolean _isInit;
+  protected transient boolean _isInit;
 
-  protected AbstractFunction _fun;
+  protected transient AbstractFunction _fun;
 
   public ThisMethodExpr(Location location,
                         ThisExpr qThis,
@@ -85,7 +85,8 @@ public class ThisMethodExpr extends ObjectMethodExpr {
       return evalPrivate(env, _fun, qThis, _args);
     }
     else {
-      return evalImpl(env, qThis, _methodName, _hashCodeInsensitive, _args);
+      return evalCached(env, _methodCache, qThis,
+                        _methodName, _hashCodeInsensitive, _args);
     }
   }
 
@@ -117,24 +118,6 @@ public class ThisMethodExpr extends ObjectMethodExpr {
     }
   }
 
-  private Value evalImpl(Env env, Value qThis,
-                         StringValue methodName, int hashCode,
-                         Expr []argExprs)
-  {
-    Value []args = evalArgs(env, argExprs);
-
-    env.pushCall(this, qThis, args);
-
-    try {
-      env.checkTimeout();
-
-      return qThis.callMethod(env, methodName, hashCode, args);
-    }
-    finally {
-      env.popCall();
-    }
-  }
-
   @Override
   public String toString()
   {
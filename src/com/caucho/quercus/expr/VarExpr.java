@@ -137,7 +137,7 @@ public class VarExpr
   @Override
   public Value eval(Env env)
   {
-    return env.getValue(_name, false, true);
+    return env.getValue(_var, false, true);
   }
 
   /**
@@ -149,7 +149,7 @@ public class VarExpr
   @Override
   public Value evalTop(Env env)
   {
-    return env.getValue(_name, false, false);
+    return env.getValue(_var, false, false);
   }
 
   /**
@@ -157,7 +157,7 @@ public class VarExpr
    */
   public boolean evalIsset(Env env)
   {
-    return env.getValue(_name, false, false).isset();
+    return env.getValue(_var, false, false).isset();
   }
 
   /**
@@ -165,7 +165,7 @@ public class VarExpr
    */
   public Value evalIssetValue(Env env)
   {
-    return env.getValue(_name, false, false);
+    return env.getValue(_var, false, false);
   }
 
   /**
@@ -189,7 +189,7 @@ public class VarExpr
   @Override
   public Value evalArray(Env env)
   {
-    Value value = env.getVar(_name);
+    Value value = env.getVar(_var);
 
     value = value.toAutoArray();
 
@@ -218,12 +218,12 @@ public class VarExpr
       }
     } else {
     */
-      value = env.getValue(_name);
+      value = env.getValue(_var, true, false);
 
       if (value == null || value.isString() || value.isNull()) {
         value = env.createObject();
 
-        env.setValue(_name, value);
+        env.setValue(_var, value);
       }
     //}
 
@@ -238,7 +238,7 @@ public class VarExpr
    */
   public Var evalVar(Env env)
   {
-    return env.getVar(_name);
+    return env.getVar(_var);
   }
 
   /**
@@ -253,7 +253,7 @@ public class VarExpr
     // php/043k
     // php/0443
 
-    return env.getVar(_name);
+    return env.getVar(_var);
   }
 
   /**
@@ -265,7 +265,7 @@ public class VarExpr
   public Value evalAssignValue(Env env, Value value)
   {
     // php/0232
-    env.setValue(_name, value);
+    env.setValue(_var, value);
 
     return value;
   }
@@ -278,7 +278,7 @@ public class VarExpr
   @Override
   public Value evalAssignRef(Env env, Value value)
   {
-    env.setRef(_name, value);
+    env.setRef(_var, value);
 
     return value;
   }
@@ -297,7 +297,7 @@ public class VarExpr
       env.unsetGlobalVar(_name);
     else
     */
-    env.unsetLocalVar(_name);
+    env.unsetLocalVar(_var);
   }
 
   public int hashCode()
@@ -35,15 +35,17 @@ import com.caucho.quercus.program.FunctionInfo;
 /**
  * Information about a variable's use in a function.
  */
-public class VarInfo {
+public class VarInfo implements java.io.Serializable {
   private final FunctionInfo _function;
 
   private final StringValue _name;
+  private final int _index;
 
-  public VarInfo(StringValue name, FunctionInfo function)
+  public VarInfo(StringValue name, FunctionInfo function, int index)
   {
     _name = name;
     _function = function;
+    _index = index;
   }
 
   /**
@@ -62,6 +64,14 @@ public class VarInfo {
     return _function;
   }
 
+  /**
+   * Returns the variable's slot in the owning function's local frame.
+   */
+  public int getIndex()
+  {
+    return _index;
+  }
+
   @Override
   public String toString()
   {
@@ -64,7 +64,7 @@ abstract public class AbstractFunction extends Callback {
   protected Visibility _visibility = Visibility.PUBLIC;
   protected String _declaringClassName;
 
-  protected QuercusClass _bindingClass;
+  protected transient QuercusClass _bindingClass;
 
   protected int _parseIndex;
 
@@ -496,6 +496,14 @@ abstract public class AbstractFunction extends Callback {
   @Override
   abstract public Value call(Env env, Value []args);
 
+  /**
+   * Evaluates the function and prints the result, for echo.
+   */
+  public void print(Env env, Value []args)
+  {
+    call(env, args).print(env);
+  }
+
   /**
    * Evaluates the function, returning a reference.
    */
@@ -0,0 +1,966 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib;
+
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.BinaryBuilderValue;
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.ConstArrayValue;
+import com.caucho.quercus.env.ConstStringValue;
+import com.caucho.quercus.env.DoubleValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.ObjectValue;
+import com.caucho.quercus.env.StringBuilderValue;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.UnicodeValue;
+import com.caucho.quercus.env.UnserializeCacheEntry;
+import com.caucho.quercus.env.Value;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared APC user cache.  The key space is split into independently
+ * locked segments, each bounded by entry count and by estimated bytes
+ * and evicted in LRU order.  Entries with a TTL are also registered in a
+ * hierarchical timing wheel, so they are reclaimed when they expire
+ * rather than only when they're next read.
+ */
+public class ApcCache
+{
+  private static final int SEGMENT_COUNT = 16;
+
+  private final Segment []_segments;
+  private final TimingWheel _wheel;
+
+  private final long _maxSize;
+  private final long _startTime;
+
+  private final AtomicLong _hitCount = new AtomicLong();
+  private final AtomicLong _missCount = new AtomicLong();
+  private final AtomicLong _insertCount = new AtomicLong();
+  private final AtomicLong _expungeCount = new AtomicLong();
+
+  public ApcCache(int maxEntries, long maxSize, long now)
+  {
+    _maxSize = maxSize;
+    _startTime = now;
+
+    _segments = new Segment[SEGMENT_COUNT];
+
+    int segmentEntries = Math.max(1, maxEntries / SEGMENT_COUNT);
+    long segmentSize = Math.max(1, maxSize / SEGMENT_COUNT);
+
+    _wheel = new TimingWheel(now);
+
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      _segments[i] = new Segment(segmentEntries, segmentSize, _wheel);
+    }
+  }
+
+  /**
+   * Returns the live entry for the key, or null.
+   */
+  public Entry get(String key, long now)
+  {
+    expire(now);
+
+    Segment segment = getSegment(key);
+    Entry entry;
+
+    synchronized (segment) {
+      entry = segment.get(key, now);
+    }
+
+    if (entry != null)
+      _hitCount.incrementAndGet();
+    else
+      _missCount.incrementAndGet();
+
+    return entry;
+  }
+
+  /**
+   * Stores the entry, replacing any current value.
+   */
+  public void put(Entry entry, long now)
+  {
+    expire(now);
+
+    Segment segment = getSegment(entry.getKey());
+
+    synchronized (segment) {
+      segment.put(entry);
+    }
+
+    _insertCount.incrementAndGet();
+  }
+
+  /**
+   * Stores the entry unless a live entry exists for its key.
+   */
+  public boolean putIfAbsent(Entry entry, long now)
+  {
+    expire(now);
+
+    Segment segment = getSegment(entry.getKey());
+
+    synchronized (segment) {
+      if (segment.get(entry.getKey(), now) != null)
+        return false;
+
+      segment.put(entry);
+    }
+
+    _insertCount.incrementAndGet();
+
+    return true;
+  }
+
+  /**
+   * Removes the key, returning true if a live entry was removed.
+   */
+  public boolean remove(String key, long now)
+  {
+    Segment segment = getSegment(key);
+
+    synchronized (segment) {
+      Entry entry = segment.remove(key);
+
+      return entry != null && ! entry.isExpired(now);
+    }
+  }
+
+  /**
+   * Atomically adds step to an integer entry, returning the new value or
+   * null if the entry is missing or not an integer.
+   */
+  public Value increment(Env env, String key, long step)
+  {
+    long now = env.getCurrentTime();
+
+    expire(now);
+
+    Segment segment = getSegment(key);
+
+    synchronized (segment) {
+      Entry entry = segment.get(key, now);
+
+      if (entry == null)
+        return null;
+
+      Value value = entry.getValue(env);
+
+      if (value == null || ! value.isLongConvertible())
+        return null;
+
+      LongValue result = LongValue.create(value.toLong() + step);
+
+      segment.put(new Entry(key, result, entry));
+
+      return result;
+    }
+  }
+
+  /**
+   * Atomically replaces an integer entry if it equals oldValue.
+   */
+  public boolean compareAndSwap(Env env, String key,
+                                long oldValue, long newValue)
+  {
+    long now = env.getCurrentTime();
+
+    expire(now);
+
+    Segment segment = getSegment(key);
+
+    synchronized (segment) {
+      Entry entry = segment.get(key, now);
+
+      if (entry == null)
+        return false;
+
+      Value value = entry.getValue(env);
+
+      if (value == null
+          || ! value.isLongConvertible()
+          || value.toLong() != oldValue) {
+        return false;
+      }
+
+      segment.put(new Entry(key, LongValue.create(newValue), entry));
+
+      return true;
+    }
+  }
+
+  /**
+   * Removes all entries.
+   */
+  public void clear()
+  {
+    for (Segment segment : _segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  /**
+   * Returns a snapshot of the live entries.
+   */
+  public ArrayList<Entry> getEntries(long now)
+  {
+    ArrayList<Entry> list = new ArrayList<Entry>();
+
+    for (Segment segment : _segments) {
+      synchronized (segment) {
+        for (Entry entry : segment.values()) {
+          if (! entry.isExpired(now))
+            list.add(entry);
+        }
+      }
+    }
+
+    return list;
+  }
+
+  /**
+   * Reclaims entries whose TTL has passed.
+   */
+  public void expire(long now)
+  {
+    if (! _wheel.isExpireReady(now))
+      return;
+
+    ArrayList<Entry> expiredList = _wheel.advance(now);
+
+    if (expiredList == null)
+      return;
+
+    for (Entry entry : expiredList) {
+      Segment segment = getSegment(entry.getKey());
+
+      synchronized (segment) {
+        if (segment.removeEntry(entry))
+          _expungeCount.incrementAndGet();
+      }
+    }
+  }
+
+  public int getSegmentCount()
+  {
+    return _segments.length;
+  }
+
+  public long getMaxSize()
+  {
+    return _maxSize;
+  }
+
+  public long getSegmentMaxSize()
+  {
+    return _segments[0].getMaxSize();
+  }
+
+  public long getSegmentSize(int i)
+  {
+    Segment segment = _segments[i];
+
+    synchronized (segment) {
+      return segment.getSize();
+    }
+  }
+
+  /**
+   * Returns the estimated bytes used by all entries.
+   */
+  public long getSize()
+  {
+    long size = 0;
+
+    for (int i = 0; i < _segments.length; i++) {
+      size += getSegmentSize(i);
+    }
+
+    return size;
+  }
+
+  public int getEntryCount()
+  {
+    int count = 0;
+
+    for (Segment segment : _segments) {
+      synchronized (segment) {
+        count += segment.size();
+      }
+    }
+
+    return count;
+  }
+
+  public int getCapacity()
+  {
+    return _segments[0].getCapacity() * _segments.length;
+  }
+
+  public long getStartTime()
+  {
+    return _startTime;
+  }
+
+  public long getHitCount()
+  {
+    return _hitCount.get();
+  }
+
+  public long getMissCount()
+  {
+    return _missCount.get();
+  }
+
+  public long getInsertCount()
+  {
+    return _insertCount.get();
+  }
+
+  /**
+   * Returns the number of entries removed by TTL expiry or eviction.
+   */
+  public long getExpungeCount()
+  {
+    long count = _expungeCount.get();
+
+    for (Segment segment : _segments) {
+      synchronized (segment) {
+        count += segment.getEvictCount();
+      }
+    }
+
+    return count;
+  }
+
+  private Segment getSegment(String key)
+  {
+    int hash = key.hashCode();
+
+    hash ^= (hash >>> 16);
+
+    return _segments[hash & (SEGMENT_COUNT - 1)];
+  }
+
+  /**
+   * Estimates the heap bytes held by a cached value.
+   */
+  static long estimateSize(Value value)
+  {
+    return estimateSize(value, new IdentityHashMap<Value,Value>());
+  }
+
+  private static long estimateSize(Value value,
+                                   IdentityHashMap<Value,Value> seen)
+  {
+    value = value.toValue();
+
+    if (value instanceof StringValue)
+      return 48 + 2L * ((StringValue) value).length();
+    else if (value instanceof ArrayValue) {
+      if (seen.put(value, value) != null)
+        return 8;
+
+      long size = 64;
+
+      for (Map.Entry<Value,Value> entry : ((ArrayValue) value).entrySet()) {
+        size += 48;
+        size += estimateSize(entry.getKey(), seen);
+        size += estimateSize(entry.getValue(), seen);
+      }
+
+      return size;
+    }
+    else if (value instanceof ObjectValue) {
+      if (seen.put(value, value) != null)
+        return 8;
+
+      long size = 96;
+
+      for (Map.Entry<Value,Value> entry : ((ObjectValue) value).entrySet()) {
+        size += 48;
+        size += estimateSize(entry.getKey(), seen);
+        size += estimateSize(entry.getValue(), seen);
+      }
+
+      return size;
+    }
+    else
+      return 24;
+  }
+
+  /**
+   * Returns an immutable form of the value that can be shared by all
+   * requests, or null if it holds objects or resources, which need a
+   * per-request copy.  Arrays become ConstArrayValues, which are copied
+   * on write, and byte strings are copied once into ConstStringValues so
+   * the storing request can't change them and no request marks a shared
+   * buffer as copied.
+   *
+   * An array reached twice, e.g. through a reference cycle as in $GLOBALS,
+   * also returns null, leaving it to the serialized copy.
+   */
+  static Value freeze(Value value)
+  {
+    return freeze(value, new IdentityHashMap<Value,Value>());
+  }
+
+  private static Value freeze(Value value, IdentityHashMap<Value,Value> seen)
+  {
+    value = value.toValue();
+
+    if (value instanceof ConstArrayValue)
+      return value;
+    else if (value instanceof ArrayValue) {
+      if (seen.put(value, value) != null)
+        return null;
+
+      ArrayValue array = (ArrayValue) value;
+      ArrayValueImpl frozen = new ArrayValueImpl();
+
+      for (ArrayValue.Entry ptr = array.getHead();
+           ptr != null;
+           ptr = ptr.getNext()) {
+        Value key = freeze(ptr.getKey(), seen);
+        Value item = freeze(ptr.getValue(), seen);
+
+        if (key == null || item == null)
+          return null;
+
+        frozen.append(key, item);
+      }
+
+      return new ConstArrayValue(frozen);
+    }
+    else if (value instanceof ConstStringValue)
+      return value;
+    else if (value instanceof BinaryBuilderValue
+             || value instanceof UnicodeValue) {
+      // no immutable form, so these are copied on each fetch
+      return null;
+    }
+    else if (value instanceof StringBuilderValue)
+      return new ConstStringValue((StringBuilderValue) value);
+    else if (value instanceof StringValue)
+      return new ConstStringValue(((StringValue) value).toBytes());
+    else if (value instanceof LongValue
+             || value instanceof DoubleValue
+             || value instanceof BooleanValue
+             || value instanceof NullValue) {
+      return value;
+    }
+    else
+      return null;
+  }
+
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[entries=" + getEntryCount() + ",size=" + getSize() + "]");
+  }
+
+  /**
+   * A cached value.  Entries are immutable once stored; increments and
+   * swaps replace the entry.
+   *
+   * Values without objects are frozen and shared, so a fetch is O(1)
+   * until the script writes to the result.  Others are deep-copied on
+   * each fetch.
+   */
+  public static class Entry
+  {
+    private final String _key;
+
+    private final Value _frozenValue;
+    private final UnserializeCacheEntry _copyEntry;
+
+    private final long _createTime;
+    private final long _expire;
+    private final long _size;
+
+    private static final AtomicIntegerFieldUpdater<Entry> _hitCountUpdater
+      = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "_hitCount");
+
+    private volatile long _accessTime;
+    private volatile int _hitCount;
+
+    // timing wheel links, guarded by the wheel
+    private Entry _wheelPrev;
+    private Entry _wheelNext;
+    private Entry []_wheelSlots;
+    private int _wheelIndex;
+
+    public Entry(Env env, String key, Value value, int ttl)
+    {
+      _key = key;
+
+      _frozenValue = freeze(value);
+
+      if (_frozenValue != null)
+        _copyEntry = null;
+      else
+        _copyEntry = new UnserializeCacheEntry(env, value);
+
+      long now = env.getCurrentTime();
+
+      if (ttl <= 0)
+        _expire = Long.MAX_VALUE / 2;
+      else
+        _expire = now + ttl * 1000L;
+
+      _createTime = now;
+      _accessTime = now;
+
+      _size = 64 + 2L * key.length() + estimateSize(value);
+    }
+
+    /**
+     * Replacement for an integer update, keeping the TTL of the old entry.
+     */
+    Entry(String key, LongValue value, Entry oldEntry)
+    {
+      _key = key;
+      _frozenValue = value;
+      _copyEntry = null;
+
+      _createTime = oldEntry._createTime;
+      _expire = oldEntry._expire;
+      _accessTime = oldEntry._accessTime;
+      _hitCount = oldEntry._hitCount;
+
+      _size = 64 + 2L * key.length() + estimateSize(value);
+    }
+
+    public String getKey()
+    {
+      return _key;
+    }
+
+    public long getSize()
+    {
+      return _size;
+    }
+
+    public long getCreateTime()
+    {
+      return _createTime;
+    }
+
+    public long getAccessTime()
+    {
+      return _accessTime;
+    }
+
+    public long getExpireTime()
+    {
+      return _expire;
+    }
+
+    public long getTTL(Env env)
+    {
+      if (_expire >= Long.MAX_VALUE / 2)
+        return 0;
+      else
+        return (_expire - env.getCurrentTime()) / 1000L;
+    }
+
+    public long getHitCount()
+    {
+      return _hitCount;
+    }
+
+    public boolean isExpired(long now)
+    {
+      return _expire < now;
+    }
+
+    boolean hasTTL()
+    {
+      return _expire < Long.MAX_VALUE / 2;
+    }
+
+    /**
+     * True if the value is shared and contains no objects.
+     */
+    public boolean isFrozen()
+    {
+      return _frozenValue != null;
+    }
+
+    public Value getValue(Env env)
+    {
+      if (isExpired(env.getCurrentTime()))
+        return null;
+
+      _accessTime = env.getCurrentTime();
+      _hitCountUpdater.incrementAndGet(this);
+
+      if (_frozenValue != null)
+        return _frozenValue.copy();
+      else
+        return _copyEntry.getValue(env);
+    }
+  }
+
+  /**
+   * A locked shard of the cache.  The segment keeps the wheel in step
+   * with its map, so a replaced, removed or evicted entry doesn't stay
+   * reachable from the wheel until its TTL.
+   */
+  static final class Segment
+  {
+    private final LinkedHashMap<String,Entry> _map
+      = new LinkedHashMap<String,Entry>(64, 0.75f, true);
+
+    private final int _capacity;
+    private final long _maxSize;
+    private final TimingWheel _wheel;
+
+    private long _size;
+    private long _evictCount;
+
+    Segment(int capacity, long maxSize, TimingWheel wheel)
+    {
+      _capacity = capacity;
+      _maxSize = maxSize;
+      _wheel = wheel;
+    }
+
+    int getCapacity()
+    {
+      return _capacity;
+    }
+
+    long getMaxSize()
+    {
+      return _maxSize;
+    }
+
+    long getSize()
+    {
+      return _size;
+    }
+
+    long getEvictCount()
+    {
+      return _evictCount;
+    }
+
+    int size()
+    {
+      return _map.size();
+    }
+
+    Iterable<Entry> values()
+    {
+      return _map.values();
+    }
+
+    Entry get(String key, long now)
+    {
+      Entry entry = _map.get(key);
+
+      if (entry != null && entry.isExpired(now)) {
+        remove(key);
+
+        return null;
+      }
+
+      return entry;
+    }
+
+    void put(Entry entry)
+    {
+      Entry oldEntry = _map.put(entry.getKey(), entry);
+
+      if (oldEntry != null) {
+        _size -= oldEntry.getSize();
+        _wheel.unlink(oldEntry);
+      }
+
+      _size += entry.getSize();
+
+      if (entry.hasTTL())
+        _wheel.schedule(entry);
+
+      evict();
+    }
+
+    Entry remove(String key)
+    {
+      Entry entry = _map.remove(key);
+
+      if (entry != null) {
+        _size -= entry.getSize();
+        _wheel.unlink(entry);
+      }
+
+      return entry;
+    }
+
+    /**
+     * Removes the entry only if it is still the current one for its key.
+     */
+    boolean removeEntry(Entry entry)
+    {
+      if (_map.get(entry.getKey()) != entry)
+        return false;
+
+      remove(entry.getKey());
+
+      return true;
+    }
+
+    void clear()
+    {
+      for (Entry entry : _map.values()) {
+        _wheel.unlink(entry);
+      }
+
+      _map.clear();
+
+      _size = 0;
+    }
+
+    private void evict()
+    {
+      Iterator<Entry> iter = _map.values().iterator();
+
+      while (_map.size() > 1
+             && (_map.size() > _capacity || _size > _maxSize)
+             && iter.hasNext()) {
+        Entry entry = iter.next();
+
+        iter.remove();
+
+        _size -= entry.getSize();
+        _evictCount++;
+
+        _wheel.unlink(entry);
+      }
+    }
+  }
+
+  /**
+   * Two-level hashed timing wheel with one second ticks: the inner wheel
+   * covers the next 512 seconds, the outer about three days, and later
+   * deadlines wait in an overflow list.  Each slot is an intrusive
+   * doubly-linked list through the entries, so an entry can be unlinked
+   * in O(1) when it leaves the cache.
+   */
+  static final class TimingWheel
+  {
+    private static final int BITS = 9;
+    private static final int SIZE = 1 << BITS;
+    private static final int MASK = SIZE - 1;
+    private static final long TICK = 1000L;
+
+    private final Entry []_inner = new Entry[SIZE];
+    private final Entry []_outer = new Entry[SIZE];
+    private final Entry []_overflow = new Entry[1];
+
+    private volatile long _tick;
+
+    TimingWheel(long now)
+    {
+
+      _tick = now / TICK;
+    }
+
+    boolean isExpireReady(long now)
+    {
+      return _tick < now / TICK;
+    }
+
+    synchronized void schedule(Entry entry)
+    {
+      long expireTick = (entry.getExpireTime() + TICK - 1) / TICK;
+      long delta = expireTick - _tick;
+
+      if (delta <= 0)
+        add(_inner, (int) ((_tick + 1) & MASK), entry);
+      else if (delta < SIZE)
+        add(_inner, (int) (expireTick & MASK), entry);
+      else if (delta < (long) (SIZE - 1) * SIZE)
+        add(_outer, (int) ((expireTick >> BITS) & MASK), entry);
+      else
+        add(_overflow, 0, entry);
+    }
+
+    /**
+     * Removes the entry from its slot, if it's still scheduled.
+     */
+    synchronized void unlink(Entry entry)
+    {
+      Entry []slots = entry._wheelSlots;
+
+      if (slots == null)
+        return;
+
+      Entry prev = entry._wheelPrev;
+      Entry next = entry._wheelNext;
+
+      if (prev != null)
+        prev._wheelNext = next;
+      else
+        slots[entry._wheelIndex] = next;
+
+      if (next != null)
+        next._wheelPrev = prev;
+
+      entry._wheelPrev = null;
+      entry._wheelNext = null;
+      entry._wheelSlots = null;
+    }
+
+    /**
+     * Advances to now, returning the expired entries.
+     */
+    synchronized ArrayList<Entry> advance(long now)
+    {
+      long nowTick = now / TICK;
+
+      if (nowTick <= _tick)
+        return null;
+
+      ArrayList<Entry> expiredList = new ArrayList<Entry>();
+
+      if (nowTick - _tick >= SIZE) {
+        // long idle gap: sweep everything instead of ticking through it
+        ArrayList<Entry> all = new ArrayList<Entry>();
+        drain(_overflow, 0, all);
+
+        for (int i = 0; i < SIZE; i++) {
+          drain(_inner, i, all);
+          drain(_outer, i, all);
+        }
+
+        _tick = nowTick;
+
+        for (Entry entry : all) {
+          reschedule(entry, now, expiredList);
+        }
+
+        return expiredList;
+      }
+
+      while (_tick < nowTick) {
+        long tick = _tick + 1;
+        _tick = tick;
+
+        if ((tick & MASK) == 0) {
+          long outerTick = tick >> BITS;
+
+          if ((outerTick & MASK) == 0) {
+            ArrayList<Entry> overflow = new ArrayList<Entry>();
+            drain(_overflow, 0, overflow);
+
+            for (Entry entry : overflow) {
+              reschedule(entry, now, expiredList);
+            }
+          }
+
+          ArrayList<Entry> cascade = new ArrayList<Entry>();
+          drain(_outer, (int) (outerTick & MASK), cascade);
+
+          for (Entry entry : cascade) {
+            reschedule(entry, now, expiredList);
+          }
+        }
+
+        ArrayList<Entry> slot = new ArrayList<Entry>();
+        drain(_inner, (int) (tick & MASK), slot);
+
+        for (Entry entry : slot) {
+          reschedule(entry, now, expiredList);
+        }
+      }
+
+      return expiredList;
+    }
+
+    private void reschedule(Entry entry, long now,
+                            ArrayList<Entry> expiredList)
+    {
+      if (entry.isExpired(now))
+        expiredList.add(entry);
+      else
+        schedule(entry);
+    }
+
+    private static void add(Entry []wheel, int i, Entry entry)
+    {
+      Entry head = wheel[i];
+
+      entry._wheelSlots = wheel;
+      entry._wheelIndex = i;
+      entry._wheelPrev = null;
+      entry._wheelNext = head;
+
+      if (head != null)
+        head._wheelPrev = entry;
+
+      wheel[i] = entry;
+    }
+
+    private static void drain(Entry []wheel, int i, ArrayList<Entry> list)
+    {
+      Entry entry = wheel[i];
+      wheel[i] = null;
+
+      while (entry != null) {
+        Entry next = entry._wheelNext;
+
+        entry._wheelPrev = null;
+        entry._wheelNext = null;
+        entry._wheelSlots = null;
+
+        list.add(entry);
+
+        entry = next;
+      }
+    }
+  }
+}
@@ -36,7 +36,6 @@ import com.caucho.quercus.module.AbstractQuercusModule;
 import com.caucho.quercus.module.IniDefinitions;
 import com.caucho.quercus.module.IniDefinition;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
 import com.caucho.vfs.Path;
 
 import java.io.IOException;
@@ -57,7 +56,7 @@ public class ApcModule extends AbstractQuercusModule
 
   private static final int _defaultSize = 4096;
 
-  private LruCache<String,Entry> _cache;
+  private volatile ApcCache _cache;
 
   private HashMap<String,Value> _constMap = new HashMap<String,Value>();
 
@@ -86,54 +85,53 @@ public class ApcModule extends AbstractQuercusModule
   {
     ArrayValue value = new ArrayValueImpl();
 
-    if (_cache != null) {
-      value.put("num_slots", _cache.getCapacity());
+    ApcCache cache = _cache;
+
+    if (cache != null) {
+      cache.expire(env.getCurrentTime());
+
+      value.put("num_slots", cache.getCapacity());
       value.put("ttl", 0);
-      value.put("num_hits", _cache.getHitCount());
-      value.put("num_misses", _cache.getMissCount());
-      value.put("start_time", 0);
+      value.put("num_hits", cache.getHitCount());
+      value.put("num_misses", cache.getMissCount());
+      value.put("num_inserts", cache.getInsertCount());
+      value.put("num_entries", cache.getEntryCount());
+      value.put("expunges", cache.getExpungeCount());
+      value.put("start_time", cache.getStartTime() / 1000L);
+      value.put("mem_size", cache.getSize());
     }
     else {
       value.put("num_slots", 0);
       value.put("ttl", 0);
       value.put("num_hits", 0);
       value.put("num_misses", 0);
+      value.put("num_inserts", 0);
+      value.put("num_entries", 0);
+      value.put("expunges", 0);
       value.put("start_time", 0);
+      value.put("mem_size", 0);
     }
 
     ArrayValueImpl cacheList = new ArrayValueImpl();
     value.put(env.createString("cache_list"), cacheList);
 
-    if ("user".equals(type) && _cache != null && ! limited) {
-      ArrayList<String> keys = new ArrayList<String>();
-      ArrayList<Entry> values = new ArrayList<Entry>();
-
-      synchronized (_cache) {
-        Iterator<LruCache.Entry<String,Entry>> iter = _cache.iterator();
-
-        while (iter.hasNext()) {
-          LruCache.Entry<String,Entry> lruEntry = iter.next();
-
-          keys.add(lruEntry.getKey());
-          values.add(lruEntry.getValue());
-        }
-      }
-
-      for (int i = 0; i < keys.size(); i++) {
-        String key = keys.get(i);
-        Entry entryValue = values.get(i);
-
-        if (entryValue.isValid(env)) {
-          ArrayValueImpl array = new ArrayValueImpl();
-          cacheList.put(array);
-
-          array.put(env.createString("info"), env.createString(key));
-          array.put(env.createString("ttl"),
-                    LongValue.create(entryValue.getTTL(env)));
-          array.put(env.createString("type"), env.createString("user"));
-          array.put(env.createString("num_hits"),
-                    LongValue.create(entryValue.getHitCount()));
-        }
+    if ("user".equals(type) && cache != null && ! limited) {
+      for (ApcCache.Entry entry : cache.getEntries(env.getCurrentTime())) {
+        ArrayValueImpl array = new ArrayValueImpl();
+        cacheList.put(array);
+
+        array.put(env.createString("info"), env.createString(entry.getKey()));
+        array.put(env.createString("ttl"),
+                  LongValue.create(entry.getTTL(env)));
+        array.put(env.createString("type"), env.createString("user"));
+        array.put(env.createString("num_hits"),
+                  LongValue.create(entry.getHitCount()));
+        array.put(env.createString("mtime"),
+                  LongValue.create(entry.getCreateTime() / 1000L));
+        array.put(env.createString("access_time"),
+                  LongValue.create(entry.getAccessTime() / 1000L));
+        array.put(env.createString("mem_size"),
+                  LongValue.create(entry.getSize()));
       }
     }
 
@@ -145,8 +143,10 @@ public class ApcModule extends AbstractQuercusModule
    */
   public boolean apc_clear_cache(Env env, @Optional String type)
   {
-    if (_cache != null)
-      _cache.clear();
+    ApcCache cache = _cache;
+
+    if (cache != null)
+      cache.clear();
 
     return true;
   }
@@ -189,10 +189,67 @@ public class ApcModule extends AbstractQuercusModule
    */
   public boolean apc_delete(Env env, String key)
   {
-    if (_cache == null)
+    ApcCache cache = _cache;
+
+    if (cache == null)
+      return false;
+
+    return cache.remove(key, env.getCurrentTime());
+  }
+
+  /**
+   * Atomically increments an integer value.
+   */
+  public Value apc_inc(Env env,
+                       String key,
+                       @Optional("1") long step,
+                       @Optional @Reference Value isSuccessful)
+  {
+    return increment(env, key, step, isSuccessful);
+  }
+
+  /**
+   * Atomically decrements an integer value.
+   */
+  public Value apc_dec(Env env,
+                       String key,
+                       @Optional("1") long step,
+                       @Optional @Reference Value isSuccessful)
+  {
+    return increment(env, key, -step, isSuccessful);
+  }
+
+  private Value increment(Env env, String key, long step,
+                          Value isSuccessful)
+  {
+    isSuccessful.set(BooleanValue.FALSE);
+
+    ApcCache cache = _cache;
+
+    if (cache == null)
+      return BooleanValue.FALSE;
+
+    Value result = cache.increment(env, key, step);
+
+    if (result == null)
+      return BooleanValue.FALSE;
+
+    isSuccessful.set(BooleanValue.TRUE);
+
+    return result;
+  }
+
+  /**
+   * Atomically replaces an integer value if it matches the old value.
+   */
+  public boolean apc_cas(Env env, String key, long oldValue, long newValue)
+  {
+    ApcCache cache = _cache;
+
+    if (cache == null)
       return false;
 
-    return _cache.remove(key) != null;
+    return cache.compareAndSwap(env, key, oldValue, newValue);
   }
 
   /**
@@ -204,17 +261,20 @@ public class ApcModule extends AbstractQuercusModule
   {
     isSuccessful.set(BooleanValue.FALSE);
 
-    if (_cache == null)
+    ApcCache cache = _cache;
+
+    if (cache == null)
       return BooleanValue.FALSE;
 
-    Entry entry = _cache.get(key);
+    ApcCache.Entry entry = cache.get(key, env.getCurrentTime());
 
     if (entry == null)
       return BooleanValue.FALSE;
 
     Value value = entry.getValue(env);
 
-    if (value != null)
+    // frozen values hold no objects
+    if (value != null && ! entry.isFrozen())
       initObject(env, new IdentityHashMap<Value,Value>(), value);
 
     if (value != null) {
@@ -289,16 +349,46 @@ public class ApcModule extends AbstractQuercusModule
   }
 
   /**
-   * Returns cache information.
+   * Returns shared memory information.
    */
-  public Value apc_sma_info(Env env, @Optional String type)
+  public Value apc_sma_info(Env env, @Optional boolean limited)
   {
+    ApcCache cache = getCache(env);
+
+    cache.expire(env.getCurrentTime());
+
     ArrayValue value = new ArrayValueImpl();
 
-    value.put("num_seg", 1);
-    value.put("seg_size", 1024 * 1024);
-    value.put("avail_mem", 1024 * 1024);
-    value.put(env.createString("block_lists"), new ArrayValueImpl());
+    int segmentCount = cache.getSegmentCount();
+    long segmentSize = cache.getSegmentMaxSize();
+
+    value.put("num_seg", segmentCount);
+    value.put("seg_size", segmentSize);
+
+    ArrayValue blockLists = new ArrayValueImpl();
+    long avail = 0;
+
+    for (int i = 0; i < segmentCount; i++) {
+      long free = Math.max(0, segmentSize - cache.getSegmentSize(i));
+
+      avail += free;
+
+      if (! limited) {
+        ArrayValue block = new ArrayValueImpl();
+        block.put("size", free);
+        block.put("offset", segmentSize - free);
+
+        ArrayValue blockList = new ArrayValueImpl();
+        blockList.put(block);
+
+        blockLists.put(blockList);
+      }
+    }
+
+    value.put("avail_mem", avail);
+
+    if (! limited)
+      value.put(env.createString("block_lists"), blockLists);
 
     return value;
   }
@@ -307,16 +397,11 @@ public class ApcModule extends AbstractQuercusModule
                        String key,
                        Value value,
                        @Optional("0") int ttl) {
-    LruCache<String,Entry> cache = getCache(env);
+    ApcCache cache = getCache(env);
 
-    if (cache.get(key) == null) {
-      cache.put(key, new Entry(env, value, ttl));
+    ApcCache.Entry entry = new ApcCache.Entry(env, key, value, ttl);
 
-      return BooleanValue.TRUE;
-    }
-    else {
-      return BooleanValue.FALSE;
-    }
+    return BooleanValue.create(cache.putIfAbsent(entry, env.getCurrentTime()));
   }
 
   /**
@@ -325,85 +410,41 @@ public class ApcModule extends AbstractQuercusModule
   public Value apc_store(Env env, String key, Value value,
                          @Optional("0") int ttl)
   {
-    LruCache<String,Entry> cache = getCache(env);
+    ApcCache cache = getCache(env);
 
-    cache.put(key, new Entry(env, value, ttl));
+    cache.put(new ApcCache.Entry(env, key, value, ttl), env.getCurrentTime());
 
     return BooleanValue.TRUE;
   }
 
-  private LruCache<String,Entry> getCache(Env env) {
-    if (_cache == null) {
+  private ApcCache getCache(Env env) {
+    ApcCache cache = _cache;
+
+    if (cache == null) {
       long size = env.getIniLong("apc.user_entries_hint");
 
       if (size <= 0)
         size = _defaultSize;
 
-      synchronized (this) {
-        if (_cache == null) {
-          _cache = new LruCache<String,Entry>((int) size);
-        }
-      }
-    }
-
-    return _cache;
-  }
-
-  static class Entry extends UnserializeCacheEntry {
-    private long _createTime;
-    private long _accessTime;
-
-    private long _expire;
-    private int _hitCount;
-
-    Entry(Env env, Value value, int ttl)
-    {
-      super(env, value);
-
-      if (ttl <= 0)
-        _expire = Long.MAX_VALUE / 2;
-      else
-        _expire = env.getCurrentTime() + ttl * 1000L;
-
-      _createTime = env.getCurrentTime();
-    }
+      long segments = Math.max(1, env.getIniLong("apc.shm_segments"));
+      long memory = env.getIniBytes("apc.shm_size", 32);
 
-    public long getTTL(Env env)
-    {
-      if (_expire >= Long.MAX_VALUE / 2)
-        return 0;
-      else
-        return (_expire - env.getCurrentTime()) / 1000L;
-    }
-
-    public long getHitCount()
-    {
-      return _hitCount;
-    }
+      // plain numbers are megabytes, as in older APC releases
+      if (memory < 1024)
+        memory *= 1024 * 1024;
 
-    public boolean isValid(Env env)
-    {
-      if (env.getCurrentTime() <= _expire)
-        return true;
-      else {
-        clear();
+      synchronized (this) {
+        cache = _cache;
 
-        return false;
+        if (cache == null) {
+          cache = new ApcCache((int) size, segments * memory,
+                               env.getCurrentTime());
+          _cache = cache;
+        }
       }
     }
 
-    public Value getValue(Env env)
-    {
-      if (env.getCurrentTime() <= _expire) {
-        _accessTime = env.getCurrentTime();
-        _hitCount++;
-
-        return super.getValue(env);
-      }
-      else {
-        return null;
-      }
-    }
+    return cache;
   }
 
   static final IniDefinition INI_APC_ENABLED
@@ -144,7 +144,7 @@ public class FunctionModule extends AbstractQuercusModule {
     Value []args = env.getFunctionArgs();
 
     if (0 <= index && index < args.length)
-      return args[index];
+      return args[index].copy();
     else {
       // XXX: warning
       return NullValue.NULL;
@@ -162,7 +162,7 @@ public class FunctionModule extends AbstractQuercusModule {
     ArrayValue result = new ArrayValueImpl();
     if (args != null) {
       for (int i = 0; i < args.length; i++)
-        result.put(args[i]);
+        result.put(args[i].copy());
     }
 
     return result;
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib;
+
+import com.caucho.quercus.annotation.PassThru;
+import com.caucho.quercus.annotation.ReadOnly;
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+import com.caucho.quercus.module.AbstractQuercusModule;
+
+import java.io.IOException;
+
+/**
+ * igbinary functions.
+ */
+public class IgbinaryModule
+  extends AbstractQuercusModule
+{
+  public String []getLoadedExtensions()
+  {
+    return new String[] { "igbinary" };
+  }
+
+  /**
+   * Serializes the value in the igbinary format.
+   */
+  public static StringValue igbinary_serialize(Env env,
+                                               @PassThru @ReadOnly Value v)
+  {
+    return IgbinarySerializer.serialize(env, v);
+  }
+
+  /**
+   * Unserializes an igbinary string.
+   */
+  public static Value igbinary_unserialize(Env env, StringValue s)
+  {
+    if (s.length() == 0) {
+      return BooleanValue.FALSE;
+    }
+
+    try {
+      return IgbinarySerializer.unserialize(env, s);
+    } catch (IOException e) {
+      env.warning(e.getMessage());
+
+      return BooleanValue.FALSE;
+    }
+  }
+}
@@ -0,0 +1,825 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib;
+
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.DoubleValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.FieldVisibility;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.ObjectExtValue;
+import com.caucho.quercus.env.ObjectValue;
+import com.caucho.quercus.env.QuercusClass;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+import com.caucho.quercus.env.Var;
+import com.caucho.quercus.function.AbstractFunction;
+import com.caucho.util.L10N;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Compact binary serialization in the igbinary format.
+ *
+ * Repeated strings and class names are written once and then referred
+ * to by id, integers use the smallest width that holds them, and
+ * repeated objects and references are written as back-references.
+ */
+public final class IgbinarySerializer
+{
+  private static final L10N L = new L10N(IgbinarySerializer.class);
+  private static final Logger log
+    = Logger.getLogger(IgbinarySerializer.class.getName());
+
+  private static final int VERSION = 2;
+
+  private static final int TYPE_NULL = 0x00;
+  private static final int TYPE_REF8 = 0x01;
+  private static final int TYPE_REF16 = 0x02;
+  private static final int TYPE_REF32 = 0x03;
+  private static final int TYPE_FALSE = 0x04;
+  private static final int TYPE_TRUE = 0x05;
+  private static final int TYPE_LONG8P = 0x06;
+  private static final int TYPE_LONG8N = 0x07;
+  private static final int TYPE_LONG16P = 0x08;
+  private static final int TYPE_LONG16N = 0x09;
+  private static final int TYPE_LONG32P = 0x0a;
+  private static final int TYPE_LONG32N = 0x0b;
+  private static final int TYPE_DOUBLE = 0x0c;
+  private static final int TYPE_STRING_EMPTY = 0x0d;
+  private static final int TYPE_STRING_ID8 = 0x0e;
+  private static final int TYPE_STRING_ID16 = 0x0f;
+  private static final int TYPE_STRING_ID32 = 0x10;
+  private static final int TYPE_STRING8 = 0x11;
+  private static final int TYPE_STRING16 = 0x12;
+  private static final int TYPE_STRING32 = 0x13;
+  private static final int TYPE_ARRAY8 = 0x14;
+  private static final int TYPE_ARRAY16 = 0x15;
+  private static final int TYPE_ARRAY32 = 0x16;
+  private static final int TYPE_OBJECT8 = 0x17;
+  private static final int TYPE_OBJECT16 = 0x18;
+  private static final int TYPE_OBJECT32 = 0x19;
+  private static final int TYPE_OBJECT_ID8 = 0x1a;
+  private static final int TYPE_OBJECT_ID16 = 0x1b;
+  private static final int TYPE_OBJECT_ID32 = 0x1c;
+  private static final int TYPE_OBJECT_SER8 = 0x1d;
+  private static final int TYPE_OBJECT_SER16 = 0x1e;
+  private static final int TYPE_OBJECT_SER32 = 0x1f;
+  private static final int TYPE_LONG64P = 0x20;
+  private static final int TYPE_LONG64N = 0x21;
+  private static final int TYPE_OBJREF8 = 0x22;
+  private static final int TYPE_OBJREF16 = 0x23;
+  private static final int TYPE_OBJREF32 = 0x24;
+  private static final int TYPE_REF = 0x25;
+
+  private IgbinarySerializer()
+  {
+  }
+
+  /**
+   * Returns true if the string starts with an igbinary header.
+   */
+  public static boolean isIgbinary(StringValue s)
+  {
+    return (s.length() >= 4
+            && s.charAt(0) == 0
+            && s.charAt(1) == 0
+            && s.charAt(2) == 0
+            && s.charAt(3) == VERSION);
+  }
+
+  /**
+   * Serializes a value to a binary string.
+   */
+  public static StringValue serialize(Env env, Value value)
+  {
+    Writer out = new Writer(env);
+
+    out.writeHeader();
+    out.writeValue(value);
+
+    return out.getBuffer();
+  }
+
+  /**
+   * Unserializes a binary string.
+   */
+  public static Value unserialize(Env env, StringValue s)
+    throws IOException
+  {
+    Reader in = new Reader(env, s);
+
+    in.readHeader();
+
+    Value value = in.readValue();
+
+    if (in.hasRemaining()) {
+      throw new IOException(L.l("igbinary data has {0} trailing bytes",
+                                in.getRemaining()));
+    }
+
+    return value.toValue();
+  }
+
+  static final class Writer
+  {
+    private final Env _env;
+    private final StringValue _sb;
+
+    private final HashMap<StringValue,Integer> _stringMap
+      = new HashMap<StringValue,Integer>();
+
+    private final IdentityHashMap<Value,Integer> _refMap
+      = new IdentityHashMap<Value,Integer>();
+
+    Writer(Env env)
+    {
+      _env = env;
+      _sb = env.createBinaryBuilder();
+    }
+
+    StringValue getBuffer()
+    {
+      return _sb;
+    }
+
+    void writeHeader()
+    {
+      writeInt32(VERSION);
+    }
+
+    void writeValue(Value value)
+    {
+      if (value instanceof Var) {
+        Integer ref = _refMap.get(value);
+
+        if (ref != null) {
+          writeId(TYPE_REF8, ref);
+          return;
+        }
+
+        _refMap.put(value, _refMap.size());
+
+        _sb.appendByte(TYPE_REF);
+
+        value = value.toValue();
+      }
+
+      if (value instanceof ArrayValue) {
+        writeArray((ArrayValue) value);
+      }
+      else if (value instanceof ObjectValue) {
+        writeObject((ObjectValue) value);
+      }
+      else if (value instanceof StringValue) {
+        writeString((StringValue) value);
+      }
+      else if (value instanceof LongValue) {
+        writeLong(value.toLong());
+      }
+      else if (value instanceof DoubleValue) {
+        _sb.appendByte(TYPE_DOUBLE);
+        writeInt64(Double.doubleToLongBits(value.toDouble()));
+      }
+      else if (value instanceof BooleanValue) {
+        _sb.appendByte(value.toBoolean() ? TYPE_TRUE : TYPE_FALSE);
+      }
+      else if (value.isNull()) {
+        _sb.appendByte(TYPE_NULL);
+      }
+      else {
+        writeString(value.toStringValue(_env));
+      }
+    }
+
+    private void writeArray(ArrayValue array)
+    {
+      writeSize(TYPE_ARRAY8, array.getSize());
+
+      for (ArrayValue.Entry entry = array.getHead();
+           entry != null;
+           entry = entry.getNext()) {
+        Value key = entry.getKey();
+
+        if (key instanceof LongValue)
+          writeLong(key.toLong());
+        else
+          writeString(key.toStringValue(_env));
+
+        writeValue(entry.getRawValue());
+      }
+    }
+
+    private void writeObject(ObjectValue obj)
+    {
+      Integer ref = _refMap.get(obj);
+
+      if (ref != null) {
+        writeId(TYPE_OBJREF8, ref);
+        return;
+      }
+
+      _refMap.put(obj, _refMap.size());
+
+      StringValue className = _env.createString(obj.getName());
+
+      Integer id = _stringMap.get(className);
+
+      if (id != null) {
+        writeId(TYPE_OBJECT_ID8, id);
+      }
+      else {
+        _stringMap.put(className, _stringMap.size());
+
+        writeSize(TYPE_OBJECT8, className.length());
+        writeBytes(className);
+      }
+
+      QuercusClass qClass = obj.getQuercusClass();
+      AbstractFunction fun = qClass != null ? qClass.getSerialize() : null;
+
+      if (fun != null) {
+        StringValue data
+          = fun.callMethod(_env, qClass, obj).toStringValue(_env);
+
+        writeSize(TYPE_OBJECT_SER8, data.length());
+        writeBytes(data);
+
+        return;
+      }
+
+      ArrayList<Map.Entry<Value,Value>> fields
+        = new ArrayList<Map.Entry<Value,Value>>();
+
+      Iterator<Map.Entry<Value,Value>> iter = obj.getBaseIterator(_env);
+
+      while (iter.hasNext()) {
+        fields.add(iter.next());
+      }
+
+      writeSize(TYPE_ARRAY8, fields.size());
+
+      for (Map.Entry<Value,Value> field : fields) {
+        writeString(field.getKey().toStringValue(_env));
+
+        if (field instanceof ObjectExtValue.Entry)
+          writeValue(((ObjectExtValue.Entry) field).getRawValue());
+        else
+          writeValue(field.getValue());
+      }
+    }
+
+    private void writeString(StringValue s)
+    {
+      if (s.length() == 0) {
+        _sb.appendByte(TYPE_STRING_EMPTY);
+        return;
+      }
+
+      s = s.toBinaryValue(_env);
+
+      Integer id = _stringMap.get(s);
+
+      if (id != null) {
+        writeId(TYPE_STRING_ID8, id);
+        return;
+      }
+
+      _stringMap.put(s, _stringMap.size());
+
+      writeSize(TYPE_STRING8, s.length());
+      writeBytes(s);
+    }
+
+    private void writeLong(long v)
+    {
+      if (v >= 0)
+        writeMagnitude(TYPE_LONG8P, TYPE_LONG64P, v);
+      else if (v == Long.MIN_VALUE)
+        writeMagnitude(TYPE_LONG8N, TYPE_LONG64N, v);
+      else
+        writeMagnitude(TYPE_LONG8N, TYPE_LONG64N, -v);
+    }
+
+    /**
+     * Writes an integer magnitude, where the 8, 16 and 32-bit types are
+     * two apart starting at type8.
+     */
+    private void writeMagnitude(int type8, int type64, long v)
+    {
+      if (v < 0) {
+        // Long.MIN_VALUE as an unsigned magnitude
+        _sb.appendByte(type64);
+        writeInt64(v);
+      }
+      else if (v <= 0xffL) {
+        _sb.appendByte(type8);
+        _sb.appendByte((int) v);
+      }
+      else if (v <= 0xffffL) {
+        _sb.appendByte(type8 + 2);
+        writeInt16((int) v);
+      }
+      else if (v <= 0xffffffffL) {
+        _sb.appendByte(type8 + 4);
+        writeInt32((int) v);
+      }
+      else {
+        _sb.appendByte(type64);
+        writeInt64(v);
+      }
+    }
+
+    /**
+     * Writes an id or count, where the 16 and 32-bit types follow type8.
+     */
+    private void writeId(int type8, int id)
+    {
+      writeSize(type8, id);
+    }
+
+    private void writeSize(int type8, int size)
+    {
+      if (size <= 0xff) {
+        _sb.appendByte(type8);
+        _sb.appendByte(size);
+      }
+      else if (size <= 0xffff) {
+        _sb.appendByte(type8 + 1);
+        writeInt16(size);
+      }
+      else {
+        _sb.appendByte(type8 + 2);
+        writeInt32(size);
+      }
+    }
+
+    private void writeBytes(StringValue s)
+    {
+      int len = s.length();
+
+      for (int i = 0; i < len; i++) {
+        _sb.appendByte(s.charAt(i));
+      }
+    }
+
+    private void writeInt16(int v)
+    {
+      _sb.appendByte(v >> 8);
+      _sb.appendByte(v);
+    }
+
+    private void writeInt32(int v)
+    {
+      _sb.appendByte(v >> 24);
+      _sb.appendByte(v >> 16);
+      _sb.appendByte(v >> 8);
+      _sb.appendByte(v);
+    }
+
+    private void writeInt64(long v)
+    {
+      writeInt32((int) (v >> 32));
+      writeInt32((int) v);
+    }
+  }
+
+  static final class Reader
+  {
+    private final Env _env;
+    private final StringValue _s;
+    private final int _length;
+
+    private int _offset;
+
+    private final ArrayList<StringValue> _stringList
+      = new ArrayList<StringValue>();
+
+    private final ArrayList<Value> _refList = new ArrayList<Value>();
+
+    Reader(Env env, StringValue s)
+    {
+      _env = env;
+      _s = s;
+      _length = s.length();
+    }
+
+    boolean hasRemaining()
+    {
+      return _offset < _length;
+    }
+
+    int getRemaining()
+    {
+      return _length - _offset;
+    }
+
+    void readHeader()
+      throws IOException
+    {
+      int version = readInt32();
+
+      if (version != VERSION) {
+        throw new IOException(L.l("unsupported igbinary version {0}",
+                                  version));
+      }
+    }
+
+    Value readValue()
+      throws IOException
+    {
+      int type = readByte();
+
+      switch (type) {
+      case TYPE_NULL:
+        return NullValue.NULL;
+
+      case TYPE_FALSE:
+        return BooleanValue.FALSE;
+
+      case TYPE_TRUE:
+        return BooleanValue.TRUE;
+
+      case TYPE_LONG8P:
+      case TYPE_LONG16P:
+      case TYPE_LONG32P:
+      case TYPE_LONG64P:
+      case TYPE_LONG8N:
+      case TYPE_LONG16N:
+      case TYPE_LONG32N:
+      case TYPE_LONG64N:
+        return LongValue.create(readLong(type));
+
+      case TYPE_DOUBLE:
+        return new DoubleValue(Double.longBitsToDouble(readInt64()));
+
+      case TYPE_STRING_EMPTY:
+      case TYPE_STRING_ID8:
+      case TYPE_STRING_ID16:
+      case TYPE_STRING_ID32:
+      case TYPE_STRING8:
+      case TYPE_STRING16:
+      case TYPE_STRING32:
+        return readString(type);
+
+      case TYPE_ARRAY8:
+      case TYPE_ARRAY16:
+      case TYPE_ARRAY32:
+        return readArray(readSize(type, TYPE_ARRAY8));
+
+      case TYPE_OBJECT8:
+      case TYPE_OBJECT16:
+      case TYPE_OBJECT32:
+      case TYPE_OBJECT_ID8:
+      case TYPE_OBJECT_ID16:
+      case TYPE_OBJECT_ID32:
+        return readObject(type);
+
+      case TYPE_REF:
+        {
+          Var var = new Var();
+
+          _refList.add(var);
+
+          var.set(readValue());
+
+          return var;
+        }
+
+      case TYPE_REF8:
+      case TYPE_REF16:
+      case TYPE_REF32:
+        return getRef(readSize(type, TYPE_REF8));
+
+      case TYPE_OBJREF8:
+      case TYPE_OBJREF16:
+      case TYPE_OBJREF32:
+        return getRef(readSize(type, TYPE_OBJREF8)).toValue();
+
+      default:
+        throw new IOException(L.l("unknown igbinary type 0x{0} at {1}",
+                                  Integer.toHexString(type),
+                                  _offset - 1));
+      }
+    }
+
+    private Value readArray(int size)
+      throws IOException
+    {
+      // every entry takes at least one byte, so a larger count is forged
+      if (size < 0 || size > getRemaining()) {
+        throw new IOException(L.l("igbinary array size {0} exceeds data",
+                                  size));
+      }
+
+      ArrayValue array = new ArrayValueImpl(size);
+
+      for (int i = 0; i < size; i++) {
+        Value key = readKey();
+        Value value = readValue();
+
+        array.put(key, value);
+      }
+
+      return array;
+    }
+
+    private Value readObject(int type)
+      throws IOException
+    {
+      StringValue className;
+
+      if (type <= TYPE_OBJECT32) {
+        className = readBytes(readSize(type, TYPE_OBJECT8));
+
+        _stringList.add(className);
+      }
+      else
+        className = getString(readSize(type, TYPE_OBJECT_ID8));
+
+      String name = className.toString();
+
+      QuercusClass qClass = _env.findClass(name);
+
+      int bodyType = readByte();
+
+      if (TYPE_OBJECT_SER8 <= bodyType && bodyType <= TYPE_OBJECT_SER32) {
+        StringValue data = readBytes(readSize(bodyType, TYPE_OBJECT_SER8));
+
+        AbstractFunction fun = qClass != null ? qClass.getUnserialize() : null;
+
+        if (fun == null) {
+          log.fine(L.l("{0} does not implement unserialize()", name));
+
+          _refList.add(BooleanValue.FALSE);
+
+          return BooleanValue.FALSE;
+        }
+
+        Value obj = qClass.createObject(_env, false);
+
+        _refList.add(obj);
+
+        fun.callMethod(_env, qClass, obj, data);
+
+        return obj;
+      }
+      else if (bodyType < TYPE_ARRAY8 || TYPE_ARRAY32 < bodyType) {
+        throw new IOException(L.l("unknown igbinary object body 0x{0} for {1}",
+                                  Integer.toHexString(bodyType), name));
+      }
+
+      Value obj;
+
+      if (qClass != null) {
+        obj = qClass.createObject(_env);
+      }
+      else {
+        log.fine(L.l("{0} is an undefined class in unserialize", name));
+
+        obj = _env.createIncompleteObject(name);
+      }
+
+      _refList.add(obj);
+
+      int size = readSize(bodyType, TYPE_ARRAY8);
+
+      for (int i = 0; i < size; i++) {
+        StringValue key = readKey().toStringValue(_env);
+        Value value = readValue();
+
+        obj.initIncompleteField(_env, key, value, getVisibility(key));
+      }
+
+      return obj;
+    }
+
+    private FieldVisibility getVisibility(StringValue key)
+    {
+      if (key.length() < 3 || key.charAt(0) != 0)
+        return FieldVisibility.PUBLIC;
+      else if (key.charAt(1) == '*' && key.charAt(2) == 0)
+        return FieldVisibility.PROTECTED;
+      else
+        return FieldVisibility.PRIVATE;
+    }
+
+    private Value readKey()
+      throws IOException
+    {
+      int type = readByte();
+
+      switch (type) {
+      case TYPE_LONG8P:
+      case TYPE_LONG16P:
+      case TYPE_LONG32P:
+      case TYPE_LONG64P:
+      case TYPE_LONG8N:
+      case TYPE_LONG16N:
+      case TYPE_LONG32N:
+      case TYPE_LONG64N:
+        return LongValue.create(readLong(type));
+
+      case TYPE_STRING_EMPTY:
+      case TYPE_STRING_ID8:
+      case TYPE_STRING_ID16:
+      case TYPE_STRING_ID32:
+      case TYPE_STRING8:
+      case TYPE_STRING16:
+      case TYPE_STRING32:
+        return readString(type);
+
+      case TYPE_NULL:
+        return _env.getEmptyString();
+
+      default:
+        throw new IOException(L.l("unknown igbinary key type 0x{0} at {1}",
+                                  Integer.toHexString(type),
+                                  _offset - 1));
+      }
+    }
+
+    private StringValue readString(int type)
+      throws IOException
+    {
+      switch (type) {
+      case TYPE_STRING_EMPTY:
+        return _env.getEmptyString();
+
+      case TYPE_STRING_ID8:
+      case TYPE_STRING_ID16:
+      case TYPE_STRING_ID32:
+        return getString(readSize(type, TYPE_STRING_ID8));
+
+      default:
+        {
+          StringValue s = readBytes(readSize(type, TYPE_STRING8));
+
+          _stringList.add(s);
+
+          return s;
+        }
+      }
+    }
+
+    private StringValue getString(int id)
+      throws IOException
+    {
+      if (id >= _stringList.size()) {
+        throw new IOException(L.l("igbinary string id {0} out of range {1}",
+                                  id, _stringList.size()));
+      }
+
+      return _stringList.get(id);
+    }
+
+    private Value getRef(int id)
+      throws IOException
+    {
+      if (id >= _refList.size()) {
+        throw new IOException(L.l("igbinary reference {0} out of range {1}",
+                                  id, _refList.size()));
+      }
+
+      return _refList.get(id);
+    }
+
+    private long readLong(int type)
+      throws IOException
+    {
+      long v;
+
+      switch (type) {
+      case TYPE_LONG8P:
+      case TYPE_LONG8N:
+        v = readByte();
+        break;
+
+      case TYPE_LONG16P:
+      case TYPE_LONG16N:
+        v = readInt16();
+        break;
+
+      case TYPE_LONG32P:
+      case TYPE_LONG32N:
+        v = readInt32() & 0xffffffffL;
+        break;
+
+      default:
+        v = readInt64();
+        break;
+      }
+
+      if (type == TYPE_LONG8N || type == TYPE_LONG16N
+          || type == TYPE_LONG32N || type == TYPE_LONG64N)
+        return -v;
+      else
+        return v;
+    }
+
+    /**
+     * Reads a size or id whose 16 and 32-bit types follow type8.
+     */
+    private int readSize(int type, int type8)
+      throws IOException
+    {
+      switch (type - type8) {
+      case 0:
+        return readByte();
+      case 1:
+        return readInt16();
+      default:
+        return readInt32();
+      }
+    }
+
+    private StringValue readBytes(int len)
+      throws IOException
+    {
+      if (len < 0 || len > _length - _offset) {
+        throw new IOException(L.l("igbinary string length {0} exceeds data",
+                                  len));
+      }
+
+      StringValue sb = _env.createBinaryBuilder();
+
+      for (int i = 0; i < len; i++) {
+        sb.appendByte(_s.charAt(_offset + i));
+      }
+
+      _offset += len;
+
+      return sb;
+    }
+
+    private int readByte()
+      throws IOException
+    {
+      if (_length <= _offset) {
+        throw new IOException(L.l("unexpected end of igbinary data"));
+      }
+
+      return _s.charAt(_offset++) & 0xff;
+    }
+
+    private int readInt16()
+      throws IOException
+    {
+      return (readByte() << 8) + readByte();
+    }
+
+    private int readInt32()
+      throws IOException
+    {
+      return ((readByte() << 24)
+              + (readByte() << 16)
+              + (readByte() << 8)
+              + readByte());
+    }
+
+    private long readInt64()
+      throws IOException
+    {
+      long high = readInt32() & 0xffffffffL;
+      long low = readInt32() & 0xffffffffL;
+
+      return (high << 32) + low;
+    }
+  }
+}
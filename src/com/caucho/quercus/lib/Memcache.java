@@ -30,12 +30,21 @@
 package com.caucho.quercus.lib;
 
 import com.caucho.quercus.annotation.Optional;
+import com.caucho.quercus.annotation.Reference;
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
 import com.caucho.quercus.env.BooleanValue;
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
 import com.caucho.quercus.env.Value;
+import com.caucho.quercus.lib.memcache.MemcacheClient;
+import com.caucho.quercus.lib.memcache.MemcacheCodec;
+import com.caucho.quercus.lib.memcache.MemcacheItem;
+import com.caucho.quercus.lib.memcache.MemcacheProtocol;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
 
+import java.util.ArrayList;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -45,21 +54,27 @@ public class Memcache {
   private static final Logger log = Logger.getLogger(Memcache.class.getName());
   private static final L10N L = new L10N(Memcache.class);
 
-  private Cache _cache;
+  private MemcacheClient _client;
+  private final MemcacheCodec _codec = MemcacheCodec.createMemcache();
 
   /**
    * Adds a server.
    */
   public boolean addServer(Env env,
                            String host,
-                           @Optional int port,
-                           @Optional boolean persistent,
-                           @Optional int weight,
-                           @Optional int timeout,
-                           @Optional int retryInterval)
+                           @Optional("11211") int port,
+                           @Optional("true") boolean persistent,
+                           @Optional("1") int weight,
+                           @Optional("1") int timeout,
+                           @Optional("15") int retryInterval)
   {
-    if (_cache == null)
-      connect(env, host, port, timeout);
+    MemcacheClient client = getClient(env);
+
+    client.setConnectTimeout(timeout * 1000);
+    client.setReadTimeout(timeout * 1000);
+    client.setRetryInterval(retryInterval * 1000L);
+
+    client.addServer(host, port > 0 ? port : 11211, weight);
 
     return true;
   }
@@ -69,42 +84,76 @@ public class Memcache {
    */
   public boolean connect(Env env,
                          String host,
-                         @Optional int port,
+                         @Optional("11211") int port,
                          @Optional("1") int timeout)
   {
-    // Always true since this is a local copy
-
-    String name = "memcache::" + host + ":" + port;
-
-    _cache = (Cache) env.getQuercus().getSpecial(name);
-
-    if (_cache == null) {
-      _cache = new Cache();
+    MemcacheClient client = new MemcacheClient(env.getQuercus());
+    _client = client;
 
-      env.getQuercus().setSpecial(name, _cache);
+    if (timeout > 0) {
+      client.setConnectTimeout(timeout * 1000);
+      client.setReadTimeout(timeout * 1000);
     }
 
-    return true;
+    client.addServer(host, port > 0 ? port : 11211, 1);
+
+    // the connection is kept in the server's pool for the next operation
+    return client.getVersions().size() > 0;
   }
 
   /**
-   * Returns a value.
+   * Returns a value, or an array of values for an array of keys.
    */
-  public Value get(Env env, Value keys)
+  public Value get(Env env, Value keys, @Optional @Reference Value flags)
   {
-    if (keys.isArray())
+    if (_client == null)
       return BooleanValue.FALSE;
 
+    if (keys.isArray()) {
+      ArrayList<String> keyList = new ArrayList<String>();
+
+      for (Value key : keys.toArray().values()) {
+        if (_client.isValidKey(key.toString()))
+          keyList.add(key.toString());
+      }
+
+      Map<String,MemcacheItem> items = _client.getMulti(keyList);
+
+      ArrayValue result = new ArrayValueImpl();
+      ArrayValue flagArray = new ArrayValueImpl();
+
+      for (Map.Entry<String,MemcacheItem> entry : items.entrySet()) {
+        Value value = _codec.decode(env, entry.getValue());
+
+        if (value != null) {
+          result.put(env.createString(entry.getKey()), value);
+          flagArray.put(env.createString(entry.getKey()),
+                        LongValue.create(entry.getValue().getFlags()));
+        }
+      }
+
+      flags.set(flagArray);
+
+      return result;
+    }
+
     String key = keys.toString();
 
-    Value value = _cache.get(key);
+    if (! _client.isValidKey(key))
+      return BooleanValue.FALSE;
+
+    MemcacheItem item = _client.get(key);
 
-    if (value != null)
-      return value.copy(env);
-    else
+    if (item == null)
       return BooleanValue.FALSE;
+
+    flags.set(LongValue.create(item.getFlags()));
+
+    Value value = _codec.decode(env, item);
+
+    return value != null ? value : BooleanValue.FALSE;
   }
-  
+
   /*
    * Removes a value.
    */
@@ -112,9 +161,10 @@ public class Memcache {
                         String key,
                         @Optional int timeout)
   {
-    _cache.remove(key);
-    
-    return true;
+    if (_client == null || ! _client.isValidKey(key))
+      return false;
+
+    return _client.delete(key);
   }
 
   /*
@@ -122,17 +172,25 @@ public class Memcache {
    */
   public boolean flush(Env env)
   {
-    _cache.clear();
-    
-    return true;
+    if (_client == null)
+      return false;
+
+    return _client.flush(0);
   }
-  
+
   /**
    * Returns version information.
    */
-  public String getVersion()
+  public Value getVersion(Env env)
   {
-    return "1.0";
+    if (_client == null)
+      return BooleanValue.FALSE;
+
+    for (String version : _client.getVersions().values()) {
+      return env.createString(version);
+    }
+
+    return BooleanValue.FALSE;
   }
 
   /**
@@ -140,7 +198,7 @@ public class Memcache {
    */
   public boolean pconnect(Env env,
                           String host,
-                          @Optional int port,
+                          @Optional("11211") int port,
                           @Optional("1") int timeout)
   {
     return connect(env, host, port, timeout);
@@ -155,17 +213,84 @@ public class Memcache {
                      @Optional int flag,
                      @Optional int expire)
   {
-    _cache.set(key, value.copy(env));
+    return store(env, MemcacheProtocol.SET, key, value, flag, expire);
+  }
 
-    return true;
+  /**
+   * Sets a value if the key doesn't exist.
+   */
+  public boolean add(Env env,
+                     String key,
+                     Value value,
+                     @Optional int flag,
+                     @Optional int expire)
+  {
+    return store(env, MemcacheProtocol.ADD, key, value, flag, expire);
+  }
+
+  /**
+   * Sets a value if the key exists.
+   */
+  public boolean replace(Env env,
+                         String key,
+                         Value value,
+                         @Optional int flag,
+                         @Optional int expire)
+  {
+    return store(env, MemcacheProtocol.REPLACE, key, value, flag, expire);
+  }
+
+  private boolean store(Env env, int op, String key, Value value,
+                        int flag, int expire)
+  {
+    if (_client == null || ! _client.isValidKey(key))
+      return false;
+
+    boolean isCompress = (flag & MemcacheCodec.MEMCACHE_COMPRESSED) != 0;
+
+    MemcacheItem item = _codec.encode(env, value, isCompress);
+
+    return _client.store(op, key, item, expire);
+  }
+
+  /**
+   * Increments a counter.
+   */
+  public Value increment(Env env, String key, @Optional("1") long value)
+  {
+    return incr(key, value, true);
+  }
+
+  /**
+   * Decrements a counter.
+   */
+  public Value decrement(Env env, String key, @Optional("1") long value)
+  {
+    return incr(key, value, false);
+  }
+
+  private Value incr(String key, long value, boolean isIncrement)
+  {
+    if (_client == null || ! _client.isValidKey(key))
+      return BooleanValue.FALSE;
+
+    Long result = _client.incr(key, value, isIncrement);
+
+    if (result == null)
+      return BooleanValue.FALSE;
+
+    return LongValue.create(result);
   }
 
   /**
    * Sets the compression threshold
    */
   public boolean setCompressThreshold(int threshold,
-                                      @Optional double minSavings)
+                                      @Optional("0.2") double minSavings)
   {
+    _codec.setCompressThreshold(threshold);
+    _codec.setMinSavings(minSavings);
+
     return true;
   }
 
@@ -174,35 +299,20 @@ public class Memcache {
    */
   public boolean close()
   {
+    // connections stay pooled per server
     return true;
   }
 
-  public String toString()
+  private MemcacheClient getClient(Env env)
   {
-    return "Memcache[]";
-  }
-
-  static class Cache extends Value {
-    private LruCache<String,Value> _map = new LruCache<String,Value>(256);
+    if (_client == null)
+      _client = new MemcacheClient(env.getQuercus());
 
-    public Value get(String key)
-    {
-      return _map.get(key);
-    }
+    return _client;
+  }
 
-    public void set(String key, Value value)
-    {
-      _map.put(key, value);
-    }
-    
-    public Value remove(String key)
-    {
-      return _map.remove(key);
-    }
-    
-    public void clear()
-    {
-      _map.clear();
-    }
+  public String toString()
+  {
+    return "Memcache[" + _client + "]";
   }
 }
@@ -32,11 +32,11 @@ package com.caucho.quercus.lib;
 import com.caucho.quercus.env.*;
 import com.caucho.quercus.function.AbstractFunction;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Logger;
 
 public final class UnserializeReader {
@@ -44,14 +44,23 @@ public final class UnserializeReader {
   private static final Logger log
     = Logger.getLogger(UnserializeReader.class.getName());
 
-  private static final LruCache<StringKey,StringValue> _keyCache
-    = new LruCache<StringKey,StringValue>(4096);
+  // recent short keys, shared without locking and replaced on collision
+  private static final int KEY_TABLE_SIZE = 4096;
+  private static final int KEY_MAX_LENGTH = 32;
 
-  private final char []_buffer;
+  private static final AtomicReferenceArray<StringValue> _keyTable
+    = new AtomicReferenceArray<StringValue>(KEY_TABLE_SIZE);
+
+  private static final int CHUNK_SIZE = LargeStringBuilderValue.SIZE;
+
+  // the input is the byte buffer or chunk list of a binary string, read
+  // in place, or a char copy of any other string
+  private final byte []_bytes;
+  private final byte [][]_chunks;
+  private final char []_chars;
   private final int _length;
 
   private int _index;
-  private StringKey _key = new StringKey();
 
   private ArrayList<Value> _valueList
     = new ArrayList<Value>();
@@ -64,19 +73,36 @@ public final class UnserializeReader {
   public UnserializeReader(StringValue s)
     throws IOException
   {
-    _buffer = s.toCharArray();
-    _length = _buffer.length;
+    if (s instanceof StringBuilderValue) {
+      _bytes = ((StringBuilderValue) s).getBuffer();
+      _chunks = null;
+      _chars = null;
+      _length = s.length();
+    }
+    else if (s instanceof LargeStringBuilderValue) {
+      _bytes = null;
+      _chunks = ((LargeStringBuilderValue) s).getBufferList();
+      _chars = null;
+      _length = s.length();
+    }
+    else {
+      _bytes = null;
+      _chunks = null;
+      _chars = s.toCharArray();
+      _length = _chars.length;
+    }
 
-    if (s.indexOf("R:") >= 0
-        || s.indexOf("r:") >= 0)
+    if (hasReference())
       initReferenceList();
   }
 
   public UnserializeReader(String s)
      throws IOException
   {
-    _buffer = s.toCharArray();
-    _length = _buffer.length;
+    _bytes = null;
+    _chunks = null;
+    _chars = s.toCharArray();
+    _length = _chars.length;
 
     if (s.indexOf("R:") >= 0
         || s.indexOf("r:") >= 0)
@@ -185,7 +211,9 @@ public final class UnserializeReader {
         expect(':');
         expect('{');
 
-        Value array = new ArrayValueImpl(len);
+        // each entry takes at least one input char, so the remaining
+        // length bounds a forged count
+        Value array = new ArrayValueImpl(Math.min(len, _length - _index));
 
         if (_useReference) {
           array = createReference(array);
@@ -400,7 +428,7 @@ public final class UnserializeReader {
                                 String.valueOf((char) ch),
                                 Integer.toHexString(ch),
                                 _index,
-                                String.valueOf(_buffer)));
+                                getContext(_index - 1)));
 
       //return BooleanValue.FALSE;
     }
@@ -652,30 +680,18 @@ public final class UnserializeReader {
 
         StringValue v;
 
-        if (len < 32) {
-          _key.init(_buffer, _index, len);
-
-          v = _keyCache.get(_key);
-
-          if (v != null) {
-            _index += len;
-          }
-          else {
-            StringKey key = new StringKey(_buffer, _index, len);
-
-            if (ch == 's' || ch == 'S') {
-              v = readStringValue(env, len);
-            }
-            else {
-              v = readUnicodeValue(env, len);
-            }
-
-            _keyCache.put(key, v);
-          }
+        if (len >= KEY_MAX_LENGTH) {
+          v = readStringValue(env, len);
         }
-        else {
+        else if (ch == 'u' || ch == 'U') {
+          v = readUnicodeValue(env, len);
+        }
+        else if (env.isUnicodeSemantics()) {
           v = readStringValue(env, len);
         }
+        else {
+          v = readKey(len);
+        }
 
         expect('"');
         expect(';');
@@ -730,15 +746,10 @@ public final class UnserializeReader {
       throw new IOException(L.l("expected '{0}' at end of string",
                                 String.valueOf((char) expectCh)));
 
-    int ch = _buffer[_index++];
+    int ch = charAt(_index++);
 
     if (ch != expectCh) {
-      String context = String.valueOf((char) ch);
-
-      if (_index - 2 >= 0)
-        context = _buffer[_index - 2] + context;
-      if (_index < _buffer.length)
-        context += _buffer[_index];
+      String context = getContext(_index - 1);
 
       throw new IOException(
           L.l("expected '{0}' at '{1}' (0x{2}) (context '{3}', index {4})",
@@ -776,7 +787,7 @@ public final class UnserializeReader {
 
   public final boolean isValidString(int len)
   {
-    if (_index + len >= _buffer.length)
+    if (_index + len >= _length)
       return false;
 
     return true;
@@ -784,7 +795,7 @@ public final class UnserializeReader {
 
   public final String readString(int len)
   {
-    String s = new String(_buffer, _index, len);
+    String s = new String(getChars(_index, len));
 
     _index += len;
 
@@ -793,7 +804,16 @@ public final class UnserializeReader {
 
   public final StringValue readStringValue(Env env, int len)
   {
-    StringValue s = env.createString(_buffer, _index, len);
+    StringValue s;
+
+    if (_chars != null)
+      s = env.createString(_chars, _index, len);
+    else if (env.isUnicodeSemantics())
+      s = env.createString(getChars(_index, len), 0, len);
+    else if (_bytes != null)
+      s = new ConstStringValue(_bytes, _index, len);
+    else
+      s = new ConstStringValue(getChunkBytes(_index, len));
 
     _index += len;
 
@@ -802,7 +822,7 @@ public final class UnserializeReader {
 
   public final StringValue readUnicodeValue(Env env, int len)
   {
-    StringValue s = new UnicodeBuilderValue(_buffer, _index, len);
+    StringValue s = new UnicodeBuilderValue(getChars(_index, len), 0, len);
 
     _index += len;
 
@@ -812,14 +832,21 @@ public final class UnserializeReader {
   public final int read()
   {
     if (_index < _length)
-      return _buffer[_index++];
+      return charAt(_index++);
     else
       return -1;
   }
 
   public final int read(char []buffer, int offset, int length)
   {
-    System.arraycopy(_buffer, _index, buffer, offset, length);
+    if (_chars != null) {
+      System.arraycopy(_chars, _index, buffer, offset, length);
+    }
+    else {
+      for (int i = 0; i < length; i++) {
+        buffer[offset + i] = (char) charAt(_index + i);
+      }
+    }
 
     _index += length;
 
@@ -831,72 +858,122 @@ public final class UnserializeReader {
     _index--;
   }
 
-  public final static class StringKey
+  private int charAt(int index)
   {
-    char []_buffer;
-    int _offset;
-    int _length;
+    if (_bytes != null)
+      return _bytes[index] & 0xff;
+    else if (_chunks != null)
+      return _chunks[index / CHUNK_SIZE][index % CHUNK_SIZE] & 0xff;
+    else
+      return _chars[index];
+  }
 
-    StringKey()
-    {
-    }
+  /**
+   * Copies a range of chunked input, which may span chunks.
+   */
+  private byte []getChunkBytes(int offset, int length)
+  {
+    byte []buffer = new byte[length];
+
+    for (int i = 0; i < length; ) {
+      int index = offset + i;
+      int sublen = Math.min(length - i, CHUNK_SIZE - index % CHUNK_SIZE);
 
-    StringKey(char []buffer, int offset, int length)
-    {
-      _buffer = new char[length];
-      System.arraycopy(buffer, offset, _buffer, 0, length);
-      _offset = 0;
-      _length = length;
+      System.arraycopy(_chunks[index / CHUNK_SIZE], index % CHUNK_SIZE,
+                       buffer, i, sublen);
+
+      i += sublen;
     }
 
-    void init(char []buffer, int offset, int length)
-    {
-      _buffer = buffer;
-      _offset = offset;
-      _length = length;
+    return buffer;
+  }
+
+  /**
+   * True if the input has a reference, "R:" or "r:", so values need to
+   * be tracked.  A single pass over the input, without a copy.
+   */
+  private boolean hasReference()
+  {
+    for (int i = 0; i + 1 < _length; i++) {
+      int ch = charAt(i);
+
+      if ((ch == 'R' || ch == 'r') && charAt(i + 1) == ':')
+        return true;
     }
 
-    public int hashCode()
-    {
-      char []buffer = _buffer;
-      int offset = _offset;
-      int end = offset + _length;
-      int hash = 17;
+    return false;
+  }
 
-      for (; offset < end; offset++)
-        hash = 65521 * hash + buffer[offset];
+  /**
+   * Returns the input chars of a range, copying if the input is bytes.
+   */
+  private char []getChars(int offset, int length)
+  {
+    char []buffer = new char[length];
 
-      return hash;
+    for (int i = 0; i < length; i++) {
+      buffer[i] = (char) charAt(offset + i);
     }
 
-    public boolean equals(Object o)
-    {
-      if (! (o instanceof StringKey))
-        return false;
+    return buffer;
+  }
 
-      StringKey key = (StringKey) o;
+  /**
+   * Returns the input around an index for error messages.
+   */
+  private String getContext(int index)
+  {
+    int start = Math.max(0, index - 16);
+    int end = Math.min(_length, index + 16);
 
-      int length = _length;
+    return new String(getChars(start, end - start));
+  }
 
-      if (length != key._length)
-        return false;
+  /**
+   * Reads a short key through the shared key table.  Matching keys
+   * return the table's immutable instance.
+   */
+  private StringValue readKey(int len)
+  {
+    int offset = _index;
+    int hash = 17;
 
-      char []aBuf = _buffer;
-      char []bBuf = key._buffer;
+    for (int i = 0; i < len; i++) {
+      hash = 65521 * hash + charAt(offset + i);
+    }
 
-      int aOffset = _offset;
-      int bOffset = key._offset;
+    int slot = (hash ^ (hash >>> 16)) & (KEY_TABLE_SIZE - 1);
 
-      int aEnd = aOffset + length;
+    StringValue key = _keyTable.get(slot);
 
-      while (aOffset < aEnd) {
-        if (aBuf[aOffset++] != bBuf[bOffset++])
-          return false;
-      }
+    if (key == null || ! isKeyMatch(key, offset, len)) {
+      if (_bytes != null)
+        key = new ConstStringValue(_bytes, offset, len);
+      else if (_chunks != null)
+        key = new ConstStringValue(getChunkBytes(offset, len));
+      else
+        key = new ConstStringValue(_chars, offset, len);
 
-      return true;
+      key.hashCode();
+
+      _keyTable.set(slot, key);
     }
+
+    _index += len;
+
+    return key;
   }
-}
 
+  private boolean isKeyMatch(StringValue key, int offset, int len)
+  {
+    if (key.length() != len)
+      return false;
+
+    for (int i = 0; i < len; i++) {
+      if (key.charAt(i) != charAt(offset + i))
+        return false;
+    }
 
+    return true;
+  }
+}
@@ -75,6 +75,8 @@ public class VariableModule extends AbstractQuercusModule {
     LruCache<UnserializeKey,UnserializeCacheEntry> _unserializeCache
     = new LruCache<UnserializeKey,UnserializeCacheEntry>(256);
 
+  private static final int UNSERIALIZE_CACHE_MAX_LENGTH = 16 * 1024;
+
   /**
    * Returns a constant
    *
@@ -602,6 +604,31 @@ public class VariableModule extends AbstractQuercusModule {
     return sb.toString();
   }
 
+  /**
+   * Streams serialize() straight to the output for echo, so the
+   * serialized string is never held whole.  Values holding objects are
+   * serialized normally, since serialize() and __sleep() may echo.
+   */
+  @Override
+  public boolean printFunction(Env env, String name, Value []args)
+  {
+    if (! "serialize".equals(name) || args.length != 1)
+      return false;
+    else if (! isPrintSafe(args[0]))
+      return false;
+
+    StringBuilder sb = new StringBuilder();
+
+    SerializeMap serializeMap = new SerializeMap();
+    serializeMap.setPrint(env);
+
+    args[0].serialize(env, sb, serializeMap);
+
+    serializeMap.print(sb);
+
+    return true;
+  }
+
   /**
    * Converts the variable to a specified tyep.
    */
@@ -677,6 +704,17 @@ public class VariableModule extends AbstractQuercusModule {
 
     Value v = null;
 
+    // large blobs skip the cache, which would hash and then copy them
+    if (UNSERIALIZE_CACHE_MAX_LENGTH < s.length()) {
+      try {
+        return new UnserializeReader(s).unserialize(env);
+      } catch (IOException e) {
+        env.notice(e);
+
+        return BooleanValue.FALSE;
+      }
+    }
+
     UnserializeKey key = new UnserializeKey(s);
 
     UnserializeCacheEntry entry = _unserializeCache.get(key);
@@ -0,0 +1,985 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.db;
+
+import com.caucho.util.L10N;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pooling javax.sql.DataSource for a java.sql.Driver, used when no
+ * container DataSource is configured.
+ *
+ * Connections are handed out as proxies whose close() returns the
+ * physical connection to the pool.
+ */
+public class JdbcConnectionPool implements javax.sql.DataSource
+{
+  private static final L10N L = new L10N(JdbcConnectionPool.class);
+  private static final Logger log
+    = Logger.getLogger(JdbcConnectionPool.class.getName());
+
+  private static final Class<?> []PROXY_INTERFACES
+    = new Class<?>[] { Connection.class };
+
+  private final Driver _driver;
+  private final String _url;
+
+  private int _maxConnections = 64;
+  private int _maxIdle = 16;
+  private long _maxIdleTime = 60000L;
+  private long _waitTimeout = 10000L;
+  private long _leakTimeout = 300000L;
+  private int _validateTimeout = 5;
+  private int _statementCacheSize = 64;
+
+  private final AtomicLong _statementCacheHitCount = new AtomicLong();
+  private final AtomicLong _statementCacheMissCount = new AtomicLong();
+
+  // idle connections by user, oldest first
+  private final HashMap<String,ArrayList<PooledConnection>> _idleMap
+    = new HashMap<String,ArrayList<PooledConnection>>();
+
+  private final HashSet<PooledConnection> _activeSet
+    = new HashSet<PooledConnection>();
+
+  // open physical connections, including ones being created
+  private int _connectionCount;
+  private int _idleCount;
+
+  private long _lastIdleCheck;
+  private boolean _isClosed;
+
+  public JdbcConnectionPool(Driver driver, String url)
+  {
+    _driver = driver;
+    _url = url;
+  }
+
+  /**
+   * Sets the max number of open connections.
+   */
+  public void setMaxConnections(int max)
+  {
+    if (max > 0)
+      _maxConnections = max;
+  }
+
+  public int getMaxConnections()
+  {
+    return _maxConnections;
+  }
+
+  /**
+   * Sets the max number of idle connections kept open.
+   */
+  public void setMaxIdle(int max)
+  {
+    if (max >= 0)
+      _maxIdle = max;
+  }
+
+  public int getMaxIdle()
+  {
+    return _maxIdle;
+  }
+
+  /**
+   * Sets how long an idle connection is kept open in milliseconds.
+   */
+  public void setMaxIdleTime(long timeout)
+  {
+    if (timeout >= 0)
+      _maxIdleTime = timeout;
+  }
+
+  public long getMaxIdleTime()
+  {
+    return _maxIdleTime;
+  }
+
+  /**
+   * Sets how long a caller waits for a connection when the pool
+   * is exhausted, in milliseconds.
+   */
+  public void setWaitTimeout(long timeout)
+  {
+    if (timeout >= 0)
+      _waitTimeout = timeout;
+  }
+
+  /**
+   * Sets how long a connection may be held before it's reported as
+   * leaked, in milliseconds.
+   */
+  public void setLeakTimeout(long timeout)
+  {
+    if (timeout > 0)
+      _leakTimeout = timeout;
+  }
+
+  /**
+   * Sets the max number of idle prepared statements cached for each
+   * connection, 0 to disable the cache.
+   */
+  public void setStatementCacheSize(int size)
+  {
+    if (size >= 0)
+      _statementCacheSize = size;
+  }
+
+  public int getStatementCacheSize()
+  {
+    return _statementCacheSize;
+  }
+
+  /**
+   * Returns the number of prepares served from the statement caches.
+   */
+  public long getStatementCacheHitCount()
+  {
+    return _statementCacheHitCount.get();
+  }
+
+  /**
+   * Returns the number of prepares that missed the statement caches.
+   */
+  public long getStatementCacheMissCount()
+  {
+    return _statementCacheMissCount.get();
+  }
+
+  void addStatementCacheCount(boolean isHit)
+  {
+    if (isHit)
+      _statementCacheHitCount.incrementAndGet();
+    else
+      _statementCacheMissCount.incrementAndGet();
+  }
+
+  /**
+   * Returns the number of connections currently handed out.
+   */
+  public synchronized int getActiveCount()
+  {
+    return _activeSet.size();
+  }
+
+  /**
+   * Returns the number of idle connections.
+   */
+  public synchronized int getIdleCount()
+  {
+    return _idleCount;
+  }
+
+  @Override
+  public Connection getConnection()
+    throws SQLException
+  {
+    return getConnection(null, null);
+  }
+
+  @Override
+  public Connection getConnection(String user, String password)
+    throws SQLException
+  {
+    if (user == null)
+      user = "";
+
+    if (password == null)
+      password = "";
+
+    String key = user + '\u0000' + password;
+
+    long expire = System.currentTimeMillis() + _waitTimeout;
+
+    while (true) {
+      PooledConnection idle;
+      PooledConnection evict = null;
+
+      synchronized (this) {
+        if (_isClosed) {
+          throw new SQLException(L.l("connection pool for '{0}' is closed",
+                                     _url));
+        }
+
+        idle = removeIdle(key);
+
+        if (idle != null) {
+          // validated outside the lock
+        }
+        else if (_connectionCount < _maxConnections) {
+          _connectionCount++;
+        }
+        else if (_idleCount > 0) {
+          // the slot of another user's idle connection is reused
+          evict = removeOldestIdle();
+        }
+        else {
+          long now = System.currentTimeMillis();
+
+          logLeaks(now);
+
+          if (expire <= now) {
+            throw new SQLException(L.l("connection pool for '{0}' is exhausted with {1} active connections after waiting {2}ms",
+                                       _url, _connectionCount, _waitTimeout));
+          }
+
+          try {
+            wait(expire - now);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new SQLException(e);
+          }
+
+          continue;
+        }
+      }
+
+      if (evict != null) {
+        evict.closePhysical();
+      }
+
+      if (idle != null) {
+        if (idle.validate(_validateTimeout)) {
+          return activate(idle);
+        }
+
+        idle.closePhysical();
+        releaseSlot();
+
+        continue;
+      }
+
+      Connection conn = null;
+
+      try {
+        conn = connect(user, password);
+      } finally {
+        if (conn == null)
+          releaseSlot();
+      }
+
+      return activate(new PooledConnection(this, conn, key));
+    }
+  }
+
+  private Connection connect(String user, String password)
+    throws SQLException
+  {
+    Properties props = new Properties();
+    props.put("user", user);
+    props.put("password", password);
+
+    Connection conn = _driver.connect(_url, props);
+
+    if (conn == null) {
+      throw new SQLException(L.l("'{0}' is not a valid url for {1}",
+                                 _url, _driver.getClass().getName()));
+    }
+
+    return conn;
+  }
+
+  private Connection activate(PooledConnection pConn)
+  {
+    synchronized (this) {
+      _activeSet.add(pConn);
+    }
+
+    pConn.borrow();
+
+    ConnectionHandle handle = new ConnectionHandle(pConn);
+
+    return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                               PROXY_INTERFACES,
+                                               handle);
+  }
+
+  /**
+   * Returns a connection to the pool, closing it if it can't be reused.
+   */
+  void release(PooledConnection pConn)
+  {
+    boolean isIdle = false;
+    boolean isReuse = pConn.reset();
+
+    ArrayList<PooledConnection> expiredList = null;
+
+    synchronized (this) {
+      _activeSet.remove(pConn);
+
+      long now = System.currentTimeMillis();
+
+      if (isReuse && ! _isClosed && _idleCount < _maxIdle) {
+        ArrayList<PooledConnection> list = _idleMap.get(pConn.getKey());
+
+        if (list == null) {
+          list = new ArrayList<PooledConnection>();
+          _idleMap.put(pConn.getKey(), list);
+        }
+
+        pConn.setIdleTime(now);
+        list.add(pConn);
+        _idleCount++;
+
+        isIdle = true;
+      }
+      else {
+        _connectionCount--;
+      }
+
+      if (_lastIdleCheck + _maxIdleTime / 4 < now) {
+        _lastIdleCheck = now;
+
+        expiredList = removeExpiredIdle(now);
+
+        logLeaks(now);
+      }
+
+      notifyAll();
+    }
+
+    if (! isIdle) {
+      pConn.closePhysical();
+    }
+
+    if (expiredList != null) {
+      for (PooledConnection expired : expiredList) {
+        expired.closePhysical();
+      }
+    }
+  }
+
+  private void releaseSlot()
+  {
+    synchronized (this) {
+      _connectionCount--;
+
+      notifyAll();
+    }
+  }
+
+  /**
+   * Takes the most recently used idle connection for the user.
+   */
+  private PooledConnection removeIdle(String key)
+  {
+    ArrayList<PooledConnection> list = _idleMap.get(key);
+
+    if (list == null || list.size() == 0)
+      return null;
+
+    _idleCount--;
+
+    return list.remove(list.size() - 1);
+  }
+
+  /**
+   * Takes the least recently used idle connection of any user.
+   */
+  private PooledConnection removeOldestIdle()
+  {
+    ArrayList<PooledConnection> oldestList = null;
+    long oldestTime = Long.MAX_VALUE;
+
+    for (ArrayList<PooledConnection> list : _idleMap.values()) {
+      if (list.size() > 0 && list.get(0).getIdleTime() < oldestTime) {
+        oldestList = list;
+        oldestTime = list.get(0).getIdleTime();
+      }
+    }
+
+    if (oldestList == null)
+      return null;
+
+    _idleCount--;
+
+    return oldestList.remove(0);
+  }
+
+  private ArrayList<PooledConnection> removeExpiredIdle(long now)
+  {
+    ArrayList<PooledConnection> expiredList = null;
+
+    for (ArrayList<PooledConnection> list : _idleMap.values()) {
+      while (list.size() > 0
+             && list.get(0).getIdleTime() + _maxIdleTime < now) {
+        if (expiredList == null)
+          expiredList = new ArrayList<PooledConnection>();
+
+        expiredList.add(list.remove(0));
+
+        _idleCount--;
+        _connectionCount--;
+      }
+    }
+
+    return expiredList;
+  }
+
+  /**
+   * Reports connections that have been held longer than the leak timeout.
+   */
+  private void logLeaks(long now)
+  {
+    for (PooledConnection pConn : _activeSet) {
+      long heldTime = now - pConn.getBorrowTime();
+
+      if (heldTime < _leakTimeout || pConn.isLeakLogged())
+        continue;
+
+      pConn.setLeakLogged();
+
+      Throwable stack = pConn.getBorrowStack();
+
+      if (stack != null) {
+        log.log(Level.WARNING,
+                L.l("{0} has been held for {1}ms without being closed",
+                    pConn, heldTime),
+                stack);
+      }
+      else {
+        log.warning(L.l("{0} has been held for {1}ms without being closed",
+                        pConn, heldTime));
+      }
+    }
+  }
+
+  /**
+   * Closes the idle connections.  Active connections are closed when
+   * they're returned.
+   */
+  public void close()
+  {
+    ArrayList<PooledConnection> idleList = new ArrayList<PooledConnection>();
+
+    synchronized (this) {
+      _isClosed = true;
+
+      for (ArrayList<PooledConnection> list : _idleMap.values()) {
+        idleList.addAll(list);
+      }
+
+      _idleMap.clear();
+
+      _connectionCount -= _idleCount;
+      _idleCount = 0;
+
+      notifyAll();
+    }
+
+    for (PooledConnection pConn : idleList) {
+      pConn.closePhysical();
+    }
+  }
+
+  /**
+   * Marks a pooled connection to be closed instead of reused when it's
+   * returned, e.g. after stateful mysql commands like temp tables.
+   */
+  public static void markForPoolRemoval(Connection conn)
+  {
+    ConnectionHandle handle = getHandle(conn);
+
+    if (handle != null)
+      handle.markForPoolRemoval();
+  }
+
+  /**
+   * Records a catalog change made by SQL rather than setCatalog(), e.g.
+   * a mysql "USE db".
+   */
+  public static void setCatalog(Connection conn, String catalog)
+  {
+    ConnectionHandle handle = getHandle(conn);
+
+    if (handle != null)
+      handle.setCatalog(catalog);
+  }
+
+  /**
+   * Returns the driver's connection behind a pooled connection.
+   */
+  public static Connection unwrap(Connection conn)
+  {
+    ConnectionHandle handle = getHandle(conn);
+
+    if (handle != null)
+      return handle.getPhysicalConnection();
+    else
+      return conn;
+  }
+
+  /**
+   * Returns the prepared statement cache of a pooled connection, or null
+   * if the connection isn't pooled or has been closed.
+   */
+  public static PreparedStatementCache getStatementCache(Connection conn)
+  {
+    ConnectionHandle handle = getHandle(conn);
+
+    if (handle != null)
+      return handle.getStatementCache();
+    else
+      return null;
+  }
+
+  private static ConnectionHandle getHandle(Connection conn)
+  {
+    if (conn == null || ! Proxy.isProxyClass(conn.getClass()))
+      return null;
+
+    InvocationHandler handler = Proxy.getInvocationHandler(conn);
+
+    if (handler instanceof ConnectionHandle)
+      return (ConnectionHandle) handler;
+    else
+      return null;
+  }
+
+  @Override
+  public int getLoginTimeout()
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public PrintWriter getLogWriter()
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds)
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out)
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * new interface method in JDK 1.7 CommonDataSource
+   */
+  public Logger getParentLogger()
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _url + "]";
+  }
+
+  /**
+   * A physical connection owned by the pool.
+   */
+  static class PooledConnection {
+    private final JdbcConnectionPool _pool;
+    private final Connection _conn;
+    private final String _key;
+
+    private String _catalog;
+    private String _currentCatalog;
+
+    private PreparedStatementCache _statementCache;
+
+    // statements created through the proxy, closed on return unless idle
+    // in the statement cache
+    private final ArrayList<Statement> _statementList
+      = new ArrayList<Statement>();
+
+    private long _idleTime;
+    private long _borrowTime;
+    private Throwable _borrowStack;
+    private boolean _isLeakLogged;
+
+    private boolean _isCatalogChanged;
+    private boolean _isStateChanged;
+    private boolean _isRemove;
+
+    PooledConnection(JdbcConnectionPool pool, Connection conn, String key)
+    {
+      _pool = pool;
+      _conn = conn;
+      _key = key;
+
+      try {
+        _catalog = conn.getCatalog();
+      } catch (SQLException e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+
+      _currentCatalog = _catalog;
+
+      if (pool._statementCacheSize > 0) {
+        _statementCache
+          = new PreparedStatementCache(this, pool._statementCacheSize);
+      }
+    }
+
+    JdbcConnectionPool getPool()
+    {
+      return _pool;
+    }
+
+    Connection getConnection()
+    {
+      return _conn;
+    }
+
+    String getKey()
+    {
+      return _key;
+    }
+
+    PreparedStatementCache getStatementCache()
+    {
+      return _statementCache;
+    }
+
+    String getCurrentCatalog()
+    {
+      return _currentCatalog;
+    }
+
+    long getIdleTime()
+    {
+      return _idleTime;
+    }
+
+    void setIdleTime(long now)
+    {
+      _idleTime = now;
+    }
+
+    long getBorrowTime()
+    {
+      return _borrowTime;
+    }
+
+    Throwable getBorrowStack()
+    {
+      return _borrowStack;
+    }
+
+    boolean isLeakLogged()
+    {
+      return _isLeakLogged;
+    }
+
+    void setLeakLogged()
+    {
+      _isLeakLogged = true;
+    }
+
+    void borrow()
+    {
+      _borrowTime = System.currentTimeMillis();
+      _isLeakLogged = false;
+
+      if (log.isLoggable(Level.FINE))
+        _borrowStack = new Exception(L.l("{0} borrowed here", this));
+      else
+        _borrowStack = null;
+    }
+
+    void addStatement(Statement stmt)
+    {
+      synchronized (_statementList) {
+        _statementList.add(stmt);
+      }
+    }
+
+    /**
+     * Closes the statements, and so the result sets, the borrower left
+     * open.  An unread streaming result would otherwise block the next
+     * borrower.
+     */
+    private void closeStatements()
+    {
+      synchronized (_statementList) {
+        for (int i = _statementList.size() - 1; i >= 0; i--) {
+          Statement stmt = _statementList.get(i);
+
+          if (_statementCache != null && _statementCache.isIdle(stmt))
+            continue;
+
+          _statementList.remove(i);
+
+          try {
+            stmt.close();
+          } catch (SQLException e) {
+            log.log(Level.FINER, e.toString(), e);
+          }
+        }
+      }
+    }
+
+    void setCatalog(String catalog)
+    {
+      _isCatalogChanged = true;
+      _currentCatalog = catalog;
+    }
+
+    /**
+     * Session state the pool can't restore, so the connection is closed
+     * instead of reused.
+     */
+    void setStateChanged()
+    {
+      _isStateChanged = true;
+    }
+
+    void markForPoolRemoval()
+    {
+      _isRemove = true;
+    }
+
+    boolean validate(int timeout)
+    {
+      try {
+        return _conn.isValid(timeout);
+      } catch (SQLException e) {
+        log.log(Level.FINER, e.toString(), e);
+
+        return false;
+      } catch (AbstractMethodError e) {
+        // pre-JDBC 4 driver
+        try {
+          return ! _conn.isClosed();
+        } catch (SQLException e1) {
+          return false;
+        }
+      }
+    }
+
+    /**
+     * Restores the connection for its next user, returning false if it
+     * should be closed instead.
+     */
+    boolean reset()
+    {
+      if (_isRemove || _isStateChanged)
+        return false;
+
+      closeStatements();
+
+      try {
+        if (_conn.isClosed())
+          return false;
+
+        if (! _conn.getAutoCommit()) {
+          _conn.rollback();
+          _conn.setAutoCommit(true);
+        }
+
+        if (_isCatalogChanged) {
+          if (_catalog == null)
+            return false;
+
+          _conn.setCatalog(_catalog);
+          _currentCatalog = _catalog;
+          _isCatalogChanged = false;
+        }
+
+        _conn.clearWarnings();
+
+        return true;
+      } catch (SQLException e) {
+        log.log(Level.FINE, e.toString(), e);
+
+        return false;
+      }
+    }
+
+    void closePhysical()
+    {
+      if (_statementCache != null)
+        _statementCache.close();
+
+      try {
+        _conn.close();
+      } catch (SQLException e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+    }
+
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _pool._url + "]";
+    }
+  }
+
+  /**
+   * The handler behind the connection proxy given to a caller, valid
+   * until the caller closes it.
+   */
+  static class ConnectionHandle implements InvocationHandler {
+    private PooledConnection _pConn;
+
+    ConnectionHandle(PooledConnection pConn)
+    {
+      _pConn = pConn;
+    }
+
+    Connection getPhysicalConnection()
+    {
+      PooledConnection pConn = _pConn;
+
+      return pConn != null ? pConn.getConnection() : null;
+    }
+
+    PreparedStatementCache getStatementCache()
+    {
+      PooledConnection pConn = _pConn;
+
+      return pConn != null ? pConn.getStatementCache() : null;
+    }
+
+    void markForPoolRemoval()
+    {
+      PooledConnection pConn = _pConn;
+
+      if (pConn != null)
+        pConn.markForPoolRemoval();
+    }
+
+    void setCatalog(String catalog)
+    {
+      PooledConnection pConn = _pConn;
+
+      if (pConn != null)
+        pConn.setCatalog(catalog);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object []args)
+      throws Throwable
+    {
+      String name = method.getName();
+
+      if ("close".equals(name)) {
+        close();
+
+        return null;
+      }
+      else if ("isClosed".equals(name)) {
+        return _pConn == null;
+      }
+      else if ("equals".equals(name)) {
+        return proxy == args[0];
+      }
+      else if ("hashCode".equals(name)) {
+        return System.identityHashCode(proxy);
+      }
+      else if ("toString".equals(name)) {
+        return "PooledConnection[" + _pConn + "]";
+      }
+
+      PooledConnection pConn = _pConn;
+
+      if (pConn == null)
+        throw new SQLException(L.l("connection is already closed"));
+
+      if ("setTransactionIsolation".equals(name)
+          || "setReadOnly".equals(name)
+          || "setHoldability".equals(name)
+          || "setTypeMap".equals(name)
+          || "setSchema".equals(name)
+          || "setClientInfo".equals(name)) {
+        pConn.setStateChanged();
+      }
+
+      try {
+        Object result = method.invoke(pConn.getConnection(), args);
+
+        if ("setCatalog".equals(name)) {
+          pConn.setCatalog((String) args[0]);
+        }
+        else if (result instanceof Statement) {
+          pConn.addStatement((Statement) result);
+        }
+
+        return result;
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    private void close()
+    {
+      PooledConnection pConn;
+
+      synchronized (this) {
+        pConn = _pConn;
+        _pConn = null;
+      }
+
+      if (pConn != null)
+        pConn.getPool().release(pConn);
+    }
+  }
+}
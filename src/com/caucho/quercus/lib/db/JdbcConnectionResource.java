@@ -91,6 +91,9 @@ public abstract class JdbcConnectionResource
 
   private boolean _isUsed;
 
+  // queries open forward-only streaming results
+  private boolean _isUnbuffered;
+
   protected SqlParseToken _sqlParseToken = new SqlParseToken();
 
   protected JdbcConnectionResource(Env env)
@@ -107,6 +110,20 @@ public abstract class JdbcConnectionResource
     return stmt;
   }
   
+  /**
+   * Returns the prepared statement cache of the pooled connection,
+   * or null.
+   */
+  protected PreparedStatementCache getStatementCache()
+  {
+    ConnectionEntry conn = _conn;
+
+    if (conn == null)
+      return null;
+
+    return JdbcConnectionPool.getStatementCache(conn.getConnection());
+  }
+
   protected JdbcStatementResource createStatementResource(Env env)
     throws SQLException
   {
@@ -121,6 +138,10 @@ public abstract class JdbcConnectionResource
     JdbcStatementResource stmt = createStatementResource(env);
     
     Statement javaStmt = getJavaConnection(env).createStatement();
+
+    if (_isUnbuffered) {
+      javaStmt.setFetchSize(getUnbufferedFetchSize());
+    }
     
     stmt.setStatement(javaStmt);
     
@@ -470,6 +491,17 @@ public abstract class JdbcConnectionResource
     return env.getQuercus().getConnection(_conn.getConnection());
   }
 
+  /**
+   * Returns the driver's own connection for driver-specific calls.  A
+   * pooled connection is otherwise only used through its proxy, so the
+   * pool sees the statements and state changes made on it.
+   */
+  protected Connection getDriverConnection(Env env)
+    throws SQLException
+  {
+    return JdbcConnectionPool.unwrap(getJavaConnection(env));
+  }
+
   /**
    * Returns the data source.
    */
@@ -681,19 +713,17 @@ public abstract class JdbcConnectionResource
       if (true || stmt == null) {
         // XXX: test for performance
 
-        boolean isSeekable = isSeekable();
-        if (isSeekable) {
-          stmt = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE,
-                                      ResultSet.CONCUR_READ_ONLY);
-        }
-        else {
-          stmt = conn.createStatement();
-        }
+        stmt = createQueryStatement(conn);
 
         stmt.setEscapeProcessing(false); // php/1406
       }
 
-      if (stmt.execute(sql)) {
+      boolean isResultSet = stmt.execute(sql);
+
+      if (StatementType.getStatementType(sql) == StatementType.USE)
+        setCatalogFromUse(sql);
+
+      if (isResultSet) {
         // Statement.execute(String) returns true when SQL statement is a
         // SELECT statement that returns a result set.
 
@@ -773,10 +803,26 @@ public abstract class JdbcConnectionResource
     throws SQLException
   {
     Connection conn = getConnection(env);
+
+    return createQueryStatement(conn);
+  }
+
+  /**
+   * Creates a statement for a query: forward-only with a streaming
+   * fetch size when unbuffered, otherwise seekable if supported.
+   */
+  private Statement createQueryStatement(Connection conn)
+    throws SQLException
+  {
     Statement stmt;
 
-    boolean isSeekable = isSeekable();
-    if (isSeekable) {
+    if (_isUnbuffered) {
+      stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                                  ResultSet.CONCUR_READ_ONLY);
+
+      stmt.setFetchSize(getUnbufferedFetchSize());
+    }
+    else if (isSeekable()) {
       stmt = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE,
                                   ResultSet.CONCUR_READ_ONLY);
     }
@@ -1038,6 +1084,33 @@ public abstract class JdbcConnectionResource
     _catalog = name;
   }
 
+  /**
+   * Records the catalog set by a SQL "USE db" the driver ran directly,
+   * so a pooled connection restores its catalog on return and keys its
+   * cached statements by the right one.
+   */
+  protected void setCatalogFromUse(String sql)
+  {
+    SqlParseToken tok = parseSqlToken(sql, null);
+
+    if (tok == null || ! tok.matchesToken("USE"))
+      return;
+
+    tok = parseSqlToken(sql, tok);
+
+    if (tok == null)
+      return;
+
+    String dbname = tok.toUnquotedString();
+
+    _catalog = dbname;
+
+    ConnectionEntry conn = _conn;
+
+    if (conn != null)
+      JdbcConnectionPool.setCatalog(conn.getConnection(), dbname);
+  }
+
   /**
    * Converts to an object.
    */
@@ -1156,6 +1229,33 @@ public abstract class JdbcConnectionResource
     return true;
   }
 
+  /**
+   * Returns true if queries open forward-only streaming results instead
+   * of buffered, seekable ones.
+   */
+  public boolean isUnbuffered()
+  {
+    return _isUnbuffered;
+  }
+
+  /**
+   * Sets whether queries open forward-only streaming results, for
+   * scanning large results in constant memory.  num_rows and data_seek
+   * aren't available on those results.
+   */
+  public void setUnbuffered(boolean isUnbuffered)
+  {
+    _isUnbuffered = isUnbuffered;
+  }
+
+  /**
+   * Returns the JDBC fetch size of unbuffered results.
+   */
+  protected int getUnbufferedFetchSize()
+  {
+    return 1000;
+  }
+
   static class TableKey {
     private final String _url;
     private final String _catalog;
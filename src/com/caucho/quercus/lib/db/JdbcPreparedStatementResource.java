@@ -62,6 +62,7 @@ public class JdbcPreparedStatementResource
   private static final L10N L = new L10N(JdbcPreparedStatementResource.class);
 
   private PreparedStatement _preparedStmt;
+  private int _preparedKind = -1;
 
   private ColumnType[] _types;
   private Value[] _params;
@@ -299,7 +300,8 @@ public class JdbcPreparedStatementResource
       PreparedStatement preparedStmt = _preparedStmt;
 
       if (preparedStmt != null) {
-        preparedStmt.close();
+        setStatement(null);
+        closeStatement(preparedStmt);
       }
 
       setQuery(query);
@@ -323,25 +325,42 @@ public class JdbcPreparedStatementResource
         return true;
       }
 
+      int kind;
+
       if (getStatementType() == StatementType.INSERT) {
-        preparedStmt = javaConn.prepareStatement(query,
-                                                 Statement.RETURN_GENERATED_KEYS);
+        kind = PreparedStatementCache.GENERATED_KEYS;
       }
       else if (this instanceof OracleStatement) {
-        preparedStmt = javaConn.prepareCall(query,
-                                            ResultSet.TYPE_SCROLL_INSENSITIVE,
-                                            ResultSet.CONCUR_READ_ONLY);
+        // callable statements aren't cached
+        kind = -1;
+      }
+      else if (conn.isUnbuffered()) {
+        kind = PreparedStatementCache.FORWARD_ONLY;
       }
       else if (conn.isSeekable()) {
-        preparedStmt = javaConn.prepareStatement(query,
-                                                 ResultSet.TYPE_SCROLL_INSENSITIVE,
-                                                 ResultSet.CONCUR_READ_ONLY);
+        kind = PreparedStatementCache.SCROLL_INSENSITIVE;
       }
       else {
-        preparedStmt = javaConn.prepareStatement(query);
+        kind = PreparedStatementCache.PLAIN;
+      }
+
+      PreparedStatementCache cache = null;
+      preparedStmt = null;
+
+      if (kind >= 0) {
+        cache = conn.getStatementCache();
+      }
+
+      if (cache != null) {
+        preparedStmt = cache.remove(query, kind);
+      }
+
+      if (preparedStmt == null) {
+        preparedStmt = createPreparedStatement(javaConn, query, kind);
       }
 
       _preparedStmt = preparedStmt;
+      _preparedKind = kind;
       setStatement(preparedStmt);
 
       return true;
@@ -353,6 +372,66 @@ public class JdbcPreparedStatementResource
     }
   }
 
+  private PreparedStatement createPreparedStatement(Connection javaConn,
+                                                    String query,
+                                                    int kind)
+    throws SQLException
+  {
+    if (kind == PreparedStatementCache.GENERATED_KEYS) {
+      return javaConn.prepareStatement(query,
+                                       Statement.RETURN_GENERATED_KEYS);
+    }
+    else if (kind == PreparedStatementCache.SCROLL_INSENSITIVE) {
+      return javaConn.prepareStatement(query,
+                                       ResultSet.TYPE_SCROLL_INSENSITIVE,
+                                       ResultSet.CONCUR_READ_ONLY);
+    }
+    else if (kind == PreparedStatementCache.FORWARD_ONLY) {
+      PreparedStatement stmt
+        = javaConn.prepareStatement(query,
+                                    ResultSet.TYPE_FORWARD_ONLY,
+                                    ResultSet.CONCUR_READ_ONLY);
+
+      stmt.setFetchSize(getConnection().getUnbufferedFetchSize());
+
+      return stmt;
+    }
+    else if (kind == PreparedStatementCache.PLAIN) {
+      return javaConn.prepareStatement(query);
+    }
+    else {
+      return javaConn.prepareCall(query,
+                                  ResultSet.TYPE_SCROLL_INSENSITIVE,
+                                  ResultSet.CONCUR_READ_ONLY);
+    }
+  }
+
+  /**
+   * Returns the prepared statement to the connection's statement cache
+   * instead of closing it.
+   */
+  @Override
+  protected void closeStatement(Statement stmt)
+    throws SQLException
+  {
+    if (stmt == _preparedStmt) {
+      _preparedStmt = null;
+
+      PreparedStatementCache cache = null;
+
+      if (_preparedKind >= 0) {
+        cache = getConnection().getStatementCache();
+      }
+
+      if (cache != null
+          && cache.release(getQuery(), _preparedKind, (PreparedStatement) stmt)) {
+        return;
+      }
+    }
+
+    stmt.close();
+  }
+
   protected boolean isPreparable(String query)
   {
     // for Google
@@ -37,6 +37,7 @@ import com.caucho.quercus.env.LongValue;
 import com.caucho.quercus.env.NullValue;
 import com.caucho.quercus.env.ObjectValue;
 import com.caucho.quercus.env.QuercusClass;
+import com.caucho.quercus.env.StringBuilderValue;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.util.L10N;
@@ -87,7 +88,10 @@ public class JdbcResultResource
   private int _fieldOffset;
 
   protected ResultSetMetaData _metaData;
+
+  // column keys and types, computed on the first fetch
   private Value[] _columnNames;
+  private int[] _columnTypes;
 
   private int _columnCase = COLUMN_CASE_NATURAL;
 
@@ -177,55 +181,205 @@ public class JdbcResultResource
       if (_rs.next()) {
         _isValid = true;
 
-        ArrayValue array = new ArrayValueImpl();
+        if (_columnTypes == null) {
+          initColumns(env);
+        }
 
-        ResultSetMetaData md = getMetaData();
+        return createRow(env, type, isOrderIndexBeforeName);
+      }
+      else {
+        return NullValue.NULL;
+      }
+    }
+    catch (SQLException e) {
+      log.log(Level.FINE, e.toString(), e);
+      return NullValue.NULL;
+    }
+  }
 
-        int count = md.getColumnCount();
+  /**
+   * Returns the current row as an array.
+   */
+  private ArrayValue createRow(Env env, int type, boolean isOrderIndexBeforeName)
+    throws SQLException
+  {
+    Value []columnNames = _columnNames;
+    int []columnTypes = _columnTypes;
 
-        if ((type & FETCH_ASSOC) != 0) {
-          _columnNames = new Value[count];
+    int count = columnTypes.length;
 
-          for (int i = 0; i < count; i++) {
-            String columnName = getColumnLabel(md, i + 1);
+    boolean isAssoc = (type & FETCH_ASSOC) != 0;
+    boolean isNum = (type & FETCH_NUM) != 0;
 
-            _columnNames[i] = env.createString(columnName);
-          }
-        }
+    ArrayValue array
+      = new ArrayValueImpl(isAssoc && isNum ? 2 * count : count);
 
-        for (int i = 0; i < count; i++) {
-          Value value = getColumnValue(env, i + 1);
+    for (int i = 0; i < count; i++) {
+      Value value = getColumnValue(env, i + 1, columnTypes[i]);
 
-          if (isOrderIndexBeforeName) {
-            if ((type & FETCH_NUM) != 0) {
-              array.put(LongValue.create(i), value);
-            }
+      if (isOrderIndexBeforeName) {
+        if (isNum) {
+          array.put(LongValue.create(i), value);
+        }
 
-            if ((type & FETCH_ASSOC) != 0) {
-              array.put(_columnNames[i], value);
-            }
-          }
-          else {
-            if ((type & FETCH_ASSOC) != 0) {
-              array.put(_columnNames[i], value);
-            }
+        if (isAssoc) {
+          array.put(columnNames[i], value);
+        }
+      }
+      else {
+        if (isAssoc) {
+          array.put(columnNames[i], value);
+        }
 
-            if ((type & FETCH_NUM) != 0) {
-              array.put(LongValue.create(i), value);
-            }
-          }
+        if (isNum) {
+          array.put(LongValue.create(i), value);
         }
+      }
+    }
+
+    return array;
+  }
+
+  /**
+   * Fetches the remaining rows as a list of row arrays, draining the
+   * result set in one loop instead of one fetch call per row.
+   */
+  public ArrayValue fetchAll(Env env, int type, boolean isOrderIndexBeforeName)
+  {
+    ArrayValue rows = new ArrayValueImpl();
+
+    ResultSet rs = _rs;
+
+    if (rs == null) {
+      return rows;
+    }
 
-        return array;
+    try {
+      if (_columnTypes == null) {
+        initColumns(env);
       }
-      else {
-        return NullValue.NULL;
+
+      while (rs.next()) {
+        _isValid = true;
+
+        rows.put(createRow(env, type, isOrderIndexBeforeName));
       }
     }
     catch (SQLException e) {
       log.log(Level.FINE, e.toString(), e);
-      return NullValue.NULL;
     }
+
+    return rows;
+  }
+
+  /**
+   * Fetches one column of the remaining rows as a list, without
+   * building the row arrays.
+   *
+   * @param column the 0-based column
+   */
+  public ArrayValue fetchAllColumn(Env env, int column)
+  {
+    ArrayValue values = new ArrayValueImpl();
+
+    ResultSet rs = _rs;
+
+    if (rs == null) {
+      return values;
+    }
+
+    try {
+      if (_columnTypes == null) {
+        initColumns(env);
+      }
+
+      if (column < 0 || _columnTypes.length <= column) {
+        return values;
+      }
+
+      int type = _columnTypes[column];
+
+      while (rs.next()) {
+        _isValid = true;
+
+        values.put(getColumnValue(env, column + 1, type));
+      }
+    }
+    catch (SQLException e) {
+      log.log(Level.FINE, e.toString(), e);
+    }
+
+    return values;
+  }
+
+  /**
+   * Fetches the remaining rows of a two column result as an array of
+   * the first column's value to the second's.
+   */
+  public ArrayValue fetchAllKeyPair(Env env)
+  {
+    ArrayValue pairs = new ArrayValueImpl();
+
+    ResultSet rs = _rs;
+
+    if (rs == null) {
+      return pairs;
+    }
+
+    try {
+      if (_columnTypes == null) {
+        initColumns(env);
+      }
+
+      int keyType = _columnTypes[0];
+      int valueType = _columnTypes[1];
+
+      while (rs.next()) {
+        _isValid = true;
+
+        Value key = getColumnValue(env, 1, keyType);
+        Value value = getColumnValue(env, 2, valueType);
+
+        pairs.put(key.toKey(), value);
+      }
+    }
+    catch (SQLException e) {
+      log.log(Level.FINE, e.toString(), e);
+    }
+
+    return pairs;
+  }
+
+  /**
+   * Reads the column keys and types once for the result, so rows don't
+   * go back to the metadata for every cell.
+   */
+  private void initColumns(Env env)
+    throws SQLException
+  {
+    ResultSetMetaData md = getMetaData();
+
+    int count = md.getColumnCount();
+
+    Value []columnNames = new Value[count];
+    int []columnTypes = new int[count];
+
+    for (int i = 0; i < count; i++) {
+      columnNames[i] = env.createString(getColumnLabel(md, i + 1));
+
+      int columnType = md.getColumnType(i + 1);
+
+      // Postgres matches BIT for BOOL columns
+      if (columnType == Types.BIT
+          && "bool".equals(md.getColumnTypeName(i + 1))) {
+        columnType = Types.BOOLEAN;
+      }
+
+      columnTypes[i] = columnType;
+    }
+
+    _columnNames = columnNames;
+    _columnTypes = columnTypes;
   }
 
   /**
@@ -571,14 +725,8 @@ public class JdbcResultResource
       case Types.SMALLINT:
       case Types.INTEGER:
       case Types.BIGINT:
-        {
-          long value = rs.getLong(column);
+        return getColumnInteger(env, rs, column);
 
-          if (rs.wasNull())
-            return NullValue.NULL;
-          else
-            return env.createString(value);
-        }
       case Types.REAL:
       case Types.DOUBLE:
         {
@@ -647,23 +795,7 @@ public class JdbcResultResource
           // already called "SET character_set_results latin1", thereby
           // requesting the server do all the encoding work for the client
 
-          StringValue bb = env.createBinaryBuilder();
-
-          InputStream is = rs.getBinaryStream(column);
-
-          if (is == null) {
-            return NullValue.NULL;
-          }
-
-          try {
-            bb.appendReadAll(is, Long.MAX_VALUE / 2);
-          } catch (RuntimeException e) {
-            log.log(Level.WARNING, e.toString(), e);
-
-            return NullValue.NULL;
-          }
-
-          return bb;
+          return getColumnBytes(env, rs, column);
         }
         else {
           String strValue = rs.getString(column);
@@ -707,6 +839,57 @@ public class JdbcResultResource
     }
   }
 
+  /**
+   * Returns an integer column as a php string.
+   */
+  protected Value getColumnInteger(Env env, ResultSet rs, int column)
+    throws SQLException
+  {
+    long value = rs.getLong(column);
+
+    if (rs.wasNull())
+      return NullValue.NULL;
+    else
+      return env.createString(value);
+  }
+
+  /**
+   * Returns the column's raw bytes as a string over the driver's array,
+   * without copying them through a stream.
+   */
+  protected Value getColumnBytes(Env env, ResultSet rs, int column)
+    throws SQLException
+  {
+    if (rs instanceof QuercusResultSet)
+      return getColumnBytes((QuercusResultSet) rs, column);
+
+    byte []bytes = rs.getBytes(column);
+
+    if (bytes == null)
+      return NullValue.NULL;
+
+    return StringBuilderValue.wrap(bytes);
+  }
+
+  /**
+   * Copies a column of Quercus' own mysql driver straight into a string.
+   */
+  protected static Value getColumnBytes(QuercusResultSet rs, int column)
+    throws SQLException
+  {
+    int length = rs.getStringLength(column);
+
+    if (length < 0)
+      return NullValue.NULL;
+
+    StringBuilderValue sb = new StringBuilderValue(length);
+
+    rs.getString(column, sb.getBuffer(), 0);
+    sb.setLength(length);
+
+    return sb;
+  }
+
   protected Value getBlobValue(Env env,
                                ResultSet rs,
                                ResultSetMetaData metaData,
@@ -164,8 +164,11 @@ public class JdbcStatementResource
         rs.close();
       }
 
-      if (_stmt != null) {
-        _stmt.close();
+      Statement stmt = _stmt;
+      _stmt = null;
+
+      if (stmt != null) {
+        closeStatement(stmt);
       }
 
       return true;
@@ -177,6 +180,15 @@ public class JdbcStatementResource
     }
   }
 
+  /**
+   * Closes the java statement.
+   */
+  protected void closeStatement(Statement stmt)
+    throws SQLException
+  {
+    stmt.close();
+  }
+
   /**
    * Advance the cursor the number of rows given by offset.
    *
@@ -282,6 +294,13 @@ public class JdbcStatementResource
         return _stmt.execute(_query);
       }
     }
+    else if (getStatementType() == StatementType.USE) {
+      boolean result = _stmt.execute(_query);
+
+      _conn.setCatalogFromUse(_query);
+
+      return result;
+    }
     else {
       return _stmt.execute(_query);
     }
@@ -416,6 +435,12 @@ public class JdbcStatementResource
     return _conn.getJavaConnection(env);
   }
 
+  protected Connection getDriverConnection(Env env)
+    throws SQLException
+  {
+    return _conn.getDriverConnection(env);
+  }
+
   protected void setErrorMessage(String msg)
   {
     _errorMessage = msg;
@@ -1248,10 +1248,12 @@ public class MysqlModule extends AbstractQuercusModule {
     // An "unbuffered" query is a performance optimization
     // for large data sets. Mysql will lock the table in
     // question until all rows are read by the client.
-    // It is unclear how this would be implemented on top
-    // of Connector/J.
+    // Connector/J streams the rows of a forward-only result.
 
-    return mysql_query(env, name, conn);
+    if (conn == null)
+      conn = getConnection(env);
+
+    return conn.query(env, name, MYSQL_USE_RESULT);
   }
 
   /**
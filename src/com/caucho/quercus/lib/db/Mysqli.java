@@ -399,13 +399,16 @@ public class Mysqli extends JdbcConnectionResource
   {
     try {
       if (isConnected()) {
-        Connection conn = getJavaConnection(env);
+        Connection conn = getDriverConnection(env);
 
         Class<?> cls = conn.getClass();
 
         Method method = cls.getMethod("changeUser", String.class, String.class);
 
         if (method != null) {
+          // a pooled connection is keyed by its user
+          _conn.markForPoolRemoval();
+
           method.invoke(conn, user, password);
 
           select_db(env, db);
@@ -871,7 +874,26 @@ public class Mysqli extends JdbcConnectionResource
   {
     String sql = toBinarySafeString(sqlV);
 
-    return realQuery(env, sql);
+    if (resultMode != MysqliModule.MYSQLI_USE_RESULT || isUnbuffered()) {
+      return realQuery(env, sql);
+    }
+
+    setUnbuffered(true);
+
+    try {
+      return realQuery(env, sql);
+    } finally {
+      setUnbuffered(false);
+    }
+  }
+
+  /**
+   * Connector/J streams rows one at a time only for this fetch size.
+   */
+  @Override
+  protected int getUnbufferedFetchSize()
+  {
+    return Integer.MIN_VALUE;
   }
 
   private static final String toBinarySafeString(StringValue str)
@@ -573,6 +573,20 @@ public class MysqliModule extends AbstractQuercusModule {
     return result.fetch_array(env, type);
   }
 
+  /**
+   * Returns all result rows as an array of rows.
+   */
+  public static Value mysqli_fetch_all(Env env,
+                                       @NotNull MysqliResult result,
+                                       @Optional("MYSQLI_NUM") int type)
+  {
+    if (result == null) {
+      return BooleanValue.FALSE;
+    }
+
+    return result.fetch_all(env, type);
+  }
+
   /**
    * Returns an associative array from the result.
    */
@@ -924,10 +938,8 @@ public class MysqliModule extends AbstractQuercusModule {
                                    @NotNull Mysqli conn,
                                    StringValue sql,
                                    @Optional("MYSQLI_STORE_RESULT") int resultMode) {
-    // ERRATUM: <i>resultMode</i> is ignored, MYSQLI_USE_RESULT would represent
-    //  an unbuffered query, but that is not supported.
-
-    Value value = query(env, conn, sql);
+    // MYSQLI_USE_RESULT opens an unbuffered, forward-only result
+    Value value = query(env, conn, sql, resultMode);
 
     if (value == null) {
       return BooleanValue.FALSE;
@@ -938,12 +950,13 @@ public class MysqliModule extends AbstractQuercusModule {
 
   private static Value query(Env env,
                              Mysqli conn,
-                             StringValue sql)
+                             StringValue sql,
+                             int resultMode)
   {
     Value value = null;
 
     try {
-      value = conn.query(env, sql, MYSQLI_STORE_RESULT);
+      value = conn.query(env, sql, resultMode);
     } catch (Exception e) {
       log.log(Level.FINE, e.toString(), e);
     }
@@ -1089,7 +1102,7 @@ public class MysqliModule extends AbstractQuercusModule {
         sb.append(ch);
     }
 
-    return query(env, conn, sb);
+    return query(env, conn, sb, MYSQLI_STORE_RESULT);
   }
 
 
@@ -149,6 +149,25 @@ public class MysqliResult extends JdbcResultResource {
     return fetchArray(env, type);
   }
 
+  /**
+   * Fetches all remaining result rows as an array of rows.
+   *
+   * @param type one of MYSQLI_ASSOC, MYSQLI_NUM (default), or MYSQLI_BOTH
+   * @return an array of result rows
+   */
+  public Value fetch_all(Env env,
+                         @Optional("MYSQLI_NUM") int type)
+  {
+    if (type != MysqliModule.MYSQLI_ASSOC
+            && type != MysqliModule.MYSQLI_BOTH
+            && type != MysqliModule.MYSQLI_NUM) {
+      env.warning(L.l("invalid result_type"));
+      return BooleanValue.FALSE;
+    }
+
+    return fetchAll(env, type, true);
+  }
+
   /**
    * Returns an associative array representing the row.
    *
@@ -936,6 +955,19 @@ public class MysqliResult extends JdbcResultResource {
     return _resultSetSize;
   }
 
+  /**
+   * Returns the integer's wire text, which is already the php string.
+   */
+  @Override
+  protected Value getColumnInteger(Env env, ResultSet rs, int column)
+    throws SQLException
+  {
+    if (env.isUnicodeSemantics())
+      return super.getColumnInteger(env, rs, column);
+    else
+      return getColumnBytes(env, rs, column);
+  }
+
   @Override
   protected Value getColumnString(Env env,
                                   ResultSet rs,
@@ -948,23 +980,9 @@ public class MysqliResult extends JdbcResultResource {
     // The "SET NAMES 'latin1'" in Mysqli is important to make the default
     // encoding sane
 
-    if (rs instanceof QuercusResultSet) {
-      QuercusResultSet qRs = (QuercusResultSet) rs;
-
-      int length = qRs.getStringLength(column);
-
-      if (length < 0)
-        return NullValue.NULL;
-
-      // XXX: i18n
-      StringBuilderValue sb = new StringBuilderValue();
-      sb.ensureAppendCapacity(length);
-
-      qRs.getString(column, sb.getBuffer(), sb.length());
-      sb.setLength(sb.length() + length);
-
-      return sb;
-    }
+    // XXX: i18n
+    if (rs instanceof QuercusResultSet)
+      return getColumnBytes((QuercusResultSet) rs, column);
 
     Method getColumnCharacterSetMethod
       = _conn.getColumnCharacterSetMethod(md.getClass());
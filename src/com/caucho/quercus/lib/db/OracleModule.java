@@ -291,7 +291,7 @@ public class OracleModule extends AbstractQuercusModule {
     try {
 
       // JDBC underlying connection
-      Connection conn = stmt.getJavaConnection(env);
+      Connection conn = stmt.getDriverConnection(env);
 
       // Oracle underlying statement
       PreparedStatement oracleStmt = stmt.getPreparedStatement();
@@ -1234,7 +1234,7 @@ public class OracleModule extends AbstractQuercusModule {
       //   = StructDescriptor.createDescriptor(typeName, jdbcConn);
 
       // JDBC underlying connection
-      Connection jdbcConn = conn.getJavaConnection(env);
+      Connection jdbcConn = conn.getDriverConnection(env);
 
       // Oracle underlying statement
       // PreparedStatement oracleStmt = stmt.getPreparedStatement();
@@ -165,6 +165,9 @@ public class PDO implements EnvCleanup {
 
   private String _initQuery;
 
+  // MYSQL_ATTR_USE_BUFFERED_QUERY set to false
+  private boolean _isUnbuffered;
+
   private int _columnCase = JdbcResultResource.COLUMN_CASE_NATURAL;
 
   public PDO(Env env,
@@ -192,6 +195,9 @@ public class PDO implements EnvCleanup {
       if (conn == null) {
         env.warning(L.l("'{0}' is an unknown PDO data source.", dsn));
       }
+      else if (_isUnbuffered) {
+        conn.setUnbuffered(true);
+      }
     }
     catch (SQLException e) {
       env.warning(e.getMessage(), e);
@@ -397,6 +403,10 @@ public class PDO implements EnvCleanup {
       {
         return getTimeout(env);
       }
+      case MYSQL_ATTR_USE_BUFFERED_QUERY:
+      {
+        return BooleanValue.create(! _isUnbuffered);
+      }
       default:
         _error.unsupportedAttribute(env, attribute);
         // XXX: check what php does
@@ -708,6 +718,11 @@ public class PDO implements EnvCleanup {
         return setInitQuery(value.toString());
       }
 
+      case MYSQL_ATTR_USE_BUFFERED_QUERY:
+      {
+        return setBufferedQuery(value.toBoolean());
+      }
+
     }
 
     if (isInit) {
@@ -726,6 +741,23 @@ public class PDO implements EnvCleanup {
     return false;
   }
 
+  /**
+   * Sets whether queries buffer their results, false for forward-only
+   * streaming results.
+   */
+  private boolean setBufferedQuery(boolean isBuffered)
+  {
+    _isUnbuffered = ! isBuffered;
+
+    JdbcConnectionResource conn = _conn;
+
+    if (conn != null) {
+      conn.setUnbuffered(_isUnbuffered);
+    }
+
+    return true;
+  }
+
   /**
    * Sets the auto commit, if true commit every statement.
    * @return true on success, false on error.
@@ -589,6 +589,14 @@ public class PDOStatement
         }
     }
 
+    if (_boundColumnMap == null || _boundColumnMap.isEmpty()) {
+      Value rows = fetchAllBulk(env, effectiveFetchMode, columnIndex);
+
+      if (rows != null) {
+        return rows;
+      }
+    }
+
     ArrayValueImpl rows = new ArrayValueImpl();
 
     while (true) {
@@ -604,6 +612,75 @@ public class PDOStatement
     return rows;
   }
 
+  /**
+   * Drains the result set directly for the array and column modes,
+   * returning null for modes that need the per-row fetch.
+   */
+  private Value fetchAllBulk(Env env, int fetchMode, int columnIndex)
+  {
+    switch (fetchMode) {
+      case PDO.FETCH_ASSOC:
+      case PDO.FETCH_NUM:
+      case PDO.FETCH_BOTH:
+      case PDO.FETCH_COLUMN:
+      case PDO.FETCH_KEY_PAIR:
+        break;
+
+      default:
+        return null;
+    }
+
+    JdbcResultResource rs = _stmt.getResultSet();
+
+    if (rs == null) {
+      return new ArrayValueImpl();
+    }
+
+    switch (fetchMode) {
+      case PDO.FETCH_ASSOC:
+        return rs.fetchAll(env, JdbcResultResource.FETCH_ASSOC, true);
+
+      case PDO.FETCH_NUM:
+        return rs.fetchAll(env, JdbcResultResource.FETCH_NUM, false);
+
+      case PDO.FETCH_BOTH:
+        return rs.fetchAll(env, JdbcResultResource.FETCH_BOTH, false);
+
+      case PDO.FETCH_COLUMN:
+      {
+        int column = columnIndex;
+
+        if (column < 0 && _fetchModeArgs.length > 0) {
+          column = _fetchModeArgs[0].toInt();
+        }
+
+        if (column < 0) {
+          column = 0;
+        }
+
+        return rs.fetchAllColumn(env, column);
+      }
+
+      default:
+      {
+        try {
+          if (_stmt.getMetaData().getColumnCount() != 2) {
+            _error.warning(env, L.l("PDO::FETCH_KEY_PAIR requires the result set to contain exactly 2 columns"));
+
+            return BooleanValue.FALSE;
+          }
+        }
+        catch (SQLException e) {
+          _error.error(env, e);
+
+          return BooleanValue.FALSE;
+        }
+
+        return rs.fetchAllKeyPair(env);
+      }
+    }
+  }
+
   private Value fetchBoth(Env env, JdbcResultResource rs)
   {
     Value value = rs.fetchBoth(env, false);
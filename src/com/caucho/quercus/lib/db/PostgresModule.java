@@ -941,16 +941,7 @@ public class PostgresModule extends AbstractQuercusModule {
         return null;
       }
 
-      ArrayValueImpl newArray = new ArrayValueImpl();
-
-      int curr = 0;
-
-      for (Value row = result.fetchRow(env);
-           row != NullValue.NULL;
-           row = result.fetchRow(env)) {
-
-        newArray.put(LongValue.create(curr++), row.get(column));
-      }
+      ArrayValue newArray = result.fetchAllColumn(env, column.toInt());
 
       if (newArray.getSize() > 0) {
         return newArray;
@@ -974,17 +965,8 @@ public class PostgresModule extends AbstractQuercusModule {
       if (result == null)
         return null;
 
-      ArrayValueImpl newArray = new ArrayValueImpl();
-
-      int curr = 0;
-
-      for (Value row = result.fetchAssoc(env);
-           row != NullValue.NULL;
-           row = result.fetchAssoc(env)) {
-
-        newArray.put(LongValue.create(curr++), row);
-
-      }
+      ArrayValue newArray
+        = result.fetchAll(env, JdbcResultResource.FETCH_ASSOC, true);
 
       if (newArray.getSize() > 0) {
         return newArray;
@@ -1626,7 +1608,7 @@ public class PostgresModule extends AbstractQuercusModule {
       // public PGNotification[] getNotifications() throws SQLException;
       Method method = cl.getDeclaredMethod("getNotifications", null);
 
-      Connection pgconn = conn.getJavaConnection(env);
+      Connection pgconn = conn.getDriverConnection(env);
 
       // getNotifications()
       Object []notifications = (Object[]) method
@@ -2008,7 +1990,7 @@ public class PostgresModule extends AbstractQuercusModule {
 
       Method method = cl.getDeclaredMethod("getLargeObjectAPI", null);
 
-      Connection pgconn = conn.getJavaConnection(env);
+      Connection pgconn = conn.getDriverConnection(env);
 
       // Large Objects may not be used in auto-commit mode.
       pgconn.setAutoCommit(false);
@@ -2068,7 +2050,7 @@ public class PostgresModule extends AbstractQuercusModule {
 
       Method method = cl.getDeclaredMethod("getLargeObjectAPI", null);
 
-      Connection pgconn = conn.getJavaConnection(env);
+      Connection pgconn = conn.getDriverConnection(env);
 
       lobManager = method.invoke(pgconn, new Object[] {});
       // lobManager = ((org.postgresql.PGConnection)conn).getLargeObjectAPI();
@@ -2195,7 +2177,7 @@ public class PostgresModule extends AbstractQuercusModule {
 
       Method method = cl.getDeclaredMethod("getLargeObjectAPI", null);
 
-      Connection pgconn = conn.getJavaConnection(env);
+      Connection pgconn = conn.getDriverConnection(env);
 
       lobManager = method.invoke(pgconn, new Object[] {});
 
@@ -2402,7 +2384,7 @@ public class PostgresModule extends AbstractQuercusModule {
 
       Method method = cl.getDeclaredMethod("getLargeObjectAPI", null);
 
-      Connection pgconn = conn.getJavaConnection(env);
+      Connection pgconn = conn.getDriverConnection(env);
 
       lobManager = method.invoke(pgconn, new Object[] {});
 
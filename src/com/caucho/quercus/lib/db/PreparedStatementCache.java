@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * LRU cache of the idle prepared statements of a pooled connection,
+ * keyed by catalog, query and statement kind.
+ *
+ * A statement is removed while it's in use and put back when its
+ * resource closes it.
+ */
+public class PreparedStatementCache
+{
+  private static final Logger log
+    = Logger.getLogger(PreparedStatementCache.class.getName());
+
+  public static final int PLAIN = 0;
+  public static final int GENERATED_KEYS = 1;
+  public static final int SCROLL_INSENSITIVE = 2;
+  public static final int FORWARD_ONLY = 3;
+
+  private final JdbcConnectionPool.PooledConnection _pConn;
+  private final int _capacity;
+
+  private final LinkedHashMap<Key,PreparedStatement> _map
+    = new LinkedHashMap<Key,PreparedStatement>(16, 0.75f, true);
+
+  private long _hitCount;
+  private long _missCount;
+
+  PreparedStatementCache(JdbcConnectionPool.PooledConnection pConn,
+                         int capacity)
+  {
+    _pConn = pConn;
+    _capacity = capacity;
+  }
+
+  /**
+   * Takes an idle statement for the query, or returns null.
+   */
+  public PreparedStatement remove(String query, int kind)
+  {
+    Key key = new Key(_pConn.getCurrentCatalog(), query, kind);
+
+    PreparedStatement stmt;
+
+    synchronized (this) {
+      stmt = _map.remove(key);
+
+      if (stmt != null)
+        _hitCount++;
+      else
+        _missCount++;
+    }
+
+    _pConn.getPool().addStatementCacheCount(stmt != null);
+
+    return stmt;
+  }
+
+  /**
+   * Puts back a statement that's no longer used, returning false if the
+   * caller should close it instead.
+   */
+  public boolean release(String query, int kind, PreparedStatement stmt)
+  {
+    try {
+      stmt.clearParameters();
+      stmt.clearWarnings();
+    } catch (SQLException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return false;
+    }
+
+    Key key = new Key(_pConn.getCurrentCatalog(), query, kind);
+
+    PreparedStatement evictStmt = null;
+
+    synchronized (this) {
+      if (_map.containsKey(key))
+        return false;
+
+      _map.put(key, stmt);
+
+      if (_capacity < _map.size()) {
+        Iterator<PreparedStatement> iter = _map.values().iterator();
+
+        evictStmt = iter.next();
+        iter.remove();
+      }
+    }
+
+    if (evictStmt != null)
+      closeStatement(evictStmt);
+
+    return true;
+  }
+
+  /**
+   * True if the statement is idle in the cache.
+   */
+  synchronized boolean isIdle(Statement stmt)
+  {
+    return _map.containsValue(stmt);
+  }
+
+  public synchronized int getSize()
+  {
+    return _map.size();
+  }
+
+  public synchronized long getHitCount()
+  {
+    return _hitCount;
+  }
+
+  public synchronized long getMissCount()
+  {
+    return _missCount;
+  }
+
+  /**
+   * Closes the idle statements.
+   */
+  void close()
+  {
+    PreparedStatement []stmts;
+
+    synchronized (this) {
+      stmts = new PreparedStatement[_map.size()];
+      _map.values().toArray(stmts);
+
+      _map.clear();
+    }
+
+    for (PreparedStatement stmt : stmts) {
+      closeStatement(stmt);
+    }
+  }
+
+  private static void closeStatement(PreparedStatement stmt)
+  {
+    try {
+      stmt.close();
+    } catch (SQLException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _pConn
+           + ",size=" + getSize() + "]";
+  }
+
+  static final class Key {
+    private final String _catalog;
+    private final String _query;
+    private final int _kind;
+
+    Key(String catalog, String query, int kind)
+    {
+      _catalog = catalog;
+      _query = query;
+      _kind = kind;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      int hash = _query.hashCode() * 65521 + _kind;
+
+      if (_catalog != null)
+        hash = hash * 31 + _catalog.hashCode();
+
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (! (o instanceof Key))
+        return false;
+
+      Key key = (Key) o;
+
+      if (_kind != key._kind || ! _query.equals(key._query))
+        return false;
+      else if (_catalog == null)
+        return key._catalog == null;
+      else
+        return _catalog.equals(key._catalog);
+    }
+  }
+}
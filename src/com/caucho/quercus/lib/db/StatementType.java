@@ -32,7 +32,7 @@ package com.caucho.quercus.lib.db;
 public enum StatementType
 {
   SELECT, UPDATE, DELETE, INSERT, CREATE, DROP,
-  ALTER, BEGIN, DECLARE, ROLLBACK, SET, UNKNOWN;
+  ALTER, BEGIN, DECLARE, ROLLBACK, SET, USE, UNKNOWN;
 
   public static StatementType getStatementType(String query)
   {
@@ -88,6 +88,9 @@ public enum StatementType
     else if ("SET".equalsIgnoreCase(token)) {
       return SET;
     }
+    else if ("USE".equalsIgnoreCase(token)) {
+      return USE;
+    }
     else {
       return UNKNOWN;
     }
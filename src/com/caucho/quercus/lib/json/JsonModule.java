@@ -75,6 +75,44 @@ public class JsonModule extends AbstractQuercusModule
   public static StringValue json_encode(Env env,
                                         Value val,
                                         @Optional int options)
+  {
+    JsonEncodeContext context = createEncodeContext(options);
+
+    StringValue sb = env.createStringBuilder();
+
+    val.jsonEncode(env, context, sb);
+
+    return sb;
+  }
+
+  /**
+   * Streams json_encode() straight to the output for echo, so the
+   * encoded string is never held whole.  Values holding objects are
+   * encoded normally, since jsonSerialize() may echo.
+   */
+  @Override
+  public boolean printFunction(Env env, String name, Value []args)
+  {
+    if (! "json_encode".equals(name) || args.length < 1 || args.length > 2)
+      return false;
+    else if (! isPrintSafe(args[0]))
+      return false;
+
+    int options = args.length > 1 ? args[1].toInt() : 0;
+
+    JsonEncodeContext context = createEncodeContext(options);
+    context.setPrint(true);
+
+    StringValue sb = env.createStringBuilder();
+
+    args[0].toValue().jsonEncode(env, context, sb);
+
+    sb.print(env);
+
+    return true;
+  }
+
+  private static JsonEncodeContext createEncodeContext(int options)
   {
     boolean isEscapeTag = (options & JSON_HEX_TAG) > 0;
     boolean isEscapeAmp = (options & JSON_HEX_AMP) > 0;
@@ -83,18 +121,12 @@ public class JsonModule extends AbstractQuercusModule
     boolean isNumericCheck = (options & JSON_NUMERIC_CHECK) > 0;
     boolean isBigIntAsString = (options & JSON_BIGINT_AS_STRING) > 0;
 
-    JsonEncodeContext context = new JsonEncodeContext(isEscapeTag,
-                                                      isEscapeAmp,
-                                                      isEscapeApos,
-                                                      isEscapeQuote,
-                                                      isNumericCheck,
-                                                      isBigIntAsString);
-
-    StringValue sb = env.createStringBuilder();
-
-    val.jsonEncode(env, context, sb);
-
-    return sb;
+    return new JsonEncodeContext(isEscapeTag,
+                                 isEscapeAmp,
+                                 isEscapeApos,
+                                 isEscapeQuote,
+                                 isNumericCheck,
+                                 isBigIntAsString);
   }
 
   /**
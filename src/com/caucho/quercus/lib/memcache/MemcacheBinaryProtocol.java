@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 1998-2013 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Nam Nguyen
+ */
+
+package com.caucho.quercus.lib.memcache;
+
+import com.caucho.util.L10N;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The memcached binary protocol.  Multi-gets are sent as a run of quiet
+ * GETKQ requests terminated by a NOOP, so only hits are answered.
+ */
+public class MemcacheBinaryProtocol extends MemcacheProtocol
+{
+  private static final L10N L = new L10N(MemcacheBinaryProtocol.class);
+
+  private static final int MAGIC_REQUEST = 0x80;
+  private static final int MAGIC_RESPONSE = 0x81;
+
+  private static final int OP_SET = 0x01;
+  private static final int OP_ADD = 0x02;
+  private static final int OP_REPLACE = 0x03;
+  private static final int OP_DELETE = 0x04;
+  private static final int OP_INCREMENT = 0x05;
+  private static final int OP_DECREMENT = 0x06;
+  private static final int OP_FLUSH = 0x08;
+  private static final int OP_NOOP = 0x0a;
+  private static final int OP_VERSION = 0x0b;
+  private static final int OP_GETKQ = 0x0d;
+  private static final int OP_APPEND = 0x0e;
+  private static final int OP_PREPEND = 0x0f;
+
+  private static final int RES_OK = 0x00;
+  private static final int RES_NOT_FOUND = 0x01;
+  private static final int RES_EXISTS = 0x02;
+  private static final int RES_VALUE_TOO_LARGE = 0x03;
+  private static final int RES_INVALID_ARGUMENTS = 0x04;
+  private static final int RES_NOT_STORED = 0x05;
+  private static final int RES_NON_NUMERIC = 0x06;
+
+  private static final byte []EMPTY = new byte[0];
+
+  @Override
+  public void writeGet(MemcacheConnection conn, List<String> keys)
+    throws IOException
+  {
+    for (String key : keys) {
+      writeRequest(conn, OP_GETKQ, toBytes(key), EMPTY, EMPTY, 0);
+    }
+
+    writeRequest(conn, OP_NOOP, EMPTY, EMPTY, EMPTY, 0);
+  }
+
+  @Override
+  public void readGet(MemcacheConnection conn,
+                      List<String> keys,
+                      Map<String,MemcacheItem> result)
+    throws IOException
+  {
+    while (true) {
+      Response res = readResponse(conn);
+
+      if (res._opcode == OP_NOOP)
+        return;
+      else if (res._status != RES_OK)
+        continue;
+
+      int flags = res._extras.length >= 4 ? getInt(res._extras, 0) : 0;
+
+      result.put(toString(res._key),
+                 new MemcacheItem(flags, res._value, res._cas));
+    }
+  }
+
+  @Override
+  public int store(MemcacheConnection conn,
+                   int op,
+                   String key,
+                   MemcacheItem item,
+                   int expire)
+    throws IOException
+  {
+    int opcode;
+    byte []extras;
+
+    switch (op) {
+    case APPEND:
+      opcode = OP_APPEND;
+      extras = EMPTY;
+      break;
+    case PREPEND:
+      opcode = OP_PREPEND;
+      extras = EMPTY;
+      break;
+    default:
+      if (op == ADD)
+        opcode = OP_ADD;
+      else if (op == REPLACE)
+        opcode = OP_REPLACE;
+      else
+        opcode = OP_SET;
+
+      extras = new byte[8];
+      putInt(extras, 0, item.getFlags());
+      putInt(extras, 4, expire);
+      break;
+    }
+
+    long cas = op == CAS ? item.getCas() : 0;
+
+    writeRequest(conn, opcode, toBytes(key), extras, item.getData(), cas);
+    conn.flush();
+
+    Response res = readResponse(conn);
+
+    return toStatus(res._status, op == CAS);
+  }
+
+  @Override
+  public int delete(MemcacheConnection conn, String key)
+    throws IOException
+  {
+    writeRequest(conn, OP_DELETE, toBytes(key), EMPTY, EMPTY, 0);
+    conn.flush();
+
+    return toStatus(readResponse(conn)._status, false);
+  }
+
+  @Override
+  public Long incr(MemcacheConnection conn,
+                   String key,
+                   long delta,
+                   boolean isIncrement)
+    throws IOException
+  {
+    byte []extras = new byte[20];
+    putLong(extras, 0, delta);
+    putLong(extras, 8, 0);
+    // expiration of all ones: fail instead of creating the counter
+    putInt(extras, 16, 0xffffffff);
+
+    writeRequest(conn, isIncrement ? OP_INCREMENT : OP_DECREMENT,
+                 toBytes(key), extras, EMPTY, 0);
+    conn.flush();
+
+    Response res = readResponse(conn);
+
+    if (res._status != RES_OK || res._value.length < 8)
+      return null;
+
+    return getLong(res._value, 0);
+  }
+
+  @Override
+  public int flush(MemcacheConnection conn, int delay)
+    throws IOException
+  {
+    byte []extras = EMPTY;
+
+    if (delay > 0) {
+      extras = new byte[4];
+      putInt(extras, 0, delay);
+    }
+
+    writeRequest(conn, OP_FLUSH, EMPTY, extras, EMPTY, 0);
+    conn.flush();
+
+    return toStatus(readResponse(conn)._status, false);
+  }
+
+  @Override
+  public String version(MemcacheConnection conn)
+    throws IOException
+  {
+    writeRequest(conn, OP_VERSION, EMPTY, EMPTY, EMPTY, 0);
+    conn.flush();
+
+    Response res = readResponse(conn);
+
+    if (res._status != RES_OK)
+      throw new IOException(L.l("memcache: version failed with status {0}",
+                                res._status));
+
+    return toString(res._value);
+  }
+
+  private static int toStatus(int status, boolean isCas)
+  {
+    switch (status) {
+    case RES_OK:
+      return STATUS_OK;
+    case RES_NOT_FOUND:
+      return STATUS_NOT_FOUND;
+    case RES_EXISTS:
+      return isCas ? STATUS_EXISTS : STATUS_NOT_STORED;
+    case RES_NOT_STORED:
+      return STATUS_NOT_STORED;
+    case RES_VALUE_TOO_LARGE:
+    case RES_INVALID_ARGUMENTS:
+    case RES_NON_NUMERIC:
+      return STATUS_CLIENT_ERROR;
+    default:
+      return STATUS_SERVER_ERROR;
+    }
+  }
+
+  private static void writeRequest(MemcacheConnection conn,
+                                   int opcode,
+                                   byte []key,
+                                   byte []extras,
+                                   byte []value,
+                                   long cas)
+    throws IOException
+  {
+    byte []header = new byte[24];
+
+    header[0] = (byte) MAGIC_REQUEST;
+    header[1] = (byte) opcode;
+    header[2] = (byte) (key.length >> 8);
+    header[3] = (byte) key.length;
+    header[4] = (byte) extras.length;
+    // data type and vbucket are zero
+    putInt(header, 8, extras.length + key.length + value.length);
+    // opaque is zero
+    putLong(header, 16, cas);
+
+    conn.write(header);
+    conn.write(extras);
+    conn.write(key);
+    conn.write(value);
+  }
+
+  private static Response readResponse(MemcacheConnection conn)
+    throws IOException
+  {
+    byte []header = new byte[24];
+    conn.readFully(header);
+
+    if ((header[0] & 0xff) != MAGIC_RESPONSE) {
+      throw new IOException(L.l("memcache: bad response magic 0x{0}",
+                                Integer.toHexString(header[0] & 0xff)));
+    }
+
+    Response res = new Response();
+
+    res._opcode = header[1] & 0xff;
+
+    int keyLength = ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+    int extrasLength = header[4] & 0xff;
+
+    res._status = ((header[6] & 0xff) << 8) | (header[7] & 0xff);
+
+    int bodyLength = getInt(header, 8);
+
+    res._cas = getLong(header, 16);
+
+    res._extras = new byte[extrasLength];
+    conn.readFully(res._extras);
+
+    res._key = new byte[keyLength];
+    conn.readFully(res._key);
+
+    res._value = new byte[bodyLength - extrasLength - keyLength];
+    conn.readFully(res._value);
+
+    return res;
+  }
+
+  private static byte []toBytes(String s)
+  {
+    int len = s.length();
+    byte []bytes = new byte[len];
+
+    for (int i = 0; i < len; i++) {
+      bytes[i] = (byte) s.charAt(i);
+    }
+
+    return bytes;
+  }
+
+  private static String toString(byte []bytes)
+  {
+    char []chars = new char[bytes.length];
+
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i] = (char) (bytes[i] & 0xff);
+    }
+
+    return new String(chars);
+  }
+
+  private static void putInt(byte []buffer, int offset, int v)
+  {
+    buffer[offset] = (byte) (v >> 24);
+    buffer[offset + 1] = (byte) (v >> 16);
+    buffer[offset + 2] = (byte) (v >> 8);
+    buffer[offset + 3] = (byte) v;
+  }
+
+  private static void putLong(byte []buffer, int offset, long v)
+  {
+    putInt(buffer, offset, (int) (v >> 32));
+    putInt(buffer, offset + 4, (int) v);
+  }
+
+  private static int getInt(byte []buffer, int offset)
+  {
+    return (((buffer[offset] & 0xff) << 24)
+            | ((buffer[offset + 1] & 0xff) << 16)
+            | ((buffer[offset + 2] & 0xff) << 8)
+            | (buffer[offset + 3] & 0xff));
+  }
+
+  private static long getLong(byte []buffer, int offset)
+  {
+    return (((long) getInt(buffer, offset) << 32)
+            | (getInt(buffer, offset + 4) & 0xffffffffL));
+  }
+
+  static final class Response
+  {
+    int _opcode;
+    int _status;
+    long _cas;
+
+    byte []_extras;
+    byte []_key;
+    byte []_value;
+  }
+}
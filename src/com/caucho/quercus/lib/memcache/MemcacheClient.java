@@ -0,0 +1,499 @@
+/*
+ * Copyright (c) 1998-2013 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Nam Nguyen
+ */
+
+package com.caucho.quercus.lib.memcache;
+
+import com.caucho.quercus.QuercusContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memcached client over a weighted list of servers.  Each operation
+ * borrows a pooled connection from the key's server; multi-gets write
+ * to every server before reading any reply.
+ */
+public class MemcacheClient
+{
+  private static final int MAX_KEY_LENGTH = 250;
+
+  private final QuercusContext _quercus;
+
+  private final ArrayList<MemcacheServer> _serverList
+    = new ArrayList<MemcacheServer>();
+  private final ArrayList<Integer> _weightList = new ArrayList<Integer>();
+
+  private MemcacheLocator _locator;
+  private boolean _isConsistent;
+
+  private MemcacheProtocol _protocol = new MemcacheTextProtocol();
+  private boolean _isBinary;
+
+  private int _connectTimeout = 1000;
+  private int _readTimeout = 1000;
+  private long _retryInterval = -1;
+
+  private String _prefix = "";
+
+  private int _status = MemcacheProtocol.STATUS_OK;
+  private boolean _isConnectionFailure;
+
+  public MemcacheClient(QuercusContext quercus)
+  {
+    _quercus = quercus;
+  }
+
+  /**
+   * Adds a server to the pool.
+   */
+  public void addServer(String host, int port, int weight)
+  {
+    MemcacheServer server = MemcacheServer.create(_quercus, host, port);
+
+    if (_retryInterval >= 0)
+      server.setRetryInterval(_retryInterval);
+
+    _serverList.add(server);
+    _weightList.add(weight);
+
+    _locator = null;
+  }
+
+  public List<MemcacheServer> getServerList()
+  {
+    return _serverList;
+  }
+
+  public List<Integer> getWeightList()
+  {
+    return _weightList;
+  }
+
+  /**
+   * Selects ketama consistent hashing instead of modulo distribution.
+   */
+  public void setConsistent(boolean isConsistent)
+  {
+    _isConsistent = isConsistent;
+    _locator = null;
+  }
+
+  public boolean isConsistent()
+  {
+    return _isConsistent;
+  }
+
+  /**
+   * Selects the binary protocol instead of the text protocol.
+   */
+  public void setBinary(boolean isBinary)
+  {
+    _isBinary = isBinary;
+
+    if (isBinary)
+      _protocol = new MemcacheBinaryProtocol();
+    else
+      _protocol = new MemcacheTextProtocol();
+  }
+
+  public boolean isBinary()
+  {
+    return _isBinary;
+  }
+
+  public void setConnectTimeout(int timeout)
+  {
+    if (timeout > 0)
+      _connectTimeout = timeout;
+  }
+
+  public int getConnectTimeout()
+  {
+    return _connectTimeout;
+  }
+
+  public void setReadTimeout(int timeout)
+  {
+    if (timeout > 0)
+      _readTimeout = timeout;
+  }
+
+  public int getReadTimeout()
+  {
+    return _readTimeout;
+  }
+
+  public void setRetryInterval(long interval)
+  {
+    _retryInterval = interval;
+
+    for (MemcacheServer server : _serverList) {
+      server.setRetryInterval(interval);
+    }
+  }
+
+  /**
+   * Sets a prefix prepended to every key.
+   */
+  public void setPrefix(String prefix)
+  {
+    _prefix = prefix != null ? prefix : "";
+  }
+
+  public String getPrefix()
+  {
+    return _prefix;
+  }
+
+  /**
+   * Returns the STATUS_ code of the last operation.
+   */
+  public int getStatus()
+  {
+    return _status;
+  }
+
+  /**
+   * True if the last operation failed because no server was reachable.
+   */
+  public boolean isConnectionFailure()
+  {
+    return _isConnectionFailure;
+  }
+
+  /**
+   * Returns true if the key can be sent to memcached.
+   */
+  public boolean isValidKey(String key)
+  {
+    int len = _prefix.length() + key.length();
+
+    if (key.length() == 0 || len > MAX_KEY_LENGTH)
+      return false;
+
+    for (int i = 0; i < key.length(); i++) {
+      char ch = key.charAt(i);
+
+      if (ch <= ' ' || ch == 0x7f || ch > 0xff)
+        return false;
+    }
+
+    return true;
+  }
+
+  public MemcacheItem get(String key)
+  {
+    ArrayList<String> keys = new ArrayList<String>(1);
+    keys.add(key);
+
+    Map<String,MemcacheItem> result = getMulti(keys);
+
+    MemcacheItem item = result.get(key);
+
+    if (item == null && _status == MemcacheProtocol.STATUS_OK)
+      _status = MemcacheProtocol.STATUS_NOT_FOUND;
+
+    return item;
+  }
+
+  /**
+   * Fetches several keys, pipelining the requests to each server.  The
+   * result is in key order and omits misses.
+   */
+  public Map<String,MemcacheItem> getMulti(List<String> keys)
+  {
+    startOperation();
+
+    LinkedHashMap<MemcacheServer,ArrayList<String>> serverKeys
+      = new LinkedHashMap<MemcacheServer,ArrayList<String>>();
+
+    for (String key : keys) {
+      MemcacheServer server = locate(key);
+
+      if (server == null) {
+        _status = MemcacheProtocol.STATUS_SERVER_ERROR;
+        _isConnectionFailure = true;
+
+        return new LinkedHashMap<String,MemcacheItem>();
+      }
+
+      ArrayList<String> list = serverKeys.get(server);
+
+      if (list == null) {
+        list = new ArrayList<String>();
+        serverKeys.put(server, list);
+      }
+
+      list.add(_prefix + key);
+    }
+
+    ArrayList<MemcacheConnection> connList
+      = new ArrayList<MemcacheConnection>();
+    ArrayList<ArrayList<String>> keyList = new ArrayList<ArrayList<String>>();
+
+    for (Map.Entry<MemcacheServer,ArrayList<String>> entry
+           : serverKeys.entrySet()) {
+      MemcacheConnection conn = allocate(entry.getKey());
+
+      if (conn == null)
+        continue;
+
+      try {
+        _protocol.writeGet(conn, entry.getValue());
+        conn.flush();
+
+        connList.add(conn);
+        keyList.add(entry.getValue());
+      } catch (IOException e) {
+        fail(conn, e);
+      }
+    }
+
+    LinkedHashMap<String,MemcacheItem> prefixResult
+      = new LinkedHashMap<String,MemcacheItem>();
+
+    for (int i = 0; i < connList.size(); i++) {
+      MemcacheConnection conn = connList.get(i);
+
+      try {
+        _protocol.readGet(conn, keyList.get(i), prefixResult);
+
+        conn.getServer().free(conn);
+      } catch (IOException e) {
+        fail(conn, e);
+      }
+    }
+
+    LinkedHashMap<String,MemcacheItem> result
+      = new LinkedHashMap<String,MemcacheItem>();
+
+    for (String key : keys) {
+      MemcacheItem item = prefixResult.get(_prefix + key);
+
+      if (item != null)
+        result.put(key, item);
+    }
+
+    return result;
+  }
+
+  /**
+   * Stores an item with one of the MemcacheProtocol store operations.
+   */
+  public boolean store(int op, String key, MemcacheItem item, int expire)
+  {
+    startOperation();
+
+    MemcacheServer server = locate(key);
+    MemcacheConnection conn = allocate(server);
+
+    if (conn == null)
+      return false;
+
+    try {
+      _status = _protocol.store(conn, op, _prefix + key, item, expire);
+
+      server.free(conn);
+    } catch (IOException e) {
+      fail(conn, e);
+    }
+
+    return _status == MemcacheProtocol.STATUS_OK;
+  }
+
+  public boolean delete(String key)
+  {
+    startOperation();
+
+    MemcacheServer server = locate(key);
+    MemcacheConnection conn = allocate(server);
+
+    if (conn == null)
+      return false;
+
+    try {
+      _status = _protocol.delete(conn, _prefix + key);
+
+      server.free(conn);
+    } catch (IOException e) {
+      fail(conn, e);
+    }
+
+    return _status == MemcacheProtocol.STATUS_OK;
+  }
+
+  /**
+   * Adds delta to a counter, returning the new value or null.
+   */
+  public Long incr(String key, long delta, boolean isIncrement)
+  {
+    startOperation();
+
+    MemcacheServer server = locate(key);
+    MemcacheConnection conn = allocate(server);
+
+    if (conn == null)
+      return null;
+
+    try {
+      Long value = _protocol.incr(conn, _prefix + key, delta, isIncrement);
+
+      server.free(conn);
+
+      if (value == null)
+        _status = MemcacheProtocol.STATUS_NOT_FOUND;
+
+      return value;
+    } catch (IOException e) {
+      fail(conn, e);
+
+      return null;
+    }
+  }
+
+  /**
+   * Flushes every server.
+   */
+  public boolean flush(int delay)
+  {
+    startOperation();
+
+    boolean isOk = true;
+
+    for (MemcacheServer server : _serverList) {
+      MemcacheConnection conn = allocate(server);
+
+      if (conn == null) {
+        isOk = false;
+        continue;
+      }
+
+      try {
+        if (_protocol.flush(conn, delay) != MemcacheProtocol.STATUS_OK)
+          isOk = false;
+
+        server.free(conn);
+      } catch (IOException e) {
+        fail(conn, e);
+
+        isOk = false;
+      }
+    }
+
+    return isOk && _serverList.size() > 0;
+  }
+
+  /**
+   * Returns the version of each reachable server.
+   */
+  public Map<MemcacheServer,String> getVersions()
+  {
+    startOperation();
+
+    LinkedHashMap<MemcacheServer,String> versions
+      = new LinkedHashMap<MemcacheServer,String>();
+
+    for (MemcacheServer server : _serverList) {
+      MemcacheConnection conn = allocate(server);
+
+      if (conn == null)
+        continue;
+
+      try {
+        versions.put(server, _protocol.version(conn));
+
+        server.free(conn);
+      } catch (IOException e) {
+        fail(conn, e);
+      }
+    }
+
+    return versions;
+  }
+
+  private void startOperation()
+  {
+    _status = MemcacheProtocol.STATUS_OK;
+    _isConnectionFailure = false;
+  }
+
+  private MemcacheServer locate(String key)
+  {
+    if (_serverList.size() == 0)
+      return null;
+
+    MemcacheLocator locator = _locator;
+
+    if (locator == null) {
+      if (_isConsistent)
+        locator = MemcacheLocator.createConsistent(_serverList, _weightList);
+      else
+        locator = MemcacheLocator.createModula(_serverList, _weightList);
+
+      _locator = locator;
+    }
+
+    return locator.locate(_prefix + key);
+  }
+
+  private MemcacheConnection allocate(MemcacheServer server)
+  {
+    if (server == null) {
+      _status = MemcacheProtocol.STATUS_SERVER_ERROR;
+      _isConnectionFailure = true;
+
+      return null;
+    }
+
+    try {
+      return server.allocate(_connectTimeout, _readTimeout);
+    } catch (IOException e) {
+      _status = MemcacheProtocol.STATUS_SERVER_ERROR;
+      _isConnectionFailure = true;
+
+      return null;
+    }
+  }
+
+  private void fail(MemcacheConnection conn, IOException e)
+  {
+    conn.getServer().fail(conn, e);
+
+    _status = MemcacheProtocol.STATUS_SERVER_ERROR;
+    _isConnectionFailure = true;
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + _serverList;
+  }
+}
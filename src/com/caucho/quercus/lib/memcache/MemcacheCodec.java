@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 1998-2013 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Nam Nguyen
+ */
+
+package com.caucho.quercus.lib.memcache;
+
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.DoubleValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+import com.caucho.quercus.lib.VariableModule;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Converts PHP values to memcached items and back, using the client flag
+ * layout of either the memcache or the memcached extension, so entries
+ * can be shared with PHP clients.
+ */
+public class MemcacheCodec
+{
+  // pecl/memcache flags
+  public static final int MEMCACHE_SERIALIZED = 1;
+  public static final int MEMCACHE_COMPRESSED = 2;
+
+  // pecl/memcached flags: a type in the low nibble plus a compression bit
+  public static final int MEMCACHED_STRING = 0;
+  public static final int MEMCACHED_LONG = 1;
+  public static final int MEMCACHED_DOUBLE = 2;
+  public static final int MEMCACHED_BOOL = 3;
+  public static final int MEMCACHED_SERIALIZED = 4;
+  public static final int MEMCACHED_TYPE_MASK = 0xf;
+  public static final int MEMCACHED_COMPRESSED = 1 << 4;
+
+  private final boolean _isMemcached;
+
+  private int _compressThreshold;
+  private double _minSavings = 0.2;
+
+  private MemcacheCodec(boolean isMemcached)
+  {
+    _isMemcached = isMemcached;
+  }
+
+  /**
+   * Codec compatible with the pecl memcache extension.
+   */
+  public static MemcacheCodec createMemcache()
+  {
+    return new MemcacheCodec(false);
+  }
+
+  /**
+   * Codec compatible with the pecl memcached extension.
+   */
+  public static MemcacheCodec createMemcached()
+  {
+    MemcacheCodec codec = new MemcacheCodec(true);
+
+    // memcached compresses values over 2000 bytes by default
+    codec.setCompressThreshold(2000);
+
+    return codec;
+  }
+
+  /**
+   * Values at least this long are compressed, 0 to disable.
+   */
+  public void setCompressThreshold(int threshold)
+  {
+    _compressThreshold = threshold;
+  }
+
+  public int getCompressThreshold()
+  {
+    return _compressThreshold;
+  }
+
+  /**
+   * Compressed data is only kept if it saves at least this fraction.
+   */
+  public void setMinSavings(double minSavings)
+  {
+    if (0 <= minSavings && minSavings < 1)
+      _minSavings = minSavings;
+  }
+
+  public MemcacheItem encode(Env env, Value value, boolean isCompress)
+  {
+    value = value.toValue();
+
+    int flags;
+    byte []data;
+
+    if (value instanceof StringValue) {
+      flags = MEMCACHED_STRING;
+      data = ((StringValue) value).toBytes();
+    }
+    else if (! _isMemcached
+             && (value.isLongConvertible() || value.isDoubleConvertible()
+                 || value.isBoolean())) {
+      // memcache stores scalars as their string value
+      flags = 0;
+      data = value.toStringValue(env).toBytes();
+    }
+    else if (_isMemcached && value instanceof LongValue) {
+      flags = MEMCACHED_LONG;
+      data = value.toStringValue(env).toBytes();
+    }
+    else if (_isMemcached && value instanceof DoubleValue) {
+      flags = MEMCACHED_DOUBLE;
+      data = value.toStringValue(env).toBytes();
+    }
+    else if (_isMemcached && value instanceof BooleanValue) {
+      flags = MEMCACHED_BOOL;
+      data = value.toBoolean() ? new byte[] { '1' } : new byte[0];
+    }
+    else {
+      flags = _isMemcached ? MEMCACHED_SERIALIZED : MEMCACHE_SERIALIZED;
+      data = env.createString(VariableModule.serialize(env, value)).toBytes();
+    }
+
+    if (isCompress
+        || (_compressThreshold > 0 && data.length >= _compressThreshold)) {
+      byte []compressed = compress(data);
+
+      if (compressed.length <= data.length * (1.0 - _minSavings)) {
+        data = compressed;
+        flags |= _isMemcached ? MEMCACHED_COMPRESSED : MEMCACHE_COMPRESSED;
+      }
+    }
+
+    return new MemcacheItem(flags, data);
+  }
+
+  /**
+   * Returns the PHP value for an item, or null if it can't be decoded.
+   */
+  public Value decode(Env env, MemcacheItem item)
+  {
+    int flags = item.getFlags();
+    byte []data = item.getData();
+
+    try {
+      if (_isMemcached && (flags & MEMCACHED_COMPRESSED) != 0)
+        data = uncompress(data, 4);
+      else if (! _isMemcached && (flags & MEMCACHE_COMPRESSED) != 0)
+        data = uncompress(data, 0);
+    } catch (DataFormatException e) {
+      return null;
+    }
+
+    StringValue s = env.createString(data, 0, data.length);
+
+    if (_isMemcached) {
+      switch (flags & MEMCACHED_TYPE_MASK) {
+      case MEMCACHED_LONG:
+        return LongValue.create(s.toLong());
+      case MEMCACHED_DOUBLE:
+        return new DoubleValue(s.toDouble());
+      case MEMCACHED_BOOL:
+        return BooleanValue.create(s.length() > 0 && s.charAt(0) == '1');
+      case MEMCACHED_SERIALIZED:
+        return VariableModule.unserialize(env, s);
+      default:
+        return s;
+      }
+    }
+    else if ((flags & MEMCACHE_SERIALIZED) != 0)
+      return VariableModule.unserialize(env, s);
+    else
+      return s;
+  }
+
+  private byte []compress(byte []data)
+  {
+    Deflater deflater = new Deflater();
+
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 16);
+
+      // memcached prefixes the uncompressed length
+      if (_isMemcached) {
+        bos.write(data.length);
+        bos.write(data.length >> 8);
+        bos.write(data.length >> 16);
+        bos.write(data.length >> 24);
+      }
+
+      byte []buffer = new byte[4096];
+
+      while (! deflater.finished()) {
+        int len = deflater.deflate(buffer);
+
+        bos.write(buffer, 0, len);
+      }
+
+      return bos.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte []uncompress(byte []data, int offset)
+    throws DataFormatException
+  {
+    Inflater inflater = new Inflater();
+
+    try {
+      inflater.setInput(data, offset, data.length - offset);
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length * 2);
+      byte []buffer = new byte[4096];
+
+      while (! inflater.finished()) {
+        int len = inflater.inflate(buffer);
+
+        if (len == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          throw new DataFormatException("truncated data");
+
+        bos.write(buffer, 0, len);
+      }
+
+      return bos.toByteArray();
+    } finally {
+      inflater.end();
+    }
+  }
+}
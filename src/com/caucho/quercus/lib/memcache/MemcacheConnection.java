@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 1998-2013 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Nam Nguyen
+ */
+
+package com.caucho.quercus.lib.memcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * A socket to a single memcached server.  Connections are pooled by their
+ * MemcacheServer and used by one request at a time.
+ */
+public class MemcacheConnection
+{
+  private final MemcacheServer _server;
+  private final Socket _socket;
+
+  private final InputStream _is;
+  private final OutputStream _os;
+
+  private final StringBuilder _lineBuilder = new StringBuilder();
+
+  MemcacheConnection(MemcacheServer server,
+                     int connectTimeout,
+                     int readTimeout)
+    throws IOException
+  {
+    _server = server;
+
+    _socket = new Socket();
+
+    try {
+      _socket.setTcpNoDelay(true);
+      _socket.connect(new InetSocketAddress(server.getHost(),
+                                            server.getPort()),
+                      connectTimeout);
+      _socket.setSoTimeout(readTimeout);
+
+      _is = new BufferedInputStream(_socket.getInputStream(), 8192);
+      _os = new BufferedOutputStream(_socket.getOutputStream(), 8192);
+    } catch (IOException e) {
+      _socket.close();
+
+      throw e;
+    }
+  }
+
+  public MemcacheServer getServer()
+  {
+    return _server;
+  }
+
+  void setReadTimeout(int timeout)
+    throws IOException
+  {
+    _socket.setSoTimeout(timeout);
+  }
+
+  public void write(byte []buffer)
+    throws IOException
+  {
+    _os.write(buffer, 0, buffer.length);
+  }
+
+  public void write(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    _os.write(buffer, offset, length);
+  }
+
+  public void write(int ch)
+    throws IOException
+  {
+    _os.write(ch);
+  }
+
+  /**
+   * Writes an ASCII command string.
+   */
+  public void print(String s)
+    throws IOException
+  {
+    int len = s.length();
+
+    for (int i = 0; i < len; i++) {
+      _os.write(s.charAt(i));
+    }
+  }
+
+  public void flush()
+    throws IOException
+  {
+    _os.flush();
+  }
+
+  public int read()
+    throws IOException
+  {
+    return _is.read();
+  }
+
+  /**
+   * Reads exactly buffer.length bytes.
+   */
+  public void readFully(byte []buffer)
+    throws IOException
+  {
+    readFully(buffer, 0, buffer.length);
+  }
+
+  public void readFully(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    while (length > 0) {
+      int sublen = _is.read(buffer, offset, length);
+
+      if (sublen < 0)
+        throw new EOFException(String.valueOf(_server));
+
+      offset += sublen;
+      length -= sublen;
+    }
+  }
+
+  /**
+   * Skips exactly length bytes.
+   */
+  public void skip(int length)
+    throws IOException
+  {
+    while (length > 0) {
+      long sublen = _is.skip(length);
+
+      if (sublen <= 0) {
+        if (_is.read() < 0)
+          throw new EOFException(String.valueOf(_server));
+
+        sublen = 1;
+      }
+
+      length -= (int) sublen;
+    }
+  }
+
+  /**
+   * Reads a CRLF-terminated line, without the terminator.
+   */
+  public String readLine()
+    throws IOException
+  {
+    StringBuilder sb = _lineBuilder;
+    sb.setLength(0);
+
+    int ch;
+
+    while ((ch = _is.read()) >= 0) {
+      if (ch == '\r') {
+        ch = _is.read();
+
+        if (ch == '\n')
+          return sb.toString();
+
+        sb.append('\r');
+
+        if (ch < 0)
+          break;
+      }
+
+      sb.append((char) ch);
+    }
+
+    throw new EOFException(String.valueOf(_server));
+  }
+
+  public boolean isClosed()
+  {
+    return _socket.isClosed();
+  }
+
+  public void close()
+  {
+    try {
+      _socket.close();
+    } catch (IOException e) {
+    }
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _server + "]";
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 1998-2013 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Nam Nguyen
+ */
+
+package com.caucho.quercus.lib.memcache;
+
+/**
+ * A raw memcached value: the client flags, the payload and the cas token.
+ */
+public class MemcacheItem
+{
+  private final int _flags;
+  private final byte []_data;
+  private final long _cas;
+
+  public MemcacheItem(int flags, byte []data, long cas)
+  {
+    _flags = flags;
+    _data = data;
+    _cas = cas;
+  }
+
+  public MemcacheItem(int flags, byte []data)
+  {
+    this(flags, data, 0);
+  }
+
+  public int getFlags()
+  {
+    return _flags;
+  }
+
+  public byte []getData()
+  {
+    return _data;
+  }
+
+  public long getCas()
+  {
+    return _cas;
+  }
+
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[flags=" + _flags + ",length=" + _data.length + "]");
+  }
+}
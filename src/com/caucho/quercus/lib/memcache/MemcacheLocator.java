@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 1998-2013 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Nam Nguyen
+ */
+
+package com.caucho.quercus.lib.memcache;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Maps keys to servers, either by modulo of the key hash or by a
+ * ketama-compatible consistent hash ring.
+ */
+abstract public class MemcacheLocator
+{
+  /**
+   * Returns the server for the key.
+   */
+  abstract public MemcacheServer locate(String key);
+
+  /**
+   * Creates a locator distributing by crc32(key) modulo the weighted
+   * server count.
+   */
+  public static MemcacheLocator createModula(List<MemcacheServer> servers,
+                                             List<Integer> weights)
+  {
+    ArrayList<MemcacheServer> buckets = new ArrayList<MemcacheServer>();
+
+    for (int i = 0; i < servers.size(); i++) {
+      int weight = Math.max(1, weights.get(i));
+
+      for (int j = 0; j < weight; j++) {
+        buckets.add(servers.get(i));
+      }
+    }
+
+    return new ModulaLocator(buckets.toArray(new MemcacheServer[buckets.size()]));
+  }
+
+  /**
+   * Creates a ketama consistent-hash locator, so adding or removing a
+   * server only remaps the keys on its arcs of the ring.
+   */
+  public static MemcacheLocator createConsistent(List<MemcacheServer> servers,
+                                                 List<Integer> weights)
+  {
+    int totalWeight = 0;
+
+    for (int i = 0; i < servers.size(); i++) {
+      totalWeight += Math.max(1, weights.get(i));
+    }
+
+    ArrayList<Point> points = new ArrayList<Point>();
+
+    for (int i = 0; i < servers.size(); i++) {
+      MemcacheServer server = servers.get(i);
+      int weight = Math.max(1, weights.get(i));
+
+      // 160 points per server, scaled by weight as in libketama
+      int count = (int) Math.floor((40.0 * servers.size() * weight)
+                                   / totalWeight);
+
+      // libmemcached omits the default port from the point name
+      String name;
+
+      if (server.getPort() == 11211)
+        name = server.getHost();
+      else
+        name = server.getHost() + ":" + server.getPort();
+
+      for (int j = 0; j < count; j++) {
+        byte []digest = md5(name + "-" + j);
+
+        for (int h = 0; h < 4; h++) {
+          points.add(new Point(ketamaHash(digest, h), server));
+        }
+      }
+    }
+
+    Point []ring = points.toArray(new Point[points.size()]);
+    Arrays.sort(ring);
+
+    return new ConsistentLocator(ring);
+  }
+
+  static long crc32(String key)
+  {
+    CRC32 crc = new CRC32();
+
+    int len = key.length();
+    for (int i = 0; i < len; i++) {
+      crc.update(key.charAt(i));
+    }
+
+    return crc.getValue();
+  }
+
+  static byte []md5(String s)
+  {
+    try {
+      MessageDigest md = MessageDigest.getInstance("MD5");
+
+      int len = s.length();
+      for (int i = 0; i < len; i++) {
+        md.update((byte) s.charAt(i));
+      }
+
+      return md.digest();
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static long ketamaHash(byte []digest, int h)
+  {
+    return (((long) (digest[3 + h * 4] & 0xff) << 24)
+            | ((long) (digest[2 + h * 4] & 0xff) << 16)
+            | ((long) (digest[1 + h * 4] & 0xff) << 8)
+            | (digest[h * 4] & 0xff));
+  }
+
+  static final class ModulaLocator extends MemcacheLocator
+  {
+    private final MemcacheServer []_buckets;
+
+    ModulaLocator(MemcacheServer []buckets)
+    {
+      _buckets = buckets;
+    }
+
+    @Override
+    public MemcacheServer locate(String key)
+    {
+      if (_buckets.length == 0)
+        return null;
+      else if (_buckets.length == 1)
+        return _buckets[0];
+
+      // the pecl memcache hash
+      long hash = (crc32(key) >> 16) & 0x7fff;
+
+      return _buckets[(int) (hash % _buckets.length)];
+    }
+  }
+
+  static final class ConsistentLocator extends MemcacheLocator
+  {
+    private final long []_hashes;
+    private final MemcacheServer []_servers;
+
+    ConsistentLocator(Point []ring)
+    {
+      _hashes = new long[ring.length];
+      _servers = new MemcacheServer[ring.length];
+
+      for (int i = 0; i < ring.length; i++) {
+        _hashes[i] = ring[i]._hash;
+        _servers[i] = ring[i]._server;
+      }
+    }
+
+    @Override
+    public MemcacheServer locate(String key)
+    {
+      if (_servers.length == 0)
+        return null;
+
+      long hash = ketamaHash(md5(key), 0);
+
+      int i = Arrays.binarySearch(_hashes, hash);
+
+      if (i < 0)
+        i = -(i + 1);
+
+      if (i >= _servers.length)
+        i = 0;
+
+      return _servers[i];
+    }
+  }
+
+  static final class Point implements Comparable<Point>
+  {
+    final long _hash;
+    final MemcacheServer _server;
+
+    Point(long hash, MemcacheServer server)
+    {
+      _hash = hash;
+      _server = server;
+    }
+
+    public int compareTo(Point point)
+    {
+      if (_hash < point._hash)
+        return -1;
+      else if (_hash > point._hash)
+        return 1;
+      else
+        return 0;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 1998-2013 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Nam Nguyen
+ */
+
+package com.caucho.quercus.lib.memcache;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wire protocol for a memcached connection.  Multi-gets are split into a
+ * write and a read half so requests to several servers can be pipelined.
+ */
+abstract public class MemcacheProtocol
+{
+  public static final int STATUS_OK = 0;
+  public static final int STATUS_NOT_FOUND = 1;
+  public static final int STATUS_EXISTS = 2;
+  public static final int STATUS_NOT_STORED = 3;
+  public static final int STATUS_CLIENT_ERROR = 4;
+  public static final int STATUS_SERVER_ERROR = 5;
+  public static final int STATUS_PROTOCOL_ERROR = 6;
+
+  public static final int SET = 0;
+  public static final int ADD = 1;
+  public static final int REPLACE = 2;
+  public static final int CAS = 3;
+  public static final int APPEND = 4;
+  public static final int PREPEND = 5;
+
+  /**
+   * Sends a get request for the keys, without flushing.
+   */
+  abstract public void writeGet(MemcacheConnection conn, List<String> keys)
+    throws IOException;
+
+  /**
+   * Reads the response to writeGet, adding the hits to the result.
+   */
+  abstract public void readGet(MemcacheConnection conn,
+                               List<String> keys,
+                               Map<String,MemcacheItem> result)
+    throws IOException;
+
+  /**
+   * Stores an item, returning a STATUS_ code.
+   */
+  abstract public int store(MemcacheConnection conn,
+                            int op,
+                            String key,
+                            MemcacheItem item,
+                            int expire)
+    throws IOException;
+
+  /**
+   * Deletes a key, returning a STATUS_ code.
+   */
+  abstract public int delete(MemcacheConnection conn, String key)
+    throws IOException;
+
+  /**
+   * Increments or decrements a counter, returning the new value or null
+   * if the key is missing or not numeric.
+   */
+  abstract public Long incr(MemcacheConnection conn,
+                            String key,
+                            long delta,
+                            boolean isIncrement)
+    throws IOException;
+
+  /**
+   * Invalidates all items, returning a STATUS_ code.
+   */
+  abstract public int flush(MemcacheConnection conn, int delay)
+    throws IOException;
+
+  /**
+   * Returns the server version.
+   */
+  abstract public String version(MemcacheConnection conn)
+    throws IOException;
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 1998-2013 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Nam Nguyen
+ */
+
+package com.caucho.quercus.lib.memcache;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.util.L10N;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A memcached server address with its pool of idle connections.  Servers
+ * are shared by all requests in a QuercusContext, so connections outlive
+ * the Memcache/Memcached objects that use them.
+ */
+public class MemcacheServer
+{
+  private static final Logger log
+    = Logger.getLogger(MemcacheServer.class.getName());
+  private static final L10N L = new L10N(MemcacheServer.class);
+
+  private static final int MAX_IDLE = 16;
+  private static final long DEFAULT_RETRY_INTERVAL = 15000L;
+
+  private final String _host;
+  private final int _port;
+
+  private final ConcurrentLinkedQueue<MemcacheConnection> _idleQueue
+    = new ConcurrentLinkedQueue<MemcacheConnection>();
+  private final AtomicInteger _idleCount = new AtomicInteger();
+
+  private volatile long _failTime;
+  private volatile long _retryInterval = DEFAULT_RETRY_INTERVAL;
+
+  MemcacheServer(String host, int port)
+  {
+    _host = host;
+    _port = port;
+  }
+
+  /**
+   * Returns the shared server for the address.
+   */
+  public static MemcacheServer create(QuercusContext quercus,
+                                      String host,
+                                      int port)
+  {
+    String name = "memcache.server::" + host + ":" + port;
+
+    synchronized (MemcacheServer.class) {
+      MemcacheServer server = (MemcacheServer) quercus.getSpecial(name);
+
+      if (server == null) {
+        server = new MemcacheServer(host, port);
+
+        quercus.setSpecial(name, server);
+      }
+
+      return server;
+    }
+  }
+
+  public String getHost()
+  {
+    return _host;
+  }
+
+  public int getPort()
+  {
+    return _port;
+  }
+
+  /**
+   * Sets how long a failed server is skipped before reconnecting, in
+   * milliseconds.
+   */
+  public void setRetryInterval(long interval)
+  {
+    if (interval >= 0)
+      _retryInterval = interval;
+  }
+
+  /**
+   * True if the server failed recently and should not be retried yet.
+   */
+  public boolean isDown()
+  {
+    long failTime = _failTime;
+
+    return (failTime > 0
+            && System.currentTimeMillis() < failTime + _retryInterval);
+  }
+
+  /**
+   * Returns an idle connection or opens a new one.
+   */
+  public MemcacheConnection allocate(int connectTimeout, int readTimeout)
+    throws IOException
+  {
+    MemcacheConnection conn;
+
+    while ((conn = _idleQueue.poll()) != null) {
+      _idleCount.decrementAndGet();
+
+      if (! conn.isClosed()) {
+        conn.setReadTimeout(readTimeout);
+
+        return conn;
+      }
+    }
+
+    if (isDown())
+      throw new IOException(L.l("memcache server {0} is marked down", this));
+
+    try {
+      conn = new MemcacheConnection(this, connectTimeout, readTimeout);
+    } catch (IOException e) {
+      _failTime = System.currentTimeMillis();
+
+      throw e;
+    }
+
+    _failTime = 0;
+
+    return conn;
+  }
+
+  /**
+   * Returns a connection to the idle pool after a complete exchange.
+   */
+  public void free(MemcacheConnection conn)
+  {
+    if (conn.isClosed())
+      return;
+
+    if (_idleCount.incrementAndGet() <= MAX_IDLE)
+      _idleQueue.offer(conn);
+    else {
+      _idleCount.decrementAndGet();
+
+      conn.close();
+    }
+  }
+
+  /**
+   * Closes a connection whose stream state is unknown, and marks the
+   * server down.
+   */
+  public void fail(MemcacheConnection conn, IOException e)
+  {
+    log.log(Level.FINE, L.l("memcache server {0} failed: {1}", this, e), e);
+
+    conn.close();
+
+    _failTime = System.currentTimeMillis();
+
+    MemcacheConnection idle;
+
+    while ((idle = _idleQueue.poll()) != null) {
+      _idleCount.decrementAndGet();
+
+      idle.close();
+    }
+  }
+
+  public String toString()
+  {
+    return _host + ":" + _port;
+  }
+}
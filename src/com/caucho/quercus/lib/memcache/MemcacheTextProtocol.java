@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 1998-2013 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Nam Nguyen
+ */
+
+package com.caucho.quercus.lib.memcache;
+
+import com.caucho.util.L10N;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The memcached ASCII protocol.
+ */
+public class MemcacheTextProtocol extends MemcacheProtocol
+{
+  private static final L10N L = new L10N(MemcacheTextProtocol.class);
+
+  private static final String []STORE_COMMANDS = new String[] {
+    "set ", "add ", "replace ", "cas ", "append ", "prepend "
+  };
+
+  @Override
+  public void writeGet(MemcacheConnection conn, List<String> keys)
+    throws IOException
+  {
+    conn.print("gets");
+
+    for (String key : keys) {
+      conn.print(" ");
+      conn.print(key);
+    }
+
+    conn.print("\r\n");
+  }
+
+  @Override
+  public void readGet(MemcacheConnection conn,
+                      List<String> keys,
+                      Map<String,MemcacheItem> result)
+    throws IOException
+  {
+    while (true) {
+      String line = conn.readLine();
+
+      if (line.equals("END"))
+        return;
+      else if (! line.startsWith("VALUE "))
+        throw error(line);
+
+      // VALUE <key> <flags> <bytes> [<cas unique>]
+      String []parts = line.split(" ");
+
+      if (parts.length < 4)
+        throw error(line);
+
+      String key = parts[1];
+      int flags = (int) Long.parseLong(parts[2]);
+      int length = Integer.parseInt(parts[3]);
+      long cas = parts.length > 4 ? Long.parseLong(parts[4]) : 0;
+
+      byte []data = new byte[length];
+      conn.readFully(data);
+
+      readEndOfLine(conn);
+
+      result.put(key, new MemcacheItem(flags, data, cas));
+    }
+  }
+
+  @Override
+  public int store(MemcacheConnection conn,
+                   int op,
+                   String key,
+                   MemcacheItem item,
+                   int expire)
+    throws IOException
+  {
+    byte []data = item.getData();
+
+    conn.print(STORE_COMMANDS[op]);
+    conn.print(key);
+    conn.print(" ");
+    conn.print(String.valueOf(item.getFlags() & 0xffffffffL));
+    conn.print(" ");
+    conn.print(String.valueOf(expire));
+    conn.print(" ");
+    conn.print(String.valueOf(data.length));
+
+    if (op == CAS) {
+      conn.print(" ");
+      conn.print(String.valueOf(item.getCas()));
+    }
+
+    conn.print("\r\n");
+    conn.write(data);
+    conn.print("\r\n");
+    conn.flush();
+
+    String line = conn.readLine();
+
+    if (line.equals("STORED"))
+      return STATUS_OK;
+    else if (line.equals("NOT_STORED"))
+      return STATUS_NOT_STORED;
+    else if (line.equals("EXISTS"))
+      return STATUS_EXISTS;
+    else if (line.equals("NOT_FOUND"))
+      return STATUS_NOT_FOUND;
+    else
+      return errorStatus(line);
+  }
+
+  @Override
+  public int delete(MemcacheConnection conn, String key)
+    throws IOException
+  {
+    conn.print("delete ");
+    conn.print(key);
+    conn.print("\r\n");
+    conn.flush();
+
+    String line = conn.readLine();
+
+    if (line.equals("DELETED"))
+      return STATUS_OK;
+    else if (line.equals("NOT_FOUND"))
+      return STATUS_NOT_FOUND;
+    else
+      return errorStatus(line);
+  }
+
+  @Override
+  public Long incr(MemcacheConnection conn,
+                   String key,
+                   long delta,
+                   boolean isIncrement)
+    throws IOException
+  {
+    conn.print(isIncrement ? "incr " : "decr ");
+    conn.print(key);
+    conn.print(" ");
+    conn.print(String.valueOf(delta));
+    conn.print("\r\n");
+    conn.flush();
+
+    String line = conn.readLine();
+
+    if (line.length() > 0 && Character.isDigit(line.charAt(0))) {
+      try {
+        return Long.parseLong(line.trim());
+      } catch (NumberFormatException e) {
+        // counters are unsigned 64-bit
+        return new BigInteger(line.trim()).longValue();
+      }
+    }
+    else if (line.equals("NOT_FOUND")
+             || line.startsWith("CLIENT_ERROR")) {
+      return null;
+    }
+    else
+      throw error(line);
+  }
+
+  @Override
+  public int flush(MemcacheConnection conn, int delay)
+    throws IOException
+  {
+    if (delay > 0)
+      conn.print("flush_all " + delay + "\r\n");
+    else
+      conn.print("flush_all\r\n");
+
+    conn.flush();
+
+    String line = conn.readLine();
+
+    if (line.equals("OK"))
+      return STATUS_OK;
+    else
+      return errorStatus(line);
+  }
+
+  @Override
+  public String version(MemcacheConnection conn)
+    throws IOException
+  {
+    conn.print("version\r\n");
+    conn.flush();
+
+    String line = conn.readLine();
+
+    if (line.startsWith("VERSION "))
+      return line.substring("VERSION ".length());
+    else
+      throw error(line);
+  }
+
+  private static void readEndOfLine(MemcacheConnection conn)
+    throws IOException
+  {
+    if (conn.read() != '\r' || conn.read() != '\n')
+      throw new IOException(L.l("memcache: expected CRLF after value data"));
+  }
+
+  private static int errorStatus(String line)
+    throws IOException
+  {
+    if (line.startsWith("CLIENT_ERROR"))
+      return STATUS_CLIENT_ERROR;
+    else if (line.startsWith("SERVER_ERROR"))
+      return STATUS_SERVER_ERROR;
+    else
+      throw error(line);
+  }
+
+  private static IOException error(String line)
+  {
+    return new IOException(L.l("memcache: unexpected response '{0}'", line));
+  }
+}
@@ -29,10 +29,20 @@
 
 package com.caucho.quercus.lib.memcache;
 
+import com.caucho.quercus.annotation.Optional;
+import com.caucho.quercus.annotation.Reference;
 import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.BooleanValue;
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.NullValue;
 import com.caucho.quercus.env.Value;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 public class Memcached
 {
   public static final int OPT_COMPRESSION = 0;
@@ -93,13 +103,500 @@ public class Memcached
   public static final int RES_CONNECTION_SOCKET_CREATE_FAILURE = 55;
   public static final int RES_PAYLOAD_FAILURE = 56;
 
+  private MemcacheClient _client;
+  private final MemcacheCodec _codec = MemcacheCodec.createMemcached();
+
+  private boolean _isCompression = true;
+  private int _distribution = DISTRIBUTION_MODULA;
+  private boolean _isKetama;
+
+  private int _resultCode = RES_SUCCESS;
+
+  /**
+   * Adds a server.
+   */
+  public boolean addServer(Env env,
+                           String host,
+                           @Optional("11211") int port,
+                           @Optional int weight)
+  {
+    getClient(env).addServer(host, port > 0 ? port : 11211, weight);
+
+    _resultCode = RES_SUCCESS;
+
+    return true;
+  }
+
+  /**
+   * Adds servers from an array of [host, port, weight] arrays.
+   */
+  public boolean addServers(Env env, ArrayValue servers)
+  {
+    for (Value server : servers.values()) {
+      if (! server.isArray())
+        continue;
+
+      ArrayValue array = server.toArray();
+
+      String host = array.get(LongValue.ZERO).toString();
+      Value port = array.get(LongValue.ONE);
+      Value weight = array.get(LongValue.create(2));
+
+      addServer(env, host,
+                port.isset() ? (int) port.toLong() : 11211,
+                weight.isset() ? (int) weight.toLong() : 0);
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the server list.
+   */
+  public ArrayValue getServerList(Env env)
+  {
+    ArrayValue list = new ArrayValueImpl();
+
+    if (_client == null)
+      return list;
+
+    List<MemcacheServer> servers = _client.getServerList();
+    List<Integer> weights = _client.getWeightList();
+
+    for (int i = 0; i < servers.size(); i++) {
+      ArrayValue entry = new ArrayValueImpl();
+
+      entry.put(env.createString("host"),
+                env.createString(servers.get(i).getHost()));
+      entry.put(env.createString("port"),
+                LongValue.create(servers.get(i).getPort()));
+      entry.put(env.createString("weight"),
+                LongValue.create(weights.get(i)));
+
+      list.put(entry);
+    }
+
+    return list;
+  }
+
+  /**
+   * Returns a value.
+   */
+  public Value get(Env env,
+                   String key,
+                   @Optional Value cacheCallback,
+                   @Optional @Reference Value casToken)
+  {
+    if (! isValidKey(key))
+      return BooleanValue.FALSE;
+
+    MemcacheItem item = _client.get(key);
+
+    if (item == null) {
+      setResult();
+
+      return BooleanValue.FALSE;
+    }
+
+    Value value = _codec.decode(env, item);
+
+    if (value == null) {
+      _resultCode = RES_PAYLOAD_FAILURE;
+
+      return BooleanValue.FALSE;
+    }
+
+    casToken.set(LongValue.create(item.getCas()));
+
+    _resultCode = RES_SUCCESS;
+
+    return value;
+  }
+
+  /**
+   * Returns the values for several keys, fetched in one round trip per
+   * server.
+   */
+  public Value getMulti(Env env,
+                        ArrayValue keys,
+                        @Optional @Reference Value casTokens,
+                        @Optional int flags)
+  {
+    if (_client == null) {
+      _resultCode = RES_NO_SERVERS;
+
+      return BooleanValue.FALSE;
+    }
+
+    ArrayList<String> keyList = new ArrayList<String>();
+
+    for (Value key : keys.values()) {
+      if (_client.isValidKey(key.toString()))
+        keyList.add(key.toString());
+    }
+
+    Map<String,MemcacheItem> items = _client.getMulti(keyList);
+
+    if (_client.isConnectionFailure() && items.size() == 0) {
+      setResult();
+
+      return BooleanValue.FALSE;
+    }
+
+    ArrayValue result = new ArrayValueImpl();
+    ArrayValue casArray = new ArrayValueImpl();
+
+    if ((flags & GET_PRESERVE_ORDER) != 0) {
+      for (String key : keyList) {
+        result.put(env.createString(key), NullValue.NULL);
+      }
+    }
+
+    for (Map.Entry<String,MemcacheItem> entry : items.entrySet()) {
+      Value value = _codec.decode(env, entry.getValue());
+
+      if (value != null) {
+        result.put(env.createString(entry.getKey()), value);
+        casArray.put(env.createString(entry.getKey()),
+                     LongValue.create(entry.getValue().getCas()));
+      }
+    }
+
+    casTokens.set(casArray);
+
+    _resultCode = _client.isConnectionFailure() ? RES_SOME_ERRORS : RES_SUCCESS;
+
+    return result;
+  }
+
+  public boolean set(Env env, String key, Value value,
+                     @Optional int expiration)
+  {
+    return store(env, MemcacheProtocol.SET, key, value, expiration, 0);
+  }
+
+  /**
+   * Sets several values.
+   */
+  public boolean setMulti(Env env, ArrayValue items,
+                          @Optional int expiration)
+  {
+    boolean isOk = true;
+
+    for (Map.Entry<Value,Value> entry : items.entrySet()) {
+      if (! store(env, MemcacheProtocol.SET, entry.getKey().toString(),
+                  entry.getValue(), expiration, 0)) {
+        isOk = false;
+      }
+    }
+
+    return isOk;
+  }
+
+  public boolean add(Env env, String key, Value value,
+                     @Optional int expiration)
+  {
+    return store(env, MemcacheProtocol.ADD, key, value, expiration, 0);
+  }
+
+  public boolean replace(Env env, String key, Value value,
+                         @Optional int expiration)
+  {
+    return store(env, MemcacheProtocol.REPLACE, key, value, expiration, 0);
+  }
+
+  /**
+   * Stores the value only if it is unchanged since the cas token was read.
+   */
+  public boolean cas(Env env, long casToken, String key, Value value,
+                     @Optional int expiration)
+  {
+    return store(env, MemcacheProtocol.CAS, key, value, expiration, casToken);
+  }
+
+  private boolean store(Env env, int op, String key, Value value,
+                        int expiration, long cas)
+  {
+    if (! isValidKey(key))
+      return false;
+
+    MemcacheItem item = _codec.encode(env, value, false);
+
+    if (op == MemcacheProtocol.CAS)
+      item = new MemcacheItem(item.getFlags(), item.getData(), cas);
+
+    boolean isOk = _client.store(op, key, item, expiration);
+
+    setResult();
+
+    return isOk;
+  }
+
+  public boolean delete(Env env, String key, @Optional int time)
+  {
+    if (! isValidKey(key))
+      return false;
+
+    boolean isOk = _client.delete(key);
+
+    setResult();
+
+    return isOk;
+  }
+
+  public Value increment(Env env, String key, @Optional("1") long offset)
+  {
+    return incr(key, offset, true);
+  }
+
+  public Value decrement(Env env, String key, @Optional("1") long offset)
+  {
+    return incr(key, offset, false);
+  }
+
+  private Value incr(String key, long offset, boolean isIncrement)
+  {
+    if (! isValidKey(key))
+      return BooleanValue.FALSE;
+
+    Long value = _client.incr(key, offset, isIncrement);
+
+    setResult();
+
+    if (value == null)
+      return BooleanValue.FALSE;
+
+    return LongValue.create(value);
+  }
+
+  public boolean flush(Env env, @Optional int delay)
+  {
+    if (_client == null) {
+      _resultCode = RES_NO_SERVERS;
+
+      return false;
+    }
+
+    boolean isOk = _client.flush(delay);
+
+    setResult();
+
+    return isOk;
+  }
+
+  /**
+   * Returns the version of each server, keyed by host:port.
+   */
+  public Value getVersion(Env env)
+  {
+    ArrayValue result = new ArrayValueImpl();
+
+    if (_client == null)
+      return result;
+
+    for (Map.Entry<MemcacheServer,String> entry
+           : _client.getVersions().entrySet()) {
+      result.put(env.createString(entry.getKey().toString()),
+                 env.createString(entry.getValue()));
+    }
+
+    return result;
+  }
+
+  public int getResultCode()
+  {
+    return _resultCode;
+  }
+
+  public String getResultMessage()
+  {
+    if (_resultCode == RES_SUCCESS)
+      return "SUCCESS";
+    else if (_resultCode == RES_NOTFOUND)
+      return "NOT FOUND";
+    else if (_resultCode == RES_NOTSTORED)
+      return "NOT STORED";
+    else if (_resultCode == RES_DATA_EXISTS)
+      return "CONNECTION DATA EXISTS";
+    else if (_resultCode == RES_NO_SERVERS)
+      return "NO SERVERS DEFINED";
+    else if (_resultCode == RES_BAD_KEY_PROVIDED)
+      return "A BAD KEY WAS PROVIDED/CHARACTERS OUT OF RANGE";
+    else if (_resultCode == RES_CLIENT_ERROR)
+      return "CLIENT ERROR";
+    else if (_resultCode == RES_SERVER_ERROR)
+      return "SERVER ERROR";
+    else if (_resultCode == RES_PAYLOAD_FAILURE)
+      return "PAYLOAD FAILURE";
+    else
+      return "FAILURE";
+  }
+
   public boolean setOption(Env env, int option, Value value)
   {
-    return false;
+    switch (option) {
+    case OPT_COMPRESSION:
+      _isCompression = value.toBoolean();
+      _codec.setCompressThreshold(_isCompression ? 2000 : 0);
+      return true;
+
+    case OPT_SERIALIZER:
+      return value.toLong() == SERIALIZER_PHP;
+
+    case OPT_PREFIX_KEY:
+      getClient(env).setPrefix(value.toString());
+      return true;
+
+    case OPT_DISTRIBUTION:
+      _distribution = (int) value.toLong();
+      getClient(env).setConsistent(_distribution == DISTRIBUTION_CONSISTENT
+                                   || _isKetama);
+      return true;
+
+    case OPT_LIBKETAMA_COMPATIBLE:
+      _isKetama = value.toBoolean();
+      getClient(env).setConsistent(_distribution == DISTRIBUTION_CONSISTENT
+                                   || _isKetama);
+      return true;
+
+    case OPT_BINARY_PROTOCOL:
+      getClient(env).setBinary(value.toBoolean());
+      return true;
+
+    case OPT_CONNECT_TIMEOUT:
+      getClient(env).setConnectTimeout((int) value.toLong());
+      return true;
+
+    case OPT_RECV_TIMEOUT:
+    case OPT_SEND_TIMEOUT:
+    case OPT_POLL_TIMEOUT:
+      // memcached uses microseconds for send/recv, milliseconds for poll
+      if (option == OPT_POLL_TIMEOUT)
+        getClient(env).setReadTimeout((int) value.toLong());
+      else
+        getClient(env).setReadTimeout((int) (value.toLong() / 1000));
+      return true;
+
+    case OPT_RETRY_TIMEOUT:
+      getClient(env).setRetryInterval(value.toLong() * 1000L);
+      return true;
+
+    case OPT_TCP_NODELAY:
+    case OPT_NO_BLOCK:
+    case OPT_BUFFER_WRITES:
+    case OPT_HASH:
+      // accepted: connections are always TCP_NODELAY, and writes are
+      // buffered per operation
+      return true;
+
+    default:
+      return false;
+    }
   }
 
   public boolean setOptions(Env env, ArrayValue array)
   {
-    return false;
+    boolean isOk = true;
+
+    for (Map.Entry<Value,Value> entry : array.entrySet()) {
+      if (! setOption(env, (int) entry.getKey().toLong(), entry.getValue()))
+        isOk = false;
+    }
+
+    return isOk;
+  }
+
+  public Value getOption(Env env, int option)
+  {
+    MemcacheClient client = getClient(env);
+
+    switch (option) {
+    case OPT_COMPRESSION:
+      return BooleanValue.create(_isCompression);
+    case OPT_SERIALIZER:
+      return LongValue.create(SERIALIZER_PHP);
+    case OPT_PREFIX_KEY:
+      return env.createString(client.getPrefix());
+    case OPT_DISTRIBUTION:
+      return LongValue.create(_distribution);
+    case OPT_LIBKETAMA_COMPATIBLE:
+      return BooleanValue.create(_isKetama);
+    case OPT_BINARY_PROTOCOL:
+      return BooleanValue.create(client.isBinary());
+    case OPT_CONNECT_TIMEOUT:
+      return LongValue.create(client.getConnectTimeout());
+    case OPT_POLL_TIMEOUT:
+      return LongValue.create(client.getReadTimeout());
+    case OPT_RECV_TIMEOUT:
+    case OPT_SEND_TIMEOUT:
+      return LongValue.create(client.getReadTimeout() * 1000L);
+    default:
+      return BooleanValue.FALSE;
+    }
+  }
+
+  private boolean isValidKey(String key)
+  {
+    if (_client == null || _client.getServerList().size() == 0) {
+      _resultCode = RES_NO_SERVERS;
+
+      return false;
+    }
+    else if (! _client.isValidKey(key)) {
+      _resultCode = RES_BAD_KEY_PROVIDED;
+
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Sets the result code from the client's last status.
+   */
+  private void setResult()
+  {
+    if (_client.isConnectionFailure()) {
+      _resultCode = RES_CONNECTION_SOCKET_CREATE_FAILURE;
+
+      return;
+    }
+
+    switch (_client.getStatus()) {
+    case MemcacheProtocol.STATUS_OK:
+      _resultCode = RES_SUCCESS;
+      break;
+    case MemcacheProtocol.STATUS_NOT_FOUND:
+      _resultCode = RES_NOTFOUND;
+      break;
+    case MemcacheProtocol.STATUS_EXISTS:
+      _resultCode = RES_DATA_EXISTS;
+      break;
+    case MemcacheProtocol.STATUS_NOT_STORED:
+      _resultCode = RES_NOTSTORED;
+      break;
+    case MemcacheProtocol.STATUS_CLIENT_ERROR:
+      _resultCode = RES_CLIENT_ERROR;
+      break;
+    case MemcacheProtocol.STATUS_SERVER_ERROR:
+      _resultCode = RES_SERVER_ERROR;
+      break;
+    default:
+      _resultCode = RES_PROTOCOL_ERROR;
+      break;
+    }
+  }
+
+  private MemcacheClient getClient(Env env)
+  {
+    if (_client == null)
+      _client = new MemcacheClient(env.getQuercus());
+
+    return _client;
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _client + "]";
   }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Emil Ong
+ */
+
+package com.caucho.quercus.lib.session;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stores encoded sessions in direct buffers outside the Java heap, so
+ * the session manager can keep only its working set as live values.
+ *
+ * Each buffer holds the last write time, the data length and the
+ * UTF-8 encoded session.  The least recently used sessions are dropped
+ * when the store grows past its maximum size.
+ */
+public class OffHeapSessionStore
+{
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int TIME_OFFSET = 0;
+  private static final int LENGTH_OFFSET = 8;
+  private static final int HEADER_SIZE = 12;
+
+  private final LinkedHashMap<String,ByteBuffer> _map
+    = new LinkedHashMap<String,ByteBuffer>(256, 0.75f, true);
+
+  private final long _maxSize;
+  private long _size;
+
+  public OffHeapSessionStore(long maxSize)
+  {
+    _maxSize = maxSize;
+  }
+
+  /**
+   * Returns the number of stored sessions.
+   */
+  public synchronized int getCount()
+  {
+    return _map.size();
+  }
+
+  /**
+   * Returns the allocated buffer size in bytes.
+   */
+  public synchronized long getSize()
+  {
+    return _size;
+  }
+
+  /**
+   * Returns the encoded session, or null if it isn't stored.
+   */
+  public synchronized String get(String id)
+  {
+    ByteBuffer buffer = _map.get(id);
+
+    if (buffer == null)
+      return null;
+
+    int length = buffer.getInt(LENGTH_OFFSET);
+    byte []data = new byte[length];
+
+    ByteBuffer dup = buffer.duplicate();
+    dup.position(HEADER_SIZE);
+    dup.get(data, 0, length);
+
+    return new String(data, UTF8);
+  }
+
+  /**
+   * Stores the encoded session, reusing its buffer when it fits.
+   */
+  public synchronized void put(String id, String encoded, long now)
+  {
+    byte []data = encoded.getBytes(UTF8);
+
+    int capacity = HEADER_SIZE + data.length;
+
+    ByteBuffer buffer = _map.get(id);
+
+    if (buffer == null || buffer.capacity() < capacity) {
+      if (buffer != null)
+        _size -= buffer.capacity();
+
+      // leave room for the session to grow without reallocating
+      capacity = (capacity + (capacity >> 2) + 63) & ~63;
+
+      buffer = ByteBuffer.allocateDirect(capacity);
+
+      _map.put(id, buffer);
+      _size += capacity;
+    }
+
+    buffer.putLong(TIME_OFFSET, now);
+    buffer.putInt(LENGTH_OFFSET, data.length);
+
+    ByteBuffer dup = buffer.duplicate();
+    dup.position(HEADER_SIZE);
+    dup.put(data, 0, data.length);
+
+    evict();
+  }
+
+  /**
+   * Updates the access time of an unmodified session.
+   */
+  public synchronized void touch(String id, long now)
+  {
+    ByteBuffer buffer = _map.get(id);
+
+    if (buffer != null)
+      buffer.putLong(TIME_OFFSET, now);
+  }
+
+  /**
+   * Removes a session.
+   */
+  public synchronized void remove(String id)
+  {
+    ByteBuffer buffer = _map.remove(id);
+
+    if (buffer != null)
+      _size -= buffer.capacity();
+  }
+
+  /**
+   * Removes sessions last written or touched before the expire time.
+   */
+  public synchronized int removeExpired(long expireTime)
+  {
+    int count = 0;
+
+    Iterator<ByteBuffer> iter = _map.values().iterator();
+
+    while (iter.hasNext()) {
+      ByteBuffer buffer = iter.next();
+
+      if (buffer.getLong(TIME_OFFSET) < expireTime) {
+        iter.remove();
+        _size -= buffer.capacity();
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  private void evict()
+  {
+    Iterator<Map.Entry<String,ByteBuffer>> iter = _map.entrySet().iterator();
+
+    while (_maxSize < _size && iter.hasNext()) {
+      ByteBuffer buffer = iter.next().getValue();
+
+      iter.remove();
+      _size -= buffer.capacity();
+    }
+  }
+
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + getCount() + "," + getSize() + "]");
+  }
+}
@@ -43,7 +43,6 @@ import com.caucho.config.ConfigException;
 import com.caucho.quercus.QuercusContext;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.SessionArrayValue;
-import com.caucho.quercus.env.StringBuilderValue;
 import com.caucho.util.Alarm;
 import com.caucho.util.AlarmListener;
 import com.caucho.util.Base64;
@@ -104,6 +103,9 @@ public class QuercusSessionManager
 
   private Cache _persistentStore;
 
+  // encoded sessions outside the heap, when there's no persistent store
+  private OffHeapSessionStore _offHeapStore;
+
   // statistics
   protected Object _statisticsLock = new Object();
   protected long _sessionCreateCount;
@@ -136,6 +138,27 @@ public class QuercusSessionManager
     _alwaysSaveSession = save;
   }
 
+  /**
+   * Sets the size in bytes of the off-heap session store.  Sessions
+   * evicted from the live session cache are reloaded from the store.
+   * The store is only used when there's no persistent session cache.
+   */
+  public void setOffHeapStoreSize(long size)
+  {
+    if (size > 0 && _persistentStore == null)
+      _offHeapStore = new OffHeapSessionStore(size);
+    else
+      _offHeapStore = null;
+  }
+
+  /**
+   * Returns the off-heap session store, or null if it's not enabled.
+   */
+  public OffHeapSessionStore getOffHeapStore()
+  {
+    return _offHeapStore;
+  }
+
   /**
    * True if sessions should always be loadd.
    */
@@ -291,6 +314,9 @@ public class QuercusSessionManager
     if (_persistentStore != null)
       _persistentStore.remove(sessionId);
 
+    if (_offHeapStore != null)
+      _offHeapStore.remove(sessionId);
+
     remove(sessionId);
   }
 
@@ -441,9 +467,42 @@ public class QuercusSessionManager
     
     session.finish();
 
-    if (_persistentStore != null) {
-      _persistentStore.put(session.getId(), copy.encode(env));
+    storeEncoded(env, copy);
+  }
+
+  /**
+   * Writes the session to the backing store if its data changed.
+   */
+  private void storeEncoded(Env env, SessionArrayValue session)
+  {
+    if (_persistentStore == null && _offHeapStore == null)
+      return;
+
+    String storedEncoded = session.getStoredEncoding();
+    String encoded;
+
+    // a session whose data was never read can't have changed
+    if (session.isDecoded() || storedEncoded == null)
+      encoded = session.encode(env);
+    else
+      encoded = storedEncoded;
+
+    if (! _alwaysSaveSession && encoded.equals(storedEncoded)) {
+      // the off-heap store only needs its access time refreshed, but the
+      // persistent store's expiry is only reset by a put
+      if (_offHeapStore != null) {
+        _offHeapStore.touch(session.getId(), env.getCurrentTime());
+
+        return;
+      }
     }
+
+    session.setStoredEncoding(encoded);
+
+    if (_persistentStore != null)
+      _persistentStore.put(session.getId(), encoded);
+    else
+      _offHeapStore.put(session.getId(), encoded, env.getCurrentTime());
   }
 
   /**
@@ -495,12 +554,15 @@ public class QuercusSessionManager
         return false;
       }
 
-      if (_persistentStore != null) {
-        String encoded = (String) _persistentStore.get(session.getId());
+      String encoded = null;
 
-        if (encoded != null) {
-          session.decode(env, new StringBuilderValue(encoded));
-        }
+      if (_persistentStore != null)
+        encoded = (String) _persistentStore.get(session.getId());
+      else if (_offHeapStore != null)
+        encoded = _offHeapStore.get(session.getId());
+
+      if (encoded != null) {
+        session.decodeLazy(encoded);
       }
       
       if (session.load()) {
@@ -550,10 +612,6 @@ public class QuercusSessionManager
         }
       }
 
-      synchronized (_statisticsLock) {
-        _sessionTimeoutCount += _sessionList.size();
-      }
-
       for (int i = 0; i < _sessionList.size(); i++) {
         SessionArrayValue session = _sessionList.get(i);
 
@@ -561,11 +619,27 @@ public class QuercusSessionManager
           long maxIdleTime = session.getMaxInactiveInterval();
           _sessions.remove(session.getId());
 
+          if (_offHeapStore != null)
+            _offHeapStore.remove(session.getId());
+
           session.invalidate();
         } catch (Throwable e) {
           log.log(Level.FINER, e.toString(), e);
         }
       }
+
+      // the copies of the sessions above are already gone, so this only
+      // counts sessions that were evicted to the store
+      int offHeapTimeoutCount = 0;
+
+      if (_offHeapStore != null) {
+        offHeapTimeoutCount
+          = _offHeapStore.removeExpired(now - _sessionTimeout);
+      }
+
+      synchronized (_statisticsLock) {
+        _sessionTimeoutCount += _sessionList.size() + offHeapTimeoutCount;
+      }
     } finally {
       if (! _isClosed)
         alarm.queue(60000);
@@ -29,6 +29,8 @@
 
 package com.caucho.quercus.module;
 
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.ConstStringValue;
 import com.caucho.quercus.env.StringValue;
@@ -70,6 +72,50 @@ public class AbstractQuercusModule implements QuercusModule {
     return new String[0];
   }
 
+  // deeper arrays, or recursive ones, aren't streamed
+  private static final int MAX_PRINT_DEPTH = 64;
+
+  /**
+   * Prints the result of one of the module's functions straight to the
+   * output, for echo.  Returns false if the function has no
+   * streaming implementation and must be called normally.
+   */
+  public boolean printFunction(Env env, String name, Value []args)
+  {
+    return false;
+  }
+
+  /**
+   * True if encoding the value can't run user code.  Objects may have
+   * callbacks like jsonSerialize() or __sleep() that echo, and their
+   * output would land in the middle of a streamed encoding.
+   */
+  protected static boolean isPrintSafe(Value value)
+  {
+    return isPrintSafe(value.toValue(), 0);
+  }
+
+  private static boolean isPrintSafe(Value value, int depth)
+  {
+    if (value.isObject())
+      return false;
+    else if (value instanceof ArrayValue) {
+      if (MAX_PRINT_DEPTH < depth)
+        return false;
+
+      ArrayValue array = (ArrayValue) value;
+
+      for (ArrayValue.Entry ptr = array.getHead();
+           ptr != null;
+           ptr = ptr.getNext()) {
+        if (! isPrintSafe(ptr.getValue().toValue(), depth + 1))
+          return false;
+      }
+    }
+
+    return true;
+  }
+
   protected static void addConstant(Map<StringValue,Value> map,
                                     String name, Value value)
   {
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.module;
+
+/**
+ * Calls a single module method directly, without reflection.
+ *
+ * Subclasses are generated by {@link ModuleInvokerGenerator}, one per
+ * builtin, so the call to the module method is a constant call site.
+ */
+abstract public class ModuleInvoker {
+  protected ModuleInvoker()
+  {
+  }
+
+  /**
+   * Calls the module method with the already marshaled arguments,
+   * boxing a primitive return value and returning null for void.
+   *
+   * @param module the module instance, ignored for static methods
+   * @param args the java arguments
+   */
+  abstract public Object invoke(Object module, Object []args);
+}
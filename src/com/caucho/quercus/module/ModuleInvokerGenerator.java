@@ -0,0 +1,511 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.module;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a {@link ModuleInvoker} subclass for a module method.
+ *
+ * The generated invoke() casts and unboxes each argument, calls the
+ * method with invokevirtual or invokestatic and boxes the result.  The
+ * code has no branches, so the class is written as a version 49 class
+ * file, which needs no stack map frames.
+ */
+final class ModuleInvokerGenerator {
+  private static final String INVOKER
+    = "com/caucho/quercus/module/ModuleInvoker";
+
+  private static final String INVOKE_DESC
+    = "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+  private static final AtomicInteger _count = new AtomicInteger();
+
+  // the loader refers to its parent, so the value must not be strong
+  private static final
+    WeakHashMap<ClassLoader,WeakReference<InvokerLoader>> _loaderMap
+    = new WeakHashMap<ClassLoader,WeakReference<InvokerLoader>>();
+
+  // class file constant pool
+  private final ArrayList<byte[]> _poolList = new ArrayList<byte[]>();
+  private final HashMap<String,Integer> _poolMap
+    = new HashMap<String,Integer>();
+
+  private ModuleInvokerGenerator()
+  {
+  }
+
+  /**
+   * Returns true if the generated class can link to the method, i.e. the
+   * method and every type in its signature are public.
+   */
+  static boolean isSupported(Method method)
+  {
+    if (! Modifier.isPublic(method.getModifiers()))
+      return false;
+    else if (! isPublic(method.getDeclaringClass()))
+      return false;
+    else if (! isPublic(method.getReturnType()))
+      return false;
+
+    for (Class<?> type : method.getParameterTypes()) {
+      if (! isPublic(type))
+        return false;
+    }
+
+    return true;
+  }
+
+  private static boolean isPublic(Class<?> cl)
+  {
+    while (cl.isArray()) {
+      cl = cl.getComponentType();
+    }
+
+    for (; cl != null; cl = cl.getDeclaringClass()) {
+      if (! cl.isPrimitive() && ! Modifier.isPublic(cl.getModifiers()))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Generates and instantiates the invoker for the method.
+   */
+  static ModuleInvoker create(Method method)
+    throws Exception
+  {
+    Class<?> cl = method.getDeclaringClass();
+
+    String name = ("com.caucho.quercus.module.gen."
+                   + cl.getSimpleName() + "_" + method.getName()
+                   + "_" + _count.incrementAndGet());
+
+    byte []code = new ModuleInvokerGenerator().generate(name, method);
+
+    Class<?> invokerClass = getLoader(cl.getClassLoader()).define(name, code);
+
+    return (ModuleInvoker) invokerClass.newInstance();
+  }
+
+  private static InvokerLoader getLoader(ClassLoader parent)
+  {
+    if (parent == null)
+      parent = ModuleInvoker.class.getClassLoader();
+
+    synchronized (_loaderMap) {
+      WeakReference<InvokerLoader> ref = _loaderMap.get(parent);
+      InvokerLoader loader = ref != null ? ref.get() : null;
+
+      if (loader == null) {
+        loader = new InvokerLoader(parent);
+
+        _loaderMap.put(parent, new WeakReference<InvokerLoader>(loader));
+      }
+
+      return loader;
+    }
+  }
+
+  private byte []generate(String name, Method method)
+    throws IOException
+  {
+    int thisClass = addClass(name.replace('.', '/'));
+    int superClass = addClass(INVOKER);
+
+    byte []initCode = generateInit(superClass);
+
+    Code code = generateInvoke(method);
+
+    int initName = addUtf8("<init>");
+    int initDesc = addUtf8("()V");
+    int invokeName = addUtf8("invoke");
+    int invokeDesc = addUtf8(INVOKE_DESC);
+    int codeName = addUtf8("Code");
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+
+    out.writeInt(0xcafebabe);
+    out.writeShort(0);
+    out.writeShort(49);
+
+    out.writeShort(_poolList.size() + 1);
+    for (byte []entry : _poolList) {
+      out.write(entry);
+    }
+
+    // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+    out.writeShort(0x0031);
+    out.writeShort(thisClass);
+    out.writeShort(superClass);
+    out.writeShort(0); // interfaces
+    out.writeShort(0); // fields
+
+    out.writeShort(2);
+    writeMethod(out, initName, initDesc, codeName, initCode, 1, 1);
+    writeMethod(out, invokeName, invokeDesc, codeName,
+                code.toByteArray(), code.getMaxStack(), 3);
+
+    out.writeShort(0); // attributes
+
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private byte []generateInit(int superClass)
+  {
+    Code code = new Code();
+
+    code.op(0x2a); // aload_0
+    code.op(0xb7); // invokespecial
+    code.u2(addMethodRef(superClass, "<init>", "()V"));
+    code.op(0xb1); // return
+
+    return code.toByteArray();
+  }
+
+  private Code generateInvoke(Method method)
+  {
+    Code code = new Code();
+
+    boolean isStatic = Modifier.isStatic(method.getModifiers());
+    int owner = addClass(getInternalName(method.getDeclaringClass()));
+
+    if (! isStatic) {
+      code.op(0x2b); // aload_1
+      code.op(0xc0); // checkcast
+      code.u2(owner);
+      code.push(1);
+    }
+
+    Class<?> []paramTypes = method.getParameterTypes();
+    StringBuilder desc = new StringBuilder("(");
+
+    for (int i = 0; i < paramTypes.length; i++) {
+      Class<?> type = paramTypes[i];
+
+      desc.append(getDescriptor(type));
+
+      code.op(0x2c); // aload_2
+      code.push(1);
+      code.constant(i);
+      code.push(1);
+      code.op(0x32); // aaload
+      code.pop(1);
+
+      if (type.isPrimitive()) {
+        String wrapper = getWrapper(type);
+
+        code.op(0xc0); // checkcast
+        code.u2(addClass(wrapper));
+        code.op(0xb6); // invokevirtual
+        code.u2(addMethodRef(addClass(wrapper),
+                             type.getName() + "Value",
+                             "()" + getDescriptor(type)));
+        code.push(getSize(type) - 1);
+      }
+      else if (type != Object.class) {
+        code.op(0xc0); // checkcast
+        code.u2(addClass(getInternalName(type)));
+      }
+    }
+
+    Class<?> retType = method.getReturnType();
+
+    desc.append(")");
+    desc.append(getDescriptor(retType));
+
+    code.op(isStatic ? 0xb8 : 0xb6); // invokestatic / invokevirtual
+    code.u2(addMethodRef(owner, method.getName(), desc.toString()));
+
+    code.pop(isStatic ? 0 : 1);
+    for (Class<?> type : paramTypes) {
+      code.pop(getSize(type));
+    }
+
+    if (retType == void.class) {
+      code.op(0x01); // aconst_null
+      code.push(1);
+    }
+    else if (retType.isPrimitive()) {
+      String wrapper = getWrapper(retType);
+
+      code.push(getSize(retType));
+      code.op(0xb8); // invokestatic
+      code.u2(addMethodRef(addClass(wrapper), "valueOf",
+                           "(" + getDescriptor(retType) + ")L"
+                           + wrapper + ";"));
+      code.pop(getSize(retType) - 1);
+    }
+    else
+      code.push(1);
+
+    code.op(0xb0); // areturn
+
+    return code;
+  }
+
+  private static void writeMethod(DataOutputStream out,
+                                  int name, int desc, int codeName,
+                                  byte []code, int maxStack, int maxLocals)
+    throws IOException
+  {
+    out.writeShort(0x0001); // ACC_PUBLIC
+    out.writeShort(name);
+    out.writeShort(desc);
+    out.writeShort(1);
+
+    out.writeShort(codeName);
+    out.writeInt(12 + code.length);
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(code.length);
+    out.write(code);
+    out.writeShort(0); // exception table
+    out.writeShort(0); // attributes
+  }
+
+  private static String getInternalName(Class<?> cl)
+  {
+    return cl.getName().replace('.', '/');
+  }
+
+  private static String getDescriptor(Class<?> cl)
+  {
+    if (cl.isArray())
+      return getInternalName(cl);
+    else if (cl == void.class)
+      return "V";
+    else if (cl == boolean.class)
+      return "Z";
+    else if (cl == byte.class)
+      return "B";
+    else if (cl == char.class)
+      return "C";
+    else if (cl == short.class)
+      return "S";
+    else if (cl == int.class)
+      return "I";
+    else if (cl == long.class)
+      return "J";
+    else if (cl == float.class)
+      return "F";
+    else if (cl == double.class)
+      return "D";
+    else
+      return "L" + getInternalName(cl) + ";";
+  }
+
+  private static String getWrapper(Class<?> cl)
+  {
+    if (cl == boolean.class)
+      return "java/lang/Boolean";
+    else if (cl == byte.class)
+      return "java/lang/Byte";
+    else if (cl == char.class)
+      return "java/lang/Character";
+    else if (cl == short.class)
+      return "java/lang/Short";
+    else if (cl == int.class)
+      return "java/lang/Integer";
+    else if (cl == long.class)
+      return "java/lang/Long";
+    else if (cl == float.class)
+      return "java/lang/Float";
+    else
+      return "java/lang/Double";
+  }
+
+  private static int getSize(Class<?> cl)
+  {
+    return cl == long.class || cl == double.class ? 2 : 1;
+  }
+
+  private int addUtf8(String value)
+  {
+    String key = "U" + value;
+    Integer index = _poolMap.get(key);
+
+    if (index != null)
+      return index;
+
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bos);
+
+      out.writeByte(1);
+      out.writeUTF(value);
+      out.close();
+
+      return addEntry(key, bos.toByteArray());
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private int addClass(String name)
+  {
+    String key = "C" + name;
+    Integer index = _poolMap.get(key);
+
+    if (index != null)
+      return index;
+
+    int nameIndex = addUtf8(name);
+
+    return addEntry(key, new byte[] { 7,
+                                      (byte) (nameIndex >> 8),
+                                      (byte) nameIndex });
+  }
+
+  private int addMethodRef(int owner, String name, String desc)
+  {
+    String key = "M" + owner + " " + name + desc;
+    Integer index = _poolMap.get(key);
+
+    if (index != null)
+      return index;
+
+    int nameIndex = addUtf8(name);
+    int descIndex = addUtf8(desc);
+    int nameAndType = addEntry("N" + name + desc,
+                               new byte[] { 12,
+                                            (byte) (nameIndex >> 8),
+                                            (byte) nameIndex,
+                                            (byte) (descIndex >> 8),
+                                            (byte) descIndex });
+
+    return addEntry(key, new byte[] { 10,
+                                      (byte) (owner >> 8),
+                                      (byte) owner,
+                                      (byte) (nameAndType >> 8),
+                                      (byte) nameAndType });
+  }
+
+  private int addEntry(String key, byte []entry)
+  {
+    Integer index = _poolMap.get(key);
+
+    if (index != null)
+      return index;
+
+    _poolList.add(entry);
+    index = _poolList.size();
+
+    _poolMap.put(key, index);
+
+    return index;
+  }
+
+  /**
+   * Method bytecode, tracking the operand stack depth.
+   */
+  static final class Code {
+    private final ByteArrayOutputStream _os = new ByteArrayOutputStream();
+
+    private int _stack;
+    private int _maxStack;
+
+    void op(int op)
+    {
+      _os.write(op);
+    }
+
+    void u2(int value)
+    {
+      _os.write(value >> 8);
+      _os.write(value);
+    }
+
+    void constant(int value)
+    {
+      if (value <= 5)
+        op(0x03 + value); // iconst_n
+      else if (value <= Byte.MAX_VALUE) {
+        op(0x10); // bipush
+        op(value);
+      }
+      else {
+        op(0x11); // sipush
+        u2(value);
+      }
+    }
+
+    void push(int size)
+    {
+      _stack += size;
+
+      if (_maxStack < _stack)
+        _maxStack = _stack;
+    }
+
+    void pop(int size)
+    {
+      _stack -= size;
+    }
+
+    int getMaxStack()
+    {
+      return _maxStack;
+    }
+
+    byte []toByteArray()
+    {
+      return _os.toByteArray();
+    }
+  }
+
+  /**
+   * Defines the generated classes as children of the module's loader.
+   */
+  static final class InvokerLoader extends ClassLoader {
+    InvokerLoader(ClassLoader parent)
+    {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte []code)
+    {
+      return defineClass(name, code, 0, code.length);
+    }
+  }
+}
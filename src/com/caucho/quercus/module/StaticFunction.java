@@ -32,12 +32,15 @@ package com.caucho.quercus.module;
 import com.caucho.quercus.QuercusExitException;
 import com.caucho.quercus.QuercusModuleException;
 import com.caucho.quercus.annotation.Name;
+import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.JavaInvoker;
+import com.caucho.quercus.env.Value;
 import com.caucho.quercus.program.JavaClassDef;
 import com.caucho.util.L10N;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -45,9 +48,17 @@ import java.util.logging.Logger;
  */
 @SuppressWarnings("serial")
 public class StaticFunction extends JavaInvoker {
+  private static final Logger log
+    = Logger.getLogger(StaticFunction.class.getName());
+
   protected final QuercusModule _quercusModule;
   private final int _argLength;
 
+  // generated on first call; invokers are stateless, so a racing
+  // thread at worst generates a second one
+  private ModuleInvoker _invoker;
+  private boolean _isInvokerInit;
+
   /**
    * Creates the statically introspected function.
    *
@@ -103,12 +114,44 @@ public class StaticFunction extends JavaInvoker {
     return _argLength;
   }
 
+  /**
+   * Prints the result, letting the module stream it to the output.
+   */
+  @Override
+  public void print(Env env, Value []args)
+  {
+    if (_quercusModule instanceof AbstractQuercusModule) {
+      AbstractQuercusModule module = (AbstractQuercusModule) _quercusModule;
+
+      if (module.printFunction(env, getName(), args))
+        return;
+    }
+
+    super.print(env, args);
+  }
+
   /**
    * Evalutes the function.
    */
   @Override
   public Object invoke(Object obj, Object []javaArgs)
   {
+    ModuleInvoker invoker = _invoker;
+
+    if (invoker == null && ! _isInvokerInit)
+      invoker = initInvoker();
+
+    if (invoker != null) {
+      try {
+        return invoker.invoke(_quercusModule, javaArgs);
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Throwable e) {
+        // checked exceptions aren't wrapped by the generated call
+        throw QuercusModuleException.create(e);
+      }
+    }
+
     try {
       return _method.invoke(_quercusModule, javaArgs);
     } catch (IllegalArgumentException e) {
@@ -133,6 +176,28 @@ public class StaticFunction extends JavaInvoker {
     }
   }
 
+  /**
+   * Generates the direct invoker, falling back to reflection when the
+   * method isn't public or the class can't be defined.
+   */
+  private ModuleInvoker initInvoker()
+  {
+    ModuleInvoker invoker = null;
+
+    if (ModuleInvokerGenerator.isSupported(_method)) {
+      try {
+        invoker = ModuleInvokerGenerator.create(_method);
+      } catch (Throwable e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+    }
+
+    _invoker = invoker;
+    _isInvokerInit = true;
+
+    return invoker;
+  }
+
   private String toString(Method method, Object []javaArgs)
   {
     StringBuilder sb = new StringBuilder();
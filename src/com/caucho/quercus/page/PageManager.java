@@ -34,12 +34,10 @@ import com.caucho.quercus.parser.QuercusParser;
 import com.caucho.quercus.program.QuercusProgram;
 import com.caucho.util.CurrentTime;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
 import com.caucho.vfs.IOExceptionWrapper;
 import com.caucho.vfs.Path;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.*;
 
@@ -62,11 +60,13 @@ public class PageManager
 
   private boolean _isRequireSource = true;
 
+  private ProgramCache _programDiskCache;
+
   private ConcurrentHashMap<String,Object> _programLockMap
     = new ConcurrentHashMap<String,Object>();
 
-  protected LruCache<Path,SoftReference<QuercusProgram>> _programCache
-    = new LruCache<Path,SoftReference<QuercusProgram>>(1024);
+  protected ProgramLruCache _programCache
+    = new ProgramLruCache(1024, Runtime.getRuntime().maxMemory() / 8);
 
   private boolean _isClosed;
 
@@ -139,6 +139,31 @@ public class PageManager
     _isCompileFailover = isCompileFailover;
   }
 
+  /**
+   * Sets the directory for the persistent parsed-program cache, or null
+   * to disable it.
+   */
+  public void setProgramCacheDirectory(Path dir)
+  {
+    ProgramCache oldCache = _programDiskCache;
+
+    if (oldCache != null)
+      oldCache.close();
+
+    if (dir != null)
+      _programDiskCache = new ProgramCache(_quercus, dir);
+    else
+      _programDiskCache = null;
+  }
+
+  /**
+   * Returns the persistent parsed-program cache, or null if disabled.
+   */
+  public ProgramCache getProgramDiskCache()
+  {
+    return _programDiskCache;
+  }
+
   /**
    * true if compiled pages require their source
    */
@@ -168,8 +193,61 @@ public class PageManager
    */
   public void setPageCacheSize(int size)
   {
-    if (size >= 0 && size != _programCache.getCapacity())
-      _programCache = new LruCache<Path,SoftReference<QuercusProgram>>(size);
+    if (size >= 0)
+      _programCache.setCapacity(size);
+  }
+
+  /**
+   * Gets the max estimated memory of the page cache in bytes.
+   */
+  public long getPageCacheMemory()
+  {
+    return _programCache.getMaxSize();
+  }
+
+  /**
+   * Sets the max estimated memory of the page cache in bytes.
+   */
+  public void setPageCacheMemory(long bytes)
+  {
+    if (bytes > 0)
+      _programCache.setMaxSize(bytes);
+  }
+
+  /**
+   * Sets how often cached pages are checked for modification in
+   * milliseconds: 0 on every request, negative to never check.
+   */
+  public void setRevalidateInterval(long interval)
+  {
+    _programCache.setRevalidateInterval(interval);
+  }
+
+  /**
+   * Returns the page revalidate interval in milliseconds.
+   */
+  public long getRevalidateInterval()
+  {
+    return _programCache.getRevalidateInterval();
+  }
+
+  /**
+   * Returns the in-memory program cache, e.g. for its statistics.
+   */
+  public ProgramLruCache getProgramCache()
+  {
+    return _programCache;
+  }
+
+  /**
+   * Drops all cached programs, e.g. after a deploy when revalidation
+   * is disabled.
+   */
+  public void clearCache()
+  {
+    _programCache.clear();
+
+    _quercus.clearDefinitionCache();
   }
 
   /**
@@ -254,14 +332,12 @@ public class PageManager
     throws IOException
   {
     try {
-      SoftReference<QuercusProgram> programRef = _programCache.get(path);
-
-      QuercusProgram  program = programRef != null ? programRef.get() : null;
+      QuercusProgram program = _programCache.get(path);
 
       boolean isModified = false;
 
       if (program != null) {
-        isModified = program.isModified();
+        isModified = _programCache.isModified(path);
 
         if (program.isCompilable()) {
         }
@@ -289,9 +365,14 @@ public class PageManager
                                         _quercus.getScriptEncoding(),
                                         fileName,
                                         line);
+
+          ProgramCache diskCache = _programDiskCache;
+
+          if (diskCache != null && fileName == null)
+            diskCache.store(path, program);
         }
 
-        _programCache.put(path, new SoftReference<QuercusProgram>(program));
+        _programCache.put(path, program);
       }
 
       if (program.getCompiledPage() != null)
@@ -314,6 +395,12 @@ public class PageManager
 
   protected QuercusProgram preloadProgram(Path path, String fileName)
   {
+    ProgramCache diskCache = _programDiskCache;
+
+    // a cached AST carries the locations of its own file name
+    if (diskCache != null && fileName == null)
+      return diskCache.load(path);
+
     return null;
   }
 
@@ -337,6 +424,10 @@ public class PageManager
   public void close()
   {
     _isClosed = true;
+
+    ProgramCache diskCache = _programDiskCache;
+
+    if (diskCache != null)
+      diskCache.close();
   }
 }
-
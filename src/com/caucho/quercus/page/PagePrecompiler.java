@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.page;
+
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Walks a set of directories and parses, or compiles, every script on a
+ * bounded fork/join pool, so the page cache is warm before the first
+ * request.
+ */
+public class PagePrecompiler
+{
+  private static final Logger log
+    = Logger.getLogger(PagePrecompiler.class.getName());
+
+  private static final L10N L = new L10N(PagePrecompiler.class);
+
+  private final PageManager _pageManager;
+
+  private int _threads = Runtime.getRuntime().availableProcessors();
+  private String []_extensions = new String[] { ".php" };
+
+  private final ConcurrentHashMap<String,Long> _timeMap
+    = new ConcurrentHashMap<String,Long>();
+  private final AtomicInteger _errorCount = new AtomicInteger();
+
+  // canonical directories already walked, so symlink loops end
+  private final ConcurrentHashMap<String,Boolean> _dirMap
+    = new ConcurrentHashMap<String,Boolean>();
+
+  // files queued, stopping at the page cache capacity
+  private final AtomicInteger _fileCount = new AtomicInteger();
+  private final AtomicBoolean _isCacheFull = new AtomicBoolean();
+
+  public PagePrecompiler(PageManager pageManager)
+  {
+    _pageManager = pageManager;
+  }
+
+  /**
+   * Sets the maximum number of parsing threads.
+   */
+  public void setThreads(int threads)
+  {
+    if (threads > 0)
+      _threads = threads;
+  }
+
+  /**
+   * Sets the file extensions to precompile, e.g. ".php".
+   */
+  public void setExtensions(String []extensions)
+  {
+    _extensions = extensions;
+  }
+
+  /**
+   * Returns the number of files that failed to parse.
+   */
+  public int getErrorCount()
+  {
+    return _errorCount.get();
+  }
+
+  /**
+   * Precompiles all matching files under the given roots and returns the
+   * per-file parse time in microseconds, keyed by full path.
+   */
+  public Map<String,Long> precompile(List<Path> roots)
+  {
+    if (! _pageManager.isActive()) {
+      log.info(L.l("Quercus precompile skipped because the page manager is closed"));
+
+      return Collections.emptyMap();
+    }
+
+    long start = System.nanoTime();
+
+    // workers parse with the web-app's loader, so modules and classes
+    // it loads are visible
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+    ForkJoinPool pool
+      = new ForkJoinPool(_threads, new WorkerThreadFactory(loader),
+                         null, false);
+
+    try {
+      ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+
+      for (Path root : roots) {
+        if (root.isDirectory()) {
+          if (addDirectory(root))
+            tasks.add(new DirectoryTask(root));
+        }
+        else if (root.isFile()) {
+          if (reserveFile())
+            tasks.add(new FileTask(root));
+        }
+        else
+          log.warning(L.l("precompile path '{0}' does not exist", root));
+      }
+
+      for (RecursiveAction task : tasks) {
+        pool.execute(task);
+      }
+
+      for (RecursiveAction task : tasks) {
+        task.join();
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    long time = (System.nanoTime() - start) / 1000000L;
+
+    log.info(L.l("Quercus precompiled {0} files in {1}ms with {2} threads ({3} errors)",
+                 _timeMap.size(), time, _threads, _errorCount.get()));
+
+    return Collections.unmodifiableMap(new TreeMap<String,Long>(_timeMap));
+  }
+
+  private boolean isMatch(String name)
+  {
+    for (String ext : _extensions) {
+      if (name.endsWith(ext))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns true if the directory hasn't been walked yet under any
+   * name, e.g. through a symlink back to an ancestor.
+   */
+  private boolean addDirectory(Path dir)
+  {
+    String name;
+
+    try {
+      name = new File(dir.getNativePath()).getCanonicalPath();
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      name = dir.getFullPath();
+    }
+
+    return _dirMap.putIfAbsent(name, Boolean.TRUE) == null;
+  }
+
+  /**
+   * Claims a page cache entry for another file.  Precompiling past the
+   * cache capacity would evict the pages just compiled.
+   */
+  private boolean reserveFile()
+  {
+    int capacity = _pageManager.getPageCacheSize();
+
+    if (_fileCount.incrementAndGet() <= capacity)
+      return true;
+
+    if (_isCacheFull.compareAndSet(false, true)) {
+      log.warning(L.l("Quercus precompile stopped at {0} files, the page cache size.  Increase the page cache size to precompile more.",
+                      capacity));
+    }
+
+    return false;
+  }
+
+  private void parseFile(Path path)
+  {
+    if (! _pageManager.isActive())
+      return;
+
+    long start = System.nanoTime();
+
+    try {
+      _pageManager.parse(path);
+
+      long time = (System.nanoTime() - start) / 1000L;
+
+      _timeMap.put(path.getFullPath(), time);
+
+      if (log.isLoggable(Level.FINE))
+        log.fine(L.l("Quercus[{0}] precompiled in {1}us", path, time));
+    } catch (Exception e) {
+      _errorCount.incrementAndGet();
+
+      log.log(Level.FINE, L.l("Quercus[{0}] precompile failed: {1}",
+                              path, e.toString()), e);
+    }
+  }
+
+  static class WorkerThreadFactory
+    implements ForkJoinPool.ForkJoinWorkerThreadFactory
+  {
+    private final ClassLoader _loader;
+
+    WorkerThreadFactory(ClassLoader loader)
+    {
+      _loader = loader;
+    }
+
+    public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+    {
+      ForkJoinWorkerThread thread = new WorkerThread(pool);
+
+      thread.setContextClassLoader(_loader);
+      thread.setDaemon(true);
+
+      return thread;
+    }
+  }
+
+  static class WorkerThread extends ForkJoinWorkerThread
+  {
+    WorkerThread(ForkJoinPool pool)
+    {
+      super(pool);
+    }
+  }
+
+  class DirectoryTask extends RecursiveAction
+  {
+    private final Path _dir;
+
+    DirectoryTask(Path dir)
+    {
+      _dir = dir;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (_isCacheFull.get())
+        return;
+
+      String []names;
+
+      try {
+        names = _dir.list();
+      } catch (Exception e) {
+        log.log(Level.FINE, e.toString(), e);
+        return;
+      }
+
+      ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+
+      for (String name : names) {
+        if (name.startsWith("."))
+          continue;
+
+        Path path = _dir.lookup(name);
+
+        if (path.isDirectory()) {
+          if (addDirectory(path))
+            tasks.add(new DirectoryTask(path));
+        }
+        else if (isMatch(name) && path.isFile()) {
+          if (reserveFile())
+            tasks.add(new FileTask(path));
+        }
+      }
+
+      invokeAll(tasks);
+    }
+  }
+
+  class FileTask extends RecursiveAction
+  {
+    private final Path _path;
+
+    FileTask(Path path)
+    {
+      _path = path;
+    }
+
+    @Override
+    protected void compute()
+    {
+      parseFile(_path);
+    }
+  }
+}
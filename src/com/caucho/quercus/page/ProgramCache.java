@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.page;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.program.Function;
+import com.caucho.quercus.program.FunctionInfo;
+import com.caucho.quercus.program.InterpretedClassDef;
+import com.caucho.quercus.program.QuercusProgram;
+import com.caucho.quercus.program.QuercusProgramInputStream;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.statement.Statement;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of parsed programs, so a restart can skip re-parsing
+ * unchanged scripts.  Each entry is keyed by the source path and is
+ * validated against the file's modification time, length and content
+ * digest, as well as the parser settings in effect.
+ *
+ * Entries that fail to load, e.g. because the Quercus classes changed,
+ * are treated as misses and rewritten after the next parse.
+ *
+ * The request thread only serializes the program.  Digesting the source
+ * and writing the file happen on a single background writer.
+ */
+public class ProgramCache
+{
+  private static final Logger log
+    = Logger.getLogger(ProgramCache.class.getName());
+
+  private static final L10N L = new L10N(ProgramCache.class);
+
+  private static final int MAGIC = 0x51504331; // "QPC1"
+  private static final int VERSION = 2;
+
+  // programs beyond the queue aren't cached and are offered again
+  // after their next parse
+  private static final int WRITE_QUEUE = 64;
+
+  private final QuercusContext _quercus;
+  private final Path _dir;
+
+  private ThreadPoolExecutor _writeExecutor;
+  private boolean _isClosed;
+
+  public ProgramCache(QuercusContext quercus, Path dir)
+  {
+    _quercus = quercus;
+    _dir = dir;
+  }
+
+  /**
+   * Returns the cache directory.
+   */
+  public Path getDirectory()
+  {
+    return _dir;
+  }
+
+  /**
+   * Loads the cached program for the source path, or returns null if
+   * there is no valid entry.
+   */
+  @SuppressWarnings("unchecked")
+  public QuercusProgram load(Path path)
+  {
+    Path cachePath = getCachePath(path);
+
+    if (! cachePath.canRead())
+      return null;
+
+    QuercusProgramInputStream in = null;
+
+    try {
+      byte []digest = digest(path);
+
+      if (digest == null)
+        return null;
+
+      ReadStream is = cachePath.openRead();
+
+      in = new QuercusProgramInputStream(is, _quercus, path);
+
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        return null;
+
+      if (! path.getFullPath().equals(in.readUTF())
+          || path.getLastModified() != in.readLong()
+          || path.getLength() != in.readLong()
+          || ! Arrays.equals(digest, (byte []) in.readObject())
+          || ! getConfigKey().equals(in.readUTF())) {
+        return null;
+      }
+
+      byte []body = (byte []) in.readObject();
+
+      in.close();
+
+      in = new QuercusProgramInputStream(new ByteArrayInputStream(body),
+                                         _quercus, path);
+
+      HashMap<StringValue,Function> functionMap
+        = (HashMap<StringValue,Function>) in.readObject();
+      ArrayList<Function> functionList
+        = (ArrayList<Function>) in.readObject();
+      HashMap<String,InterpretedClassDef> classMap
+        = (HashMap<String,InterpretedClassDef>) in.readObject();
+      ArrayList<InterpretedClassDef> classList
+        = (ArrayList<InterpretedClassDef>) in.readObject();
+      FunctionInfo functionInfo = (FunctionInfo) in.readObject();
+      Statement statement = (Statement) in.readObject();
+
+      if (log.isLoggable(Level.FINE))
+        log.fine(L.l("Quercus[{0}] loading cached program", path));
+
+      return new QuercusProgram(_quercus, path,
+                                functionMap, functionList,
+                                classMap, classList,
+                                functionInfo, statement);
+    } catch (Exception e) {
+      log.log(Level.FINE, L.l("Quercus[{0}] ignoring cached program: {1}",
+                              path, e.toString()), e);
+
+      return null;
+    } finally {
+      close(in);
+    }
+  }
+
+  /**
+   * Saves a freshly parsed program.  Must be called before the program
+   * executes, so no runtime state is captured.  The program is serialized
+   * here and written in the background.
+   */
+  public void store(Path path, QuercusProgram program)
+  {
+    try {
+      long lastModified = path.getLastModified();
+      long length = path.getLength();
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bos);
+
+      out.writeObject(program.getFunctionMap());
+      out.writeObject(program.getFunctionList());
+      out.writeObject(program.getClassMap());
+      out.writeObject(program.getClassList());
+      out.writeObject(program.getFunctionInfo());
+      out.writeObject(program.getStatement());
+
+      out.close();
+
+      getWriteExecutor().execute(new StoreTask(path, lastModified, length,
+                                               bos.toByteArray()));
+    } catch (RejectedExecutionException e) {
+      log.log(Level.FINER, L.l("Quercus[{0}] program cache writer is busy",
+                               path), e);
+    } catch (Exception e) {
+      log.log(Level.FINE, L.l("Quercus[{0}] can't cache program: {1}",
+                              path, e.toString()), e);
+    }
+  }
+
+  /**
+   * Writes the cache file for a serialized program, unless the source
+   * changed since it was parsed.
+   */
+  void write(Path path, long lastModified, long length, byte []body)
+  {
+    Path cachePath = getCachePath(path);
+    Path tempPath = _dir.lookup(cachePath.getTail() + ".tmp"
+                                + Thread.currentThread().getId());
+
+    ObjectOutputStream out = null;
+    boolean isValid = false;
+
+    try {
+      byte []digest = digest(path);
+
+      if (digest == null
+          || path.getLastModified() != lastModified
+          || path.getLength() != length) {
+        return;
+      }
+
+      _dir.mkdirs();
+
+      WriteStream os = tempPath.openWrite();
+
+      out = new ObjectOutputStream(os);
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(path.getFullPath());
+      out.writeLong(lastModified);
+      out.writeLong(length);
+      out.writeObject(digest);
+      out.writeUTF(getConfigKey());
+      out.writeObject(body);
+
+      out.close();
+      out = null;
+
+      isValid = tempPath.renameTo(cachePath);
+    } catch (Exception e) {
+      log.log(Level.FINE, L.l("Quercus[{0}] can't cache program: {1}",
+                              path, e.toString()), e);
+    } finally {
+      close(out);
+
+      if (! isValid)
+        removeQuietly(tempPath);
+    }
+  }
+
+  private synchronized ThreadPoolExecutor getWriteExecutor()
+  {
+    if (_isClosed)
+      throw new RejectedExecutionException(L.l("{0} is closed", this));
+
+    if (_writeExecutor == null) {
+      ThreadPoolExecutor executor
+        = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                                 new ArrayBlockingQueue<Runnable>(WRITE_QUEUE),
+                                 new WriterThreadFactory());
+
+      executor.allowCoreThreadTimeOut(true);
+
+      _writeExecutor = executor;
+    }
+
+    return _writeExecutor;
+  }
+
+  /**
+   * Waits for queued writes, e.g. before a restart.
+   */
+  public void flush()
+  {
+    ThreadPoolExecutor executor;
+
+    synchronized (this) {
+      executor = _writeExecutor;
+      _writeExecutor = null;
+    }
+
+    if (executor == null)
+      return;
+
+    executor.shutdown();
+
+    try {
+      executor.awaitTermination(60, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Finishes the queued writes and stops the writer.
+   */
+  public void close()
+  {
+    synchronized (this) {
+      _isClosed = true;
+    }
+
+    flush();
+  }
+
+  /**
+   * Removes the cached program for the source path.
+   */
+  public void remove(Path path)
+  {
+    removeQuietly(getCachePath(path));
+  }
+
+  private Path getCachePath(Path path)
+  {
+    return _dir.lookup(toHex(md5(path.getFullPath().getBytes())) + ".qpc");
+  }
+
+  /**
+   * Parser settings that change the resulting AST.
+   */
+  private String getConfigKey()
+  {
+    return (_quercus.getVersion()
+            + "|" + _quercus.getScriptEncoding()
+            + "|" + _quercus.isUnicodeSemantics()
+            + "|" + _quercus.isStrict()
+            + "|" + _quercus.isLooseParse()
+            + "|" + _quercus.getIniBoolean("short_open_tag"));
+  }
+
+  private static byte []digest(Path path)
+    throws IOException
+  {
+    MessageDigest md = createDigest();
+
+    ReadStream is = path.openRead();
+
+    try {
+      byte []buffer = new byte[8192];
+      int len;
+
+      while ((len = is.read(buffer, 0, buffer.length)) > 0) {
+        md.update(buffer, 0, len);
+      }
+    } finally {
+      is.close();
+    }
+
+    return md.digest();
+  }
+
+  private static byte []md5(byte []data)
+  {
+    MessageDigest md = createDigest();
+
+    return md.digest(data);
+  }
+
+  private static MessageDigest createDigest()
+  {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte []bytes)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < bytes.length; i++) {
+      int d = bytes[i] & 0xff;
+
+      sb.append(Character.forDigit(d >> 4, 16));
+      sb.append(Character.forDigit(d & 0xf, 16));
+    }
+
+    return sb.toString();
+  }
+
+  private static void close(java.io.Closeable stream)
+  {
+    try {
+      if (stream != null)
+        stream.close();
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+  }
+
+  private static void removeQuietly(Path path)
+  {
+    try {
+      path.remove();
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _dir + "]";
+  }
+
+  class StoreTask implements Runnable {
+    private final Path _path;
+    private final long _lastModified;
+    private final long _length;
+    private final byte []_body;
+
+    StoreTask(Path path, long lastModified, long length, byte []body)
+    {
+      _path = path;
+      _lastModified = lastModified;
+      _length = length;
+      _body = body;
+    }
+
+    public void run()
+    {
+      write(_path, _lastModified, _length, _body);
+    }
+  }
+
+  static class WriterThreadFactory implements ThreadFactory {
+    public Thread newThread(Runnable task)
+    {
+      Thread thread = new Thread(task, "quercus-program-cache");
+      thread.setDaemon(true);
+
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.page;
+
+import com.caucho.quercus.program.QuercusProgram;
+import com.caucho.vfs.Path;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of parsed programs, bounded by entry count and by the
+ * estimated size of the cached ASTs.  Programs are strongly referenced,
+ * so a GC cycle can't drop the whole cache at once.
+ *
+ * The modification check on a hit is throttled by the revalidate
+ * interval, similar to opcache's revalidate_freq.
+ */
+public class ProgramLruCache
+{
+  // rough AST bytes per byte of source
+  private static final int AST_SIZE_FACTOR = 16;
+  private static final int ENTRY_OVERHEAD = 1024;
+
+  private final LinkedHashMap<Path,Entry> _map
+    = new LinkedHashMap<Path,Entry>(256, 0.75f, true);
+
+  private int _capacity;
+  private long _maxSize;
+  private long _revalidateInterval;
+
+  private long _size;
+
+  private long _hitCount;
+  private long _missCount;
+  private long _evictCount;
+
+  public ProgramLruCache(int capacity, long maxSize)
+  {
+    _capacity = capacity;
+    _maxSize = maxSize;
+  }
+
+  /**
+   * Returns the maximum number of entries.
+   */
+  public synchronized int getCapacity()
+  {
+    return _capacity;
+  }
+
+  /**
+   * Sets the maximum number of entries.
+   */
+  public synchronized void setCapacity(int capacity)
+  {
+    _capacity = capacity;
+
+    evict();
+  }
+
+  /**
+   * Returns the maximum estimated size in bytes.
+   */
+  public synchronized long getMaxSize()
+  {
+    return _maxSize;
+  }
+
+  /**
+   * Sets the maximum estimated size in bytes.
+   */
+  public synchronized void setMaxSize(long maxSize)
+  {
+    _maxSize = maxSize;
+
+    evict();
+  }
+
+  /**
+   * Returns the estimated size in bytes of the cached programs.
+   */
+  public synchronized long getSize()
+  {
+    return _size;
+  }
+
+  /**
+   * Returns the revalidate interval in milliseconds.
+   */
+  public long getRevalidateInterval()
+  {
+    return _revalidateInterval;
+  }
+
+  /**
+   * Sets how often a cached program is checked for modification, in
+   * milliseconds.  0 checks on every hit, a negative value never checks.
+   */
+  public void setRevalidateInterval(long interval)
+  {
+    _revalidateInterval = interval;
+  }
+
+  /**
+   * Returns the cached program for the path, or null if there is none.
+   */
+  public synchronized QuercusProgram get(Path path)
+  {
+    Entry entry = _map.get(path);
+
+    if (entry == null) {
+      _missCount++;
+      return null;
+    }
+
+    _hitCount++;
+
+    return entry.getProgram();
+  }
+
+  /**
+   * Returns true if the cached program's source was modified, checking
+   * at most once per revalidate interval.
+   */
+  public boolean isModified(Path path)
+  {
+    Entry entry;
+
+    synchronized (this) {
+      entry = _map.get(path);
+    }
+
+    return entry != null && entry.isModified(_revalidateInterval);
+  }
+
+  /**
+   * Adds a program to the cache, evicting the least-recently used
+   * entries as needed.
+   */
+  public void put(Path path, QuercusProgram program)
+  {
+    Entry entry = new Entry(program, estimateSize(path));
+
+    synchronized (this) {
+      Entry oldEntry = _map.put(path, entry);
+
+      if (oldEntry != null)
+        _size -= oldEntry.getSize();
+
+      _size += entry.getSize();
+
+      evict();
+    }
+  }
+
+  /**
+   * Removes the program for the path.
+   */
+  public synchronized QuercusProgram remove(Path path)
+  {
+    Entry entry = _map.remove(path);
+
+    if (entry == null)
+      return null;
+
+    _size -= entry.getSize();
+
+    return entry.getProgram();
+  }
+
+  /**
+   * Removes all programs.
+   */
+  public synchronized void clear()
+  {
+    _map.clear();
+    _size = 0;
+  }
+
+  /**
+   * Returns the number of cached programs.
+   */
+  public synchronized int getEntryCount()
+  {
+    return _map.size();
+  }
+
+  public synchronized long getHitCount()
+  {
+    return _hitCount;
+  }
+
+  public synchronized long getMissCount()
+  {
+    return _missCount;
+  }
+
+  public synchronized long getEvictCount()
+  {
+    return _evictCount;
+  }
+
+  private void evict()
+  {
+    Iterator<Entry> iter = _map.values().iterator();
+
+    // keep the most recent entry even if it alone is over the limit
+    while (_map.size() > 1
+           && (_map.size() > _capacity || _size > _maxSize)
+           && iter.hasNext()) {
+      Entry entry = iter.next();
+
+      iter.remove();
+
+      _size -= entry.getSize();
+      _evictCount++;
+    }
+
+    if (_capacity <= 0 && _map.size() > 0) {
+      _evictCount += _map.size();
+
+      clear();
+    }
+  }
+
+  private static long estimateSize(Path path)
+  {
+    long length = path != null ? path.getLength() : 0;
+
+    if (length < 0)
+      length = 0;
+
+    return ENTRY_OVERHEAD + AST_SIZE_FACTOR * length;
+  }
+
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[entries=" + getEntryCount()
+            + ",size=" + getSize() + "]");
+  }
+
+  static final class Entry
+  {
+    private final QuercusProgram _program;
+    private final long _size;
+
+    private volatile long _lastCheckTime;
+
+    Entry(QuercusProgram program, long size)
+    {
+      _program = program;
+      _size = size;
+
+      _lastCheckTime = System.currentTimeMillis();
+    }
+
+    QuercusProgram getProgram()
+    {
+      return _program;
+    }
+
+    long getSize()
+    {
+      return _size;
+    }
+
+    boolean isModified(long interval)
+    {
+      if (interval < 0)
+        return false;
+
+      long now = System.currentTimeMillis();
+
+      if (interval > 0 && now < _lastCheckTime + interval)
+        return false;
+
+      _lastCheckTime = now;
+
+      return _program.isModified();
+    }
+  }
+}
@@ -5564,14 +5564,14 @@ public class QuercusParser {
       return new UnicodeBuilderValue(lexeme);
     }
     else {
-      return new ConstStringValue(lexeme);
+      return ConstStringValue.intern(lexeme);
     }
   }
 
   private StringValue copyStringValue(StringValue value)
   {
     if (value instanceof StringBuilderValue) {
-      return new ConstStringValue((StringBuilderValue) value);
+      return ConstStringValue.intern((StringBuilderValue) value);
     }
     else {
       return value.createStringBuilder().append(value);
@@ -38,7 +38,7 @@ import com.caucho.quercus.expr.ParamRequiredExpr;
 /**
  * Represents a formal argument.
  */
-public class Arg {
+public class Arg implements java.io.Serializable {
   private final StringValue _name;
   private final Expr _default;
 
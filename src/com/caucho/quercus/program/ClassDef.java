@@ -50,7 +50,9 @@ import java.util.Set;
 /**
  * Represents a Quercus class definition
  */
-abstract public class ClassDef implements InstanceInitializer {
+abstract public class ClassDef
+  implements InstanceInitializer, java.io.Serializable
+{
   private final static L10N L = new L10N(ClassDef.class);
 
   private final Location _location;
@@ -463,7 +465,7 @@ abstract public class ClassDef implements InstanceInitializer {
   }
 
 
-  public static class FieldEntry {
+  public static class FieldEntry implements java.io.Serializable {
     private final Expr _value;
     private final FieldVisibility _visibility;
     private final String _comment;
@@ -498,7 +500,7 @@ abstract public class ClassDef implements InstanceInitializer {
     }
   }
 
-  public static class StaticFieldEntry {
+  public static class StaticFieldEntry implements java.io.Serializable {
     private final Expr _value;
     private final String _comment;
 
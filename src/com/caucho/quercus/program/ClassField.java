@@ -35,7 +35,7 @@ import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
 
-public class ClassField
+public class ClassField implements java.io.Serializable
 {
   private final StringValue _name;
   private final StringValue _canonicalName;
@@ -34,6 +34,7 @@ import com.caucho.quercus.QuercusException;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.EnvVar;
 import com.caucho.quercus.env.EnvVarImpl;
+import com.caucho.quercus.env.LocalSymbolMap;
 import com.caucho.quercus.env.NullThisValue;
 import com.caucho.quercus.env.NullValue;
 import com.caucho.quercus.env.StringValue;
@@ -46,7 +47,6 @@ import com.caucho.quercus.expr.ParamRequiredExpr;
 import com.caucho.quercus.function.AbstractFunction;
 import com.caucho.quercus.statement.Statement;
 
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -241,7 +241,7 @@ public class Function extends AbstractFunction {
 
   private Value callImpl(Env env, Expr []args, boolean isRef)
   {
-    HashMap<StringValue,EnvVar> map = new HashMap<StringValue,EnvVar>();
+    LocalSymbolMap map = new LocalSymbolMap(_info);
 
     Value []values = new Value[args.length];
 
@@ -315,6 +315,7 @@ public class Function extends AbstractFunction {
         return value.copyReturn();
         */
     } finally {
+      env.releaseFunctionArgs();
       env.restoreFunctionArgs(oldArgs);
       env.popEnv(oldMap);
       env.setThis(oldThis);
@@ -348,7 +349,7 @@ public class Function extends AbstractFunction {
   public Value callImpl(Env env, Value []args, boolean isRef,
                         Arg []useParams, Value []useArgs)
   {
-    HashMap<StringValue,EnvVar> map = new HashMap<StringValue,EnvVar>(8);
+    LocalSymbolMap map = new LocalSymbolMap(_info);
 
     if (useParams != null) {
       for (int i = 0; i < useParams.length; i++) {
@@ -430,6 +431,7 @@ public class Function extends AbstractFunction {
       else
         return value.toValue().copy();
     } finally {
+      env.releaseFunctionArgs();
       env.restoreFunctionArgs(oldArgs);
       env.popEnv(oldMap);
       env.setThis(oldThis);
@@ -33,6 +33,8 @@ import com.caucho.quercus.QuercusContext;
 import com.caucho.quercus.expr.VarInfo;
 import com.caucho.quercus.env.StringValue;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -40,9 +42,10 @@ import java.util.HashMap;
 /**
  * Information about a function.
  */
-public class FunctionInfo
+public class FunctionInfo implements java.io.Serializable
 {
-  private final QuercusContext _quercus;
+  // rebound by QuercusProgramInputStream when loaded from the program cache
+  private transient QuercusContext _quercus;
 
   private final ClassDef _classDef;
   private final String _name;
@@ -50,6 +53,9 @@ public class FunctionInfo
   private final HashMap<StringValue,VarInfo> _varMap
     = new HashMap<StringValue,VarInfo>();
 
+  private final ArrayList<VarInfo> _varList
+    = new ArrayList<VarInfo>();
+
   private final ArrayList<String> _tempVarList
     = new ArrayList<String>();
 
@@ -85,7 +91,15 @@ public class FunctionInfo
   {
     FunctionInfo copy = createCopy();
 
-    copy._varMap.putAll(_varMap);
+    // the copy's variables must belong to the copy, or its local frames
+    // won't find them in their slots
+    for (VarInfo var : _varList) {
+      VarInfo varCopy = copy.createVarInfo(var.getName(), var.getIndex());
+
+      copy._varMap.put(var.getName(), varCopy);
+      copy._varList.add(varCopy);
+    }
+
     copy._tempVarList.addAll(_tempVarList);
     copy._fun = _fun;
     copy._hasThis = _hasThis;
@@ -393,17 +407,48 @@ public class FunctionInfo
     VarInfo var = _varMap.get(name);
 
     if (var == null) {
-      var = createVarInfo(name);
+      var = createVarInfo(name, _varList.size());
 
       _varMap.put(name, var);
+      _varList.add(var);
     }
 
     return var;
   }
 
-  protected VarInfo createVarInfo(StringValue name)
+  protected VarInfo createVarInfo(StringValue name, int index)
   {
-    return new VarInfo(name, this);
+    return new VarInfo(name, this, index);
+  }
+
+  /**
+   * Returns the number of local variable slots.
+   */
+  public int getVarCount()
+  {
+    return _varList.size();
+  }
+
+  /**
+   * Returns the variable for the given slot.
+   */
+  public VarInfo getVar(int index)
+  {
+    return _varList.get(index);
+  }
+
+  /**
+   * Returns the slot for the named variable, or -1 if the variable
+   * was not declared by the parser, e.g. $$var or extract().
+   */
+  public int getVarIndex(StringValue name)
+  {
+    VarInfo var = _varMap.get(name);
+
+    if (var != null)
+      return var.getIndex();
+    else
+      return -1;
   }
 
   /**
@@ -445,6 +490,15 @@ public class FunctionInfo
     return name;
   }
 
+  private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+
+    if (in instanceof QuercusProgramInputStream)
+      _quercus = ((QuercusProgramInputStream) in).getQuercus();
+  }
+
   public String toString()
   {
     return "FunctionInfo[" + _name + "]";
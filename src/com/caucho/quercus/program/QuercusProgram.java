@@ -353,6 +353,14 @@ public class QuercusProgram {
     return _functionMap.values();
   }
 
+  /**
+   * Returns the functions, keyed by name.
+   */
+  public HashMap<StringValue,Function> getFunctionMap()
+  {
+    return _functionMap;
+  }
+
   /**
    * Returns the functions.
    */
@@ -369,6 +377,14 @@ public class QuercusProgram {
     return _classMap.values();
   }
 
+  /**
+   * Returns the classes, keyed by name.
+   */
+  public HashMap<String,InterpretedClassDef> getClassMap()
+  {
+    return _classMap;
+  }
+
   /**
    * Returns the functions.
    */
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.program;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.vfs.Path;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.HashSet;
+
+/**
+ * Reads a serialized program AST, rebinding the fields that belong to
+ * the running engine rather than the parse, e.g. the FunctionInfo's
+ * QuercusContext or an include's source directory.
+ *
+ * Only the AST packages, the value and support classes the AST holds,
+ * and the JDK value and collection classes can be read, so a tampered
+ * cache file can't instantiate other serializable classes.
+ */
+public class QuercusProgramInputStream extends ObjectInputStream
+{
+  private static final HashSet<String> _allowedPackages
+    = new HashSet<String>();
+
+  private static final HashSet<String> _allowedClasses
+    = new HashSet<String>();
+
+  private final QuercusContext _quercus;
+  private final Path _sourcePath;
+
+  public QuercusProgramInputStream(InputStream is,
+                                   QuercusContext quercus,
+                                   Path sourcePath)
+    throws IOException
+  {
+    super(is);
+
+    _quercus = quercus;
+    _sourcePath = sourcePath;
+  }
+
+  /**
+   * Returns the owning engine.
+   */
+  public QuercusContext getQuercus()
+  {
+    return _quercus;
+  }
+
+  /**
+   * Returns the path of the program's source file.
+   */
+  public Path getSourcePath()
+  {
+    return _sourcePath;
+  }
+
+  /**
+   * Resolves classes through the context loader so modules loaded by
+   * the web-app loader can be found.
+   */
+  @Override
+  protected Class<?> resolveClass(ObjectStreamClass desc)
+    throws IOException, ClassNotFoundException
+  {
+    if (! isAllowed(desc.getName())) {
+      throw new InvalidClassException(desc.getName(),
+                                      "not allowed in a program cache");
+    }
+
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+    if (loader != null) {
+      try {
+        return Class.forName(desc.getName(), false, loader);
+      } catch (ClassNotFoundException e) {
+      }
+    }
+
+    return super.resolveClass(desc);
+  }
+
+  @Override
+  protected Class<?> resolveProxyClass(String []interfaces)
+    throws IOException
+  {
+    throw new InvalidClassException("proxy classes are not allowed in a program cache");
+  }
+
+  private static boolean isAllowed(String name)
+  {
+    // arrays are checked by their element type, e.g. "[Lcom...Expr;"
+    int i = 0;
+
+    while (i < name.length() && name.charAt(i) == '[')
+      i++;
+
+    if (i > 0) {
+      if (name.length() == i + 1)
+        return true; // primitive array
+
+      name = name.substring(i + 1, name.length() - 1);
+    }
+
+    if (_allowedClasses.contains(name))
+      return true;
+
+    int p = name.lastIndexOf('.');
+
+    return p > 0 && _allowedPackages.contains(name.substring(0, p));
+  }
+
+  static {
+    _allowedPackages.add("com.caucho.quercus.expr");
+    _allowedPackages.add("com.caucho.quercus.program");
+    _allowedPackages.add("com.caucho.quercus.statement");
+
+    _allowedClasses.add("com.caucho.quercus.Location");
+    _allowedClasses.add("com.caucho.quercus.function.AbstractFunction");
+
+    // literal values
+    _allowedClasses.add("com.caucho.quercus.env.Value");
+    _allowedClasses.add("com.caucho.quercus.env.ValueType");
+    _allowedClasses.add("com.caucho.quercus.env.NullValue");
+    _allowedClasses.add("com.caucho.quercus.env.UnsetValue");
+    _allowedClasses.add("com.caucho.quercus.env.DefaultValue");
+    _allowedClasses.add("com.caucho.quercus.env.BooleanValue");
+    _allowedClasses.add("com.caucho.quercus.env.NumberValue");
+    _allowedClasses.add("com.caucho.quercus.env.LongValue");
+    _allowedClasses.add("com.caucho.quercus.env.LongCacheValue");
+    _allowedClasses.add("com.caucho.quercus.env.DoubleValue");
+    _allowedClasses.add("com.caucho.quercus.env.StringValue");
+    _allowedClasses.add("com.caucho.quercus.env.BinaryValue");
+    _allowedClasses.add("com.caucho.quercus.env.StringBuilderValue");
+    _allowedClasses.add("com.caucho.quercus.env.BinaryBuilderValue");
+    _allowedClasses.add("com.caucho.quercus.env.ConstStringValue");
+    _allowedClasses.add("com.caucho.quercus.env.CompiledConstStringValue");
+    _allowedClasses.add("com.caucho.quercus.env.UnicodeValue");
+    _allowedClasses.add("com.caucho.quercus.env.UnicodeBuilderValue");
+    _allowedClasses.add("com.caucho.quercus.env.UnicodeValueImpl");
+    _allowedClasses.add("com.caucho.quercus.env.ArrayValue");
+    _allowedClasses.add("com.caucho.quercus.env.ArrayValue$Entry");
+    _allowedClasses.add("com.caucho.quercus.env.ArrayValueImpl");
+    _allowedClasses.add("com.caucho.quercus.env.ConstArrayValue");
+
+    _allowedClasses.add("java.lang.Boolean");
+    _allowedClasses.add("java.lang.Character");
+    _allowedClasses.add("java.lang.Double");
+    _allowedClasses.add("java.lang.Enum");
+    _allowedClasses.add("java.lang.Integer");
+    _allowedClasses.add("java.lang.Long");
+    _allowedClasses.add("java.lang.Number");
+    _allowedClasses.add("java.lang.Object");
+    _allowedClasses.add("java.lang.String");
+
+    _allowedClasses.add("java.util.ArrayList");
+    _allowedClasses.add("java.util.HashMap");
+    _allowedClasses.add("java.util.HashSet");
+    _allowedClasses.add("java.util.IdentityHashMap");
+    _allowedClasses.add("java.util.LinkedHashMap");
+    _allowedClasses.add("java.util.LinkedHashSet");
+  }
+}
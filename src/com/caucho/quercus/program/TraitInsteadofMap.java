@@ -36,7 +36,7 @@ import java.util.Set;
 
 import com.caucho.quercus.env.StringValue;
 
-public class TraitInsteadofMap
+public class TraitInsteadofMap implements java.io.Serializable
 {
   public static final int USE_NEW_TRAIT = 1;
   public static final int USE_EXISTING_TRAIT = 0;
@@ -75,7 +75,7 @@ public class TraitInsteadofMap
     return _insteadofMap.entrySet();
   }
 
-  static class TraitInsteadof {
+  static class TraitInsteadof implements java.io.Serializable {
     private final String _traitName;
     private final String _insteadofTraitName;
 
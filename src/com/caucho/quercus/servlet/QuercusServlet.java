@@ -83,9 +83,19 @@ public class QuercusServlet
   private boolean _isStrict;
   private boolean _isLooseParse = true;
   private int _pageCacheSize = -1;
+  private long _pageCacheMemory = -1;
+  private Long _pageRevalidateInterval;
   private int _regexpCacheSize = -1;
   private boolean _isConnectionPool = true;
+  private int _connectionPoolMax = -1;
+  private int _connectionPoolMaxIdle = -1;
+  private long _connectionPoolMaxIdleTime = -1;
+  private int _preparedStatementCacheSize = -1;
+  private long _sessionOffHeapStoreSize = -1;
   private String _iniPath;
+  private String _programCacheDir;
+  private ArrayList<String> _precompilePathList = new ArrayList<String>();
+  private int _precompileThreads;
   private String _scriptEncoding;
   private String _mysqlVersion;
   private String _phpVersion;
@@ -263,6 +273,26 @@ public class QuercusServlet
     _pageCacheSize = size;
   }
 
+  /**
+   * Sets the max estimated memory of the page cache in bytes.
+   */
+  public void setPageCacheMemory(long bytes)
+  {
+    _pageCacheMemory = bytes;
+  }
+
+  /**
+   * Sets how often cached pages are checked for modification in
+   * milliseconds, or "never".
+   */
+  public void setPageRevalidateInterval(String interval)
+  {
+    if ("never".equals(interval))
+      _pageRevalidateInterval = -1L;
+    else
+      _pageRevalidateInterval = Long.parseLong(interval);
+  }
+
   /**
    * Sets the max size of the regexp cache.
    */
@@ -279,6 +309,51 @@ public class QuercusServlet
     _isConnectionPool = isEnable;
   }
 
+  /**
+   * Sets the max number of open connections per database of the
+   * built-in connection pool.
+   */
+  public void setConnectionPoolMax(int max)
+  {
+    _connectionPoolMax = max;
+  }
+
+  /**
+   * Sets the max number of idle connections per database of the
+   * built-in connection pool.
+   */
+  public void setConnectionPoolMaxIdle(int max)
+  {
+    _connectionPoolMaxIdle = max;
+  }
+
+  /**
+   * Sets how long the built-in connection pool keeps an idle
+   * connection open, in milliseconds.
+   */
+  public void setConnectionPoolMaxIdleTime(long timeout)
+  {
+    _connectionPoolMaxIdleTime = timeout;
+  }
+
+  /**
+   * Sets the max number of idle prepared statements the built-in
+   * connection pool caches per connection, 0 to disable.
+   */
+  public void setPreparedStatementCacheSize(int size)
+  {
+    _preparedStatementCacheSize = size;
+  }
+
+  /**
+   * Sets the size in bytes of the off-heap store for sessions evicted
+   * from memory, 0 to disable.
+   */
+  public void setSessionOffHeapStoreSize(long size)
+  {
+    _sessionOffHeapStoreSize = size;
+  }
+
   /**
    * Adds a quercus module.
    */
@@ -346,6 +421,35 @@ public class QuercusServlet
     _iniPath = relPath;
   }
 
+  /**
+   * Sets the directory for the persistent parsed-program cache.  A
+   * relative directory is resolved under the container's work directory,
+   * outside the document root.
+   */
+  public void setProgramCacheDir(String dir)
+  {
+    _programCacheDir = dir;
+  }
+
+  /**
+   * Adds directories, relative to the web-app root, to parse at startup.
+   */
+  public void setPrecompile(String paths)
+  {
+    for (String path : paths.split("[,\\s]+")) {
+      if (path.length() > 0)
+        _precompilePathList.add(path);
+    }
+  }
+
+  /**
+   * Sets the number of precompile threads.
+   */
+  public void setPrecompileThreads(int threads)
+  {
+    _precompileThreads = threads;
+  }
+
   /**
    * Sets the script encoding.
    */
@@ -448,12 +552,33 @@ public class QuercusServlet
              || "page-cache-size".equals(paramName)) {
       setPageCacheSize(Integer.parseInt(paramValue));
     }
+    else if ("page-cache-memory".equals(paramName)) {
+      setPageCacheMemory(Long.parseLong(paramValue));
+    }
+    else if ("page-revalidate-interval".equals(paramName)) {
+      setPageRevalidateInterval(paramValue);
+    }
     else if ("regexp-cache-size".equals(paramName)) {
       setRegexpCacheSize(Integer.parseInt(paramValue));
     }
     else if ("connection-pool".equals(paramName)) {
       setConnectionPool("true".equals(paramValue));
     }
+    else if ("connection-pool-max".equals(paramName)) {
+      setConnectionPoolMax(Integer.parseInt(paramValue));
+    }
+    else if ("connection-pool-max-idle".equals(paramName)) {
+      setConnectionPoolMaxIdle(Integer.parseInt(paramValue));
+    }
+    else if ("connection-pool-max-idle-time".equals(paramName)) {
+      setConnectionPoolMaxIdleTime(Long.parseLong(paramValue));
+    }
+    else if ("prepared-statement-cache-size".equals(paramName)) {
+      setPreparedStatementCacheSize(Integer.parseInt(paramValue));
+    }
+    else if ("session-off-heap-store-size".equals(paramName)) {
+      setSessionOffHeapStoreSize(Long.parseLong(paramValue));
+    }
     else if ("require-source".equals(paramName)) {
       setRequireSource("true".equals(paramValue));
     }
@@ -463,6 +588,15 @@ public class QuercusServlet
     else if ("license-directory".equals(paramName)) {
       setLicenseDirectory(paramValue);
     }
+    else if ("program-cache-dir".equals(paramName)) {
+      setProgramCacheDir(paramValue);
+    }
+    else if ("precompile".equals(paramName)) {
+      setPrecompile(paramValue);
+    }
+    else if ("precompile-threads".equals(paramName)) {
+      setPrecompileThreads(Integer.parseInt(paramValue));
+    }
     else {
       throw new ServletException(L.l("'{0}' is not a recognized init-param", paramName));
     }
@@ -520,8 +654,21 @@ public class QuercusServlet
     quercus.setStrict(_isStrict);
     quercus.setLooseParse(_isLooseParse);
     quercus.setPageCacheSize(_pageCacheSize);
+    quercus.setPageCacheMemory(_pageCacheMemory);
+
+    if (_pageRevalidateInterval != null)
+      quercus.setPageRevalidateInterval(_pageRevalidateInterval);
     quercus.setRegexpCacheSize(_regexpCacheSize);
     quercus.setConnectionPool(_isConnectionPool);
+    quercus.setConnectionPoolMax(_connectionPoolMax);
+    quercus.setConnectionPoolMaxIdle(_connectionPoolMaxIdle);
+    quercus.setConnectionPoolMaxIdleTime(_connectionPoolMaxIdleTime);
+    quercus.setPreparedStatementCacheSize(_preparedStatementCacheSize);
+
+    if (_sessionOffHeapStoreSize >= 0) {
+      quercus.getQuercusSessionManager()
+        .setOffHeapStoreSize(_sessionOffHeapStoreSize);
+    }
 
     if (_dependencyCheckInterval != null) {
       quercus.setDependencyCheckInterval(_dependencyCheckInterval);
@@ -554,6 +701,30 @@ public class QuercusServlet
       }
     }
 
+    if (_programCacheDir != null) {
+      Path dir = lookupWorkPath(_programCacheDir);
+
+      if (dir != null)
+        quercus.setProgramCacheDirectory(dir);
+      else {
+        log.warning(L.l("program-cache-dir '{0}' is disabled because the servlet container has no work directory",
+                        _programCacheDir));
+      }
+    }
+
+    for (String precompilePath : _precompilePathList) {
+      Path path = lookupAppPath(precompilePath);
+
+      if (path != null)
+        quercus.addPrecompilePath(path);
+      else {
+        log.warning(L.l("precompile path '{0}' is skipped because the web-app has no real path for it",
+                        precompilePath));
+      }
+    }
+
+    quercus.setPrecompileThreads(_precompileThreads);
+
     if (_scriptEncoding != null)
       quercus.setScriptEncoding(_scriptEncoding);
 
@@ -606,6 +777,45 @@ public class QuercusServlet
     _impl.service(request, response);
   }
 
+  /**
+   * Resolves a configured path, relative to the web-app root unless
+   * absolute.
+   */
+  private Path lookupAppPath(String relPath)
+  {
+    if (relPath.startsWith("/") || relPath.contains(":"))
+      return getQuercus().getPwd().lookup(relPath);
+
+    String realPath = getServletContext().getRealPath(relPath);
+
+    if (realPath != null)
+      return getQuercus().getPwd().lookup(realPath);
+    else
+      return null;
+  }
+
+  /**
+   * Resolves a configured path, relative to the container's work
+   * directory (javax.servlet.context.tempdir) unless absolute, so
+   * generated files aren't served.
+   */
+  private Path lookupWorkPath(String relPath)
+  {
+    if (relPath.startsWith("/") || relPath.contains(":"))
+      return getQuercus().getPwd().lookup(relPath);
+
+    Object tempDir
+      = getServletContext().getAttribute("javax.servlet.context.tempdir");
+
+    if (tempDir instanceof File) {
+      Path workDir = getQuercus().getPwd().lookup(((File) tempDir).getPath());
+
+      return workDir.lookup(relPath);
+    }
+    else
+      return null;
+  }
+
   /**
    * Returns the Quercus instance.
    */
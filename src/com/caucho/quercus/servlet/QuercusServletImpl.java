@@ -108,6 +108,11 @@ public class QuercusServletImpl extends HttpServlet
 
     getQuercus().init();
     getQuercus().start();
+
+    // parse before the servlet is in service so the first requests
+    // don't queue behind the parser
+    if (getQuercus().getPrecompilePathList().size() > 0)
+      getQuercus().precompile();
   }
 
   protected void initImpl(ServletConfig config)
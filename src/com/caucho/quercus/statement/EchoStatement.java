@@ -30,10 +30,13 @@
 package com.caucho.quercus.statement;
 
 import com.caucho.quercus.Location;
+import com.caucho.quercus.QuercusException;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
 
+import java.io.IOException;
+
 /**
  * Represents an echo statement in a PHP program.
  */
@@ -52,9 +55,12 @@ public class EchoStatement extends Statement {
 
   public Value execute(Env env)
   {
-    Value value = _expr.eval(env);
-
-    value.print(env);
+    // calls like json_encode() can stream their result to the output
+    try {
+      _expr.print(env);
+    } catch (IOException e) {
+      throw new QuercusException(e);
+    }
 
     return null;
   }
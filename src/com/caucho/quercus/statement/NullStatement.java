@@ -51,5 +51,13 @@ public class NullStatement extends Statement {
   {
     return null;
   }
+
+  private Object readResolve()
+  {
+    if (getClass() == NullStatement.class)
+      return NULL;
+    else
+      return this;
+  }
 }
 
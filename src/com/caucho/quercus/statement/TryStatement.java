@@ -148,7 +148,7 @@ public class TryStatement extends Statement {
     }
   }
 
-  public static class Catch {
+  public static class Catch implements java.io.Serializable {
     private final StringValue _id;
     private final AbstractVarExpr _lhs;
     private final Statement _block;
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.env;
+
+/**
+ * Measures writing an array after passing it by value.  With the
+ * copy-on-write count, the original writes in place once its copy is
+ * released; while the copy is alive it has to clone.
+ *
+ * Run with: java com.caucho.quercus.env.ArrayCopyOnWriteBenchmark
+ */
+public class ArrayCopyOnWriteBenchmark {
+  private static final int WARMUP = 5;
+  private static final int ROUNDS = 10;
+  private static final int CALLS = 100 * 1000;
+  private static final int SIZE = 1000;
+
+  private static long _sink;
+
+  public static void main(String []args)
+  {
+    ArrayValueImpl array = new ArrayValueImpl();
+
+    for (int i = 0; i < SIZE; i++) {
+      array.put(LongValue.create(i));
+    }
+
+    for (int i = 0; i < WARMUP; i++) {
+      runReleased(array);
+      runHeld(array);
+    }
+
+    long releasedTime = 0;
+    long heldTime = 0;
+
+    for (int i = 0; i < ROUNDS; i++) {
+      releasedTime += runReleased(array);
+      heldTime += runHeld(array);
+    }
+
+    long calls = (long) ROUNDS * CALLS;
+
+    System.out.println("released copy: "
+                       + (releasedTime / (double) calls) + " ns/write");
+    System.out.println("held copy:     "
+                       + (heldTime / (double) calls) + " ns/write");
+    System.out.println("sink: " + _sink);
+  }
+
+  /**
+   * Like an argument copy released at function exit.
+   */
+  private static long runReleased(ArrayValueImpl array)
+  {
+    long start = System.nanoTime();
+    long sum = 0;
+
+    for (int i = 0; i < CALLS; i++) {
+      ArrayValueImpl copy = (ArrayValueImpl) array.copy();
+      sum += copy.getSize();
+      copy.releaseCopy();
+
+      array.put(LongValue.create(i % SIZE), LongValue.create(i));
+    }
+
+    _sink += sum;
+
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Like an argument copy kept by the callee.
+   */
+  private static long runHeld(ArrayValueImpl array)
+  {
+    long start = System.nanoTime();
+    long sum = 0;
+
+    for (int i = 0; i < CALLS; i++) {
+      ArrayValueImpl copy = (ArrayValueImpl) array.copy();
+
+      array.put(LongValue.create(i % SIZE), LongValue.create(i));
+
+      sum += copy.getSize();
+    }
+
+    _sink += sum;
+
+    return System.nanoTime() - start;
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ArrayValueImplTest {
+  @Test
+  public void testGetHeadLeavesPackedList()
+  {
+    ArrayValueImpl array = createList(4);
+
+    long sum = 0;
+    int count = 0;
+
+    for (ArrayValue.Entry entry = array.getHead();
+         entry != null;
+         entry = entry.getNext()) {
+      assertEquals(count++, entry.getKey().toLong());
+
+      sum += entry.getValue().toLong();
+    }
+
+    assertEquals(4, count);
+    assertEquals(0 + 1 + 2 + 3, sum);
+    assertTrue(array.isPacked());
+  }
+
+  @Test
+  public void testEntryOrder()
+  {
+    ArrayValueImpl array = createList(3);
+
+    ArrayValue.Entry head = array.getHead();
+
+    assertEquals(0, head.getKey().toLong());
+    assertEquals(1, head.getNext().getKey().toLong());
+    assertEquals(2, head.getNext().getNext().getKey().toLong());
+    assertEquals(null, head.getNext().getNext().getNext());
+    assertSame(head, head.getNext().getPrev());
+  }
+
+  @Test
+  public void testReadersLeavePackedList()
+  {
+    ArrayValueImpl array = createList(3);
+
+    array.keysToArray();
+    array.valuesToArray();
+    array.entrySet().size();
+    array.toEntryArray();
+    array.end();
+    array.reset();
+
+    assertTrue(array.isPacked());
+  }
+
+  @Test
+  public void testReferenceKeepsPackedList()
+  {
+    ArrayValueImpl array = createList(3);
+
+    Var var = array.getVar(LongValue.create(1));
+    var.set(LongValue.create(10));
+
+    assertTrue(array.isPacked());
+    assertEquals(10, array.get(LongValue.create(1)).toLong());
+
+    // a reference seen through the entries is the same Var
+    assertSame(var, array.getHead().getNext().getRawValue());
+
+    // the next index extends the list
+    array.getRef(LongValue.create(3)).set(LongValue.create(7));
+
+    assertTrue(array.isPacked());
+    assertEquals(4, array.getSize());
+  }
+
+  @Test
+  public void testStringKeyUnpacks()
+  {
+    ArrayValueImpl array = createList(3);
+
+    array.put(new ConstStringValue("a"), LongValue.create(1));
+
+    assertFalse(array.isPacked());
+    assertEquals(4, array.getSize());
+    assertEquals(2, array.get(LongValue.create(2)).toLong());
+  }
+
+  @Test
+  public void testCopyWritesDetach()
+  {
+    ArrayValueImpl array = createList(3);
+    ArrayValueImpl copy = (ArrayValueImpl) array.copy();
+
+    copy.put(LongValue.create(10));
+
+    assertEquals(3, array.getSize());
+    assertEquals(4, copy.getSize());
+
+    // the original is the last holder and writes without touching the copy
+    array.put(LongValue.create(0), LongValue.create(20));
+
+    assertEquals(20, array.get(LongValue.create(0)).toLong());
+    assertEquals(0, copy.get(LongValue.create(0)).toLong());
+  }
+
+  @Test
+  public void testCopyWritesWithSeveralHolders()
+  {
+    ArrayValueImpl array = createList(3);
+    ArrayValueImpl first = (ArrayValueImpl) array.copy();
+    ArrayValueImpl second = (ArrayValueImpl) array.copy();
+
+    second.put(LongValue.create(10));
+
+    // first still shares the storage, so the original must clone
+    array.put(LongValue.create(1), LongValue.create(30));
+
+    assertEquals(1, first.get(LongValue.create(1)).toLong());
+    assertEquals(3, first.getSize());
+
+    first.put(LongValue.create(2), LongValue.create(40));
+
+    assertEquals(2, array.get(LongValue.create(2)).toLong());
+    assertEquals(30, array.get(LongValue.create(1)).toLong());
+  }
+
+  @Test
+  public void testReleasedCopyLetsOriginalWrite()
+  {
+    ArrayValueImpl array = createList(3);
+    ArrayValueImpl copy = (ArrayValueImpl) array.copy();
+    ArrayValueImpl kept = (ArrayValueImpl) copy.copy();
+
+    copy.releaseCopy();
+
+    // kept is still a holder, so the original's write can't reach it
+    array.put(LongValue.create(0), LongValue.create(50));
+
+    assertEquals(0, kept.get(LongValue.create(0)).toLong());
+    assertEquals(50, array.get(LongValue.create(0)).toLong());
+  }
+
+  @Test
+  public void testSizeHintPresizesPackedList()
+  {
+    ArrayValueImpl array = new ArrayValueImpl(100);
+
+    for (int i = 0; i < 100; i++) {
+      array.put(LongValue.create(i));
+    }
+
+    assertTrue(array.isPacked());
+    assertEquals(100, array.getSize());
+    assertEquals(99, array.get(LongValue.create(99)).toLong());
+  }
+
+  /**
+   * A forged size hint must not allocate or overflow the hash index.
+   */
+  @Test
+  public void testHugeSizeHint()
+  {
+    ArrayValueImpl list = new ArrayValueImpl(Integer.MAX_VALUE);
+    list.put(LongValue.create(1));
+    list.put(LongValue.create(2));
+
+    assertTrue(list.isPacked());
+    assertEquals(2, list.getSize());
+
+    ArrayValueImpl map = new ArrayValueImpl(Integer.MAX_VALUE);
+    map.put(new ConstStringValue("a"), LongValue.create(1));
+    map.put(new ConstStringValue("b"), LongValue.create(2));
+
+    assertFalse(map.isPacked());
+    assertEquals(2, map.get(new ConstStringValue("b")).toLong());
+  }
+
+  private static ArrayValueImpl createList(int size)
+  {
+    ArrayValueImpl array = new ArrayValueImpl();
+
+    for (int i = 0; i < size; i++) {
+      array.put(LongValue.create(i));
+    }
+
+    return array;
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.expr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.QuercusEngine;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.QuercusClass;
+import com.caucho.quercus.env.Value;
+import com.caucho.quercus.function.AbstractFunction;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MethodCallCacheTest {
+  private static final String []CLASS_NAMES = new String[] {
+    "stdClass", "ArrayObject", "ArrayIterator", "Exception", "ErrorException"
+  };
+
+  private QuercusContext _quercus;
+  private Env _env;
+
+  @Before
+  public void setUp()
+  {
+    _quercus = new QuercusContext();
+    _quercus.init();
+    _quercus.start();
+
+    _env = new Env(_quercus);
+    _env.start();
+  }
+
+  @After
+  public void tearDown()
+  {
+    _env.close();
+    _quercus.close();
+  }
+
+  private QuercusClass getClass(int i)
+  {
+    QuercusClass cls = _env.findClass(CLASS_NAMES[i]);
+
+    assertNotNull(cls);
+
+    return cls;
+  }
+
+  @Test
+  public void testGenerationInvalidates()
+  {
+    MethodCallCache cache = new MethodCallCache();
+    AbstractFunction fun = new TestFunction();
+
+    int generation = _quercus.getDefinitionGeneration();
+
+    cache.put(getClass(0), fun, generation);
+
+    assertSame(fun, cache.get(getClass(0), generation));
+    assertNull(cache.get(getClass(1), generation));
+
+    _quercus.clearDefinitionCache();
+
+    int nextGeneration = _quercus.getDefinitionGeneration();
+
+    // the stale entry no longer answers
+    assertNull(cache.get(getClass(0), nextGeneration));
+  }
+
+  @Test
+  public void testMegamorphicStartsOver()
+  {
+    MethodCallCache cache = new MethodCallCache();
+    AbstractFunction fun = new TestFunction();
+
+    int generation = _quercus.getDefinitionGeneration();
+
+    for (int i = 0; i < CLASS_NAMES.length; i++) {
+      cache.put(getClass(i), fun, generation);
+    }
+
+    // past the limit, the site stops caching new classes
+    assertSame(fun, cache.get(getClass(3), generation));
+    assertNull(cache.get(getClass(4), generation));
+
+    _quercus.clearDefinitionCache();
+
+    int nextGeneration = _quercus.getDefinitionGeneration();
+
+    cache.put(getClass(4), fun, nextGeneration);
+
+    assertSame(fun, cache.get(getClass(4), nextGeneration));
+    assertNull(cache.get(getClass(0), nextGeneration));
+  }
+
+  @Test
+  public void testPolymorphicCallSite()
+    throws Exception
+  {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("class A { function name() { return 'A'; }"
+              + " static function make() { return static::who(); }"
+              + " static function who() { return 'A'; } }");
+
+    for (char ch = 'B'; ch <= 'F'; ch++) {
+      sb.append("class " + ch + " extends A {"
+                + " function name() { return '" + ch + "'; }"
+                + " static function who() { return '" + ch + "'; } }");
+    }
+
+    sb.append("$s = '';"
+              + "foreach (array('A', 'B', 'C', 'D', 'E', 'F', 'A', 'F')"
+              + "         as $c) {"
+              + "  $o = new $c();"
+              + "  $s .= $o->name() . $c::make();"
+              + "}"
+              + "echo $s . '|' . A::make() . F::make();");
+
+    assertEquals("AABBCCDDEEFFAAFF|AF", run(sb.toString()));
+  }
+
+  private static String run(String code)
+    throws Exception
+  {
+    QuercusEngine engine = new QuercusEngine();
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+    engine.setOutputStream(os);
+    engine.execute("<?php " + code);
+
+    return os.toString("iso-8859-1");
+  }
+
+  static class TestFunction extends AbstractFunction {
+    @Override
+    public Value call(Env env, Value []args)
+    {
+      return NullValue.NULL;
+    }
+  }
+}
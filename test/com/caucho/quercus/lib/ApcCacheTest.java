@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.BinaryBuilderValue;
+import com.caucho.quercus.env.ConstArrayValue;
+import com.caucho.quercus.env.ConstStringValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.StringBuilderValue;
+import com.caucho.quercus.env.Value;
+import com.caucho.quercus.env.Var;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ApcCacheTest {
+  private QuercusContext _quercus;
+  private Env _env;
+
+  @Before
+  public void setUp()
+  {
+    _quercus = new QuercusContext();
+    _quercus.init();
+    _quercus.start();
+
+    _env = new Env(_quercus);
+    _env.start();
+  }
+
+  @After
+  public void tearDown()
+  {
+    _env.close();
+    _quercus.close();
+  }
+
+  @Test
+  public void testFreezeNestedArray()
+  {
+    ArrayValueImpl inner = new ArrayValueImpl();
+    inner.append(LongValue.create(1));
+    inner.append(new ConstStringValue("b"));
+
+    ArrayValueImpl outer = new ArrayValueImpl();
+    outer.append(new ConstStringValue("inner"), inner);
+
+    Value frozen = ApcCache.freeze(outer);
+
+    assertTrue(frozen instanceof ConstArrayValue);
+    assertEquals(1, ((ArrayValue) frozen).getSize());
+  }
+
+  @Test
+  public void testFreezeSelfReference()
+  {
+    // $a = array(); $a['self'] = &$a;
+    ArrayValueImpl array = new ArrayValueImpl();
+    array.append(new ConstStringValue("self"), new Var(array));
+
+    assertNull(ApcCache.freeze(array));
+    assertTrue(ApcCache.estimateSize(array) > 0);
+  }
+
+  @Test
+  public void testFreezeReferenceCycle()
+  {
+    ArrayValueImpl a = new ArrayValueImpl();
+    ArrayValueImpl b = new ArrayValueImpl();
+
+    a.append(new ConstStringValue("b"), new Var(b));
+    b.append(new ConstStringValue("a"), new Var(a));
+
+    assertNull(ApcCache.freeze(a));
+  }
+
+  @Test
+  public void testFreezeScalars()
+  {
+    assertNotNull(ApcCache.freeze(LongValue.create(7)));
+    assertNotNull(ApcCache.freeze(new ConstStringValue("x")));
+  }
+
+  @Test
+  public void testFreezeCopiesBuilderString()
+  {
+    StringBuilderValue sb = new StringBuilderValue("abc");
+
+    Value frozen = ApcCache.freeze(sb);
+
+    assertTrue(frozen instanceof ConstStringValue);
+
+    // the storing request can keep appending without changing the cache
+    sb.append("def");
+
+    assertEquals("abc", frozen.toString());
+  }
+
+  @Test
+  public void testFreezeArrayKeys()
+  {
+    ArrayValueImpl array = new ArrayValueImpl();
+    array.append(new StringBuilderValue("key"), LongValue.create(1));
+
+    ArrayValue frozen = (ArrayValue) ApcCache.freeze(array);
+
+    assertTrue(frozen.getHead().getKey() instanceof ConstStringValue);
+    assertEquals(1, frozen.get(new ConstStringValue("key")).toLong());
+  }
+
+  @Test
+  public void testFreezeBinaryCopiesOnFetch()
+  {
+    assertNull(ApcCache.freeze(new BinaryBuilderValue()));
+  }
+
+  @Test
+  public void testReplaceUnlinksFromWheel()
+  {
+    long now = _env.getCurrentTime();
+
+    ApcCache.TimingWheel wheel = new ApcCache.TimingWheel(now);
+    ApcCache.Segment segment = new ApcCache.Segment(16, 1 << 20, wheel);
+
+    ApcCache.Entry oldEntry = createEntry("k", 1, 1);
+    ApcCache.Entry entry = createEntry("k", 2, 1);
+
+    segment.put(oldEntry);
+    segment.put(entry);
+
+    ArrayList<ApcCache.Entry> expired = wheel.advance(now + 5000);
+
+    assertEquals(1, expired.size());
+    assertSame(entry, expired.get(0));
+  }
+
+  @Test
+  public void testRemoveAndEvictUnlinkFromWheel()
+  {
+    long now = _env.getCurrentTime();
+
+    ApcCache.TimingWheel wheel = new ApcCache.TimingWheel(now);
+    ApcCache.Segment segment = new ApcCache.Segment(1, 1 << 20, wheel);
+
+    segment.put(createEntry("a", 1, 1));
+    segment.remove("a");
+
+    ApcCache.Entry b = createEntry("b", 2, 1);
+    ApcCache.Entry c = createEntry("c", 3, 1);
+
+    // the capacity of one evicts b
+    segment.put(b);
+    segment.put(c);
+
+    assertEquals(1, segment.size());
+
+    ArrayList<ApcCache.Entry> expired = wheel.advance(now + 5000);
+
+    assertEquals(1, expired.size());
+    assertSame(c, expired.get(0));
+  }
+
+  @Test
+  public void testIncrementKeepsTTL()
+  {
+    long now = _env.getCurrentTime();
+
+    ApcCache cache = new ApcCache(1024, 1 << 20, now);
+
+    cache.put(createEntry("n", 5, 1), now);
+
+    assertEquals(6, cache.increment(_env, "n", 1).toLong());
+    assertEquals(1, cache.getEntryCount());
+
+    // the replacement entry is scheduled with the old TTL
+    cache.expire(now + 5000);
+
+    assertEquals(0, cache.getEntryCount());
+  }
+
+  private ApcCache.Entry createEntry(String key, long value, int ttl)
+  {
+    return new ApcCache.Entry(_env, key, LongValue.create(value), ttl);
+  }
+}
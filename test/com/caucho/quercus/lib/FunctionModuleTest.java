@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib;
+
+import static org.junit.Assert.assertEquals;
+
+import com.caucho.quercus.QuercusEngine;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+/**
+ * A callee never changes the caller's by-value array, whether it writes
+ * its parameter or the copies from func_get_args().
+ */
+public class FunctionModuleTest {
+  @Test
+  public void testParameterWrite()
+    throws Exception
+  {
+    assertEquals("1,2,3|1,2,3,4",
+                 run("function f($a) { $a[] = 4; $a[0] = 1; return $a; }"
+                     + "$x = array(1, 2, 3);"
+                     + "$y = f($x);"
+                     + "echo implode(',', $x) . '|' . implode(',', $y);"));
+  }
+
+  @Test
+  public void testFuncGetArgsWrite()
+    throws Exception
+  {
+    assertEquals("1,2,3|9,2,3",
+                 run("function f() {"
+                     + "  $args = func_get_args();"
+                     + "  $args[0][0] = 9;"
+                     + "  return $args[0];"
+                     + "}"
+                     + "$x = array(1, 2, 3);"
+                     + "$y = f($x);"
+                     + "echo implode(',', $x) . '|' . implode(',', $y);"));
+  }
+
+  @Test
+  public void testFuncGetArgWrite()
+    throws Exception
+  {
+    assertEquals("1,2,3|1,2,3,9",
+                 run("function f() {"
+                     + "  $a = func_get_arg(0);"
+                     + "  $a[] = 9;"
+                     + "  return $a;"
+                     + "}"
+                     + "$x = array(1, 2, 3);"
+                     + "$y = f($x);"
+                     + "echo implode(',', $x) . '|' . implode(',', $y);"));
+  }
+
+  @Test
+  public void testNamedParameterAndFuncGetArgs()
+    throws Exception
+  {
+    assertEquals("1,2|1,2,7|1,2,8",
+                 run("function f($a) {"
+                     + "  $args = func_get_args();"
+                     + "  $a[] = 7;"
+                     + "  $args[0][] = 8;"
+                     + "  return array($a, $args[0]);"
+                     + "}"
+                     + "$x = array(1, 2);"
+                     + "list($p, $q) = f($x);"
+                     + "echo implode(',', $x) . '|' . implode(',', $p)"
+                     + "  . '|' . implode(',', $q);"));
+  }
+
+  @Test
+  public void testKeptArgsSurviveCallerWrite()
+    throws Exception
+  {
+    // the released argument copies must not let the caller write through
+    // storage that func_get_args() handed out
+    assertEquals("5,2,3|1,2,3",
+                 run("function f() { return func_get_args(); }"
+                     + "$x = array(1, 2, 3);"
+                     + "$kept = f($x);"
+                     + "$x[0] = 5;"
+                     + "echo implode(',', $x) . '|' . implode(',', $kept[0]);"));
+  }
+
+  @Test
+  public void testCallerCopyUnchanged()
+    throws Exception
+  {
+    assertEquals("1,2,3,4|1,2,3|1,2,3,5",
+                 run("function f($a) { $a[] = 5; return $a; }"
+                     + "$x = array(1, 2, 3);"
+                     + "$z = $x;"
+                     + "$y = f($x);"
+                     + "$x[] = 4;"
+                     + "echo implode(',', $x) . '|' . implode(',', $z)"
+                     + "  . '|' . implode(',', $y);"));
+  }
+
+  private static String run(String code)
+    throws Exception
+  {
+    QuercusEngine engine = new QuercusEngine();
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+    engine.setOutputStream(os);
+    engine.execute("<?php " + code);
+
+    return os.toString("iso-8859-1");
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.BinaryBuilderValue;
+import com.caucho.quercus.env.ConstStringValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IgbinarySerializerTest {
+  private QuercusContext _quercus;
+  private Env _env;
+
+  @Before
+  public void setUp()
+  {
+    _quercus = new QuercusContext();
+    _quercus.init();
+    _quercus.start();
+
+    _env = new Env(_quercus);
+    _env.start();
+  }
+
+  @After
+  public void tearDown()
+  {
+    _env.close();
+    _quercus.close();
+  }
+
+  @Test
+  public void testRoundTrip()
+    throws Exception
+  {
+    ArrayValueImpl inner = new ArrayValueImpl();
+    inner.append(LongValue.create(-300));
+    inner.append(new ConstStringValue("x"));
+
+    ArrayValueImpl array = new ArrayValueImpl();
+    array.append(new ConstStringValue("a"), LongValue.create(1));
+    array.append(new ConstStringValue("b"), inner);
+    array.append(new ConstStringValue("c"), new ConstStringValue("x"));
+
+    StringValue data = IgbinarySerializer.serialize(_env, array);
+
+    assertTrue(IgbinarySerializer.isIgbinary(data));
+
+    ArrayValue result = (ArrayValue) IgbinarySerializer.unserialize(_env, data);
+
+    assertEquals(3, result.getSize());
+    assertEquals(1, result.get(new ConstStringValue("a")).toLong());
+    assertEquals("x", result.get(new ConstStringValue("c")).toString());
+
+    Value resultInner = result.get(new ConstStringValue("b"));
+
+    assertEquals(-300, resultInner.get(LongValue.create(0)).toLong());
+    assertEquals("x", resultInner.get(LongValue.create(1)).toString());
+  }
+
+  @Test
+  public void testForgedArraySize()
+  {
+    // array32 claiming 0x7fffffff entries in a handful of bytes
+    assertRejected(0x16, 0x7f, 0xff, 0xff, 0xff, 0x00);
+  }
+
+  @Test
+  public void testNegativeArraySize()
+  {
+    assertRejected(0x16, 0xff, 0xff, 0xff, 0xff, 0x00);
+  }
+
+  @Test
+  public void testForgedStringLength()
+  {
+    // a length near Integer.MAX_VALUE overflowed offset + len
+    assertRejected(0x13, 0x7f, 0xff, 0xff, 0xfe, 'a', 'b');
+  }
+
+  @Test
+  public void testTruncatedString()
+  {
+    assertRejected(0x11, 0x05, 'a', 'b');
+  }
+
+  @Test
+  public void testModuleReturnsFalse()
+  {
+    StringValue data = createData(0x16, 0x7f, 0xff, 0xff, 0xff, 0x00);
+
+    Value value = IgbinaryModule.igbinary_unserialize(_env, data);
+
+    assertTrue(value.isBoolean());
+    assertEquals(false, value.toBoolean());
+  }
+
+  private void assertRejected(int ...body)
+  {
+    try {
+      IgbinarySerializer.unserialize(_env, createData(body));
+
+      fail("forged igbinary data should be rejected");
+    } catch (IOException e) {
+    }
+  }
+
+  private static StringValue createData(int ...body)
+  {
+    byte []data = new byte[4 + body.length];
+
+    data[3] = 2;
+
+    for (int i = 0; i < body.length; i++) {
+      data[4 + i] = (byte) body[i];
+    }
+
+    return new BinaryBuilderValue(data);
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ConstStringValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LargeStringBuilderValue;
+import com.caucho.quercus.env.StringBuilderValue;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UnserializeReaderTest {
+  private static final int SIZE = LargeStringBuilderValue.SIZE;
+
+  private static final String HEAD = "a:2:{s:3:\"pad\";s:0000:\"";
+
+  private QuercusContext _quercus;
+  private Env _env;
+
+  @Before
+  public void setUp()
+  {
+    _quercus = new QuercusContext();
+    _quercus.init();
+    _quercus.start();
+
+    _env = new Env(_quercus);
+    _env.start();
+  }
+
+  @After
+  public void tearDown()
+  {
+    _env.close();
+    _quercus.close();
+  }
+
+  @Test
+  public void testStringSpanningChunks()
+    throws Exception
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < 3 * SIZE; i++) {
+      sb.append((char) ('a' + i % 26));
+    }
+
+    String text = sb.toString();
+    String data = "s:" + text.length() + ":\"" + text + "\";";
+
+    Value value = unserialize(chunked(data));
+
+    assertEquals(text, value.toString());
+    assertEquals(value, unserialize(new StringBuilderValue(data)));
+  }
+
+  @Test
+  public void testKeySpanningChunks()
+    throws Exception
+  {
+    String tail = "s:6:\"keyabc\";i:7;";
+    String data = pad(SIZE - 3, tail, tail.indexOf("keyabc"));
+
+    assertEquals(SIZE - 3, data.indexOf("keyabc"));
+
+    ArrayValue array = (ArrayValue) unserialize(chunked(data));
+
+    assertEquals(2, array.getSize());
+    assertEquals(7, array.get(new ConstStringValue("keyabc")).toLong());
+  }
+
+  @Test
+  public void testValueSpanningChunks()
+    throws Exception
+  {
+    String tail = "s:3:\"val\";s:6:\"abcdef\";";
+    String data = pad(SIZE - 2, tail, tail.indexOf("abcdef"));
+
+    assertEquals(SIZE - 2, data.indexOf("abcdef"));
+
+    ArrayValue array = (ArrayValue) unserialize(chunked(data));
+
+    assertEquals("abcdef",
+                 array.get(new ConstStringValue("val")).toString());
+  }
+
+  /**
+   * The "R:" marker split across chunks must still enable reference
+   * tracking.
+   */
+  @Test
+  public void testReferenceSpanningChunks()
+    throws Exception
+  {
+    String tail = "s:3:\"ref\";R:2;";
+    String data = pad(SIZE - 1, tail, tail.indexOf("R:"));
+
+    assertEquals(SIZE - 1, data.indexOf("R:"));
+
+    ArrayValue array = (ArrayValue) unserialize(chunked(data));
+
+    Value pad = array.get(new ConstStringValue("pad"));
+    Value ref = array.get(new ConstStringValue("ref"));
+
+    assertTrue(pad.toString().length() > 0);
+    assertEquals(pad.toString(), ref.toString());
+  }
+
+  @Test
+  public void testLowercaseReferenceSpanningChunks()
+    throws Exception
+  {
+    String tail = "s:3:\"ref\";r:2;";
+    String data = pad(SIZE - 1, tail, tail.indexOf("r:"));
+
+    ArrayValue array = (ArrayValue) unserialize(chunked(data));
+
+    assertEquals(array.get(new ConstStringValue("pad")).toString(),
+                 array.get(new ConstStringValue("ref")).toString());
+  }
+
+  /**
+   * A forged array count is bounded by the remaining input instead of
+   * presizing a huge array.
+   */
+  @Test
+  public void testForgedArrayCount()
+    throws Exception
+  {
+    String data = "a:2000000000:{i:0;i:1;}";
+
+    try {
+      unserialize(new StringBuilderValue(data));
+      fail("forged count should not unserialize");
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * Returns a two-entry array whose padding puts tail[tailOffset] at the
+   * input offset.
+   */
+  private static String pad(int offset, String tail, int tailOffset)
+  {
+    int n = offset - HEAD.length() - 2 - tailOffset;
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("a:2:{s:3:\"pad\";s:").append(n).append(":\"");
+
+    for (int i = 0; i < n; i++) {
+      sb.append('x');
+    }
+
+    sb.append("\";").append(tail).append("}");
+
+    return sb.toString();
+  }
+
+  private static StringValue chunked(String data)
+  {
+    LargeStringBuilderValue s = new LargeStringBuilderValue();
+    s.append(data);
+
+    return s;
+  }
+
+  private Value unserialize(StringValue s)
+    throws Exception
+  {
+    return new UnserializeReader(s).unserialize(_env);
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * A java.sql.Driver whose connections and statements are in-memory
+ * proxies that record how the pool treats them.
+ */
+public class FakeDriver implements Driver
+{
+  public static final String URL = "jdbc:fake:test";
+
+  private final ArrayList<FakeConnection> _connectionList
+    = new ArrayList<FakeConnection>();
+
+  public synchronized int getConnectCount()
+  {
+    return _connectionList.size();
+  }
+
+  public synchronized FakeConnection getConnection(int i)
+  {
+    return _connectionList.get(i);
+  }
+
+  /**
+   * Returns the fake behind a driver connection.
+   */
+  public static FakeConnection getFake(Connection conn)
+  {
+    return (FakeConnection) Proxy.getInvocationHandler(conn);
+  }
+
+  public Connection connect(String url, Properties info)
+    throws SQLException
+  {
+    if (! acceptsURL(url))
+      return null;
+
+    FakeConnection fake = new FakeConnection(info.getProperty("user"));
+
+    synchronized (this) {
+      _connectionList.add(fake);
+    }
+
+    return fake.getConnection();
+  }
+
+  public boolean acceptsURL(String url)
+  {
+    return URL.equals(url);
+  }
+
+  public DriverPropertyInfo []getPropertyInfo(String url, Properties info)
+  {
+    return new DriverPropertyInfo[0];
+  }
+
+  public int getMajorVersion()
+  {
+    return 1;
+  }
+
+  public int getMinorVersion()
+  {
+    return 0;
+  }
+
+  public boolean jdbcCompliant()
+  {
+    return false;
+  }
+
+  public Logger getParentLogger()
+  {
+    return Logger.getLogger(FakeDriver.class.getName());
+  }
+
+  public static class FakeConnection implements InvocationHandler
+  {
+    private final String _user;
+    private final Connection _conn;
+
+    private final ArrayList<FakeStatement> _statementList
+      = new ArrayList<FakeStatement>();
+
+    private boolean _isClosed;
+    private boolean _isValid = true;
+    private boolean _isAutoCommit = true;
+    private String _catalog = "test";
+    private int _rollbackCount;
+
+    FakeConnection(String user)
+    {
+      _user = user;
+
+      _conn = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                  new Class[] { Connection.class },
+                                                  this);
+    }
+
+    public Connection getConnection()
+    {
+      return _conn;
+    }
+
+    public String getUser()
+    {
+      return _user;
+    }
+
+    public synchronized boolean isClosed()
+    {
+      return _isClosed;
+    }
+
+    /**
+     * Makes isValid() fail, like a connection the server dropped.
+     */
+    public synchronized void setValid(boolean isValid)
+    {
+      _isValid = isValid;
+    }
+
+    public synchronized int getRollbackCount()
+    {
+      return _rollbackCount;
+    }
+
+    public synchronized String getCatalog()
+    {
+      return _catalog;
+    }
+
+    public synchronized int getStatementCount()
+    {
+      return _statementList.size();
+    }
+
+    public synchronized FakeStatement getStatement(int i)
+    {
+      return _statementList.get(i);
+    }
+
+    public synchronized Object invoke(Object proxy, Method method,
+                                      Object []args)
+      throws Throwable
+    {
+      String name = method.getName();
+
+      if (name.equals("close")) {
+        _isClosed = true;
+        return null;
+      }
+      else if (name.equals("isClosed"))
+        return _isClosed;
+      else if (name.equals("isValid"))
+        return _isValid && ! _isClosed;
+      else if (name.equals("hashCode"))
+        return System.identityHashCode(proxy);
+      else if (name.equals("equals"))
+        return proxy == args[0];
+      else if (name.equals("toString"))
+        return "FakeConnection[" + _user + "]";
+
+      if (_isClosed)
+        throw new SQLException("connection is closed");
+
+      if (name.equals("createStatement")
+          || name.equals("prepareStatement")
+          || name.equals("prepareCall")) {
+        String sql = args != null && args.length > 0
+                     && args[0] instanceof String ? (String) args[0] : null;
+
+        FakeStatement stmt
+          = new FakeStatement(method.getReturnType(), sql);
+
+        _statementList.add(stmt);
+
+        return stmt.getStatement();
+      }
+      else if (name.equals("getAutoCommit"))
+        return _isAutoCommit;
+      else if (name.equals("setAutoCommit")) {
+        _isAutoCommit = (Boolean) args[0];
+        return null;
+      }
+      else if (name.equals("rollback")) {
+        _rollbackCount++;
+        return null;
+      }
+      else if (name.equals("commit") || name.equals("clearWarnings"))
+        return null;
+      else if (name.equals("getCatalog"))
+        return _catalog;
+      else if (name.equals("setCatalog")) {
+        _catalog = (String) args[0];
+        return null;
+      }
+
+      throw new UnsupportedOperationException(name);
+    }
+  }
+
+  public static class FakeStatement implements InvocationHandler
+  {
+    private final Object _stmt;
+    private final String _sql;
+
+    private boolean _isClosed;
+
+    FakeStatement(Class<?> api, String sql)
+    {
+      _sql = sql;
+
+      _stmt = Proxy.newProxyInstance(getClass().getClassLoader(),
+                                     new Class[] { api },
+                                     this);
+    }
+
+    Object getStatement()
+    {
+      return _stmt;
+    }
+
+    public String getSql()
+    {
+      return _sql;
+    }
+
+    public synchronized boolean isClosed()
+    {
+      return _isClosed;
+    }
+
+    public synchronized Object invoke(Object proxy, Method method,
+                                      Object []args)
+      throws Throwable
+    {
+      String name = method.getName();
+
+      if (name.equals("close")) {
+        _isClosed = true;
+        return null;
+      }
+      else if (name.equals("isClosed"))
+        return _isClosed;
+      else if (name.equals("hashCode"))
+        return System.identityHashCode(proxy);
+      else if (name.equals("equals"))
+        return proxy == args[0];
+      else if (name.equals("toString"))
+        return "FakeStatement[" + _sql + "]";
+
+      if (_isClosed)
+        throw new SQLException("statement is closed");
+
+      if (name.equals("clearParameters") || name.equals("clearWarnings"))
+        return null;
+
+      throw new UnsupportedOperationException(name);
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.db;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * An in-memory, scrollable ResultSet for driving the result decoders
+ * without a database.  Cells are Long, BigDecimal, String, byte[] or
+ * null.
+ */
+public class FakeResultSet
+{
+  private final ArrayList<String> _names = new ArrayList<String>();
+  private final ArrayList<Integer> _types = new ArrayList<Integer>();
+  private final ArrayList<String> _typeNames = new ArrayList<String>();
+
+  private final ArrayList<Object[]> _rows = new ArrayList<Object[]>();
+
+  // 1-based current row, 0 before the first
+  private int _row;
+  private boolean _wasNull;
+  private boolean _isClosed;
+
+  private int _metaDataCalls;
+
+  /**
+   * Adds a column with its java.sql.Types code and database type name.
+   */
+  public FakeResultSet addColumn(String name, int type, String typeName)
+  {
+    _names.add(name);
+    _types.add(type);
+    _typeNames.add(typeName);
+
+    return this;
+  }
+
+  public FakeResultSet addRow(Object ...values)
+  {
+    _rows.add(values);
+
+    return this;
+  }
+
+  public boolean isClosed()
+  {
+    return _isClosed;
+  }
+
+  /**
+   * Number of getMetaData() calls, to check rows don't go back to it.
+   */
+  public int getMetaDataCalls()
+  {
+    return _metaDataCalls;
+  }
+
+  /**
+   * Rewinds before the first row.
+   */
+  public void rewind()
+  {
+    _row = 0;
+  }
+
+  public ResultSet create()
+  {
+    return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                              new Class[] { ResultSet.class },
+                                              new ResultSetHandler());
+  }
+
+  private Object getCell(Object []args)
+    throws SQLException
+  {
+    if (_row < 1 || _rows.size() < _row)
+      throw new SQLException("no current row");
+
+    int column = ((Integer) args[0]).intValue();
+
+    Object value = _rows.get(_row - 1)[column - 1];
+
+    _wasNull = value == null;
+
+    return value;
+  }
+
+  private static byte []toBytes(Object value)
+    throws Exception
+  {
+    if (value == null)
+      return null;
+    else if (value instanceof byte[])
+      return (byte []) value;
+    else
+      return value.toString().getBytes("ISO-8859-1");
+  }
+
+  private static String toText(Object value)
+    throws Exception
+  {
+    if (value == null)
+      return null;
+    else if (value instanceof byte[])
+      return new String((byte []) value, "ISO-8859-1");
+    else
+      return value.toString();
+  }
+
+  class ResultSetHandler implements InvocationHandler
+  {
+    public Object invoke(Object proxy, Method method, Object []args)
+      throws Throwable
+    {
+      String name = method.getName();
+
+      if (name.equals("next")) {
+        if (_row < _rows.size()) {
+          _row++;
+          return true;
+        }
+
+        _row = _rows.size() + 1;
+        return false;
+      }
+      else if (name.equals("getRow"))
+        return _row <= _rows.size() ? _row : 0;
+      else if (name.equals("last")) {
+        _row = _rows.size();
+        return _row > 0;
+      }
+      else if (name.equals("beforeFirst")) {
+        _row = 0;
+        return null;
+      }
+      else if (name.equals("absolute")) {
+        _row = ((Integer) args[0]).intValue();
+        return 0 < _row && _row <= _rows.size();
+      }
+      else if (name.equals("wasNull"))
+        return _wasNull;
+      else if (name.equals("getMetaData")) {
+        _metaDataCalls++;
+
+        return Proxy.newProxyInstance(getClass().getClassLoader(),
+                                      new Class[] { ResultSetMetaData.class },
+                                      new MetaDataHandler());
+      }
+      else if (name.equals("getString"))
+        return toText(getCell(args));
+      else if (name.equals("getBytes"))
+        return toBytes(getCell(args));
+      else if (name.equals("getBinaryStream")) {
+        byte []bytes = toBytes(getCell(args));
+
+        return bytes != null ? new ByteArrayInputStream(bytes) : null;
+      }
+      else if (name.equals("getLong") || name.equals("getInt")) {
+        Object value = getCell(args);
+
+        long v = value == null ? 0 : Long.parseLong(toText(value));
+
+        return name.equals("getInt") ? (Object) (int) v : (Object) v;
+      }
+      else if (name.equals("getDouble")) {
+        Object value = getCell(args);
+
+        return value == null ? 0.0 : Double.parseDouble(toText(value));
+      }
+      else if (name.equals("getObject"))
+        return getCell(args);
+      else if (name.equals("close")) {
+        _isClosed = true;
+        return null;
+      }
+      else if (name.equals("isClosed"))
+        return _isClosed;
+      else if (name.equals("getStatement"))
+        return null;
+      else if (name.equals("hashCode"))
+        return System.identityHashCode(proxy);
+      else if (name.equals("equals"))
+        return proxy == args[0];
+      else if (name.equals("toString"))
+        return "FakeResultSet" + _names;
+
+      throw new UnsupportedOperationException(name);
+    }
+  }
+
+  class MetaDataHandler implements InvocationHandler
+  {
+    public Object invoke(Object proxy, Method method, Object []args)
+      throws Throwable
+    {
+      String name = method.getName();
+
+      if (name.equals("getColumnCount"))
+        return _names.size();
+
+      if (args == null || args.length != 1 || ! (args[0] instanceof Integer)) {
+        if (name.equals("hashCode"))
+          return System.identityHashCode(proxy);
+        else if (name.equals("equals"))
+          return proxy == args[0];
+        else if (name.equals("toString"))
+          return "FakeResultSetMetaData" + _names;
+
+        throw new UnsupportedOperationException(name);
+      }
+
+      int i = ((Integer) args[0]).intValue() - 1;
+
+      if (name.equals("getColumnLabel") || name.equals("getColumnName"))
+        return _names.get(i);
+      else if (name.equals("getColumnType"))
+        return _types.get(i);
+      else if (name.equals("getColumnTypeName"))
+        return _typeNames.get(i);
+      else if (name.equals("isCurrency"))
+        return false;
+      else if (name.equals("isNullable"))
+        return ResultSetMetaData.columnNullable;
+      else if (name.equals("getTableName"))
+        return "t";
+
+      throw new UnsupportedOperationException(name);
+    }
+  }
+}
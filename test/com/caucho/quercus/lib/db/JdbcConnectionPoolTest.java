@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JdbcConnectionPoolTest {
+  private FakeDriver _driver;
+  private JdbcConnectionPool _pool;
+
+  @Before
+  public void setUp()
+  {
+    _driver = new FakeDriver();
+    _pool = new JdbcConnectionPool(_driver, FakeDriver.URL);
+  }
+
+  @After
+  public void tearDown()
+  {
+    _pool.close();
+  }
+
+  @Test
+  public void testLeftoverStatementsClosedOnReturn()
+    throws Exception
+  {
+    Connection conn = _pool.getConnection();
+
+    conn.createStatement();
+    conn.prepareStatement("select 1");
+
+    FakeDriver.FakeConnection fake = _driver.getConnection(0);
+
+    assertEquals(2, fake.getStatementCount());
+    assertFalse(fake.getStatement(0).isClosed());
+
+    conn.close();
+
+    assertTrue(fake.getStatement(0).isClosed());
+    assertTrue(fake.getStatement(1).isClosed());
+
+    // the physical connection stays open in the pool
+    assertFalse(fake.isClosed());
+    assertEquals(1, _pool.getIdleCount());
+    assertEquals(0, _pool.getActiveCount());
+  }
+
+  @Test
+  public void testCachedStatementKeptOnReturn()
+    throws Exception
+  {
+    Connection conn = _pool.getConnection();
+
+    PreparedStatementCache cache = JdbcConnectionPool.getStatementCache(conn);
+
+    assertEquals(null, cache.remove("select 1", PreparedStatementCache.PLAIN));
+
+    PreparedStatement stmt = conn.prepareStatement("select 1");
+
+    assertTrue(cache.release("select 1", PreparedStatementCache.PLAIN, stmt));
+
+    conn.close();
+
+    FakeDriver.FakeConnection fake = _driver.getConnection(0);
+
+    assertFalse(fake.getStatement(0).isClosed());
+
+    conn = _pool.getConnection();
+
+    cache = JdbcConnectionPool.getStatementCache(conn);
+
+    assertSame(stmt, cache.remove("select 1", PreparedStatementCache.PLAIN));
+    assertEquals(1, _pool.getStatementCacheHitCount());
+
+    conn.close();
+
+    // a statement taken out of the cache and not put back is leftover
+    assertTrue(fake.getStatement(0).isClosed());
+  }
+
+  /**
+   * A "USE db" the driver ran directly keys cached statements by the new
+   * catalog, and the original catalog is restored on return.
+   */
+  @Test
+  public void testSqlUseCatalog()
+    throws Exception
+  {
+    assertEquals(StatementType.USE,
+                 StatementType.getStatementType(" use other"));
+
+    Connection conn = _pool.getConnection();
+
+    FakeDriver.FakeConnection fake = _driver.getConnection(0);
+
+    // the driver switches databases without going through setCatalog()
+    JdbcConnectionPool.unwrap(conn).setCatalog("other");
+    JdbcConnectionPool.setCatalog(conn, "other");
+
+    PreparedStatementCache cache = JdbcConnectionPool.getStatementCache(conn);
+
+    PreparedStatement stmt = conn.prepareStatement("select 1");
+
+    assertTrue(cache.release("select 1", PreparedStatementCache.PLAIN, stmt));
+
+    conn.close();
+
+    assertEquals("test", fake.getCatalog());
+    assertEquals(1, _pool.getIdleCount());
+
+    conn = _pool.getConnection();
+
+    cache = JdbcConnectionPool.getStatementCache(conn);
+
+    // the statement was prepared against the other catalog
+    assertEquals(null, cache.remove("select 1", PreparedStatementCache.PLAIN));
+
+    conn.close();
+  }
+
+  @Test
+  public void testProxyReuse()
+    throws Exception
+  {
+    Connection first = _pool.getConnection();
+    Connection physical = JdbcConnectionPool.unwrap(first);
+
+    first.close();
+
+    assertTrue(first.isClosed());
+
+    try {
+      first.createStatement();
+      fail("closed proxy should not reach the physical connection");
+    } catch (SQLException e) {
+    }
+
+    // closing twice doesn't return the connection twice
+    first.close();
+    assertEquals(1, _pool.getIdleCount());
+
+    Connection second = _pool.getConnection();
+
+    assertNotSame(first, second);
+    assertSame(physical, JdbcConnectionPool.unwrap(second));
+    assertFalse(second.isClosed());
+    assertEquals(1, _driver.getConnectCount());
+
+    second.close();
+  }
+
+  @Test
+  public void testUsersDontShare()
+    throws Exception
+  {
+    _pool.getConnection("a", "x").close();
+
+    Connection conn = _pool.getConnection("b", "y");
+
+    assertEquals(2, _driver.getConnectCount());
+    assertEquals("b", FakeDriver.getFake(JdbcConnectionPool.unwrap(conn))
+                      .getUser());
+
+    conn.close();
+  }
+
+  @Test
+  public void testRollbackOnReturn()
+    throws Exception
+  {
+    Connection conn = _pool.getConnection();
+
+    conn.setAutoCommit(false);
+    conn.close();
+
+    FakeDriver.FakeConnection fake = _driver.getConnection(0);
+
+    assertEquals(1, fake.getRollbackCount());
+
+    conn = _pool.getConnection();
+
+    assertTrue(conn.getAutoCommit());
+
+    conn.close();
+  }
+
+  @Test
+  public void testStateChangeClosesConnection()
+    throws Exception
+  {
+    Connection conn = _pool.getConnection();
+
+    JdbcConnectionPool.markForPoolRemoval(conn);
+    conn.close();
+
+    assertTrue(_driver.getConnection(0).isClosed());
+    assertEquals(0, _pool.getIdleCount());
+
+    _pool.getConnection().close();
+
+    assertEquals(2, _driver.getConnectCount());
+  }
+
+  @Test
+  public void testInvalidIdleReplaced()
+    throws Exception
+  {
+    _pool.getConnection().close();
+
+    _driver.getConnection(0).setValid(false);
+
+    Connection conn = _pool.getConnection();
+
+    assertTrue(_driver.getConnection(0).isClosed());
+    assertEquals(2, _driver.getConnectCount());
+    assertSame(_driver.getConnection(1).getConnection(),
+               JdbcConnectionPool.unwrap(conn));
+
+    conn.close();
+  }
+
+  @Test
+  public void testExhaustionTimeout()
+    throws Exception
+  {
+    _pool.setMaxConnections(1);
+    _pool.setWaitTimeout(100);
+
+    Connection conn = _pool.getConnection();
+
+    long start = System.currentTimeMillis();
+
+    try {
+      _pool.getConnection();
+      fail("pool should be exhausted");
+    } catch (SQLException e) {
+    }
+
+    assertTrue(System.currentTimeMillis() - start >= 100);
+    assertEquals(1, _driver.getConnectCount());
+    assertEquals(1, _pool.getActiveCount());
+
+    conn.close();
+
+    // the slot is free again
+    _pool.getConnection().close();
+  }
+
+  @Test
+  public void testWaiterGetsReturnedConnection()
+    throws Exception
+  {
+    _pool.setMaxConnections(1);
+    _pool.setWaitTimeout(10000);
+
+    final Connection conn = _pool.getConnection();
+
+    Thread thread = new Thread() {
+        public void run()
+        {
+          try {
+            Thread.sleep(100);
+
+            conn.close();
+          } catch (Exception e) {
+          }
+        }
+      };
+
+    thread.start();
+
+    Connection next = _pool.getConnection();
+
+    assertEquals(1, _driver.getConnectCount());
+    assertTrue(conn.isClosed());
+
+    next.close();
+    thread.join();
+  }
+
+  @Test
+  public void testCloseClosesIdle()
+    throws Exception
+  {
+    Connection active = _pool.getConnection();
+    _pool.getConnection().close();
+
+    _pool.close();
+
+    assertTrue(_driver.getConnection(1).isClosed());
+    assertFalse(_driver.getConnection(0).isClosed());
+
+    // an active connection is closed when it's returned
+    active.close();
+
+    assertTrue(_driver.getConnection(0).isClosed());
+
+    try {
+      _pool.getConnection();
+      fail("closed pool should refuse connections");
+    } catch (SQLException e) {
+    }
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Rows decoded through fetch_assoc and fetch_row hold the same values,
+ * with the column keys and types read once per result.
+ */
+public class JdbcResultResourceTest {
+  private static final byte []BLOB = new byte[] { 0, 1, (byte) 0xff, 'a' };
+
+  private QuercusContext _quercus;
+  private Env _env;
+
+  @Before
+  public void setUp()
+  {
+    _quercus = new QuercusContext();
+    _quercus.init();
+    _quercus.start();
+
+    _env = new Env(_quercus);
+    _env.start();
+  }
+
+  @After
+  public void tearDown()
+  {
+    _env.close();
+    _quercus.close();
+  }
+
+  private static FakeResultSet createResult()
+  {
+    FakeResultSet result = new FakeResultSet();
+
+    result.addColumn("id", Types.BIGINT, "BIGINT")
+      .addColumn("price", Types.DECIMAL, "DECIMAL")
+      .addColumn("data", Types.BLOB, "BLOB")
+      .addColumn("note", Types.VARCHAR, "VARCHAR");
+
+    result.addRow(Long.MAX_VALUE, new BigDecimal("12345.6700"), BLOB, "a");
+    result.addRow(null, null, null, null);
+    result.addRow(-7L, new BigDecimal("-0.01"), new byte[0], "");
+
+    return result;
+  }
+
+  @Test
+  public void testAssocMatchesRow()
+  {
+    FakeResultSet result = createResult();
+
+    JdbcResultResource assocResult = new JdbcResultResource(result.create());
+
+    ArrayValue []assoc = new ArrayValue[3];
+
+    for (int i = 0; i < 3; i++) {
+      assoc[i] = (ArrayValue) assocResult.fetchAssoc(_env);
+    }
+
+    assertTrue(assocResult.fetchAssoc(_env).isNull());
+
+    result.rewind();
+
+    JdbcResultResource numResult = new JdbcResultResource(result.create());
+
+    String []keys = new String[] { "id", "price", "data", "note" };
+
+    for (int i = 0; i < 3; i++) {
+      ArrayValue row = (ArrayValue) numResult.fetchNum(_env);
+
+      assertEquals(4, row.getSize());
+      assertEquals(4, assoc[i].getSize());
+
+      for (int j = 0; j < keys.length; j++) {
+        Value byName = assoc[i].get(_env.createString(keys[j]));
+        Value byIndex = row.get(LongValue.create(j));
+
+        assertEquals(byName.isNull(), byIndex.isNull());
+        assertEquals(byName.toString(), byIndex.toString());
+      }
+    }
+  }
+
+  @Test
+  public void testColumnValues()
+  {
+    JdbcResultResource result
+      = new JdbcResultResource(createResult().create());
+
+    ArrayValue row = (ArrayValue) result.fetchNum(_env);
+
+    assertEquals(String.valueOf(Long.MAX_VALUE),
+                 row.get(LongValue.create(0)).toString());
+    assertEquals("12345.6700", row.get(LongValue.create(1)).toString());
+    assertBytes(BLOB, row.get(LongValue.create(2)));
+    assertEquals("a", row.get(LongValue.create(3)).toString());
+
+    row = (ArrayValue) result.fetchNum(_env);
+
+    for (int i = 0; i < 4; i++) {
+      assertTrue(row.get(LongValue.create(i)).isNull());
+    }
+
+    row = (ArrayValue) result.fetchNum(_env);
+
+    assertEquals("-7", row.get(LongValue.create(0)).toString());
+    assertEquals("-0.01", row.get(LongValue.create(1)).toString());
+    assertEquals(0, row.get(LongValue.create(2)).toStringValue().length());
+    assertFalse(row.get(LongValue.create(2)).isNull());
+  }
+
+  @Test
+  public void testFetchBothOrder()
+  {
+    JdbcResultResource result
+      = new JdbcResultResource(createResult().create());
+
+    ArrayValue row = (ArrayValue) result.fetchBoth(_env, true);
+
+    assertEquals(8, row.getSize());
+    assertEquals(0, row.getHead().getKey().toLong());
+    assertEquals("id", row.getHead().getNext().getKey().toString());
+
+    row = (ArrayValue) result.fetchBoth(_env, false);
+
+    assertEquals("id", row.getHead().getKey().toString());
+    assertTrue(row.get(_env.createString("id")).isNull());
+    assertTrue(row.get(LongValue.create(0)).isNull());
+  }
+
+  @Test
+  public void testMetaDataReadOnce()
+  {
+    FakeResultSet fake = createResult();
+
+    JdbcResultResource result = new JdbcResultResource(fake.create());
+
+    result.fetchAssoc(_env);
+    int calls = fake.getMetaDataCalls();
+
+    result.fetchAssoc(_env);
+    result.fetchNum(_env);
+
+    assertEquals(calls, fake.getMetaDataCalls());
+  }
+
+  @Test
+  public void testMysqliWireText()
+  {
+    FakeResultSet fake = new FakeResultSet();
+
+    fake.addColumn("id", Types.BIGINT, "BIGINT UNSIGNED")
+      .addColumn("price", Types.DECIMAL, "DECIMAL")
+      .addColumn("note", Types.VARCHAR, "VARCHAR");
+
+    // an unsigned value past Long.MAX_VALUE stays exact as wire text
+    fake.addRow("18446744073709551615", new BigDecimal("1.50"), "x\u00e9");
+    fake.addRow(null, null, null);
+
+    MysqliResult result = new MysqliResult(null, fake.create(), null);
+
+    ArrayValue assoc = (ArrayValue) result.fetch_assoc(_env);
+
+    assertEquals("18446744073709551615",
+                 assoc.get(_env.createString("id")).toString());
+    assertEquals("1.50", assoc.get(_env.createString("price")).toString());
+    assertEquals("x\u00e9", assoc.get(_env.createString("note")).toString());
+
+    ArrayValue row = (ArrayValue) result.fetch_row(_env);
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(row.get(LongValue.create(i)).isNull());
+    }
+  }
+
+  private static void assertBytes(byte []expected, Value value)
+  {
+    StringValue s = value.toStringValue();
+
+    assertEquals(expected.length, s.length());
+
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i] & 0xff, s.charAt(i) & 0xff);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.db;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.Value;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+
+/**
+ * Measures decoding rows into php arrays with fetch_assoc and
+ * fetch_row.  The fake result set is a dynamic proxy, so the figures
+ * include its dispatch and are for comparing runs, not drivers.
+ *
+ * Run with: java com.caucho.quercus.lib.db.RowDecodeBenchmark
+ */
+public class RowDecodeBenchmark {
+  private static final int WARMUP = 5;
+  private static final int ROUNDS = 10;
+  private static final int ROWS = 100 * 1000;
+
+  private static long _sink;
+
+  public static void main(String []args)
+  {
+    QuercusContext quercus = new QuercusContext();
+    quercus.init();
+    quercus.start();
+
+    Env env = new Env(quercus);
+    env.start();
+
+    FakeResultSet fake = new FakeResultSet();
+
+    fake.addColumn("id", Types.BIGINT, "BIGINT")
+      .addColumn("user_id", Types.INTEGER, "INT")
+      .addColumn("name", Types.VARCHAR, "VARCHAR")
+      .addColumn("email", Types.VARCHAR, "VARCHAR")
+      .addColumn("price", Types.DECIMAL, "DECIMAL")
+      .addColumn("data", Types.BLOB, "BLOB")
+      .addColumn("created", Types.VARCHAR, "VARCHAR")
+      .addColumn("flags", Types.SMALLINT, "SMALLINT");
+
+    for (int i = 0; i < ROWS; i++) {
+      fake.addRow((long) i, (long) (i % 1000), "name-" + i,
+                  "user" + i + "@example.com",
+                  new BigDecimal(i).movePointLeft(2),
+                  new byte[] { 1, 2, 3, (byte) i },
+                  "2012-01-01 00:00:00", (long) (i & 7));
+    }
+
+    for (int i = 0; i < WARMUP; i++) {
+      run(env, fake, true);
+      run(env, fake, false);
+    }
+
+    long assocTime = 0;
+    long numTime = 0;
+
+    for (int i = 0; i < ROUNDS; i++) {
+      assocTime += run(env, fake, true);
+      numTime += run(env, fake, false);
+    }
+
+    long rows = (long) ROUNDS * ROWS;
+
+    System.out.println("fetch_assoc: "
+                       + (assocTime / (double) rows) + " ns/row");
+    System.out.println("fetch_row:   "
+                       + (numTime / (double) rows) + " ns/row");
+    System.out.println("sink: " + _sink);
+
+    env.close();
+    quercus.close();
+  }
+
+  private static long run(Env env, FakeResultSet fake, boolean isAssoc)
+  {
+    fake.rewind();
+
+    JdbcResultResource result = new JdbcResultResource(fake.create());
+
+    long start = System.nanoTime();
+    long sum = 0;
+
+    while (true) {
+      Value row = isAssoc ? result.fetchAssoc(env) : result.fetchNum(env);
+
+      if (row.isNull())
+        break;
+
+      sum += row.getSize();
+    }
+
+    _sink += sum;
+
+    return System.nanoTime() - start;
+  }
+}
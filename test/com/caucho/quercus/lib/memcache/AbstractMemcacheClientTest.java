@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.memcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.caucho.quercus.QuercusContext;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs MemcacheClient against FakeMemcacheServer; subclasses pick the
+ * wire protocol.
+ */
+public abstract class AbstractMemcacheClientTest {
+  private QuercusContext _quercus;
+  private FakeMemcacheServer _server;
+  private MemcacheClient _client;
+
+  protected abstract boolean isBinary();
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    _quercus = new QuercusContext();
+    _server = new FakeMemcacheServer();
+
+    _client = createClient(_server.getPort());
+  }
+
+  @After
+  public void tearDown()
+  {
+    _server.close();
+  }
+
+  private MemcacheClient createClient(int port)
+  {
+    MemcacheClient client = new MemcacheClient(_quercus);
+
+    client.setBinary(isBinary());
+    client.addServer("127.0.0.1", port, 1);
+
+    return client;
+  }
+
+  private static MemcacheItem item(String value)
+  {
+    return new MemcacheItem(0, value.getBytes(), 0);
+  }
+
+  private static String string(MemcacheItem item)
+  {
+    return new String(item.getData());
+  }
+
+  @Test
+  public void testGetMiss()
+  {
+    assertNull(_client.get("missing"));
+    assertEquals(MemcacheProtocol.STATUS_NOT_FOUND, _client.getStatus());
+    assertFalse(_client.isConnectionFailure());
+  }
+
+  @Test
+  public void testSetGet()
+  {
+    MemcacheItem stored = new MemcacheItem(17, "hello".getBytes(), 0);
+
+    assertTrue(_client.store(MemcacheProtocol.SET, "k", stored, 0));
+
+    MemcacheItem item = _client.get("k");
+
+    assertNotNull(item);
+    assertEquals("hello", string(item));
+    assertEquals(17, item.getFlags());
+    assertEquals(MemcacheProtocol.STATUS_OK, _client.getStatus());
+  }
+
+  @Test
+  public void testGetMulti()
+  {
+    _client.store(MemcacheProtocol.SET, "a", item("1"), 0);
+    _client.store(MemcacheProtocol.SET, "c", item("3"), 0);
+
+    ArrayList<String> keys = new ArrayList<String>();
+    keys.add("a");
+    keys.add("b");
+    keys.add("c");
+
+    Map<String,MemcacheItem> result = _client.getMulti(keys);
+
+    assertEquals(2, result.size());
+    assertEquals("1", string(result.get("a")));
+    assertEquals("3", string(result.get("c")));
+    assertFalse(result.containsKey("b"));
+  }
+
+  @Test
+  public void testGetsCas()
+  {
+    _client.store(MemcacheProtocol.SET, "k", item("v1"), 0);
+
+    MemcacheItem item = _client.get("k");
+    long cas = item.getCas();
+
+    assertTrue(cas != 0);
+
+    MemcacheItem update = new MemcacheItem(0, "v2".getBytes(), cas);
+
+    assertTrue(_client.store(MemcacheProtocol.CAS, "k", update, 0));
+    assertEquals("v2", string(_client.get("k")));
+
+    // the token is stale after the first swap
+    MemcacheItem stale = new MemcacheItem(0, "v3".getBytes(), cas);
+
+    assertFalse(_client.store(MemcacheProtocol.CAS, "k", stale, 0));
+    assertEquals(MemcacheProtocol.STATUS_EXISTS, _client.getStatus());
+    assertEquals("v2", string(_client.get("k")));
+  }
+
+  @Test
+  public void testAddReplace()
+  {
+    assertFalse(_client.store(MemcacheProtocol.REPLACE, "k", item("x"), 0));
+    assertEquals(MemcacheProtocol.STATUS_NOT_STORED, _client.getStatus());
+
+    assertTrue(_client.store(MemcacheProtocol.ADD, "k", item("x"), 0));
+    assertFalse(_client.store(MemcacheProtocol.ADD, "k", item("y"), 0));
+    assertEquals(MemcacheProtocol.STATUS_NOT_STORED, _client.getStatus());
+
+    assertTrue(_client.store(MemcacheProtocol.APPEND, "k", item("z"), 0));
+    assertEquals("xz", string(_client.get("k")));
+  }
+
+  @Test
+  public void testIncrDecr()
+  {
+    _client.store(MemcacheProtocol.SET, "n", item("10"), 0);
+
+    assertEquals(Long.valueOf(15), _client.incr("n", 5, true));
+    assertEquals(Long.valueOf(12), _client.incr("n", 3, false));
+    assertEquals("12", string(_client.get("n")));
+  }
+
+  @Test
+  public void testIncrMissing()
+  {
+    assertNull(_client.incr("missing", 1, true));
+    assertEquals(MemcacheProtocol.STATUS_NOT_FOUND, _client.getStatus());
+    assertFalse(_client.isConnectionFailure());
+  }
+
+  @Test
+  public void testDelete()
+  {
+    _client.store(MemcacheProtocol.SET, "k", item("v"), 0);
+
+    assertTrue(_client.delete("k"));
+    assertNull(_client.get("k"));
+
+    assertFalse(_client.delete("k"));
+    assertEquals(MemcacheProtocol.STATUS_NOT_FOUND, _client.getStatus());
+  }
+
+  @Test
+  public void testFlushVersion()
+  {
+    _client.store(MemcacheProtocol.SET, "k", item("v"), 0);
+
+    assertTrue(_client.flush(0));
+    assertNull(_client.get("k"));
+
+    assertEquals("fake-1.0",
+                 _client.getVersions().values().iterator().next());
+  }
+
+  @Test
+  public void testConnectionFailure()
+    throws Exception
+  {
+    ServerSocket ss = new ServerSocket(0, 1, InetAddress.getByName(null));
+    int port = ss.getLocalPort();
+    ss.close();
+
+    MemcacheClient client = createClient(port);
+
+    assertNull(client.get("k"));
+    assertEquals(MemcacheProtocol.STATUS_SERVER_ERROR, client.getStatus());
+    assertTrue(client.isConnectionFailure());
+
+    assertFalse(client.store(MemcacheProtocol.SET, "k", item("v"), 0));
+    assertTrue(client.isConnectionFailure());
+
+    // a live server resets the failure flag on the next operation
+    assertNull(_client.get("k"));
+    assertFalse(_client.isConnectionFailure());
+  }
+
+  @Test
+  public void testServerDropsConnection()
+  {
+    _client.store(MemcacheProtocol.SET, "k", item("v"), 0);
+
+    _server.close();
+
+    assertNull(_client.get("k"));
+    assertEquals(MemcacheProtocol.STATUS_SERVER_ERROR, _client.getStatus());
+    assertTrue(_client.isConnectionFailure());
+  }
+}
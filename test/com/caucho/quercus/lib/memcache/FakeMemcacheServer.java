@@ -0,0 +1,611 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.memcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A loopback memcached stand-in for tests.  Each connection speaks the
+ * text or the binary protocol, chosen by its first byte, over a shared
+ * in-memory store.  Expiration times are ignored.
+ */
+public class FakeMemcacheServer
+{
+  private static final int MAGIC_REQUEST = 0x80;
+  private static final int MAGIC_RESPONSE = 0x81;
+
+  private static final int OP_GET = 0x00;
+  private static final int OP_SET = 0x01;
+  private static final int OP_ADD = 0x02;
+  private static final int OP_REPLACE = 0x03;
+  private static final int OP_DELETE = 0x04;
+  private static final int OP_INCREMENT = 0x05;
+  private static final int OP_DECREMENT = 0x06;
+  private static final int OP_FLUSH = 0x08;
+  private static final int OP_GETQ = 0x09;
+  private static final int OP_NOOP = 0x0a;
+  private static final int OP_VERSION = 0x0b;
+  private static final int OP_GETK = 0x0c;
+  private static final int OP_GETKQ = 0x0d;
+  private static final int OP_APPEND = 0x0e;
+  private static final int OP_PREPEND = 0x0f;
+
+  private static final int RES_OK = 0x00;
+  private static final int RES_NOT_FOUND = 0x01;
+  private static final int RES_EXISTS = 0x02;
+  private static final int RES_NOT_STORED = 0x05;
+  private static final int RES_NON_NUMERIC = 0x06;
+  private static final int RES_UNKNOWN_COMMAND = 0x81;
+
+  private static final byte []EMPTY = new byte[0];
+
+  private final ServerSocket _serverSocket;
+  private final ArrayList<Socket> _socketList = new ArrayList<Socket>();
+
+  private final HashMap<String,Item> _map = new HashMap<String,Item>();
+  private long _casSequence;
+
+  private volatile boolean _isClosed;
+
+  public FakeMemcacheServer()
+    throws IOException
+  {
+    _serverSocket = new ServerSocket(0, 50, InetAddress.getByName(null));
+
+    Thread thread = new Thread(new Runnable() {
+        public void run()
+        {
+          acceptLoop();
+        }
+      }, "fake-memcached-" + getPort());
+
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public String getHost()
+  {
+    return _serverSocket.getInetAddress().getHostAddress();
+  }
+
+  public int getPort()
+  {
+    return _serverSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the stored bytes for a key, or null.
+   */
+  public synchronized byte []getData(String key)
+  {
+    Item item = _map.get(key);
+
+    return item != null ? item._data : null;
+  }
+
+  /**
+   * Stops accepting and drops every open connection.
+   */
+  public void close()
+  {
+    _isClosed = true;
+
+    try {
+      _serverSocket.close();
+    } catch (IOException e) {
+    }
+
+    synchronized (_socketList) {
+      for (Socket socket : _socketList) {
+        try {
+          socket.close();
+        } catch (IOException e) {
+        }
+      }
+
+      _socketList.clear();
+    }
+  }
+
+  private void acceptLoop()
+  {
+    while (! _isClosed) {
+      final Socket socket;
+
+      try {
+        socket = _serverSocket.accept();
+      } catch (IOException e) {
+        return;
+      }
+
+      synchronized (_socketList) {
+        _socketList.add(socket);
+      }
+
+      Thread thread = new Thread(new Runnable() {
+          public void run()
+          {
+            serve(socket);
+          }
+        }, "fake-memcached-conn");
+
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  private void serve(Socket socket)
+  {
+    try {
+      InputStream is = new BufferedInputStream(socket.getInputStream());
+      OutputStream os = new BufferedOutputStream(socket.getOutputStream());
+
+      is.mark(1);
+      int magic = is.read();
+      is.reset();
+
+      if (magic == MAGIC_REQUEST) {
+        DataInputStream in = new DataInputStream(is);
+
+        while (serveBinary(in, os)) {
+        }
+      }
+      else {
+        while (serveText(is, os)) {
+        }
+      }
+    } catch (IOException e) {
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  //
+  // text protocol
+  //
+
+  private boolean serveText(InputStream is, OutputStream os)
+    throws IOException
+  {
+    String line = readLine(is);
+
+    if (line == null)
+      return false;
+
+    String []parts = line.split(" ");
+    String cmd = parts[0];
+
+    if (cmd.equals("get") || cmd.equals("gets")) {
+      for (int i = 1; i < parts.length; i++) {
+        Item item = get(parts[i]);
+
+        if (item == null)
+          continue;
+
+        print(os, "VALUE " + parts[i] + " " + (item._flags & 0xffffffffL)
+              + " " + item._data.length
+              + (cmd.equals("gets") ? " " + item._cas : "") + "\r\n");
+        os.write(item._data);
+        print(os, "\r\n");
+      }
+
+      print(os, "END\r\n");
+    }
+    else if (cmd.equals("set") || cmd.equals("add")
+             || cmd.equals("replace") || cmd.equals("cas")
+             || cmd.equals("append") || cmd.equals("prepend")) {
+      int flags = (int) Long.parseLong(parts[2]);
+      byte []data = new byte[Integer.parseInt(parts[4])];
+
+      new DataInputStream(is).readFully(data);
+      readLine(is);
+
+      long cas = cmd.equals("cas") ? Long.parseLong(parts[5]) : 0;
+
+      int status = store(cmd, parts[1], flags, data, cas);
+
+      if (status == RES_OK)
+        print(os, "STORED\r\n");
+      else if (status == RES_EXISTS)
+        print(os, "EXISTS\r\n");
+      else if (status == RES_NOT_FOUND)
+        print(os, "NOT_FOUND\r\n");
+      else
+        print(os, "NOT_STORED\r\n");
+    }
+    else if (cmd.equals("delete")) {
+      print(os, delete(parts[1]) ? "DELETED\r\n" : "NOT_FOUND\r\n");
+    }
+    else if (cmd.equals("incr") || cmd.equals("decr")) {
+      Long value = incr(parts[1], Long.parseLong(parts[2]),
+                        cmd.equals("incr"));
+
+      if (value == null)
+        print(os, "NOT_FOUND\r\n");
+      else if (value < 0)
+        print(os, "CLIENT_ERROR cannot increment or decrement non-numeric value\r\n");
+      else
+        print(os, value + "\r\n");
+    }
+    else if (cmd.equals("flush_all")) {
+      flushAll();
+      print(os, "OK\r\n");
+    }
+    else if (cmd.equals("version"))
+      print(os, "VERSION fake-1.0\r\n");
+    else
+      print(os, "ERROR\r\n");
+
+    os.flush();
+
+    return true;
+  }
+
+  private static String readLine(InputStream is)
+    throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    int ch;
+
+    while ((ch = is.read()) >= 0) {
+      if (ch == '\n') {
+        int len = sb.length();
+
+        if (len > 0 && sb.charAt(len - 1) == '\r')
+          sb.setLength(len - 1);
+
+        return sb.toString();
+      }
+
+      sb.append((char) ch);
+    }
+
+    return null;
+  }
+
+  private static void print(OutputStream os, String s)
+    throws IOException
+  {
+    for (int i = 0; i < s.length(); i++) {
+      os.write(s.charAt(i));
+    }
+  }
+
+  //
+  // binary protocol
+  //
+
+  private boolean serveBinary(DataInputStream in, OutputStream os)
+    throws IOException
+  {
+    byte []header = new byte[24];
+
+    try {
+      in.readFully(header);
+    } catch (EOFException e) {
+      return false;
+    }
+
+    if ((header[0] & 0xff) != MAGIC_REQUEST)
+      throw new IOException("bad magic");
+
+    int opcode = header[1] & 0xff;
+    int keyLength = ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+    int extrasLength = header[4] & 0xff;
+    int bodyLength = getInt(header, 8);
+    int opaque = getInt(header, 12);
+    long cas = getLong(header, 16);
+
+    byte []extras = new byte[extrasLength];
+    byte []keyBytes = new byte[keyLength];
+    byte []value = new byte[bodyLength - extrasLength - keyLength];
+
+    in.readFully(extras);
+    in.readFully(keyBytes);
+    in.readFully(value);
+
+    String key = new String(keyBytes, "ISO-8859-1");
+
+    switch (opcode) {
+    case OP_GET: case OP_GETQ: case OP_GETK: case OP_GETKQ:
+      {
+        boolean isQuiet = opcode == OP_GETQ || opcode == OP_GETKQ;
+        boolean isKey = opcode == OP_GETK || opcode == OP_GETKQ;
+
+        Item item = get(key);
+
+        if (item != null) {
+          byte []flags = new byte[4];
+          putInt(flags, 0, item._flags);
+
+          writeResponse(os, opcode, RES_OK, opaque, item._cas, flags,
+                        isKey ? keyBytes : EMPTY, item._data);
+        }
+        else if (! isQuiet) {
+          writeResponse(os, opcode, RES_NOT_FOUND, opaque, 0,
+                        EMPTY, EMPTY, EMPTY);
+        }
+        break;
+      }
+
+    case OP_SET: case OP_ADD: case OP_REPLACE:
+    case OP_APPEND: case OP_PREPEND:
+      {
+        String cmd;
+
+        if (opcode == OP_ADD)
+          cmd = "add";
+        else if (opcode == OP_REPLACE)
+          cmd = "replace";
+        else if (opcode == OP_APPEND)
+          cmd = "append";
+        else if (opcode == OP_PREPEND)
+          cmd = "prepend";
+        else if (cas != 0)
+          cmd = "cas";
+        else
+          cmd = "set";
+
+        int flags = extras.length >= 4 ? getInt(extras, 0) : 0;
+        int status = store(cmd, key, flags, value, cas);
+
+        Item item = get(key);
+
+        writeResponse(os, opcode, status, opaque,
+                      status == RES_OK && item != null ? item._cas : 0,
+                      EMPTY, EMPTY, EMPTY);
+        break;
+      }
+
+    case OP_DELETE:
+      writeResponse(os, opcode, delete(key) ? RES_OK : RES_NOT_FOUND,
+                    opaque, 0, EMPTY, EMPTY, EMPTY);
+      break;
+
+    case OP_INCREMENT: case OP_DECREMENT:
+      {
+        Long result = incr(key, getLong(extras, 0),
+                           opcode == OP_INCREMENT);
+
+        if (result == null)
+          writeResponse(os, opcode, RES_NOT_FOUND, opaque, 0,
+                        EMPTY, EMPTY, EMPTY);
+        else if (result < 0)
+          writeResponse(os, opcode, RES_NON_NUMERIC, opaque, 0,
+                        EMPTY, EMPTY, EMPTY);
+        else {
+          byte []body = new byte[8];
+          putLong(body, 0, result);
+
+          writeResponse(os, opcode, RES_OK, opaque, 0, EMPTY, EMPTY, body);
+        }
+        break;
+      }
+
+    case OP_FLUSH:
+      flushAll();
+      writeResponse(os, opcode, RES_OK, opaque, 0, EMPTY, EMPTY, EMPTY);
+      break;
+
+    case OP_NOOP:
+      writeResponse(os, opcode, RES_OK, opaque, 0, EMPTY, EMPTY, EMPTY);
+      break;
+
+    case OP_VERSION:
+      writeResponse(os, opcode, RES_OK, opaque, 0, EMPTY, EMPTY,
+                    "fake-1.0".getBytes("ISO-8859-1"));
+      break;
+
+    default:
+      writeResponse(os, opcode, RES_UNKNOWN_COMMAND, opaque, 0,
+                    EMPTY, EMPTY, EMPTY);
+      break;
+    }
+
+    // quiet gets are answered when the terminating NOOP is flushed
+    if (opcode != OP_GETQ && opcode != OP_GETKQ)
+      os.flush();
+
+    return true;
+  }
+
+  private static void writeResponse(OutputStream os,
+                                    int opcode,
+                                    int status,
+                                    int opaque,
+                                    long cas,
+                                    byte []extras,
+                                    byte []key,
+                                    byte []value)
+    throws IOException
+  {
+    byte []header = new byte[24];
+
+    header[0] = (byte) MAGIC_RESPONSE;
+    header[1] = (byte) opcode;
+    header[2] = (byte) (key.length >> 8);
+    header[3] = (byte) key.length;
+    header[4] = (byte) extras.length;
+    header[6] = (byte) (status >> 8);
+    header[7] = (byte) status;
+    putInt(header, 8, extras.length + key.length + value.length);
+    putInt(header, 12, opaque);
+    putLong(header, 16, cas);
+
+    os.write(header);
+    os.write(extras);
+    os.write(key);
+    os.write(value);
+  }
+
+  private static void putInt(byte []buffer, int offset, int v)
+  {
+    buffer[offset] = (byte) (v >> 24);
+    buffer[offset + 1] = (byte) (v >> 16);
+    buffer[offset + 2] = (byte) (v >> 8);
+    buffer[offset + 3] = (byte) v;
+  }
+
+  private static void putLong(byte []buffer, int offset, long v)
+  {
+    putInt(buffer, offset, (int) (v >> 32));
+    putInt(buffer, offset + 4, (int) v);
+  }
+
+  private static int getInt(byte []buffer, int offset)
+  {
+    return (((buffer[offset] & 0xff) << 24)
+            | ((buffer[offset + 1] & 0xff) << 16)
+            | ((buffer[offset + 2] & 0xff) << 8)
+            | (buffer[offset + 3] & 0xff));
+  }
+
+  private static long getLong(byte []buffer, int offset)
+  {
+    return (((long) getInt(buffer, offset) << 32)
+            | (getInt(buffer, offset + 4) & 0xffffffffL));
+  }
+
+  //
+  // store
+  //
+
+  private synchronized Item get(String key)
+  {
+    return _map.get(key);
+  }
+
+  private synchronized int store(String cmd,
+                                 String key,
+                                 int flags,
+                                 byte []data,
+                                 long cas)
+  {
+    Item old = _map.get(key);
+
+    if (cmd.equals("add") && old != null)
+      return RES_NOT_STORED;
+    else if ((cmd.equals("replace") || cmd.equals("append")
+              || cmd.equals("prepend")) && old == null)
+      return RES_NOT_STORED;
+    else if (cmd.equals("cas")) {
+      if (old == null)
+        return RES_NOT_FOUND;
+      else if (old._cas != cas)
+        return RES_EXISTS;
+    }
+
+    if (cmd.equals("append") || cmd.equals("prepend")) {
+      byte []joined = new byte[old._data.length + data.length];
+
+      byte []first = cmd.equals("append") ? old._data : data;
+      byte []second = cmd.equals("append") ? data : old._data;
+
+      System.arraycopy(first, 0, joined, 0, first.length);
+      System.arraycopy(second, 0, joined, first.length, second.length);
+
+      data = joined;
+      flags = old._flags;
+    }
+
+    _map.put(key, new Item(flags, data, ++_casSequence));
+
+    return RES_OK;
+  }
+
+  private synchronized boolean delete(String key)
+  {
+    return _map.remove(key) != null;
+  }
+
+  /**
+   * Returns the new counter, null for a missing key, or -1 for a value
+   * that isn't a number.
+   */
+  private synchronized Long incr(String key, long delta, boolean isIncr)
+  {
+    Item item = _map.get(key);
+
+    if (item == null)
+      return null;
+
+    long value;
+
+    try {
+      value = Long.parseLong(new String(item._data, "ISO-8859-1").trim());
+    } catch (Exception e) {
+      return -1L;
+    }
+
+    if (isIncr)
+      value += delta;
+    else
+      value = Math.max(0, value - delta);
+
+    byte []data = String.valueOf(value).getBytes();
+
+    _map.put(key, new Item(item._flags, data, ++_casSequence));
+
+    return value;
+  }
+
+  private synchronized void flushAll()
+  {
+    _map.clear();
+  }
+
+  static final class Item
+  {
+    final int _flags;
+    final byte []_data;
+    final long _cas;
+
+    Item(int flags, byte []data, long cas)
+    {
+      _flags = flags;
+      _data = data;
+      _cas = cas;
+    }
+  }
+}
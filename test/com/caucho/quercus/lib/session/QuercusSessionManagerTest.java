@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.ConstStringValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.SessionArrayValue;
+import com.caucho.util.Alarm;
+import com.caucho.util.CurrentTime;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+
+import javax.cache.Cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QuercusSessionManagerTest {
+  private static final String ID = "session-test-id";
+
+  private final ArrayList<Object> _putList = new ArrayList<Object>();
+
+  private QuercusContext _quercus;
+  private Env _env;
+
+  @Before
+  public void setUp()
+  {
+    _quercus = new QuercusContext();
+    _quercus.init();
+    _quercus.start();
+
+    _env = new Env(_quercus);
+    _env.start();
+  }
+
+  @After
+  public void tearDown()
+  {
+    _env.close();
+    _quercus.close();
+  }
+
+  @Test
+  public void testOffHeapStoreSize()
+  {
+    QuercusSessionManager manager = new QuercusSessionManager(_quercus);
+
+    assertNull(manager.getOffHeapStore());
+
+    manager.setOffHeapStoreSize(1024 * 1024);
+    assertNotNull(manager.getOffHeapStore());
+
+    manager.setOffHeapStoreSize(0);
+    assertNull(manager.getOffHeapStore());
+
+    QuercusSessionManager persistentManager
+      = new QuercusSessionManager(new PersistentQuercusContext());
+
+    persistentManager.setOffHeapStoreSize(1024 * 1024);
+    assertNull(persistentManager.getOffHeapStore());
+  }
+
+  /**
+   * Only a put resets a persistent session's expiry, so an unchanged
+   * session is still written.
+   */
+  @Test
+  public void testUnchangedSessionPutToPersistentStore()
+  {
+    QuercusSessionManager manager
+      = new QuercusSessionManager(new PersistentQuercusContext());
+
+    saveTwice(manager);
+
+    assertEquals(2, _putList.size());
+  }
+
+  /**
+   * The off-heap store only has its access time refreshed for an
+   * unchanged session.
+   */
+  @Test
+  public void testUnchangedSessionTouchesOffHeapStore()
+  {
+    QuercusSessionManager manager = new QuercusSessionManager(_quercus);
+    manager.setOffHeapStoreSize(1024 * 1024);
+
+    saveTwice(manager);
+
+    OffHeapSessionStore store = manager.getOffHeapStore();
+
+    assertEquals(1, store.getCount());
+    assertNotNull(store.get(ID));
+  }
+
+  /**
+   * An expired session with an off-heap copy counts as one timeout.
+   */
+  @Test
+  public void testExpiredSessionCountedOnce()
+  {
+    QuercusSessionManager manager = new QuercusSessionManager(_quercus);
+    manager.setOffHeapStoreSize(1024 * 1024);
+
+    long oldTime = CurrentTime.getCurrentTime() - 24 * 3600 * 1000L;
+
+    SessionArrayValue session = manager.createSession(_env, ID, oldTime);
+    session.put(new ConstStringValue("a"), LongValue.create(1));
+    manager.saveSession(_env, session);
+
+    OffHeapSessionStore store = manager.getOffHeapStore();
+    store.put(ID, store.get(ID), oldTime);
+
+    Alarm alarm = new Alarm(manager);
+
+    try {
+      manager.handleAlarm(alarm);
+    } finally {
+      alarm.dequeue();
+      manager.close();
+    }
+
+    assertEquals(1, manager.getSessionTimeoutCount());
+    assertEquals(0, store.getCount());
+  }
+
+  private void saveTwice(QuercusSessionManager manager)
+  {
+    long now = _env.getCurrentTime();
+
+    SessionArrayValue session = manager.createSession(_env, ID, now);
+    session.put(new ConstStringValue("a"), LongValue.create(1));
+    manager.saveSession(_env, session);
+
+    session = manager.getSession(_env, ID, now);
+    assertNotNull(session);
+
+    manager.saveSession(_env, session);
+  }
+
+  private class PersistentQuercusContext extends QuercusContext {
+    private final Cache _cache
+      = (Cache) Proxy.newProxyInstance(Cache.class.getClassLoader(),
+                                       new Class[] { Cache.class },
+                                       new CacheHandler());
+
+    @Override
+    public Cache getSessionCache()
+    {
+      return _cache;
+    }
+  }
+
+  private class CacheHandler implements InvocationHandler {
+    public Object invoke(Object proxy, Method method, Object []args)
+    {
+      String name = method.getName();
+
+      if ("put".equals(name))
+        _putList.add(args[1]);
+      else if ("hashCode".equals(name))
+        return System.identityHashCode(proxy);
+      else if ("equals".equals(name))
+        return proxy == args[0];
+
+      Class<?> type = method.getReturnType();
+
+      if (type == boolean.class)
+        return Boolean.FALSE;
+      else if (type == int.class)
+        return 0;
+      else
+        return null;
+    }
+  }
+}
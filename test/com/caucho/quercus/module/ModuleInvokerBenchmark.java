@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.module;
+
+import java.lang.reflect.Method;
+
+/**
+ * Compares reflective and generated dispatch of a module builtin.
+ *
+ * Run with: java com.caucho.quercus.module.ModuleInvokerBenchmark
+ */
+public class ModuleInvokerBenchmark {
+  private static final int WARMUP = 5;
+  private static final int ROUNDS = 10;
+  private static final int CALLS = 10 * 1000 * 1000;
+  private static final int ARG_SETS = 1024;
+
+  public static void main(String []args)
+    throws Exception
+  {
+    BenchModule module = new BenchModule();
+    Method method = BenchModule.class.getMethod("add", long.class, long.class);
+    ModuleInvoker invoker = ModuleInvokerGenerator.create(method);
+
+    // distinct boxed arguments so the loop can't be folded
+    Object [][]javaArgs = new Object[ARG_SETS][];
+
+    for (int i = 0; i < ARG_SETS; i++) {
+      javaArgs[i] = new Object[] { Long.valueOf(i), Long.valueOf(i + 1) };
+    }
+
+    for (int i = 0; i < WARMUP; i++) {
+      runReflect(method, module, javaArgs);
+      runInvoker(invoker, module, javaArgs);
+    }
+
+    long reflectTime = 0;
+    long invokerTime = 0;
+
+    for (int i = 0; i < ROUNDS; i++) {
+      reflectTime += runReflect(method, module, javaArgs);
+      invokerTime += runInvoker(invoker, module, javaArgs);
+    }
+
+    long calls = (long) ROUNDS * CALLS;
+
+    System.out.println("Method.invoke: "
+                       + (reflectTime / (double) calls) + " ns/call");
+    System.out.println("ModuleInvoker: "
+                       + (invokerTime / (double) calls) + " ns/call");
+    System.out.println("sink: " + module._sink);
+  }
+
+  private static long runReflect(Method method,
+                                 BenchModule module,
+                                 Object [][]args)
+    throws Exception
+  {
+    long start = System.nanoTime();
+    long sum = 0;
+
+    for (int i = 0; i < CALLS; i++) {
+      sum += (Long) method.invoke(module, args[i & (ARG_SETS - 1)]);
+    }
+
+    module._sink += sum;
+
+    return System.nanoTime() - start;
+  }
+
+  private static long runInvoker(ModuleInvoker invoker,
+                                 BenchModule module,
+                                 Object [][]args)
+  {
+    long start = System.nanoTime();
+    long sum = 0;
+
+    for (int i = 0; i < CALLS; i++) {
+      sum += (Long) invoker.invoke(module, args[i & (ARG_SETS - 1)]);
+    }
+
+    module._sink += sum;
+
+    return System.nanoTime() - start;
+  }
+
+  public static class BenchModule extends AbstractQuercusModule {
+    long _sink;
+
+    public long add(long a, long b)
+    {
+      return a + b;
+    }
+  }
+}
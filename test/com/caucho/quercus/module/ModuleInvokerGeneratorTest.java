@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+public class ModuleInvokerGeneratorTest {
+  @Test
+  public void testPrimitiveArgsAndReturn()
+    throws Exception
+  {
+    ModuleInvoker invoker = create("add", int.class, long.class, double.class);
+
+    Object result = invoker.invoke(new TestModule(),
+                                   new Object[] { 3, 5L, 1.5 });
+
+    assertEquals(Long.valueOf(9), result);
+  }
+
+  @Test
+  public void testStatic()
+    throws Exception
+  {
+    ModuleInvoker invoker = create("concat",
+                                   String.class, char.class, boolean.class);
+
+    assertEquals("ax-true",
+                 invoker.invoke(null, new Object[] { "a", 'x', true }));
+  }
+
+  @Test
+  public void testVoidAndArray()
+    throws Exception
+  {
+    TestModule module = new TestModule();
+    int []values = new int[] { 1, 2, 3 };
+
+    ModuleInvoker invoker = create("sum", int[].class);
+
+    assertNull(invoker.invoke(module, new Object[] { values }));
+    assertEquals(6, module._sum);
+  }
+
+  @Test
+  public void testCheckedExceptionPassesThrough()
+    throws Exception
+  {
+    ModuleInvoker invoker = create("fail");
+
+    try {
+      invoker.invoke(new TestModule(), new Object[0]);
+      fail();
+    } catch (Exception e) {
+      assertTrue(e instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testNonPublicSignature()
+    throws Exception
+  {
+    Method method = TestModule.class.getMethod("helper");
+
+    assertFalse(ModuleInvokerGenerator.isSupported(method));
+  }
+
+  private static ModuleInvoker create(String name, Class<?> ...types)
+    throws Exception
+  {
+    Method method = TestModule.class.getMethod(name, types);
+
+    assertTrue(ModuleInvokerGenerator.isSupported(method));
+
+    return ModuleInvokerGenerator.create(method);
+  }
+
+  public static class TestModule extends AbstractQuercusModule {
+    int _sum;
+
+    public long add(int a, long b, double c)
+    {
+      return a + b + (long) c;
+    }
+
+    public static String concat(String a, char c, boolean isTrue)
+    {
+      return a + c + "-" + isTrue;
+    }
+
+    public void sum(int []values)
+    {
+      for (int value : values) {
+        _sum += value;
+      }
+    }
+
+    public int fail()
+      throws IOException
+    {
+      throw new IOException("fail");
+    }
+
+    public Helper helper()
+    {
+      return null;
+    }
+  }
+
+  static class Helper {
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.caucho.quercus.QuercusEngine;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.ConstStringValue;
+import com.caucho.quercus.env.LongValue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+/**
+ * A streamed echo of json_encode() or serialize() must not interleave
+ * output from user callbacks.
+ */
+public class PrintFunctionTest {
+  @Test
+  public void testJsonEncodeStreamed()
+    throws Exception
+  {
+    assertEquals("[1,{\"a\":\"b\"}]",
+                 run("echo json_encode(array(1, array('a' => 'b')));"));
+  }
+
+  @Test
+  public void testJsonSerializeEcho()
+    throws Exception
+  {
+    assertEquals("X[1,{\"a\":2}]",
+                 run("class Foo implements JsonSerializable {"
+                     + "  function jsonSerialize() {"
+                     + "    echo 'X'; return array('a' => 2);"
+                     + "  }"
+                     + "}"
+                     + "echo json_encode(array(1, new Foo()));"));
+  }
+
+  @Test
+  public void testSerializeStreamed()
+    throws Exception
+  {
+    assertEquals("a:2:{i:0;i:1;s:1:\"a\";s:1:\"b\";}",
+                 run("echo serialize(array(1, 'a' => 'b'));"));
+  }
+
+  @Test
+  public void testSleepEcho()
+    throws Exception
+  {
+    assertEquals("Sa:2:{i:0;i:1;i:1;O:3:\"Foo\":1:{s:1:\"a\";i:2;}}",
+                 run("class Foo {"
+                     + "  public $a = 2;"
+                     + "  function __sleep() { echo 'S'; return array('a'); }"
+                     + "}"
+                     + "echo serialize(array(1, new Foo()));"));
+  }
+
+  @Test
+  public void testIsPrintSafe()
+  {
+    ArrayValueImpl array = new ArrayValueImpl();
+    array.append(LongValue.create(1));
+    array.append(new ConstStringValue("a"), new ConstStringValue("b"));
+
+    assertTrue(AbstractQuercusModule.isPrintSafe(array));
+
+    ArrayValueImpl deep = new ArrayValueImpl();
+
+    for (int i = 0; i < 100; i++) {
+      ArrayValueImpl outer = new ArrayValueImpl();
+      outer.append(deep);
+
+      deep = outer;
+    }
+
+    assertFalse(AbstractQuercusModule.isPrintSafe(deep));
+  }
+
+  private static String run(String code)
+    throws Exception
+  {
+    QuercusEngine engine = new QuercusEngine();
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+    engine.setOutputStream(os);
+    engine.execute("<?php " + code);
+
+    return os.toString("iso-8859-1");
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.page;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.Vfs;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PagePrecompilerTest {
+  private QuercusContext _quercus;
+  private PageManager _pageManager;
+  private File _dir;
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    _dir = File.createTempFile("precompile", "");
+    _dir.delete();
+    _dir.mkdirs();
+
+    _quercus = new QuercusContext();
+    _quercus.init();
+    _quercus.start();
+
+    _pageManager = new PageManager(_quercus);
+  }
+
+  @After
+  public void tearDown()
+    throws Exception
+  {
+    _pageManager.close();
+    _quercus.close();
+
+    Vfs.lookup(_dir.getAbsolutePath()).removeAll();
+  }
+
+  @Test
+  public void testSymlinkLoop()
+    throws Exception
+  {
+    File sub = new File(_dir, "sub");
+    sub.mkdirs();
+
+    write(new File(_dir, "a.php"));
+    write(new File(sub, "b.php"));
+
+    // sub/loop points back at the root
+    Files.createSymbolicLink(new File(sub, "loop").toPath(), _dir.toPath());
+
+    Map<String,Long> timeMap = precompile(2);
+
+    assertEquals(2, timeMap.size());
+  }
+
+  @Test
+  public void testStopsAtCacheCapacity()
+    throws Exception
+  {
+    for (int i = 0; i < 5; i++) {
+      write(new File(_dir, "page" + i + ".php"));
+    }
+
+    _pageManager.setPageCacheSize(3);
+
+    Map<String,Long> timeMap = precompile(2);
+
+    assertEquals(3, timeMap.size());
+
+    ProgramLruCache cache = _pageManager.getProgramCache();
+
+    // nothing precompiled was evicted by the rest of the walk
+    assertEquals(3, cache.getEntryCount());
+    assertEquals(0, cache.getEvictCount());
+
+    for (String name : timeMap.keySet()) {
+      assertTrue(cache.get(Vfs.lookup(name)) != null);
+    }
+  }
+
+  @Test
+  public void testClosedPageManagerSkipped()
+    throws Exception
+  {
+    write(new File(_dir, "a.php"));
+
+    _pageManager.close();
+
+    assertTrue(precompile(2).isEmpty());
+  }
+
+  /**
+   * Workers parse with the caller's context loader, so classes the
+   * web-app loads are visible.
+   */
+  @Test
+  public void testWorkersUseCallerLoader()
+    throws Exception
+  {
+    ClassLoader loader = new URLClassLoader(new URL[0]);
+
+    ForkJoinPool pool
+      = new ForkJoinPool(1, new PagePrecompiler.WorkerThreadFactory(loader),
+                         null, false);
+
+    try {
+      Thread thread = pool.submit(new Callable<Thread>() {
+          public Thread call()
+          {
+            return Thread.currentThread();
+          }
+        }).get();
+
+      assertSame(loader, thread.getContextClassLoader());
+      assertTrue(thread.isDaemon());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private Map<String,Long> precompile(int threads)
+  {
+    PagePrecompiler precompiler = new PagePrecompiler(_pageManager);
+    precompiler.setThreads(threads);
+
+    ArrayList<Path> roots = new ArrayList<Path>();
+    roots.add(Vfs.lookup(_dir.getAbsolutePath()));
+
+    return precompiler.precompile(roots);
+  }
+
+  private static void write(File file)
+    throws Exception
+  {
+    FileWriter out = new FileWriter(file);
+
+    try {
+      out.write("<?php echo '" + file.getName() + "';\n");
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.page;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.parser.QuercusParser;
+import com.caucho.quercus.program.QuercusProgram;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProgramCacheTest {
+  private QuercusContext _quercus;
+  private Path _dir;
+  private ProgramCache _cache;
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    File dir = File.createTempFile("program-cache", "");
+    dir.delete();
+    dir.mkdirs();
+
+    _dir = Vfs.lookup(dir.getAbsolutePath());
+
+    _quercus = new QuercusContext();
+    _quercus.init();
+    _quercus.start();
+
+    _cache = new ProgramCache(_quercus, _dir.lookup("cache"));
+  }
+
+  @After
+  public void tearDown()
+    throws Exception
+  {
+    _cache.close();
+    _quercus.close();
+
+    _dir.removeAll();
+  }
+
+  @Test
+  public void testStoreAndLoad()
+    throws Exception
+  {
+    Path path = writeScript("a.php", "<?php function f() { return 3; }");
+
+    _cache.store(path, parse(path));
+    _cache.flush();
+
+    QuercusProgram program = _cache.load(path);
+
+    assertNotNull(program);
+    assertEquals(1, program.getFunctionList().size());
+  }
+
+  @Test
+  public void testChangedSourceIsMiss()
+    throws Exception
+  {
+    Path path = writeScript("b.php", "<?php echo 1;");
+
+    _cache.store(path, parse(path));
+    _cache.flush();
+
+    writeScript("b.php", "<?php echo 22;");
+
+    assertNull(_cache.load(path));
+  }
+
+  @Test
+  public void testStoreAfterClose()
+    throws Exception
+  {
+    Path path = writeScript("c.php", "<?php echo 1;");
+
+    _cache.close();
+    _cache.store(path, parse(path));
+
+    assertNull(_cache.load(path));
+    assertFalse(_dir.lookup("cache").exists()
+                && _dir.lookup("cache").list().length > 0);
+  }
+
+  private Path writeScript(String name, String code)
+    throws Exception
+  {
+    Path path = _dir.lookup(name);
+    WriteStream out = path.openWrite();
+
+    try {
+      out.print(code);
+    } finally {
+      out.close();
+    }
+
+    return path;
+  }
+
+  private QuercusProgram parse(Path path)
+    throws Exception
+  {
+    return QuercusParser.parse(_quercus, path,
+                               _quercus.getScriptEncoding(), null, -1);
+  }
+}
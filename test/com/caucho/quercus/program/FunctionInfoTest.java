@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.program;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.caucho.quercus.env.ConstStringValue;
+import com.caucho.quercus.env.EnvVar;
+import com.caucho.quercus.env.EnvVarImpl;
+import com.caucho.quercus.env.LocalSymbolMap;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Var;
+import com.caucho.quercus.expr.VarInfo;
+
+import org.junit.Test;
+
+public class FunctionInfoTest {
+  @Test
+  public void testCopyRebindsVariables()
+  {
+    FunctionInfo info = new FunctionInfo(null, null, "f");
+
+    StringValue a = new ConstStringValue("a");
+    StringValue b = new ConstStringValue("b");
+
+    info.createVar(a);
+    info.createVar(b);
+
+    FunctionInfo copy = info.copy();
+
+    assertEquals(2, copy.getVarCount());
+
+    for (int i = 0; i < 2; i++) {
+      VarInfo var = copy.getVar(i);
+
+      assertSame(copy, var.getFunction());
+      assertNotSame(info.getVar(i), var);
+      assertEquals(info.getVar(i).getName(), var.getName());
+      assertEquals(i, var.getIndex());
+    }
+
+    assertSame(copy.getVar(1), copy.createVar(b));
+    assertSame(info, info.getVar(0).getFunction());
+  }
+
+  @Test
+  public void testCopyFrameFindsSlots()
+  {
+    FunctionInfo info = new FunctionInfo(null, null, "f");
+
+    StringValue a = new ConstStringValue("a");
+
+    info.createVar(a);
+
+    FunctionInfo copy = info.copy();
+
+    LocalSymbolMap map = new LocalSymbolMap(copy);
+    EnvVar envVar = new EnvVarImpl(new Var());
+
+    map.put(a, envVar);
+
+    assertSame(envVar, map.getSlot(copy.getVar(0)));
+
+    // the original's variable isn't part of the copy's frame
+    assertNull(map.getSlot(info.getVar(0)));
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.program;
+
+import static org.junit.Assert.assertEquals;
+
+import com.caucho.quercus.QuercusEngine;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Local variables of interpreted functions, held in slot frames.
+ */
+public class FunctionLocalsTest {
+  @Test
+  public void testUnsetLocal()
+    throws Exception
+  {
+    assertEquals("unset|5",
+                 run("$x = 5;"
+                     + "function f() {"
+                     + "  $x = 1;"
+                     + "  unset($x);"
+                     + "  return isset($x) ? 'set' : 'unset';"
+                     + "}"
+                     + "echo f() . '|' . $x;"));
+  }
+
+  @Test
+  public void testUnsetSuperglobalStaysLocal()
+    throws Exception
+  {
+    assertEquals("1",
+                 run("$_GET['a'] = 1;"
+                     + "function f() { unset($_GET); }"
+                     + "f();"
+                     + "echo count($_GET);"));
+  }
+
+  @Test
+  public void testVariableVariables()
+    throws Exception
+  {
+    assertEquals("1,2,3|a,b,c",
+                 run("function f() {"
+                     + "  $a = 1;"
+                     + "  $name = 'b';"
+                     + "  $$name = 2;"
+                     + "  extract(array('c' => 3));"
+                     + "  $vars = compact('a', 'b', 'c');"
+                     + "  return implode(',', $vars) . '|'"
+                     + "    . implode(',', array_keys($vars));"
+                     + "}"
+                     + "echo f();"));
+  }
+
+  @Test
+  public void testDefinedVars()
+    throws Exception
+  {
+    assertEquals("p,q,r",
+                 run("function f($p) {"
+                     + "  $q = 2;"
+                     + "  ${'r'} = 3;"
+                     + "  return implode(',', array_keys(get_defined_vars()));"
+                     + "}"
+                     + "echo f(1);"));
+  }
+
+  @Test
+  public void testRecursionKeepsFrames()
+    throws Exception
+  {
+    assertEquals("3:2:1:0",
+                 run("function f($n) {"
+                     + "  $s = (string) $n;"
+                     + "  if ($n > 0)"
+                     + "    $s .= ':' . f($n - 1);"
+                     + "  return $s;"
+                     + "}"
+                     + "echo f(3);"));
+  }
+
+  private static String run(String code)
+    throws Exception
+  {
+    QuercusEngine engine = new QuercusEngine();
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+    engine.setOutputStream(os);
+    engine.execute("<?php " + code);
+
+    return os.toString("iso-8859-1");
+  }
+}
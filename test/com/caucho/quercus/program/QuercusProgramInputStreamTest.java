@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.program;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.Var;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class QuercusProgramInputStreamTest {
+  @Test
+  public void testLiteralValues()
+    throws Exception
+  {
+    ArrayList<Object> list = new ArrayList<Object>();
+    list.add(LongValue.create(17));
+    list.add(LongValue.create(1L << 40));
+
+    assertEquals(list, read(list));
+  }
+
+  @Test
+  public void testJdkClassRejected()
+    throws Exception
+  {
+    assertRejected(new Date());
+  }
+
+  @Test
+  public void testRuntimeValueRejected()
+    throws Exception
+  {
+    // Var is serializable but never part of a parsed AST
+    assertRejected(new Var(LongValue.create(1)));
+  }
+
+  @Test
+  public void testNestedRejected()
+    throws Exception
+  {
+    ArrayList<Object> list = new ArrayList<Object>();
+    list.add(new Date());
+
+    assertRejected(list);
+  }
+
+  @Test
+  public void testProxyRejected()
+    throws Exception
+  {
+    Object proxy
+      = Proxy.newProxyInstance(QuercusProgramInputStreamTest.class.getClassLoader(),
+                               new Class[] { Runnable.class },
+                               new Handler());
+
+    assertRejected(proxy);
+  }
+
+  private static void assertRejected(Object value)
+    throws Exception
+  {
+    try {
+      read(value);
+      fail("expected " + value.getClass().getName() + " to be rejected");
+    } catch (InvalidClassException e) {
+    }
+  }
+
+  private static Object read(Object value)
+    throws IOException, ClassNotFoundException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bos);
+
+    out.writeObject(value);
+    out.close();
+
+    QuercusProgramInputStream in
+      = new QuercusProgramInputStream(new ByteArrayInputStream(bos.toByteArray()),
+                                      null, null);
+
+    try {
+      return in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  static class Handler implements InvocationHandler, Serializable {
+    public Object invoke(Object proxy, Method method, Object []args)
+    {
+      return null;
+    }
+  }
+}